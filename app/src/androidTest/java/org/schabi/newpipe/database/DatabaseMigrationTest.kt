@@ -10,6 +10,7 @@ import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
 import org.junit.Rule
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -28,6 +29,10 @@ class DatabaseMigrationTest {
 
         private const val DEFAULT_SECOND_SERVICE_ID = 0
         private const val DEFAULT_SECOND_URL = "https://www.youtube.com/watch?v=ncQU6iBn5Fc"
+
+        private const val DEFAULT_SUBSCRIPTION_ID = 1L
+        private const val DEFAULT_CHANNEL_URL = "https://www.youtube.com/channel/test"
+        private const val DEFAULT_LAST_UPDATED = 1600000000000L
     }
 
     @get:Rule
@@ -118,6 +123,79 @@ class DatabaseMigrationTest {
         assertNull(secondStreamFromMigratedDatabase.isUploadDateApproximation)
     }
 
+    @Test
+    fun migrateDatabaseFrom6to7() {
+        val databaseInV6 = testHelper.createDatabase(AppDatabase.DATABASE_NAME, Migrations.DB_VER_6)
+
+        databaseInV6.run {
+            insert(
+                "subscriptions", SQLiteDatabase.CONFLICT_FAIL,
+                ContentValues().apply {
+                    put("uid", DEFAULT_SUBSCRIPTION_ID)
+                    put("service_id", DEFAULT_SERVICE_ID)
+                    put("url", DEFAULT_CHANNEL_URL)
+                    put("notification_mode", 0)
+                }
+            )
+            insert(
+                "feed_last_updated", SQLiteDatabase.CONFLICT_FAIL,
+                ContentValues().apply {
+                    put("subscription_id", DEFAULT_SUBSCRIPTION_ID)
+                    put("last_updated", DEFAULT_LAST_UPDATED)
+                }
+            )
+            close()
+        }
+
+        val migratedDatabase = testHelper.runMigrationsAndValidate(
+            AppDatabase.DATABASE_NAME, Migrations.DB_VER_7,
+            true, Migrations.MIGRATION_6_7
+        )
+
+        migratedDatabase.query(
+            "SELECT subscription_id, last_updated, newest_upload_date, streams_hash " +
+                "FROM feed_last_updated"
+        ).use { cursor ->
+            assertEquals(1, cursor.count)
+            assertTrue(cursor.moveToFirst())
+
+            // the existing rows are kept, without a watermark the next update writes everything
+            assertEquals(DEFAULT_SUBSCRIPTION_ID, cursor.getLong(0))
+            assertEquals(DEFAULT_LAST_UPDATED, cursor.getLong(1))
+            assertTrue(cursor.isNull(2))
+            assertTrue(cursor.isNull(3))
+        }
+    }
+
+    @Test
+    fun migrateDatabaseFrom7to8() {
+        testHelper.createDatabase(AppDatabase.DATABASE_NAME, Migrations.DB_VER_7).close()
+
+        val migratedDatabase = testHelper.runMigrationsAndValidate(
+            AppDatabase.DATABASE_NAME, Migrations.DB_VER_8,
+            true, Migrations.MIGRATION_7_8
+        )
+
+        migratedDatabase.query(
+            "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'streams'"
+        ).use { cursor ->
+            val indices = ArrayList<String>()
+            while (cursor.moveToNext()) {
+                indices.add(cursor.getString(0))
+            }
+            assertTrue(indices.contains("index_streams_upload_date_uid"))
+        }
+
+        // the order of the columns matters, the feed is sorted by upload date and then by uid
+        migratedDatabase.query("PRAGMA index_info(`index_streams_upload_date_uid`)").use { cursor ->
+            val columns = ArrayList<String>()
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(cursor.getColumnIndexOrThrow("name")))
+            }
+            assertEquals(listOf("upload_date", "uid"), columns)
+        }
+    }
+
     private fun getMigratedDatabase(): AppDatabase {
         val database: AppDatabase = Room.databaseBuilder(
             ApplicationProvider.getApplicationContext(),
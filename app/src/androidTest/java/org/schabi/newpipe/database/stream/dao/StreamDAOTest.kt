@@ -0,0 +1,121 @@
+package org.schabi.newpipe.database.stream.dao
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Before
+import org.junit.Test
+import org.schabi.newpipe.database.AppDatabase
+import org.schabi.newpipe.database.stream.model.StreamEntity
+import org.schabi.newpipe.extractor.stream.StreamType
+import org.schabi.newpipe.testUtil.TestDatabase
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+
+class StreamDAOTest {
+
+    private lateinit var database: AppDatabase
+    private lateinit var dao: StreamDAO
+
+    @Before
+    fun setup() {
+        database = TestDatabase.createReplacingNewPipeDatabase()
+        dao = database.streamDAO()
+    }
+
+    @After
+    fun cleanUp() {
+        database.close()
+    }
+
+    @Test
+    fun upsertAll_manyExistingStreams() {
+        // more existing streams than fit in a single lookup
+        val existing = (0 until 1000).map { stream(0, it) }
+        val existingIds = dao.upsertAll(existing)
+        assertThat(existingIds).doesNotHaveDuplicates()
+
+        val streams = (0 until 1100).map { stream(0, it, "Updated $it") }.shuffled()
+        val streamIds = dao.upsertAll(streams)
+
+        assertEquals(streams.size, streamIds.size)
+        streams.forEachIndexed { index, stream ->
+            val id = idOf(stream.url)
+            if (id < existing.size) {
+                assertEquals(existingIds[id], streamIds[index])
+            } else {
+                assertThat(existingIds).doesNotContain(streamIds[index])
+            }
+            assertEquals(streamIds[index], stream.uid)
+        }
+
+        val stored = dao.all.blockingFirst()
+        assertEquals(1100, stored.size)
+        assertThat(stored).allMatch { it.title == "Updated ${idOf(it.url)}" }
+    }
+
+    @Test
+    fun upsertAll_duplicateUrls() {
+        val streams = listOf(
+            stream(0, 1, "First"),
+            stream(0, 2),
+            stream(0, 1, "Second"),
+            // same url, but from another service
+            stream(1, 1, "Other service")
+        )
+
+        val streamIds = dao.upsertAll(streams)
+
+        assertEquals(4, streamIds.size)
+        assertEquals(streamIds[0], streamIds[2])
+        assertNotEquals(streamIds[0], streamIds[1])
+        assertNotEquals(streamIds[0], streamIds[3])
+
+        assertEquals(3, dao.all.blockingFirst().size)
+        assertEquals("Second", dao.getStream(0, url(1)).blockingFirst().single().title)
+        assertEquals("Other service", dao.getStream(1, url(1)).blockingFirst().single().title)
+    }
+
+    @Test
+    fun upsertAll_keepsExactUploadDate() {
+        val uploadDate = OffsetDateTime.of(2020, 1, 1, 12, 0, 0, 0, ZoneOffset.UTC)
+        dao.upsertAll(
+            listOf(
+                stream(0, 1).apply {
+                    this.uploadDate = uploadDate
+                    isUploadDateApproximation = false
+                }
+            )
+        )
+
+        // an approximated upload date does not replace the exact one
+        dao.upsertAll(
+            listOf(
+                stream(0, 1).apply {
+                    this.uploadDate = uploadDate.plusDays(1)
+                    isUploadDateApproximation = true
+                }
+            )
+        )
+
+        val stored = dao.getStream(0, url(1)).blockingFirst().single()
+        assertEquals(uploadDate, stored.uploadDate)
+        assertEquals(false, stored.isUploadDateApproximation)
+    }
+
+    companion object {
+        private const val URL_PREFIX = "https://www.youtube.com/watch?v="
+
+        private fun url(id: Int) = "$URL_PREFIX$id"
+
+        private fun idOf(url: String) = url.removePrefix(URL_PREFIX).toInt()
+
+        private fun stream(serviceId: Int, id: Int, title: String = "Stream $id"): StreamEntity {
+            return StreamEntity(
+                serviceId = serviceId, url = url(id), title = title,
+                streamType = StreamType.VIDEO_STREAM, duration = 60, uploader = "Uploader"
+            )
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.schabi.newpipe.local.feed
+
+import androidx.test.core.app.ApplicationProvider
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.schabi.newpipe.database.AppDatabase
+import org.schabi.newpipe.database.feed.model.FeedEntity
+import org.schabi.newpipe.database.stream.StreamWithState
+import org.schabi.newpipe.database.stream.model.StreamEntity
+import org.schabi.newpipe.database.subscription.SubscriptionEntity
+import org.schabi.newpipe.extractor.localization.DateWrapper
+import org.schabi.newpipe.extractor.stream.StreamInfoItem
+import org.schabi.newpipe.extractor.stream.StreamType
+import org.schabi.newpipe.testUtil.TestDatabase
+import org.schabi.newpipe.testUtil.TrampolineSchedulerRule
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+import java.time.temporal.ChronoUnit
+
+class FeedDatabaseManagerTest {
+
+    private lateinit var manager: FeedDatabaseManager
+    private lateinit var database: AppDatabase
+    private var subscriptionId = 0L
+
+    @get:Rule
+    val trampolineScheduler = TrampolineSchedulerRule()
+
+    @Before
+    fun setup() {
+        database = TestDatabase.createReplacingNewPipeDatabase()
+        manager = FeedDatabaseManager(ApplicationProvider.getApplicationContext())
+
+        subscriptionId = database.subscriptionDAO().insert(
+            SubscriptionEntity().apply {
+                serviceId = 0
+                url = "https://www.youtube.com/channel/UC_x5XG1OV2P6uZZ5FSM9Ttw"
+                name = "Channel"
+            }
+        )
+    }
+
+    @After
+    fun cleanUp() {
+        database.close()
+    }
+
+    @Test
+    fun firstUpdateWritesEverything() {
+        val items = listOf(item(1, 3), item(2, 2), item(3, 1))
+
+        val newStreams = manager.upsertAll(subscriptionId, items)
+
+        assertThat(newStreams).containsExactlyElementsOf(items)
+        assertThat(feedUrls()).containsExactlyInAnyOrder(*items.map { it.url }.toTypedArray())
+
+        val lastUpdated = database.feedDAO().getLastUpdated(subscriptionId)!!
+        assertEquals(uploadDate(1), lastUpdated.newestUploadDate)
+        assertThat(lastUpdated.streamsHash).isNotNull()
+    }
+
+    @Test
+    fun sameStreamsOnlyWriteUpdateTime() {
+        manager.upsertAll(subscriptionId, listOf(item(1, 2), item(2, 1)))
+        val before = database.feedDAO().getLastUpdated(subscriptionId)!!
+
+        // the streams did not change, so the new title is not written
+        val newStreams = manager.upsertAll(
+            subscriptionId, listOf(item(1, 2, "Renamed"), item(2, 1, "Renamed"))
+        )
+
+        assertThat(newStreams).isEmpty()
+        assertEquals("Stream 1", title(1))
+        assertEquals("Stream 2", title(2))
+
+        val after = database.feedDAO().getLastUpdated(subscriptionId)!!
+        assertThat(after.lastUpdated).isAfterOrEqualTo(before.lastUpdated)
+        assertEquals(before.newestUploadDate, after.newestUploadDate)
+        assertEquals(before.streamsHash, after.streamsHash)
+    }
+
+    @Test
+    fun onlyStreamsAfterWatermarkAreWritten() {
+        manager.upsertAll(subscriptionId, listOf(item(1, 3), item(2, 2)))
+
+        val newStreams = manager.upsertAll(
+            subscriptionId, listOf(item(1, 3, "Renamed"), item(2, 2, "Renamed"), item(3, 1))
+        )
+
+        assertThat(newStreams.map { it.url }).containsExactly(url(3))
+        assertThat(feedUrls()).containsExactlyInAnyOrder(url(1), url(2), url(3))
+
+        // the streams before the watermark are already in the database and are not written
+        assertEquals("Stream 1", title(1))
+        assertEquals("Stream 2", title(2))
+        assertEquals("Stream 3", title(3))
+        assertEquals(
+            uploadDate(1), database.feedDAO().getLastUpdated(subscriptionId)!!.newestUploadDate
+        )
+    }
+
+    @Test
+    fun outdatedSubscriptionWritesEverything() {
+        manager.upsertAll(subscriptionId, listOf(item(1, 2), item(2, 1)))
+        manager.markAsOutdated(subscriptionId)
+
+        val lastUpdated = database.feedDAO().getLastUpdated(subscriptionId)!!
+        assertNull(lastUpdated.newestUploadDate)
+        assertNull(lastUpdated.streamsHash)
+
+        // without a watermark every stream is written again
+        val newStreams = manager.upsertAll(
+            subscriptionId, listOf(item(1, 2, "Renamed"), item(2, 1, "Renamed"))
+        )
+
+        assertThat(newStreams).isEmpty()
+        assertEquals("Renamed", title(1))
+        assertEquals("Renamed", title(2))
+    }
+
+    @Test
+    fun endedLiveStreamIsWrittenAgain() {
+        val live = StreamInfoItem(0, url(2), "Stream 2", StreamType.LIVE_STREAM)
+        manager.upsertAll(subscriptionId, listOf(item(1, 3), live, item(3, 1)))
+        assertThat(feedUrls()).containsExactlyInAnyOrder(url(1), url(2), url(3))
+
+        // the ended live comes back as a video, dated before the newest upload of the channel
+        val newStreams = manager.upsertAll(
+            subscriptionId, listOf(item(1, 3), item(2, 2), item(3, 1))
+        )
+
+        assertThat(newStreams).isEmpty()
+        assertThat(feedUrls()).containsExactlyInAnyOrder(url(1), url(2), url(3))
+
+        val stored = database.streamDAO().getStream(0, url(2)).blockingFirst().single()
+        assertEquals(StreamType.VIDEO_STREAM, stored.streamType)
+        assertEquals(uploadDate(2), stored.uploadDate)
+    }
+
+    @Test
+    fun pagesWalkAcrossStreamsWithoutUploadDate() {
+        // inserted out of order, so that the uids do not follow the upload dates, and with
+        // streams sharing an upload date, ordered by uid
+        val streams = listOf(
+            stream(1, 2), stream(2, null), stream(3, 5), stream(4, 2), stream(5, null),
+            stream(6, 1), stream(7, 5), stream(8, null), stream(9, 3)
+        )
+        val streamIds = database.streamDAO().insertAll(streams)
+        database.feedDAO().insertAll(streamIds.map { FeedEntity(it, subscriptionId) })
+        streams.forEachIndexed { index, stream -> stream.uid = streamIds[index] }
+
+        val expected = streams.filter { it.uploadDate == null }.sortedByDescending { it.uid } +
+            streams.filter { it.uploadDate != null }.sortedWith(
+                compareByDescending<StreamEntity> { it.uploadDate }.thenByDescending { it.uid }
+            )
+
+        for (played in listOf(true, false)) {
+            for (limit in 1..streams.size + 1) {
+                val pages = ArrayList<List<StreamWithState>>()
+                var after: StreamEntity? = null
+                do {
+                    val page = manager
+                        .getStreams(getPlayedStreams = played, after = after, limit = limit)
+                        .blockingGet()
+                    assertThat(page.size).isLessThanOrEqualTo(limit)
+                    pages.add(page)
+                    after = page.lastOrNull()?.stream
+                } while (page.size == limit)
+
+                assertEquals(expected.map { it.url }, pages.flatten().map { it.stream.url })
+            }
+        }
+    }
+
+    private fun feedUrls(): List<String> {
+        return manager.getStreams(limit = Int.MAX_VALUE)
+            .blockingGet()
+            .map { it.stream.url }
+    }
+
+    private fun title(id: Int): String {
+        return database.streamDAO().getStream(0, url(id)).blockingFirst().single().title
+    }
+
+    companion object {
+        private val NOW = OffsetDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.MILLIS)
+
+        private fun url(id: Int) = "https://www.youtube.com/watch?v=$id"
+
+        private fun uploadDate(daysAgo: Long): OffsetDateTime = NOW.minusDays(daysAgo)
+
+        private fun stream(id: Int, daysAgo: Long?): StreamEntity {
+            return StreamEntity(
+                serviceId = 0, url = url(id), title = "Stream $id",
+                streamType = StreamType.VIDEO_STREAM, duration = 60, uploader = "Uploader",
+                uploadDate = daysAgo?.let { uploadDate(it) }
+            )
+        }
+
+        private fun item(id: Int, daysAgo: Long, name: String = "Stream $id"): StreamInfoItem {
+            return StreamInfoItem(0, url(id), name, StreamType.VIDEO_STREAM).apply {
+                uploadDate = DateWrapper(uploadDate(daysAgo))
+            }
+        }
+    }
+}
@@ -8,7 +8,14 @@ import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
 import org.schabi.newpipe.database.AppDatabase
+import org.schabi.newpipe.database.LocalItem
 import org.schabi.newpipe.database.history.model.SearchHistoryEntry
+import org.schabi.newpipe.database.playlist.PlaylistMetadataEntry
+import org.schabi.newpipe.database.stream.StreamStatisticsEntry
+import org.schabi.newpipe.database.stream.model.StreamEntity
+import org.schabi.newpipe.database.stream.model.StreamStateEntity
+import org.schabi.newpipe.extractor.stream.StreamInfoItem
+import org.schabi.newpipe.extractor.stream.StreamType
 import org.schabi.newpipe.testUtil.TestDatabase
 import org.schabi.newpipe.testUtil.TrampolineSchedulerRule
 import java.time.LocalDateTime
@@ -162,7 +169,78 @@ class HistoryRecordManagerTest {
         assertThat(searches).isEqualTo(searches2)
     }
 
+    /**
+     * Inserts [count] streams of each of the two services, with the same urls, and a state for
+     * every other stream.
+     *
+     * @return the states by service id and url
+     */
+    private fun insertStreamsWithStates(count: Int): Map<Pair<Int, String>, StreamStateEntity> {
+        val states = HashMap<Pair<Int, String>, StreamStateEntity>()
+        for (serviceId in 0..1) {
+            val streams = (0 until count).map {
+                StreamEntity(
+                    serviceId = serviceId, url = streamUrl(it), title = "Stream $it",
+                    streamType = StreamType.VIDEO_STREAM, duration = 60, uploader = "Uploader"
+                )
+            }
+            val streamIds = database.streamDAO().insertAll(streams)
+            for (i in streams.indices step 2) {
+                // a different progress for each service, to tell the states apart
+                val state = StreamStateEntity(streamIds[i], i * 10L + serviceId)
+                database.streamStateDAO().insert(state)
+                states[serviceId to streams[i].url] = state
+            }
+        }
+        return states
+    }
+
+    @Test
+    fun loadStreamStateBatch_manyItemsKeepOrder() {
+        val states = insertStreamsWithStates(2000)
+
+        // more than a batch per service, in a random order and with streams not in the database
+        val items = (0 until 2100)
+            .flatMap { i ->
+                (0..1).map { StreamInfoItem(it, streamUrl(i), "", StreamType.VIDEO_STREAM) }
+            }
+            .shuffled()
+
+        val result = manager.loadStreamStateBatch(items).blockingGet()
+
+        assertEquals(items.size, result.size)
+        items.forEachIndexed { index, item ->
+            assertEquals(states[item.serviceId to item.url], result[index])
+        }
+    }
+
+    @Test
+    fun loadLocalStreamStateBatch_manyItemsKeepOrder() {
+        val states = insertStreamsWithStates(1000)
+        val statesByStreamId = states.values.associateBy { it.streamUid }
+
+        val stream = StreamEntity(
+            serviceId = 0, url = streamUrl(0), title = "Stream 0",
+            streamType = StreamType.VIDEO_STREAM, duration = 60, uploader = "Uploader"
+        )
+        // more than a batch, in a random order and with items that are not streams
+        val items: List<LocalItem> = (1L..2100L)
+            .map { StreamStatisticsEntry(stream, 0, it, time, 1) }
+            .plus((0 until 10).map { PlaylistMetadataEntry(it.toLong(), "Playlist", "", 0) })
+            .shuffled()
+
+        val result = manager.loadLocalStreamStateBatch(items).blockingGet()
+
+        assertEquals(items.size, result.size)
+        items.forEachIndexed { index, item ->
+            val expected = (item as? StreamStatisticsEntry)?.let { statesByStreamId[it.streamId] }
+            assertEquals(expected, result[index])
+        }
+    }
+
     companion object {
+        private fun streamUrl(id: Int) = "https://www.youtube.com/watch?v=$id"
+
         private val time = OffsetDateTime.of(LocalDateTime.of(2000, 1, 1, 1, 1), ZoneOffset.UTC)
 
         private val RELATED_SEARCHES_ENTRIES = listOf(
@@ -24,6 +24,8 @@ public final class Migrations {
     public static final int DB_VER_4 = 4;
     public static final int DB_VER_5 = 5;
     public static final int DB_VER_6 = 6;
+    public static final int DB_VER_7 = 7;
+    public static final int DB_VER_8 = 8;
 
     private static final String TAG = Migrations.class.getName();
     public static final boolean DEBUG = MainActivity.DEBUG;
@@ -196,6 +198,23 @@ public final class Migrations {
         }
     };
 
+    public static final Migration MIGRATION_6_7 = new Migration(DB_VER_6, DB_VER_7) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `feed_last_updated` ADD COLUMN `newest_upload_date` "
+                    + "INTEGER");
+            database.execSQL("ALTER TABLE `feed_last_updated` ADD COLUMN `streams_hash` INTEGER");
+        }
+    };
+
+    public static final Migration MIGRATION_7_8 = new Migration(DB_VER_7, DB_VER_8) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_streams_upload_date_uid` "
+                    + "ON `streams` (`upload_date`, `uid`)");
+        }
+    };
+
     private Migrations() {
     }
 }
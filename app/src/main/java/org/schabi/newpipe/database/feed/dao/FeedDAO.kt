@@ -21,6 +21,18 @@ abstract class FeedDAO {
     @Query("DELETE FROM feed")
     abstract fun deleteAll(): Int
 
+    /**
+     * The streams of the feed are paged with a key made of the upload date and the uid of the
+     * last stream of the previous page, so that each page is read from where the previous one
+     * ended instead of skipping the streams before it. The streams without an upload date come
+     * first and are paged by uid alone, then the others from the newest with [getAllStreams].
+     * Both queries are ranges of the streams (upload_date, uid) index.
+     *
+     * @param afterUid the uid of the last stream of the previous page, [Long.MAX_VALUE] for the
+     * first page
+     * @param limit the maximum number of streams of the page
+     * @return a page of the streams in the feed without an upload date
+     */
     @Query(
         """
         SELECT s.*, sst.progress_time
@@ -35,12 +47,60 @@ abstract class FeedDAO {
         INNER JOIN feed f
         ON s.uid = f.stream_id
 
-        ORDER BY s.upload_date IS NULL DESC, s.upload_date DESC, s.uploader ASC
-        LIMIT 500
+        WHERE s.upload_date IS NULL AND s.uid < :afterUid
+
+        ORDER BY s.uid DESC
+        LIMIT :limit
         """
     )
-    abstract fun getAllStreams(): Maybe<List<StreamWithState>>
+    abstract fun getAllStreamsWithoutUploadDate(
+        afterUid: Long,
+        limit: Int
+    ): Maybe<List<StreamWithState>>
 
+    /**
+     * The comparison is the expanded form of `(s.upload_date, s.uid) < (:afterUploadDate,
+     * :afterUid)`, row values are not supported by the SQLite of the older Android versions.
+     *
+     * @param afterUploadDate the upload date of the last stream of the previous page, a date
+     * after all of the streams for the first page
+     * @param afterUid the uid of the last stream of the previous page, [Long.MAX_VALUE] for the
+     * first page
+     * @param limit the maximum number of streams of the page
+     * @return a page of the streams in the feed with an upload date, the newest first
+     * @see getAllStreamsWithoutUploadDate
+     */
+    @Query(
+        """
+        SELECT s.*, sst.progress_time
+        FROM streams s
+
+        LEFT JOIN stream_state sst
+        ON s.uid = sst.stream_id
+
+        LEFT JOIN stream_history sh
+        ON s.uid = sh.stream_id
+
+        INNER JOIN feed f
+        ON s.uid = f.stream_id
+
+        WHERE s.upload_date <= :afterUploadDate
+        AND (s.upload_date < :afterUploadDate OR s.uid < :afterUid)
+
+        ORDER BY s.upload_date DESC, s.uid DESC
+        LIMIT :limit
+        """
+    )
+    abstract fun getAllStreams(
+        afterUploadDate: OffsetDateTime,
+        afterUid: Long,
+        limit: Int
+    ): Maybe<List<StreamWithState>>
+
+    /**
+     * @see getAllStreamsWithoutUploadDate for the paging parameters
+     * @param groupId the group id to get streams of
+     */
     @Query(
         """
         SELECT s.*, sst.progress_time
@@ -59,17 +119,59 @@ abstract class FeedDAO {
         ON fgs.subscription_id = f.subscription_id
 
         WHERE fgs.group_id = :groupId
+        AND s.upload_date IS NULL AND s.uid < :afterUid
 
-        ORDER BY s.upload_date IS NULL DESC, s.upload_date DESC, s.uploader ASC
-        LIMIT 500
+        ORDER BY s.uid DESC
+        LIMIT :limit
         """
     )
-    abstract fun getAllStreamsForGroup(groupId: Long): Maybe<List<StreamWithState>>
+    abstract fun getAllStreamsForGroupWithoutUploadDate(
+        groupId: Long,
+        afterUid: Long,
+        limit: Int
+    ): Maybe<List<StreamWithState>>
+
+    /**
+     * @see getAllStreams for the paging parameters
+     * @param groupId the group id to get streams of
+     */
+    @Query(
+        """
+        SELECT s.*, sst.progress_time
+        FROM streams s
+
+        LEFT JOIN stream_state sst
+        ON s.uid = sst.stream_id
+
+        LEFT JOIN stream_history sh
+        ON s.uid = sh.stream_id
+
+        INNER JOIN feed f
+        ON s.uid = f.stream_id
+
+        INNER JOIN feed_group_subscription_join fgs
+        ON fgs.subscription_id = f.subscription_id
+
+        WHERE fgs.group_id = :groupId
+        AND s.upload_date <= :afterUploadDate
+        AND (s.upload_date < :afterUploadDate OR s.uid < :afterUid)
+
+        ORDER BY s.upload_date DESC, s.uid DESC
+        LIMIT :limit
+        """
+    )
+    abstract fun getAllStreamsForGroup(
+        groupId: Long,
+        afterUploadDate: OffsetDateTime,
+        afterUid: Long,
+        limit: Int
+    ): Maybe<List<StreamWithState>>
 
     /**
      * @see StreamStateEntity.isFinished()
      * @see StreamStateEntity.PLAYBACK_FINISHED_END_MILLISECONDS
-     * @return all of the non-live, never-played and non-finished streams in the feed
+     * @see getAllStreamsWithoutUploadDate for the paging parameters
+     * @return a page of the non-live, never-played and non-finished streams in the feed
      *         (all of the cited conditions must hold for a stream to be in the returned list)
      */
     @Query(
@@ -81,8 +183,8 @@ abstract class FeedDAO {
         ON s.uid = sst.stream_id
 
         LEFT JOIN stream_history sh
-        ON s.uid = sh.stream_id    
-            
+        ON s.uid = sh.stream_id
+
         INNER JOIN feed f
         ON s.uid = f.stream_id
 
@@ -94,18 +196,62 @@ abstract class FeedDAO {
             OR s.stream_type = 'LIVE_STREAM'
             OR s.stream_type = 'AUDIO_LIVE_STREAM'
         )
+        AND s.upload_date IS NULL AND s.uid < :afterUid
 
-        ORDER BY s.upload_date IS NULL DESC, s.upload_date DESC, s.uploader ASC
-        LIMIT 500
+        ORDER BY s.uid DESC
+        LIMIT :limit
         """
     )
-    abstract fun getLiveOrNotPlayedStreams(): Maybe<List<StreamWithState>>
+    abstract fun getLiveOrNotPlayedStreamsWithoutUploadDate(
+        afterUid: Long,
+        limit: Int
+    ): Maybe<List<StreamWithState>>
+
+    /**
+     * @see getLiveOrNotPlayedStreamsWithoutUploadDate
+     * @see getAllStreams for the paging parameters
+     */
+    @Query(
+        """
+        SELECT s.*, sst.progress_time
+        FROM streams s
+
+        LEFT JOIN stream_state sst
+        ON s.uid = sst.stream_id
+
+        LEFT JOIN stream_history sh
+        ON s.uid = sh.stream_id
+
+        INNER JOIN feed f
+        ON s.uid = f.stream_id
+
+        WHERE (
+            sh.stream_id IS NULL
+            OR sst.stream_id IS NULL
+            OR sst.progress_time < s.duration * 1000 - ${StreamStateEntity.PLAYBACK_FINISHED_END_MILLISECONDS}
+            OR sst.progress_time < s.duration * 1000 * 3 / 4
+            OR s.stream_type = 'LIVE_STREAM'
+            OR s.stream_type = 'AUDIO_LIVE_STREAM'
+        )
+        AND s.upload_date <= :afterUploadDate
+        AND (s.upload_date < :afterUploadDate OR s.uid < :afterUid)
+
+        ORDER BY s.upload_date DESC, s.uid DESC
+        LIMIT :limit
+        """
+    )
+    abstract fun getLiveOrNotPlayedStreams(
+        afterUploadDate: OffsetDateTime,
+        afterUid: Long,
+        limit: Int
+    ): Maybe<List<StreamWithState>>
 
     /**
      * @see StreamStateEntity.isFinished()
      * @see StreamStateEntity.PLAYBACK_FINISHED_END_MILLISECONDS
+     * @see getAllStreamsWithoutUploadDate for the paging parameters
      * @param groupId the group id to get streams of
-     * @return all of the non-live, never-played and non-finished streams for the given feed group
+     * @return a page of the non-live, never-played and non-finished streams for the given feed group
      *         (all of the cited conditions must hold for a stream to be in the returned list)
      */
     @Query(
@@ -115,10 +261,52 @@ abstract class FeedDAO {
 
         LEFT JOIN stream_state sst
         ON s.uid = sst.stream_id
-        
+
         LEFT JOIN stream_history sh
         ON s.uid = sh.stream_id
-        
+
+        INNER JOIN feed f
+        ON s.uid = f.stream_id
+
+        INNER JOIN feed_group_subscription_join fgs
+        ON fgs.subscription_id = f.subscription_id
+
+        WHERE fgs.group_id = :groupId
+        AND (
+            sh.stream_id IS NULL
+            OR sst.stream_id IS NULL
+            OR sst.progress_time < s.duration * 1000 - ${StreamStateEntity.PLAYBACK_FINISHED_END_MILLISECONDS}
+            OR sst.progress_time < s.duration * 1000 * 3 / 4
+            OR s.stream_type = 'LIVE_STREAM'
+            OR s.stream_type = 'AUDIO_LIVE_STREAM'
+        )
+        AND s.upload_date IS NULL AND s.uid < :afterUid
+
+        ORDER BY s.uid DESC
+        LIMIT :limit
+        """
+    )
+    abstract fun getLiveOrNotPlayedStreamsForGroupWithoutUploadDate(
+        groupId: Long,
+        afterUid: Long,
+        limit: Int
+    ): Maybe<List<StreamWithState>>
+
+    /**
+     * @see getLiveOrNotPlayedStreamsForGroupWithoutUploadDate
+     * @see getAllStreams for the paging parameters
+     */
+    @Query(
+        """
+        SELECT s.*, sst.progress_time
+        FROM streams s
+
+        LEFT JOIN stream_state sst
+        ON s.uid = sst.stream_id
+
+        LEFT JOIN stream_history sh
+        ON s.uid = sh.stream_id
+
         INNER JOIN feed f
         ON s.uid = f.stream_id
 
@@ -134,12 +322,19 @@ abstract class FeedDAO {
             OR s.stream_type = 'LIVE_STREAM'
             OR s.stream_type = 'AUDIO_LIVE_STREAM'
         )
+        AND s.upload_date <= :afterUploadDate
+        AND (s.upload_date < :afterUploadDate OR s.uid < :afterUid)
 
-        ORDER BY s.upload_date IS NULL DESC, s.upload_date DESC, s.uploader ASC
-        LIMIT 500
+        ORDER BY s.upload_date DESC, s.uid DESC
+        LIMIT :limit
         """
     )
-    abstract fun getLiveOrNotPlayedStreamsForGroup(groupId: Long): Maybe<List<StreamWithState>>
+    abstract fun getLiveOrNotPlayedStreamsForGroup(
+        groupId: Long,
+        afterUploadDate: OffsetDateTime,
+        afterUid: Long,
+        limit: Int
+    ): Maybe<List<StreamWithState>>
 
     @Query(
         """
@@ -196,6 +391,9 @@ abstract class FeedDAO {
         }
     }
 
+    @Query("SELECT * FROM feed_last_updated WHERE subscription_id = :subscriptionId")
+    abstract fun getLastUpdated(subscriptionId: Long): FeedLastUpdatedEntity?
+
     @Query(
         """
         SELECT MIN(lu.last_updated) FROM feed_last_updated lu
@@ -235,6 +433,8 @@ abstract class FeedDAO {
         ON s.uid = lu.subscription_id 
 
         WHERE lu.last_updated IS NULL OR lu.last_updated < :outdatedThreshold
+
+        ORDER BY s.notification_mode DESC, lu.last_updated ASC
         """
     )
     abstract fun getAllOutdated(outdatedThreshold: OffsetDateTime): Flowable<List<SubscriptionEntity>>
@@ -250,6 +450,8 @@ abstract class FeedDAO {
         ON s.uid = lu.subscription_id
 
         WHERE lu.last_updated IS NULL OR lu.last_updated < :outdatedThreshold
+
+        ORDER BY s.notification_mode DESC, lu.last_updated ASC
         """
     )
     abstract fun getAllOutdatedForGroup(groupId: Long, outdatedThreshold: OffsetDateTime): Flowable<List<SubscriptionEntity>>
@@ -264,6 +466,8 @@ abstract class FeedDAO {
         WHERE 
             (lu.last_updated IS NULL OR lu.last_updated < :outdatedThreshold)
             AND s.notification_mode = :notificationMode
+
+        ORDER BY lu.last_updated ASC
         """
     )
     abstract fun getOutdatedWithNotificationMode(
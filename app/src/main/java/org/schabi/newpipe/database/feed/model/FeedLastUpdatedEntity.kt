@@ -26,12 +26,28 @@ data class FeedLastUpdatedEntity(
     var subscriptionId: Long,
 
     @ColumnInfo(name = LAST_UPDATED)
-    var lastUpdated: OffsetDateTime? = null
+    var lastUpdated: OffsetDateTime? = null,
+
+    /**
+     * Upload date of the newest stream seen in the last update, streams uploaded before it
+     * are only written again if they are not in the database.
+     */
+    @ColumnInfo(name = NEWEST_UPLOAD_DATE)
+    var newestUploadDate: OffsetDateTime? = null,
+
+    /**
+     * Hash of the streams seen in the last update, when it did not change there is nothing
+     * to write but the update time.
+     */
+    @ColumnInfo(name = STREAMS_HASH)
+    var streamsHash: Long? = null
 ) {
     companion object {
         const val FEED_LAST_UPDATED_TABLE = "feed_last_updated"
 
         const val SUBSCRIPTION_ID = "subscription_id"
         const val LAST_UPDATED = "last_updated"
+        const val NEWEST_UPLOAD_DATE = "newest_upload_date"
+        const val STREAMS_HASH = "streams_hash"
     }
 }
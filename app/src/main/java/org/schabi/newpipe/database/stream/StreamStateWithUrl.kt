@@ -0,0 +1,18 @@
+package org.schabi.newpipe.database.stream
+
+import androidx.room.ColumnInfo
+import androidx.room.Embedded
+import org.schabi.newpipe.database.stream.model.StreamEntity
+import org.schabi.newpipe.database.stream.model.StreamStateEntity
+
+/**
+ * A [StreamStateEntity] together with the url of the stream it belongs to, used to match the
+ * results of batched state lookups back to the items that were requested.
+ */
+data class StreamStateWithUrl(
+    @ColumnInfo(name = StreamEntity.STREAM_URL)
+    val url: String,
+
+    @Embedded
+    val state: StreamStateEntity
+)
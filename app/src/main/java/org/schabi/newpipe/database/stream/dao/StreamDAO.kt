@@ -2,6 +2,7 @@ package org.schabi.newpipe.database.stream.dao
 
 import androidx.room.ColumnInfo
 import androidx.room.Dao
+import androidx.room.Ignore
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
@@ -50,6 +51,33 @@ abstract class StreamDAO : BasicDAO<StreamEntity> {
     )
     internal abstract fun getMinimalStreamForCompare(serviceId: Int, url: String): StreamCompareFeed?
 
+    @Query("SELECT * FROM streams WHERE service_id = :serviceId AND url IN (:urls)")
+    internal abstract fun getStreamsForCompare(serviceId: Int, urls: List<String>): List<StreamEntity>
+
+    @Query("SELECT url, stream_type FROM streams WHERE service_id = :serviceId AND url IN (:urls)")
+    internal abstract fun getExistingStreamTypes(serviceId: Int, urls: List<String>): List<StreamUrlAndType>
+
+    /**
+     * Looks up which of the given streams are in the database, with one query per service and
+     * chunk instead of one for each stream.
+     *
+     * @param streams pairs of service id and url
+     * @return the stored type of the streams which are in the database, by service id and url
+     */
+    @Transaction
+    open fun existingStreams(
+        streams: Collection<Pair<Int, String>>
+    ): Map<Pair<Int, String>, StreamType> {
+        val existing = HashMap<Pair<Int, String>, StreamType>()
+        for ((serviceId, serviceStreams) in streams.groupBy({ it.first }, { it.second })) {
+            for (chunk in serviceStreams.distinct().chunked(MAX_URLS_PER_QUERY)) {
+                getExistingStreamTypes(serviceId, chunk)
+                    .associateTo(existing) { (serviceId to it.url) to it.streamType }
+            }
+        }
+        return existing
+    }
+
     @Transaction
     open fun upsert(newerStream: StreamEntity): Long {
         val uid = silentInsertInternal(newerStream)
@@ -69,7 +97,19 @@ abstract class StreamDAO : BasicDAO<StreamEntity> {
     open fun upsertAll(streams: List<StreamEntity>): List<Long> {
         val insertUidList = silentInsertAllInternal(streams)
 
+        // look up the streams which were already in the database with one query per service
+        // and chunk, instead of one for each stream
+        val existentStreams = HashMap<Pair<Int, String>, StreamEntity>()
+        val existent = streams.filterIndexed { index, _ -> insertUidList[index] == -1L }
+        for ((serviceId, serviceStreams) in existent.groupBy { it.serviceId }) {
+            for (chunk in serviceStreams.chunked(MAX_URLS_PER_QUERY)) {
+                getStreamsForCompare(serviceId, chunk.map { it.url })
+                    .associateByTo(existentStreams) { it.serviceId to it.url }
+            }
+        }
+
         val streamIds = ArrayList<Long>(streams.size)
+        val changedStreams = ArrayList<StreamEntity>()
         for ((index, uid) in insertUidList.withIndex()) {
             val newerStream = streams[index]
             if (uid != -1L) {
@@ -78,17 +118,33 @@ abstract class StreamDAO : BasicDAO<StreamEntity> {
                 continue
             }
 
-            compareAndUpdateStream(newerStream)
+            val existentStream = existentStreams[newerStream.serviceId to newerStream.url]
+                ?: throw IllegalStateException("Stream cannot be null just after insertion.")
+            compareAndUpdateStream(newerStream, StreamCompareFeed(existentStream))
             streamIds.add(newerStream.uid)
+
+            // only write the streams which are not the same as in the database
+            if (newerStream != existentStream) {
+                changedStreams.add(newerStream)
+            }
         }
 
-        update(streams)
+        if (changedStreams.isNotEmpty()) {
+            update(changedStreams)
+        }
         return streamIds
     }
 
     private fun compareAndUpdateStream(newerStream: StreamEntity) {
         val existentMinimalStream = getMinimalStreamForCompare(newerStream.serviceId, newerStream.url)
             ?: throw IllegalStateException("Stream cannot be null just after insertion.")
+        compareAndUpdateStream(newerStream, existentMinimalStream)
+    }
+
+    private fun compareAndUpdateStream(
+        newerStream: StreamEntity,
+        existentMinimalStream: StreamCompareFeed
+    ) {
         newerStream.uid = existentMinimalStream.uid
 
         val isNewerStreamLive = newerStream.streamType == AUDIO_LIVE_STREAM || newerStream.streamType == LIVE_STREAM
@@ -147,5 +203,28 @@ abstract class StreamDAO : BasicDAO<StreamEntity> {
 
         @ColumnInfo(name = StreamEntity.STREAM_DURATION)
         var duration: Long
+    ) {
+        @Ignore
+        constructor(stream: StreamEntity) : this(
+            uid = stream.uid, streamType = stream.streamType,
+            textualUploadDate = stream.textualUploadDate, uploadDate = stream.uploadDate,
+            isUploadDateApproximation = stream.isUploadDateApproximation,
+            duration = stream.duration
+        )
+    }
+
+    internal data class StreamUrlAndType(
+        @ColumnInfo(name = StreamEntity.STREAM_URL)
+        val url: String,
+
+        @ColumnInfo(name = StreamEntity.STREAM_TYPE)
+        val streamType: StreamType
     )
+
+    companion object {
+        /**
+         * SQLite limits the number of variables of a query to 999.
+         */
+        private const val MAX_URLS_PER_QUERY = 900
+    }
 }
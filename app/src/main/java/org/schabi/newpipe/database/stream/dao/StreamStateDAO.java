@@ -7,17 +7,28 @@ import androidx.room.Query;
 import androidx.room.Transaction;
 
 import org.schabi.newpipe.database.BasicDAO;
+import org.schabi.newpipe.database.stream.StreamStateWithUrl;
 import org.schabi.newpipe.database.stream.model.StreamStateEntity;
 
 import java.util.List;
 
 import io.reactivex.rxjava3.core.Flowable;
 
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_ID;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_SERVICE_ID;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_TABLE;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_URL;
 import static org.schabi.newpipe.database.stream.model.StreamStateEntity.JOIN_STREAM_ID;
 import static org.schabi.newpipe.database.stream.model.StreamStateEntity.STREAM_STATE_TABLE;
 
 @Dao
 public interface StreamStateDAO extends BasicDAO<StreamStateEntity> {
+    /**
+     * The maximum number of bind arguments passed to the batched lookups, kept safely below
+     * SQLite's default limit of 999 host parameters.
+     */
+    int MAX_BATCH_SIZE = 900;
+
     @Override
     @Query("SELECT * FROM " + STREAM_STATE_TABLE)
     Flowable<List<StreamStateEntity>> getAll();
@@ -34,6 +45,32 @@ public interface StreamStateDAO extends BasicDAO<StreamStateEntity> {
     @Query("SELECT * FROM " + STREAM_STATE_TABLE + " WHERE " + JOIN_STREAM_ID + " = :streamId")
     Flowable<List<StreamStateEntity>> getState(long streamId);
 
+    /**
+     * Fetches the states of many streams at once. Streams without a saved state are simply
+     * missing from the result, which is in no particular order.
+     *
+     * @param streamIds the uids of the streams, at most {@link #MAX_BATCH_SIZE} of them
+     * @return the states found for the given streams
+     */
+    @Query("SELECT * FROM " + STREAM_STATE_TABLE + " WHERE " + JOIN_STREAM_ID + " IN (:streamIds)")
+    List<StreamStateEntity> getStates(List<Long> streamIds);
+
+    /**
+     * Resolves the streams identified by the given urls and fetches their states with a single
+     * join, avoiding one query for the stream and another one for its state per url. Streams
+     * that are not in the database or have no saved state are missing from the result.
+     *
+     * @param serviceId the service all the urls belong to
+     * @param urls      the urls of the streams, at most {@link #MAX_BATCH_SIZE} of them
+     * @return the states found, each paired with the url of its stream, in no particular order
+     */
+    @Query("SELECT s." + STREAM_URL + ", ss.* FROM " + STREAM_TABLE + " s"
+            + " INNER JOIN " + STREAM_STATE_TABLE + " ss"
+            + " ON ss." + JOIN_STREAM_ID + " = s." + STREAM_ID
+            + " WHERE s." + STREAM_SERVICE_ID + " = :serviceId"
+            + " AND s." + STREAM_URL + " IN (:urls)")
+    List<StreamStateWithUrl> getStatesByUrl(int serviceId, List<String> urls);
+
     @Query("DELETE FROM " + STREAM_STATE_TABLE + " WHERE " + JOIN_STREAM_ID + " = :streamId")
     int deleteState(long streamId);
 
@@ -5,8 +5,10 @@ import androidx.room.Entity
 import androidx.room.Ignore
 import androidx.room.Index
 import androidx.room.PrimaryKey
+import org.schabi.newpipe.database.stream.model.StreamEntity.Companion.STREAM_ID
 import org.schabi.newpipe.database.stream.model.StreamEntity.Companion.STREAM_SERVICE_ID
 import org.schabi.newpipe.database.stream.model.StreamEntity.Companion.STREAM_TABLE
+import org.schabi.newpipe.database.stream.model.StreamEntity.Companion.STREAM_UPLOAD_DATE
 import org.schabi.newpipe.database.stream.model.StreamEntity.Companion.STREAM_URL
 import org.schabi.newpipe.extractor.localization.DateWrapper
 import org.schabi.newpipe.extractor.stream.StreamInfo
@@ -19,7 +21,8 @@ import java.time.OffsetDateTime
 @Entity(
     tableName = STREAM_TABLE,
     indices = [
-        Index(value = [STREAM_SERVICE_ID, STREAM_URL], unique = true)
+        Index(value = [STREAM_SERVICE_ID, STREAM_URL], unique = true),
+        Index(value = [STREAM_UPLOAD_DATE, STREAM_ID])
     ]
 )
 data class StreamEntity(
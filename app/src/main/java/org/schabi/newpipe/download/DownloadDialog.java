@@ -404,36 +404,32 @@ public class DownloadDialog extends DialogFragment
 
     private void fetchStreamsSize() {
         disposables.clear();
-        disposables.add(StreamSizeWrapper.fetchSizeForWrapper(wrappedVideoStreams)
-                .subscribe(result -> {
-                    if (dialogBinding.videoAudioGroup.getCheckedRadioButtonId()
-                            == R.id.video_button) {
-                        setupVideoSpinner();
-                    }
-                }, throwable -> ErrorUtil.showSnackbar(context,
-                        new ErrorInfo(throwable, UserAction.DOWNLOAD_OPEN_DIALOG,
-                                "Downloading video stream size",
-                                currentInfo.getServiceId()))));
-        disposables.add(StreamSizeWrapper.fetchSizeForWrapper(wrappedAudioStreams)
-                .subscribe(result -> {
-                    if (dialogBinding.videoAudioGroup.getCheckedRadioButtonId()
-                            == R.id.audio_button) {
-                        setupAudioSpinner();
-                    }
-                }, throwable -> ErrorUtil.showSnackbar(context,
-                        new ErrorInfo(throwable, UserAction.DOWNLOAD_OPEN_DIALOG,
-                                "Downloading audio stream size",
-                                currentInfo.getServiceId()))));
-        disposables.add(StreamSizeWrapper.fetchSizeForWrapper(wrappedSubtitleStreams)
-                .subscribe(result -> {
-                    if (dialogBinding.videoAudioGroup.getCheckedRadioButtonId()
-                            == R.id.subtitle_button) {
-                        setupSubtitleSpinner();
-                    }
-                }, throwable -> ErrorUtil.showSnackbar(context,
-                        new ErrorInfo(throwable, UserAction.DOWNLOAD_OPEN_DIALOG,
-                                "Downloading subtitle stream size",
-                                currentInfo.getServiceId()))));
+        fetchStreamsSize(wrappedVideoStreams, R.id.video_button, this::setupVideoSpinner,
+                "Downloading video stream size");
+        fetchStreamsSize(wrappedAudioStreams, R.id.audio_button, this::setupAudioSpinner,
+                "Downloading audio stream size");
+        fetchStreamsSize(wrappedSubtitleStreams, R.id.subtitle_button,
+                this::setupSubtitleSpinner, "Downloading subtitle stream size");
+    }
+
+    private <T extends Stream> void fetchStreamsSize(final StreamSizeWrapper<T> wrappedStreams,
+                                                     @IdRes final int radioButtonId,
+                                                     final Runnable setupSpinner,
+                                                     final String request) {
+        final Runnable refreshSpinner = () -> {
+            if (dialogBinding.videoAudioGroup.getCheckedRadioButtonId() == radioButtonId) {
+                setupSpinner.run();
+            }
+        };
+
+        disposables.add(StreamSizeWrapper.fetchSizeForWrapper(wrappedStreams)
+                .subscribe(result -> refreshSpinner.run(), throwable -> {
+                    // show the sizes fetched before the error
+                    refreshSpinner.run();
+                    ErrorUtil.showSnackbar(context, new ErrorInfo(throwable,
+                            UserAction.DOWNLOAD_OPEN_DIALOG, request,
+                            currentInfo.getServiceId()));
+                }));
     }
 
     private void setupAudioSpinner() {
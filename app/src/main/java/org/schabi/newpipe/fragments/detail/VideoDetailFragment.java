@@ -903,7 +903,7 @@ public final class VideoDetailFragment
 
     private void runWorker(final boolean forceLoad, final boolean addToBackStack) {
         final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
-        currentWorker = ExtractorHelper.getStreamInfo(serviceId, url, forceLoad)
+        currentWorker = ExtractorHelper.getStreamInfo(serviceId, url, forceLoad, true)
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(result -> {
@@ -914,6 +914,7 @@ public final class VideoDetailFragment
                         hideAgeRestrictedContent();
                     } else {
                         handleResult(result);
+                        showRefreshedResult(result);
                         showContent();
                         if (addToBackStack) {
                             if (playQueue == null) {
@@ -932,6 +933,32 @@ public final class VideoDetailFragment
                         url == null ? "no url" : url, serviceId)));
     }
 
+    /**
+     * If the info is stale, shows its new version once loaded. See
+     * {@link ExtractorHelper#isStale(org.schabi.newpipe.extractor.Info)}.
+     *
+     * @param info the info just shown
+     */
+    private void showRefreshedResult(@NonNull final StreamInfo info) {
+        if (!ExtractorHelper.isStale(info)) {
+            return;
+        }
+
+        disposables.add(ExtractorHelper.getRefreshedInfo(info)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(refreshed -> {
+                    // the player could have already replaced it, or another stream be shown
+                    if (currentInfo == info) {
+                        handleResult(refreshed);
+                    }
+                }, throwable -> {
+                    // keep showing the stale info
+                    if (DEBUG) {
+                        Log.d(TAG, "Failed to refresh " + info.getUrl(), throwable);
+                    }
+                }));
+    }
+
     /*//////////////////////////////////////////////////////////////////////////
     // Tabs
     //////////////////////////////////////////////////////////////////////////*/
@@ -16,6 +16,7 @@ import org.schabi.newpipe.extractor.Page;
 import org.schabi.newpipe.extractor.channel.ChannelInfo;
 import org.schabi.newpipe.extractor.exceptions.ContentNotSupportedException;
 import org.schabi.newpipe.util.Constants;
+import org.schabi.newpipe.util.ExtractorHelper;
 import org.schabi.newpipe.views.NewPipeRecyclerView;
 
 import java.util.ArrayList;
@@ -41,6 +42,7 @@ public abstract class BaseListInfoFragment<I extends InfoItem, L extends ListInf
     protected L currentInfo;
     protected Page currentNextPage;
     protected Disposable currentWorker;
+    private Disposable refreshWorker;
 
     protected BaseListInfoFragment(final UserAction errorUserAction) {
         this.errorUserAction = errorUserAction;
@@ -81,6 +83,10 @@ public abstract class BaseListInfoFragment<I extends InfoItem, L extends ListInf
             currentWorker.dispose();
             currentWorker = null;
         }
+        if (refreshWorker != null) {
+            refreshWorker.dispose();
+            refreshWorker = null;
+        }
     }
 
     /*//////////////////////////////////////////////////////////////////////////
@@ -138,6 +144,9 @@ public abstract class BaseListInfoFragment<I extends InfoItem, L extends ListInf
         if (currentWorker != null) {
             currentWorker.dispose();
         }
+        if (refreshWorker != null) {
+            refreshWorker.dispose();
+        }
         currentWorker = loadResult(forceLoad)
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
@@ -146,11 +155,41 @@ public abstract class BaseListInfoFragment<I extends InfoItem, L extends ListInf
                     currentInfo = result;
                     currentNextPage = result.getNextPage();
                     handleResult(result);
+                    showRefreshedResult(result);
                 }, throwable ->
                         showError(new ErrorInfo(throwable, errorUserAction,
                                 "Start loading: " + url, serviceId)));
     }
 
+    /**
+     * If the result is stale, replaces it with its new version once loaded. See
+     * {@link ExtractorHelper#isStale(org.schabi.newpipe.extractor.Info)}.
+     *
+     * @param result the result just shown
+     */
+    private void showRefreshedResult(@NonNull final L result) {
+        if (!ExtractorHelper.isStale(result)) {
+            return;
+        }
+
+        refreshWorker = ExtractorHelper.getRefreshedInfo(result)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe((@NonNull L refreshed) -> {
+                    if (currentInfo != result) {
+                        return;
+                    }
+                    infoListAdapter.clearStreamItemList();
+                    currentInfo = refreshed;
+                    currentNextPage = refreshed.getNextPage();
+                    handleResult(refreshed);
+                }, throwable -> {
+                    // keep showing the stale result
+                    if (DEBUG) {
+                        Log.d(TAG, "Failed to refresh " + url, throwable);
+                    }
+                });
+    }
+
     /**
      * Implement the logic to load more items.
      * <p>You can use the default implementations
@@ -167,6 +206,10 @@ public abstract class BaseListInfoFragment<I extends InfoItem, L extends ListInf
         if (currentWorker != null) {
             currentWorker.dispose();
         }
+        // the next items follow the shown result, do not replace it anymore
+        if (refreshWorker != null) {
+            refreshWorker.dispose();
+        }
 
         forbidDownwardFocusScroll();
 
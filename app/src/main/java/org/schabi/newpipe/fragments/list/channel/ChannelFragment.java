@@ -442,7 +442,7 @@ public class ChannelFragment extends BaseListInfoFragment<StreamInfoItem, Channe
 
     @Override
     protected Single<ChannelInfo> loadResult(final boolean forceLoad) {
-        return ExtractorHelper.getChannelInfo(serviceId, url, forceLoad);
+        return ExtractorHelper.getChannelInfo(serviceId, url, forceLoad, true);
     }
 
     /*//////////////////////////////////////////////////////////////////////////
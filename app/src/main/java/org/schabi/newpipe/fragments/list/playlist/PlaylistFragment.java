@@ -218,7 +218,7 @@ public class PlaylistFragment extends BaseListInfoFragment<StreamInfoItem, Playl
 
     @Override
     protected Single<PlaylistInfo> loadResult(final boolean forceLoad) {
-        return ExtractorHelper.getPlaylistInfo(serviceId, url, forceLoad);
+        return ExtractorHelper.getPlaylistInfo(serviceId, url, forceLoad, true);
     }
 
     @Override
@@ -18,6 +18,7 @@ import org.schabi.newpipe.database.subscription.NotificationMode
 import org.schabi.newpipe.extractor.stream.StreamInfoItem
 import org.schabi.newpipe.extractor.stream.StreamType
 import org.schabi.newpipe.local.subscription.FeedGroupIcon
+import java.time.Instant
 import java.time.LocalDate
 import java.time.OffsetDateTime
 import java.time.ZoneOffset
@@ -34,24 +35,102 @@ class FeedDatabaseManager(context: Context) {
          */
         val FEED_OLDEST_ALLOWED_DATE: OffsetDateTime = LocalDate.now().minusWeeks(13)
             .atStartOfDay().atOffset(ZoneOffset.UTC)
+
+        /**
+         * Number of streams loaded at once when showing the feed.
+         */
+        const val FEED_PAGE_SIZE = 100
+
+        /**
+         * Upload date after all of the streams, to get the first streams with an upload date.
+         */
+        private val MAX_UPLOAD_DATE: OffsetDateTime =
+            OffsetDateTime.ofInstant(Instant.ofEpochMilli(Long.MAX_VALUE), ZoneOffset.UTC)
     }
 
     fun groups() = feedGroupTable.getAll()
 
     fun database() = database
 
+    /**
+     * The streams without an upload date come first, then the others from the newest. A page
+     * which reaches the end of the streams without an upload date is filled with the first
+     * streams with one.
+     *
+     * @param after the last stream of the previous page, `null` for the first page
+     * @param limit the maximum number of streams of the page
+     * @see org.schabi.newpipe.database.feed.dao.FeedDAO.getAllStreamsWithoutUploadDate
+     */
     fun getStreams(
         groupId: Long = FeedGroupEntity.GROUP_ALL_ID,
-        getPlayedStreams: Boolean = true
+        getPlayedStreams: Boolean = true,
+        after: StreamEntity? = null,
+        limit: Int = FEED_PAGE_SIZE
+    ): Maybe<List<StreamWithState>> {
+        val afterUploadDate = after?.uploadDate
+        if (after != null && afterUploadDate != null) {
+            return getStreamsWithUploadDate(
+                groupId, getPlayedStreams, afterUploadDate, after.uid, limit
+            )
+        }
+
+        return getStreamsWithoutUploadDate(
+            groupId, getPlayedStreams, after?.uid ?: Long.MAX_VALUE, limit
+        ).flatMap { streams ->
+            if (streams.size >= limit) {
+                Maybe.just(streams)
+            } else {
+                getStreamsWithUploadDate(
+                    groupId, getPlayedStreams, MAX_UPLOAD_DATE, Long.MAX_VALUE,
+                    limit - streams.size
+                ).map { streams + it }
+            }
+        }
+    }
+
+    private fun getStreamsWithoutUploadDate(
+        groupId: Long,
+        getPlayedStreams: Boolean,
+        afterUid: Long,
+        limit: Int
+    ): Maybe<List<StreamWithState>> {
+        return when (groupId) {
+            FeedGroupEntity.GROUP_ALL_ID -> {
+                if (getPlayedStreams) feedTable.getAllStreamsWithoutUploadDate(afterUid, limit)
+                else feedTable.getLiveOrNotPlayedStreamsWithoutUploadDate(afterUid, limit)
+            }
+            else -> {
+                if (getPlayedStreams) {
+                    feedTable.getAllStreamsForGroupWithoutUploadDate(groupId, afterUid, limit)
+                } else {
+                    feedTable.getLiveOrNotPlayedStreamsForGroupWithoutUploadDate(
+                        groupId, afterUid, limit
+                    )
+                }
+            }
+        }
+    }
+
+    private fun getStreamsWithUploadDate(
+        groupId: Long,
+        getPlayedStreams: Boolean,
+        afterUploadDate: OffsetDateTime,
+        afterUid: Long,
+        limit: Int
     ): Maybe<List<StreamWithState>> {
         return when (groupId) {
             FeedGroupEntity.GROUP_ALL_ID -> {
-                if (getPlayedStreams) feedTable.getAllStreams()
-                else feedTable.getLiveOrNotPlayedStreams()
+                if (getPlayedStreams) feedTable.getAllStreams(afterUploadDate, afterUid, limit)
+                else feedTable.getLiveOrNotPlayedStreams(afterUploadDate, afterUid, limit)
             }
             else -> {
-                if (getPlayedStreams) feedTable.getAllStreamsForGroup(groupId)
-                else feedTable.getLiveOrNotPlayedStreamsForGroup(groupId)
+                if (getPlayedStreams) {
+                    feedTable.getAllStreamsForGroup(groupId, afterUploadDate, afterUid, limit)
+                } else {
+                    feedTable.getLiveOrNotPlayedStreamsForGroup(
+                        groupId, afterUploadDate, afterUid, limit
+                    )
+                }
             }
         }
     }
@@ -78,15 +157,20 @@ class FeedDatabaseManager(context: Context) {
     fun markAsOutdated(subscriptionId: Long) = feedTable
         .setLastUpdatedForSubscription(FeedLastUpdatedEntity(subscriptionId, null))
 
-    fun doesStreamExist(stream: StreamInfoItem): Boolean {
-        return streamTable.exists(stream.serviceId, stream.url)
-    }
-
+    /**
+     * Update the feed of a subscription with the streams just fetched. Using the watermark of
+     * the last update, nothing but the update time is written if the streams did not change,
+     * otherwise only the new streams, the ones uploaded after the watermark and the live or
+     * upcoming ones are written.
+     *
+     * @return the streams with an upload date which were not in the database
+     */
     fun upsertAll(
         subscriptionId: Long,
         items: List<StreamInfoItem>,
         oldestAllowedDate: OffsetDateTime = FEED_OLDEST_ALLOWED_DATE
-    ) {
+    ): List<StreamInfoItem> {
+        val now = OffsetDateTime.now(ZoneOffset.UTC)
         val itemsToInsert = ArrayList<StreamInfoItem>()
         loop@ for (streamItem in items) {
             val uploadDate = streamItem.uploadDate
@@ -98,19 +182,82 @@ class FeedDatabaseManager(context: Context) {
             }
         }
 
+        val lastUpdated = feedTable.getLastUpdated(subscriptionId)
+        val streamsHash = streamsHash(itemsToInsert)
+
+        if (lastUpdated != null && lastUpdated.streamsHash == streamsHash &&
+            itemsToInsert.none { isChanging(it, now) }
+        ) {
+            lastUpdated.lastUpdated = now
+            feedTable.setLastUpdatedForSubscription(lastUpdated)
+            return emptyList()
+        }
+
+        val watermark = lastUpdated?.newestUploadDate
+        val newStreams = ArrayList<StreamInfoItem>()
+        val existingStreams = streamTable
+            .existingStreams(itemsToInsert.map { it.serviceId to it.url })
+        val changedItems = itemsToInsert.filter {
+            // streams older than the allowed date are removed from the feed and were not kept,
+            // so they are not considered new
+            val storedType = existingStreams[it.serviceId to it.url]
+            val exists = storedType != null
+            if (!exists && it.uploadDate != null) {
+                newStreams += it
+            }
+
+            // the streams stored as live are unlinked below and written again, an ended live
+            // can come back with an upload date before the watermark
+            !exists || watermark == null || isChanging(it, now) || isLive(storedType) ||
+                it.uploadDate!!.offsetDateTime() > watermark
+        }
+
         feedTable.unlinkOldLivestreams(subscriptionId)
 
-        if (itemsToInsert.isNotEmpty()) {
-            val streamEntities = itemsToInsert.map { StreamEntity(it) }
+        if (changedItems.isNotEmpty()) {
+            val streamEntities = changedItems.map { StreamEntity(it) }
             val streamIds = streamTable.upsertAll(streamEntities)
             val feedEntities = streamIds.map { FeedEntity(it, subscriptionId) }
 
             feedTable.insertAll(feedEntities)
         }
 
+        val newestUploadDate = itemsToInsert
+            .mapNotNull { it.uploadDate?.offsetDateTime() }
+            .filter { it <= now }
+            .maxOrNull()
+
         feedTable.setLastUpdatedForSubscription(
-            FeedLastUpdatedEntity(subscriptionId, OffsetDateTime.now(ZoneOffset.UTC))
+            FeedLastUpdatedEntity(subscriptionId, now, newestUploadDate, streamsHash)
         )
+
+        return newStreams
+    }
+
+    /**
+     * Live and upcoming streams can change between two updates without the list of streams
+     * changing, so they are always written.
+     */
+    private fun isChanging(stream: StreamInfoItem, now: OffsetDateTime): Boolean {
+        val uploadDate = stream.uploadDate ?: return true
+
+        return isLive(stream.streamType) || uploadDate.offsetDateTime() > now
+    }
+
+    private fun isLive(streamType: StreamType?): Boolean {
+        return streamType == StreamType.LIVE_STREAM || streamType == StreamType.AUDIO_LIVE_STREAM
+    }
+
+    /**
+     * Hash of the streams, ignoring their order and the upload dates which can be approximated
+     * differently on each update.
+     */
+    private fun streamsHash(items: List<StreamInfoItem>): Long {
+        var hash = 1L
+        for (key in items.map { "${it.streamType}:${it.serviceId}:${it.url}" }.sorted()) {
+            hash = 31 * hash + key.hashCode()
+        }
+        return hash
     }
 
     fun removeOrphansOrOlderStreams(oldestAllowedDate: OffsetDateTime = FEED_OLDEST_ALLOWED_DATE) {
@@ -67,6 +67,7 @@ import org.schabi.newpipe.extractor.exceptions.ContentNotAvailableException
 import org.schabi.newpipe.extractor.stream.StreamInfoItem
 import org.schabi.newpipe.extractor.utils.Utils.isNullOrEmpty
 import org.schabi.newpipe.fragments.BaseStateFragment
+import org.schabi.newpipe.fragments.OnScrollBelowItemsListener
 import org.schabi.newpipe.info_list.dialog.InfoItemDialog
 import org.schabi.newpipe.ktx.animate
 import org.schabi.newpipe.ktx.animateHideRecyclerViewAllowingScrolling
@@ -158,6 +159,12 @@ class FeedFragment : BaseStateFragment<FeedState>() {
             }
         })
 
+        feedBinding.itemsList.addOnScrollListener(object : OnScrollBelowItemsListener() {
+            override fun onScrolledDown(recyclerView: RecyclerView) {
+                viewModel.loadNextPage()
+            }
+        })
+
         feedBinding.itemsList.adapter = groupAdapter
         setupListViewMode()
     }
@@ -391,9 +398,13 @@ class FeedFragment : BaseStateFragment<FeedState>() {
         // This need to be saved in a variable as the update occurs async
         val oldOldestSubscriptionUpdate = oldestSubscriptionUpdate
 
+        // next pages also go through the async diff, a reload can still be diffing and only the
+        // latest update is applied. The diff is cheap when the items are only appended
         groupAdapter.updateAsync(loadedState.items, false) {
-            oldOldestSubscriptionUpdate?.run {
-                highlightNewItemsAfter(oldOldestSubscriptionUpdate)
+            if (!loadedState.isNextPage) {
+                oldOldestSubscriptionUpdate?.run {
+                    highlightNewItemsAfter(oldOldestSubscriptionUpdate)
+                }
             }
         }
 
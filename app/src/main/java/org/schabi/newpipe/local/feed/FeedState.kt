@@ -15,7 +15,11 @@ sealed class FeedState {
         val items: List<StreamItem>,
         val oldestUpdate: OffsetDateTime? = null,
         val notLoadedCount: Long,
-        val itemsErrors: List<Throwable> = emptyList()
+        val itemsErrors: List<Throwable> = emptyList(),
+        /**
+         * Whether the items are the ones of the previous state followed by a new page.
+         */
+        val isNextPage: Boolean = false
     ) : FeedState()
 
     data class ErrorState(
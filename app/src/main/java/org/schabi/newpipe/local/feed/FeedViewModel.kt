@@ -9,6 +9,7 @@ import androidx.lifecycle.ViewModelProvider
 import androidx.preference.PreferenceManager
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
 import io.reactivex.rxjava3.core.Flowable
+import io.reactivex.rxjava3.disposables.Disposable
 import io.reactivex.rxjava3.functions.Function4
 import io.reactivex.rxjava3.processors.BehaviorProcessor
 import io.reactivex.rxjava3.schedulers.Schedulers
@@ -27,7 +28,7 @@ import java.util.concurrent.TimeUnit
 
 class FeedViewModel(
     private val applicationContext: Context,
-    groupId: Long = FeedGroupEntity.GROUP_ALL_ID,
+    private val groupId: Long = FeedGroupEntity.GROUP_ALL_ID,
     initialShowPlayedItems: Boolean = true
 ) : ViewModel() {
     private var feedDatabaseManager: FeedDatabaseManager = FeedDatabaseManager(applicationContext)
@@ -40,12 +41,23 @@ class FeedViewModel(
     private val mutableStateLiveData = MutableLiveData<FeedState>()
     val stateLiveData: LiveData<FeedState> = mutableStateLiveData
 
+    /**
+     * Streams shown by the last loaded state, the next page starts after the last of them.
+     * Only changed on the main thread.
+     */
+    @Volatile
+    private var loadedStreams: List<StreamWithState> = emptyList()
+    private var loadedShowPlayedItems = initialShowPlayedItems
+    private var hasMoreStreams = false
+    private var nextPageDisposable: Disposable? = null
+
     private var combineDisposable = Flowable
         .combineLatest(
             FeedEventManager.events(),
             toggleShowPlayedItemsFlowable,
-            feedDatabaseManager.notLoadedCount(groupId),
-            feedDatabaseManager.oldestSubscriptionUpdate(groupId),
+            // queried again after each feed transaction, even if they did not change
+            feedDatabaseManager.notLoadedCount(groupId).distinctUntilChanged(),
+            feedDatabaseManager.oldestSubscriptionUpdate(groupId).distinctUntilChanged(),
 
             Function4 { t1: FeedEventManager.Event, t2: Boolean,
                 t3: Long, t4: List<OffsetDateTime> ->
@@ -58,23 +70,33 @@ class FeedViewModel(
         .map { (event, showPlayedItems, notLoadedCount, oldestUpdate) ->
             val streamItems = if (event is SuccessResultEvent || event is IdleEvent)
                 feedDatabaseManager
-                    .getStreams(groupId, showPlayedItems)
+                    // as many streams as already shown, so that the list does not shrink
+                    .getStreams(
+                        groupId, showPlayedItems,
+                        limit = maxOf(FeedDatabaseManager.FEED_PAGE_SIZE, loadedStreams.size)
+                    )
                     .blockingGet(arrayListOf())
             else
                 arrayListOf()
 
-            CombineResultDataHolder(event, streamItems, notLoadedCount, oldestUpdate)
+            CombineResultDataHolder(event, streamItems, notLoadedCount, oldestUpdate, showPlayedItems)
         }
         .observeOn(AndroidSchedulers.mainThread())
-        .subscribe { (event, listFromDB, notLoadedCount, oldestUpdate) ->
-            mutableStateLiveData.postValue(
-                when (event) {
-                    is IdleEvent -> FeedState.LoadedState(listFromDB.map { e -> StreamItem(e) }, oldestUpdate, notLoadedCount)
-                    is ProgressEvent -> FeedState.ProgressState(event.currentProgress, event.maxProgress, event.progressMessage)
-                    is SuccessResultEvent -> FeedState.LoadedState(listFromDB.map { e -> StreamItem(e) }, oldestUpdate, notLoadedCount, event.itemsErrors)
-                    is ErrorResultEvent -> FeedState.ErrorState(event.error)
-                }
-            )
+        .subscribe { (event, listFromDB, notLoadedCount, oldestUpdate, showPlayedItems) ->
+            if (event is IdleEvent || event is SuccessResultEvent) {
+                nextPageDisposable?.dispose()
+                loadedStreams = listFromDB
+                loadedShowPlayedItems = showPlayedItems
+                hasMoreStreams = listFromDB.size >= FeedDatabaseManager.FEED_PAGE_SIZE
+            }
+
+            // set directly, the next page is appended to the current value
+            mutableStateLiveData.value = when (event) {
+                is IdleEvent -> FeedState.LoadedState(listFromDB.map { e -> StreamItem(e) }, oldestUpdate, notLoadedCount)
+                is ProgressEvent -> FeedState.ProgressState(event.currentProgress, event.maxProgress, event.progressMessage)
+                is SuccessResultEvent -> FeedState.LoadedState(listFromDB.map { e -> StreamItem(e) }, oldestUpdate, notLoadedCount, event.itemsErrors)
+                is ErrorResultEvent -> FeedState.ErrorState(event.error)
+            }
 
             if (event is ErrorResultEvent || event is SuccessResultEvent) {
                 FeedEventManager.reset()
@@ -84,6 +106,36 @@ class FeedViewModel(
     override fun onCleared() {
         super.onCleared()
         combineDisposable.dispose()
+        nextPageDisposable?.dispose()
+    }
+
+    /**
+     * Load the streams after the ones already shown, adding them to the loaded state.
+     */
+    fun loadNextPage() {
+        val state = mutableStateLiveData.value as? FeedState.LoadedState ?: return
+        val streams = loadedStreams
+        if (!hasMoreStreams || streams.isEmpty() || nextPageDisposable?.isDisposed == false) {
+            return
+        }
+
+        nextPageDisposable = feedDatabaseManager
+            .getStreams(groupId, loadedShowPlayedItems, streams.last().stream)
+            .subscribeOn(Schedulers.io())
+            .observeOn(AndroidSchedulers.mainThread())
+            .subscribe(
+                { page ->
+                    loadedStreams = streams + page
+                    hasMoreStreams = page.size >= FeedDatabaseManager.FEED_PAGE_SIZE
+
+                    mutableStateLiveData.value = state.copy(
+                        items = state.items + page.map { StreamItem(it) },
+                        itemsErrors = emptyList(), // already shown with the first page
+                        isNextPage = true
+                    )
+                },
+                { mutableStateLiveData.value = FeedState.ErrorState(it) }
+            )
     }
 
     private data class CombineResultEventHolder(
@@ -97,7 +149,8 @@ class FeedViewModel(
         val t1: FeedEventManager.Event,
         val t2: List<StreamWithState>,
         val t3: Long,
-        val t4: OffsetDateTime?
+        val t4: OffsetDateTime?,
+        val t5: Boolean
     )
 
     fun togglePlayedItems(showPlayedItems: Boolean) {
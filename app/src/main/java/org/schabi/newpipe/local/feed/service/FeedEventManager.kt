@@ -31,7 +31,14 @@ object FeedEventManager {
             constructor(@StringRes progressMessage: Int) : this(-1, -1, progressMessage)
         }
 
-        data class SuccessResultEvent(val itemsErrors: List<Throwable> = emptyList()) : Event()
+        /**
+         * @param writeMetrics latency of the database writes of the load, complete once the
+         * event is posted
+         */
+        data class SuccessResultEvent(
+            val itemsErrors: List<Throwable> = emptyList(),
+            val writeMetrics: FeedWriteMetrics? = null
+        ) : Event()
         data class ErrorResultEvent(val error: Throwable) : Event()
     }
 }
@@ -0,0 +1,231 @@
+package org.schabi.newpipe.local.feed.service
+
+import android.util.Log
+import io.reactivex.rxjava3.core.BackpressureStrategy
+import io.reactivex.rxjava3.core.Flowable
+import io.reactivex.rxjava3.core.FlowableEmitter
+import io.reactivex.rxjava3.core.Notification
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.schedulers.Schedulers
+import org.schabi.newpipe.MainActivity
+import org.schabi.newpipe.database.subscription.SubscriptionEntity
+import org.schabi.newpipe.extractor.ListInfo
+import org.schabi.newpipe.extractor.exceptions.ReCaptchaException
+import org.schabi.newpipe.extractor.stream.StreamInfoItem
+import java.net.URI
+import java.util.ArrayDeque
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Fetches the feed of many subscriptions, keeping a separate concurrency window for each host.
+ *
+ * Each window grows by one fetch for every window of fast responses and shrinks when the host
+ * answers slowly or asks to slow down (HTTP 429 is reported as a [ReCaptchaException]), which
+ * also pauses the host for a while. Subscriptions waiting for a free slot are kept in a queue,
+ * only the running fetches use a thread.
+ *
+ * The subscriptions of a host are fetched in the order they are given.
+ */
+class FeedFetchScheduler(private val cancelSignal: AtomicBoolean) {
+
+    private class HostWindow {
+        val queue = ArrayDeque<SubscriptionEntity>()
+        var window = INITIAL_WINDOW
+        var inFlight = 0
+        var pausedUntil = 0L
+        var backoff = MIN_BACKOFF_MILLIS
+    }
+
+    /**
+     * @param subscriptions the subscriptions to fetch, the most important first
+     * @param fetch loads the feed of a subscription, called once for each subscription
+     * @return a notification for each subscription, in the order they are fetched. The errors are
+     * wrapped in a [FeedLoadService.RequestException].
+     */
+    fun schedule(
+        subscriptions: List<SubscriptionEntity>,
+        fetch: (SubscriptionEntity) -> Single<ListInfo<StreamInfoItem>>
+    ): Flowable<Notification<FeedUpdateInfo>> = Flowable.create(
+        { emitter -> Run(subscriptions, fetch, emitter.serialize()).start() },
+        BackpressureStrategy.BUFFER
+    )
+
+    private inner class Run(
+        subscriptions: List<SubscriptionEntity>,
+        private val fetch: (SubscriptionEntity) -> Single<ListInfo<StreamInfoItem>>,
+        private val emitter: FlowableEmitter<Notification<FeedUpdateInfo>>
+    ) {
+        private val hosts = LinkedHashMap<String, HostWindow>()
+        private val disposables = CompositeDisposable()
+        private var remaining = subscriptions.size
+
+        init {
+            for (subscription in subscriptions) {
+                hosts.getOrPut(hostOf(subscription)) { HostWindow() }.queue.add(subscription)
+            }
+        }
+
+        fun start() {
+            emitter.setDisposable(disposables)
+            dispatch()
+        }
+
+        private fun dispatch() {
+            val ready = ArrayList<Pair<HostWindow, SubscriptionEntity>>()
+            var done: Boolean
+
+            synchronized(this) {
+                val now = System.currentTimeMillis()
+
+                for (host in hosts.values) {
+                    if (cancelSignal.get()) {
+                        remaining -= host.queue.size
+                        host.queue.clear()
+                        continue
+                    }
+
+                    if (host.queue.isEmpty()) {
+                        continue
+                    }
+
+                    if (host.pausedUntil > now) {
+                        // dispatched again when the pause ends, by the fetch that paused the host
+                        continue
+                    }
+
+                    while (host.inFlight < host.window.toInt() && host.queue.isNotEmpty()) {
+                        host.inFlight++
+                        ready.add(host to host.queue.poll()!!)
+                    }
+                }
+
+                done = remaining == 0
+            }
+
+            if (done) {
+                emitter.onComplete()
+                return
+            }
+
+            for ((host, subscription) in ready) {
+                startFetch(host, subscription)
+            }
+        }
+
+        private fun startFetch(host: HostWindow, subscription: SubscriptionEntity) {
+            val start = System.currentTimeMillis()
+
+            disposables.add(
+                fetch(subscription)
+                    .subscribeOn(Schedulers.io())
+                    .subscribe(
+                        { info ->
+                            onFetched(host, System.currentTimeMillis() - start, null)
+                            emit(Notification.createOnNext(FeedUpdateInfo(subscription, info)))
+                        },
+                        { error ->
+                            onFetched(host, System.currentTimeMillis() - start, error)
+
+                            val request = "${subscription.serviceId}:${subscription.url}"
+                            val wrapper =
+                                FeedLoadService.RequestException(subscription.uid, request, error)
+                            emit(Notification.createOnError(wrapper))
+                        }
+                    )
+            )
+        }
+
+        private fun emit(notification: Notification<FeedUpdateInfo>) {
+            emitter.onNext(notification)
+
+            synchronized(this) {
+                remaining--
+            }
+            dispatch()
+        }
+
+        private fun onFetched(host: HostWindow, latency: Long, error: Throwable?) {
+            var pause = 0L
+
+            synchronized(this) {
+                host.inFlight--
+
+                when {
+                    error != null && isRateLimited(error) -> {
+                        host.window =
+                            (host.window * RATE_LIMITED_DECREASE).coerceAtLeast(MIN_WINDOW)
+
+                        if (host.pausedUntil <= System.currentTimeMillis()) {
+                            pause = host.backoff
+                            host.pausedUntil = System.currentTimeMillis() + pause
+                            host.backoff = (host.backoff * 2).coerceAtMost(MAX_BACKOFF_MILLIS)
+                        }
+                    }
+                    latency > SLOW_LATENCY_MILLIS -> {
+                        host.window = (host.window * SLOW_DECREASE).coerceAtLeast(MIN_WINDOW)
+                    }
+                    error == null -> {
+                        host.window = (host.window + 1 / host.window).coerceAtMost(MAX_WINDOW)
+                        host.backoff = MIN_BACKOFF_MILLIS
+                    }
+                    // other errors say nothing about the load of the host
+                }
+
+                if (MainActivity.DEBUG) {
+                    Log.d(TAG, "onFetched: latency = $latency, window = ${host.window}")
+                }
+            }
+
+            if (pause > 0) {
+                disposables.add(
+                    Schedulers.io().scheduleDirect({ dispatch() }, pause, TimeUnit.MILLISECONDS)
+                )
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "FeedFetchScheduler"
+
+        private const val INITIAL_WINDOW = 3.0
+        private const val MIN_WINDOW = 1.0
+        private const val MAX_WINDOW = 8.0
+
+        /**
+         * Responses slower than this shrink the window of the host.
+         */
+        private const val SLOW_LATENCY_MILLIS = 4000L
+        private const val SLOW_DECREASE = 0.75
+        private const val RATE_LIMITED_DECREASE = 0.5
+
+        /**
+         * How long a rate limited host is paused, doubled on each consecutive rate limit.
+         */
+        private const val MIN_BACKOFF_MILLIS = 2000L
+        private const val MAX_BACKOFF_MILLIS = 60000L
+
+        private fun hostOf(subscription: SubscriptionEntity): String {
+            val host = try {
+                URI(subscription.url).host
+            } catch (e: Exception) {
+                null
+            }
+
+            // urls without a host share the window of their service
+            return host ?: "service:${subscription.serviceId}"
+        }
+
+        private fun isRateLimited(error: Throwable): Boolean {
+            var cause: Throwable? = error
+            while (cause != null) {
+                if (cause is ReCaptchaException) {
+                    return true
+                }
+                cause = cause.cause
+            }
+            return false
+        }
+    }
+}
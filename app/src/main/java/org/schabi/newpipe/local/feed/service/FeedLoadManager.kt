@@ -1,6 +1,7 @@
 package org.schabi.newpipe.local.feed.service
 
 import android.content.Context
+import android.util.Log
 import androidx.preference.PreferenceManager
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
 import io.reactivex.rxjava3.core.Completable
@@ -10,6 +11,8 @@ import io.reactivex.rxjava3.core.Single
 import io.reactivex.rxjava3.functions.Consumer
 import io.reactivex.rxjava3.processors.PublishProcessor
 import io.reactivex.rxjava3.schedulers.Schedulers
+import io.reactivex.rxjava3.schedulers.Timed
+import org.schabi.newpipe.MainActivity.DEBUG
 import org.schabi.newpipe.R
 import org.schabi.newpipe.database.feed.model.FeedGroupEntity
 import org.schabi.newpipe.database.subscription.NotificationMode
@@ -20,6 +23,10 @@ import org.schabi.newpipe.local.subscription.SubscriptionManager
 import org.schabi.newpipe.util.ExtractorHelper
 import java.time.OffsetDateTime
 import java.time.ZoneOffset
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
 
@@ -33,6 +40,7 @@ class FeedLoadManager(private val context: Context) {
     private val maxProgress = AtomicInteger(-1)
     private val cancelSignal = AtomicBoolean()
     private val feedResultsHolder = FeedResultsHolder()
+    private val feedFetchScheduler = FeedFetchScheduler(cancelSignal)
 
     val notification: Flowable<FeedLoadState> = notificationUpdater.map { description ->
         FeedLoadState(description, maxProgress.get(), currentProgress.get())
@@ -82,6 +90,9 @@ class FeedLoadManager(private val context: Context) {
             else -> feedDatabaseManager.outdatedSubscriptionsForGroup(groupId, outdatedThreshold)
         }
 
+        // latency of the database writes of this load, posted with its result
+        val writeMetrics = FeedWriteMetrics()
+
         return outdatedSubscriptions
             .take(1)
             .doOnNext {
@@ -95,68 +106,40 @@ class FeedLoadManager(private val context: Context) {
                 broadcastProgress()
             }
             .observeOn(Schedulers.io())
-            .flatMap { Flowable.fromIterable(it) }
-            .takeWhile { !cancelSignal.get() }
-            .parallel(PARALLEL_EXTRACTIONS, PARALLEL_EXTRACTIONS * 2)
-            .runOn(Schedulers.io(), PARALLEL_EXTRACTIONS * 2)
-            .filter { !cancelSignal.get() }
-            .map { subscriptionEntity ->
-                var error: Throwable? = null
-                try {
+            .flatMap { subscriptions ->
+                feedFetchScheduler.schedule(subscriptions) { subscriptionEntity ->
                     // check for and load new streams
                     // either by using the dedicated feed method or by getting the channel info
-                    val listInfo = if (useFeedExtractor) {
-                        ExtractorHelper
-                            .getFeedInfoFallbackToChannelInfo(
-                                subscriptionEntity.serviceId,
-                                subscriptionEntity.url
-                            )
-                            .onErrorReturn {
-                                error = it // store error, otherwise wrapped into RuntimeException
-                                throw it
-                            }
-                            .blockingGet()
+                    if (useFeedExtractor) {
+                        ExtractorHelper.getFeedInfoFallbackToChannelInfo(
+                            subscriptionEntity.serviceId,
+                            subscriptionEntity.url
+                        )
                     } else {
                         ExtractorHelper
-                            .getChannelInfo(
+                            .getChannelInfoForFeed(
                                 subscriptionEntity.serviceId,
-                                subscriptionEntity.url,
-                                true
+                                subscriptionEntity.url
                             )
-                            .onErrorReturn {
-                                error = it // store error, otherwise wrapped into RuntimeException
-                                throw it
-                            }
-                            .blockingGet()
-                    } as ListInfo<StreamInfoItem>
-
-                    return@map Notification.createOnNext(
-                        FeedUpdateInfo(
-                            subscriptionEntity,
-                            listInfo
-                        )
-                    )
-                } catch (e: Throwable) {
-                    if (error == null) {
-                        // do this to prevent blockingGet() from wrapping into RuntimeException
-                        error = e
+                            .map<ListInfo<StreamInfoItem>> { it }
                     }
-
-                    val request = "${subscriptionEntity.serviceId}:${subscriptionEntity.url}"
-                    val wrapper =
-                        FeedLoadService.RequestException(subscriptionEntity.uid, request, error!!)
-                    return@map Notification.createOnError<FeedUpdateInfo>(wrapper)
                 }
             }
-            .sequential()
             .observeOn(AndroidSchedulers.mainThread())
             .doOnNext(NotificationConsumer())
-            .observeOn(Schedulers.io())
-            .buffer(BUFFER_COUNT_BEFORE_INSERT)
-            .doOnNext(DatabaseConsumer())
+            .timestamp()
+            // few transactions, since the feed is queried again after each one of them
+            .buffer(
+                BUFFER_TIMESPAN_MILLIS, TimeUnit.MILLISECONDS, DATABASE_WRITER,
+                BUFFER_COUNT_BEFORE_INSERT
+            )
+            .filter { it.isNotEmpty() }
+            .observeOn(DATABASE_WRITER)
+            .doOnNext(DatabaseConsumer(writeMetrics))
+            .map { batch -> batch.map { it.value() } }
             .subscribeOn(Schedulers.io())
             .toList()
-            .flatMap { x -> postProcessFeed().toSingleDefault(x.flatten()) }
+            .flatMap { x -> postProcessFeed(writeMetrics).toSingleDefault(x.flatten()) }
     }
 
     fun cancel() {
@@ -174,18 +157,24 @@ class FeedLoadManager(private val context: Context) {
      * Remove streams from the feed which are older than [FeedDatabaseManager.FEED_OLDEST_ALLOWED_DATE].
      * Remove streams from the database which are not linked / used by any table.
      */
-    private fun postProcessFeed() = Completable.fromRunnable {
+    private fun postProcessFeed(writeMetrics: FeedWriteMetrics) = Completable.fromRunnable {
         FeedEventManager.postEvent(FeedEventManager.Event.ProgressEvent(R.string.feed_processing_message))
         feedDatabaseManager.removeOrphansOrOlderStreams()
 
-        FeedEventManager.postEvent(FeedEventManager.Event.SuccessResultEvent(feedResultsHolder.itemsErrors))
+        if (DEBUG) {
+            Log.d(TAG, "Feed written: $writeMetrics")
+        }
+
+        FeedEventManager.postEvent(
+            FeedEventManager.Event.SuccessResultEvent(feedResultsHolder.itemsErrors, writeMetrics)
+        )
     }.doOnSubscribe {
         currentProgress.set(-1)
         maxProgress.set(-1)
 
         notificationUpdater.onNext(context.getString(R.string.feed_processing_message))
         FeedEventManager.postEvent(FeedEventManager.Event.ProgressEvent(R.string.feed_processing_message))
-    }.subscribeOn(Schedulers.io())
+    }.subscribeOn(DATABASE_WRITER)
 
     private inner class NotificationConsumer : Consumer<Notification<FeedUpdateInfo>> {
         override fun accept(item: Notification<FeedUpdateInfo>) {
@@ -196,21 +185,23 @@ class FeedLoadManager(private val context: Context) {
         }
     }
 
-    private inner class DatabaseConsumer : Consumer<List<Notification<FeedUpdateInfo>>> {
+    private inner class DatabaseConsumer(
+        private val writeMetrics: FeedWriteMetrics
+    ) : Consumer<List<Timed<Notification<FeedUpdateInfo>>>> {
+
+        override fun accept(list: List<Timed<Notification<FeedUpdateInfo>>>) {
+            val start = System.currentTimeMillis()
 
-        override fun accept(list: List<Notification<FeedUpdateInfo>>) {
             feedDatabaseManager.database().runInTransaction {
-                for (notification in list) {
+                for (timedNotification in list) {
+                    val notification = timedNotification.value()
                     when {
                         notification.isOnNext -> {
                             val subscriptionId = notification.value!!.uid
                             val info = notification.value!!.listInfo
 
-                            notification.value!!.newStreams = filterNewStreams(
-                                notification.value!!.listInfo.relatedItems
-                            )
-
-                            feedDatabaseManager.upsertAll(subscriptionId, info.relatedItems)
+                            notification.value!!.newStreams =
+                                feedDatabaseManager.upsertAll(subscriptionId, info.relatedItems)
                             subscriptionManager.updateFromInfo(subscriptionId, info)
 
                             if (info.errors.isNotEmpty()) {
@@ -234,19 +225,9 @@ class FeedLoadManager(private val context: Context) {
                     }
                 }
             }
-        }
 
-        private fun filterNewStreams(list: List<StreamInfoItem>): List<StreamInfoItem> {
-            return list.filter {
-                !feedDatabaseManager.doesStreamExist(it) &&
-                    it.uploadDate != null &&
-                    // Streams older than this date are automatically removed from the feed.
-                    // Therefore, streams which are not in the database,
-                    // but older than this date, are considered old.
-                    it.uploadDate!!.offsetDateTime().isAfter(
-                        FeedDatabaseManager.FEED_OLDEST_ALLOWED_DATE
-                    )
-            }
+            val end = System.currentTimeMillis()
+            writeMetrics.addBatch(list.size, end - start, end - list.first().time())
         }
     }
 
@@ -257,14 +238,35 @@ class FeedLoadManager(private val context: Context) {
          */
         const val GROUP_NOTIFICATION_ENABLED = -2L
 
+        private const val TAG = "FeedLoadManager"
+
         /**
-         * How many extractions will be running in parallel.
+         * Number of items to buffer to mass-insert in the database.
          */
-        private const val PARALLEL_EXTRACTIONS = 6
+        private const val BUFFER_COUNT_BEFORE_INSERT = 50
 
         /**
-         * Number of items to buffer to mass-insert in the database.
+         * Longest time the items are buffered before being inserted in the database.
          */
-        private const val BUFFER_COUNT_BEFORE_INSERT = 20
+        private const val BUFFER_TIMESPAN_MILLIS = 2000L
+
+        /**
+         * Time after which the idle writer thread is stopped.
+         */
+        private const val DATABASE_WRITER_KEEP_ALIVE_SECONDS = 30L
+
+        /**
+         * Single thread writing the loaded feeds to the database, the writes are never
+         * concurrent and are done in the order they are requested. The thread is a daemon and is
+         * stopped when idle, so it does not outlive the loads.
+         */
+        private val DATABASE_WRITER = Schedulers.from(
+            ThreadPoolExecutor(
+                1, 1, DATABASE_WRITER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, LinkedBlockingQueue(),
+                ThreadFactory { runnable ->
+                    Thread(runnable, "$TAG-writer").apply { isDaemon = true }
+                }
+            ).apply { allowCoreThreadTimeOut(true) }
+        )
     }
 }
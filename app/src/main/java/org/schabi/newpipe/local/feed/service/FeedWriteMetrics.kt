@@ -0,0 +1,54 @@
+package org.schabi.newpipe.local.feed.service
+
+/**
+ * Latency of the database transactions done while loading the feed.
+ */
+class FeedWriteMetrics {
+    /**
+     * Number of transactions, one for each batch of results.
+     */
+    @Volatile
+    var batchCount = 0
+        private set
+
+    /**
+     * Number of results written.
+     */
+    @Volatile
+    var resultCount = 0
+        private set
+
+    @Volatile
+    var totalWriteMillis = 0L
+        private set
+
+    @Volatile
+    var maxWriteMillis = 0L
+        private set
+
+    /**
+     * Longest time a result waited between being loaded and its transaction being committed.
+     */
+    @Volatile
+    var maxLatencyMillis = 0L
+        private set
+
+    val averageWriteMillis: Long
+        get() = if (batchCount == 0) 0 else totalWriteMillis / batchCount
+
+    /**
+     * Called by the single writer only.
+     */
+    fun addBatch(resultCount: Int, writeMillis: Long, latencyMillis: Long) {
+        batchCount++
+        this.resultCount += resultCount
+        totalWriteMillis += writeMillis
+        maxWriteMillis = maxOf(maxWriteMillis, writeMillis)
+        maxLatencyMillis = maxOf(maxLatencyMillis, latencyMillis)
+    }
+
+    override fun toString(): String {
+        return "$resultCount results in $batchCount batches, write average = " +
+            "${averageWriteMillis}ms max = ${maxWriteMillis}ms, latency max = ${maxLatencyMillis}ms"
+    }
+}
@@ -20,6 +20,8 @@ package org.schabi.newpipe.local.history;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 import androidx.preference.PreferenceManager;
@@ -36,6 +38,7 @@ import org.schabi.newpipe.database.history.model.StreamHistoryEntity;
 import org.schabi.newpipe.database.history.model.StreamHistoryEntry;
 import org.schabi.newpipe.database.playlist.PlaylistStreamEntry;
 import org.schabi.newpipe.database.playlist.model.PlaylistStreamEntity;
+import org.schabi.newpipe.database.stream.StreamStateWithUrl;
 import org.schabi.newpipe.database.stream.StreamStatisticsEntry;
 import org.schabi.newpipe.database.stream.dao.StreamDAO;
 import org.schabi.newpipe.database.stream.dao.StreamStateDAO;
@@ -52,7 +55,9 @@ import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Flowable;
@@ -312,56 +317,99 @@ public class HistoryRecordManager {
         }).subscribeOn(Schedulers.io());
     }
 
+    /**
+     * Loads the states of all the given items, resolving them with as few queries as possible.
+     *
+     * @param infos the items to load the states for
+     * @return the states, in the same order as {@code infos}, with {@code null} for items that
+     *         are not in the database or have no saved state
+     */
     public Single<List<StreamStateEntity>> loadStreamStateBatch(final List<InfoItem> infos) {
         return Single.fromCallable(() -> {
-            final List<StreamStateEntity> result = new ArrayList<>(infos.size());
+            // group the urls by service, since each lookup can only match a single service
+            final SparseArray<List<String>> urlsByService = new SparseArray<>();
             for (final InfoItem info : infos) {
-                final List<StreamEntity> entities = streamTable
-                        .getStream(info.getServiceId(), info.getUrl()).blockingFirst();
-                if (entities.isEmpty()) {
-                    result.add(null);
-                    continue;
+                List<String> urls = urlsByService.get(info.getServiceId());
+                if (urls == null) {
+                    urls = new ArrayList<>();
+                    urlsByService.put(info.getServiceId(), urls);
                 }
-                final List<StreamStateEntity> states = streamStateTable
-                        .getState(entities.get(0).getUid()).blockingFirst();
-                if (states.isEmpty()) {
-                    result.add(null);
-                } else {
-                    result.add(states.get(0));
+                urls.add(info.getUrl());
+            }
+
+            final SparseArray<Map<String, StreamStateEntity>> statesByService =
+                    new SparseArray<>(urlsByService.size());
+            for (int i = 0; i < urlsByService.size(); i++) {
+                final int serviceId = urlsByService.keyAt(i);
+                final List<String> urls = urlsByService.valueAt(i);
+                final Map<String, StreamStateEntity> states = new HashMap<>();
+                for (int from = 0; from < urls.size(); from += StreamStateDAO.MAX_BATCH_SIZE) {
+                    final int to = Math.min(from + StreamStateDAO.MAX_BATCH_SIZE, urls.size());
+                    for (final StreamStateWithUrl stateWithUrl
+                            : streamStateTable.getStatesByUrl(serviceId, urls.subList(from, to))) {
+                        states.put(stateWithUrl.getUrl(), stateWithUrl.getState());
+                    }
                 }
+                statesByService.put(serviceId, states);
+            }
+
+            final List<StreamStateEntity> result = new ArrayList<>(infos.size());
+            for (final InfoItem info : infos) {
+                result.add(statesByService.get(info.getServiceId()).get(info.getUrl()));
             }
             return result;
         }).subscribeOn(Schedulers.io());
     }
 
+    /**
+     * Loads the states of all the given local items, resolving them with as few queries as
+     * possible.
+     *
+     * @param items the items to load the states for
+     * @return the states, in the same order as {@code items}, with {@code null} for items that
+     *         do not refer to a stream or have no saved state
+     */
     public Single<List<StreamStateEntity>> loadLocalStreamStateBatch(
             final List<? extends LocalItem> items) {
         return Single.fromCallable(() -> {
-            final List<StreamStateEntity> result = new ArrayList<>(items.size());
+            final List<Long> streamIds = new ArrayList<>(items.size());
             for (final LocalItem item : items) {
-                final long streamId;
-                if (item instanceof StreamStatisticsEntry) {
-                    streamId = ((StreamStatisticsEntry) item).getStreamId();
-                } else if (item instanceof PlaylistStreamEntity) {
-                    streamId = ((PlaylistStreamEntity) item).getStreamUid();
-                } else if (item instanceof PlaylistStreamEntry) {
-                    streamId = ((PlaylistStreamEntry) item).getStreamId();
-                } else {
-                    result.add(null);
-                    continue;
+                final long streamId = getStreamIdOf(item);
+                if (streamId != -1) {
+                    streamIds.add(streamId);
                 }
-                final List<StreamStateEntity> states = streamStateTable.getState(streamId)
-                        .blockingFirst();
-                if (states.isEmpty()) {
-                    result.add(null);
-                } else {
-                    result.add(states.get(0));
+            }
+
+            final LongSparseArray<StreamStateEntity> states = new LongSparseArray<>();
+            for (int from = 0; from < streamIds.size(); from += StreamStateDAO.MAX_BATCH_SIZE) {
+                final int to = Math.min(from + StreamStateDAO.MAX_BATCH_SIZE, streamIds.size());
+                for (final StreamStateEntity state
+                        : streamStateTable.getStates(streamIds.subList(from, to))) {
+                    states.put(state.getStreamUid(), state);
                 }
             }
+
+            final List<StreamStateEntity> result = new ArrayList<>(items.size());
+            for (final LocalItem item : items) {
+                final long streamId = getStreamIdOf(item);
+                result.add(streamId == -1 ? null : states.get(streamId));
+            }
             return result;
         }).subscribeOn(Schedulers.io());
     }
 
+    private static long getStreamIdOf(final LocalItem item) {
+        if (item instanceof StreamStatisticsEntry) {
+            return ((StreamStatisticsEntry) item).getStreamId();
+        } else if (item instanceof PlaylistStreamEntity) {
+            return ((PlaylistStreamEntity) item).getStreamUid();
+        } else if (item instanceof PlaylistStreamEntry) {
+            return ((PlaylistStreamEntry) item).getStreamId();
+        } else {
+            return -1;
+        }
+    }
+
     ///////////////////////////////////////////////////////
     // Utility
     ///////////////////////////////////////////////////////
@@ -5,8 +5,13 @@ import org.schabi.newpipe.streams.io.SharpStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
+ * Reads binary data from a {@link SharpStream}. If the stream supports
+ * {@link SharpStream#map(long, int) mapping}, the content is read from memory and seeks are O(1),
+ * otherwise, the stream is read through a buffer.
+ *
  * @author kapodamy
  */
 public class DataReader {
@@ -16,6 +21,7 @@ public class DataReader {
     public static final int FLOAT_SIZE = 4;
 
     private static final int BUFFER_SIZE = 128 * 1024; // 128 KiB
+    private static final int MAP_WINDOW_SIZE = 8 * 1024 * 1024; // 8 MiB
 
     private long position = 0;
     private final SharpStream stream;
@@ -23,9 +29,46 @@ public class DataReader {
     private InputStream view;
     private int viewSize;
 
+    /**
+     * Length of the stream if the content is mapped into memory, or {@code -1} if read through
+     * the buffer
+     */
+    private final long mappedLength;
+
+    /**
+     * Region of the stream mapped into memory, starting at {@link #windowStart}. Only a window of
+     * {@link #MAP_WINDOW_SIZE} bytes is mapped at a time, so the address space used by a reader is
+     * bounded, whatever the size of the stream.
+     */
+    private ByteBuffer window;
+    private long windowStart;
+
+    /**
+     * Position of the stream while using the mapped content. The stream is moved forward in
+     * steps of {@link #BUFFER_SIZE}, this way the stream position still reports the consumed
+     * data (used by the callers to track the progress) without a seek on every read.
+     */
+    private long streamPosition = 0;
+
     public DataReader(final SharpStream stream) {
         this.stream = stream;
         this.readOffset = this.readBuffer.length;
+        this.mappedLength = tryMap();
+    }
+
+    private long tryMap() {
+        if (!stream.canMap()) {
+            return -1;
+        }
+
+        try {
+            final long length = stream.available();
+            window = stream.map(0, (int) Math.min(length, MAP_WINDOW_SIZE));
+            return length;
+        } catch (final IOException e) {
+            // not enough address space, use the buffered reads
+            return -1;
+        }
     }
 
     public long position() {
@@ -33,6 +76,19 @@ public class DataReader {
     }
 
     public int read() throws IOException {
+        if (mappedLength >= 0) {
+            if (position >= mappedLength) {
+                return -1;
+            }
+
+            final int index = windowIndex(1);
+            final int value = window.get(index) & 0xFF;
+            position++;
+            syncStream();
+
+            return value;
+        }
+
         if (fillBuffer()) {
             return -1;
         }
@@ -44,6 +100,15 @@ public class DataReader {
     }
 
     public long skipBytes(final long byteAmount) throws IOException {
+        if (mappedLength >= 0) {
+            final long amount = Math.max(0, Math.min(byteAmount, mappedLength - position));
+
+            position += amount;
+            syncStream();
+
+            return amount;
+        }
+
         long amount = byteAmount;
         if (readCount < 0) {
             return 0;
@@ -65,6 +130,15 @@ public class DataReader {
     }
 
     public int readInt() throws IOException {
+        if (mappedLength >= 0) {
+            final int index = mappedRead(INTEGER_SIZE);
+            final int value = window.getInt(index);
+            position += INTEGER_SIZE;
+            syncStream();
+
+            return value;
+        }
+
         primitiveRead(INTEGER_SIZE);
         return primitive[0] << 24 | primitive[1] << 16 | primitive[2] << 8 | primitive[3];
     }
@@ -76,15 +150,34 @@ public class DataReader {
 
 
     public short readShort() throws IOException {
+        if (mappedLength >= 0) {
+            final int index = mappedRead(SHORT_SIZE);
+            final short value = window.getShort(index);
+            position += SHORT_SIZE;
+            syncStream();
+
+            return value;
+        }
+
         primitiveRead(SHORT_SIZE);
         return (short) (primitive[0] << 8 | primitive[1]);
     }
 
     public long readLong() throws IOException {
+        if (mappedLength >= 0) {
+            final int index = mappedRead(LONG_SIZE);
+            final long value = window.getLong(index);
+            position += LONG_SIZE;
+            syncStream();
+
+            return value;
+        }
+
         primitiveRead(LONG_SIZE);
         final long high
                 = primitive[0] << 24 | primitive[1] << 16 | primitive[2] << 8 | primitive[3];
-        final long low = primitive[4] << 24 | primitive[5] << 16 | primitive[6] << 8 | primitive[7];
+        final long low = (primitive[4] << 24 | primitive[5] << 16 | primitive[6] << 8
+                | primitive[7]) & 0xffffffffL;
         return high << 32 | low;
     }
 
@@ -93,6 +186,28 @@ public class DataReader {
     }
 
     public int read(final byte[] buffer, final int off, final int c) throws IOException {
+        if (mappedLength >= 0) {
+            final int count = (int) Math.min(c, mappedLength - position);
+            if (count < 1 && c > 0) {
+                return -1;
+            }
+
+            int total = 0;
+            while (total < count) {
+                final int index = windowIndex(1);
+                final int read = Math.min(count - total, window.limit() - index);
+
+                window.position(index);
+                window.get(buffer, off + total, read);
+
+                position += read;
+                total += read;
+            }
+            syncStream();
+
+            return total;
+        }
+
         int offset = off;
         int count = c;
 
@@ -133,12 +248,20 @@ public class DataReader {
     }
 
     public boolean available() {
+        if (mappedLength >= 0) {
+            return position < mappedLength;
+        }
+
         return readCount > 0 || stream.available() > 0;
     }
 
     public void rewind() throws IOException {
         stream.rewind();
 
+        if (mappedLength >= 0) {
+            streamPosition = 0;
+        }
+
         if ((position - viewSize) > 0) {
             viewSize = 0; // drop view
         } else {
@@ -151,13 +274,14 @@ public class DataReader {
     }
 
     public boolean canRewind() {
-        return stream.canRewind();
+        return mappedLength >= 0 || stream.canRewind();
     }
 
     /**
      * Wraps this instance of {@code DataReader} into {@code InputStream}
      * object. Note: Any read in the {@code DataReader} will not modify
-     * (decrease) the view size
+     * (decrease) the view size. The view reads through this {@code DataReader}, the data is
+     * copied even if the content is mapped into memory.
      *
      * @param size the size of the view
      * @return the view
@@ -230,6 +354,54 @@ public class DataReader {
 
     private final short[] primitive = new short[LONG_SIZE];
 
+    /**
+     * Checks if a primitive can be read from the mapped content
+     *
+     * @param amount size of the primitive
+     * @return the index of the primitive in the {@link #window}
+     * @throws IOException if the stream is truncated, or the mapping fails
+     */
+    private int mappedRead(final int amount) throws IOException {
+        if (mappedLength - position < amount) {
+            throw new EOFException("Truncated stream, missing "
+                    + (amount - (mappedLength - position)) + " bytes");
+        }
+
+        return windowIndex(amount);
+    }
+
+    /**
+     * Moves the {@link #window} if the bytes at the current position are not mapped. The previous
+     * window is unmapped by the garbage collector.
+     *
+     * @param amount amount of bytes to read at the current position, at most
+     *               {@link #MAP_WINDOW_SIZE} and never beyond the end of the stream
+     * @return the index of the current position in the window
+     * @throws IOException if the mapping fails
+     */
+    private int windowIndex(final int amount) throws IOException {
+        if (position < windowStart || position + amount > windowStart + window.limit()) {
+            final int size = (int) Math.min(mappedLength - position, MAP_WINDOW_SIZE);
+            window = stream.map(position, size);
+            windowStart = position;
+        }
+
+        return (int) (position - windowStart);
+    }
+
+    /**
+     * Moves the stream forward, up to the data read from the mapped content. The stream never
+     * goes beyond the consumed data, the callers can overwrite the data before the stream position.
+     */
+    private void syncStream() throws IOException {
+        final long amount = position - streamPosition;
+        if (amount < BUFFER_SIZE && position < mappedLength) {
+            return;
+        }
+
+        streamPosition += stream.skip(amount);
+    }
+
     private void primitiveRead(final int amount) throws IOException {
         final byte[] buffer = new byte[amount];
         final int read = read(buffer, 0, amount);
@@ -253,7 +425,8 @@ public class DataReader {
         if (readCount < 0) {
             return true;
         }
-        if (readOffset >= readBuffer.length) {
+        // the stream can return fewer bytes than requested, refill once the buffer is consumed
+        if (readCount == 0) {
             readCount = stream.read(readBuffer);
             if (readCount < 1) {
                 readCount = -1;
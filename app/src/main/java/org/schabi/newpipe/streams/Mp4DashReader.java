@@ -62,6 +62,9 @@ public class Mp4DashReader {
     private int selectedTrack = -1;
     private Box backupBox = null;
 
+    private long moofOffset = -1;
+    private long headerLength = 0;
+
     public enum TrackKind {
         Audio, Video, Subtitles, Other
     }
@@ -140,6 +143,14 @@ public class Mp4DashReader {
         }
 
         backupBox = box;
+        headerLength = stream.position();
+    }
+
+    /**
+     * @return amount of bytes read by {@link #parse()}, including the header of the first moof
+     */
+    public long getHeaderLength() {
+        return headerLength;
     }
 
     Mp4Track selectTrack(final int index) {
@@ -173,6 +184,27 @@ public class Mp4DashReader {
         return tracks;
     }
 
+    /**
+     * Moves the reader to the fragment at the given offset, the next call to
+     * {@link #getNextChunk(boolean)} returns it. Used to resume a previous read, the offset must
+     * be the first fragment or any fragment after the current position.
+     *
+     * @param offset offset of the moof box, see {@link Mp4DashChunk#offset}
+     * @throws IOException if an I/O error occurs, or there is no fragment in the offset
+     */
+    public void seekFragment(final long offset) throws IOException {
+        if (offset != box.offset) {
+            final long skip = offset - stream.position();
+            if (skip < 0 || stream.skipBytes(skip) != skip) {
+                throw new EOFException("cannot seek to the fragment at " + offset);
+            }
+            box = readBox(ATOM_MOOF);
+        }
+
+        moof = null;
+        chunkZero = false;
+    }
+
     public Mp4DashChunk getNextChunk(final boolean infoOnly) throws IOException {
         final Mp4Track track = tracks[selectedTrack];
 
@@ -195,6 +227,7 @@ public class Mp4DashReader {
                     }
 
                     moof = parseMoof(box, track.trak.tkhd.trackId);
+                    moofOffset = box.offset;
 
                     if (moof.traf != null) {
 
@@ -235,6 +268,7 @@ public class Mp4DashReader {
 
                     final Mp4DashChunk chunk = new Mp4DashChunk();
                     chunk.moof = moof;
+                    chunk.offset = moofOffset;
                     if (!infoOnly) {
                         chunk.data = stream.getView(moof.traf.trun.chunkSize);
                     }
@@ -907,8 +941,16 @@ public class Mp4DashReader {
     public static class Mp4DashChunk {
         public InputStream data;
         public Moof moof;
+        public long offset; // offset of the moof box
         private int i = 0;
 
+        /**
+         * @return amount of samples already read from this chunk
+         */
+        public int getSampleIndex() {
+            return i;
+        }
+
         public TrunEntry getNextSampleInfo() {
             if (i >= moof.traf.trun.entryCount) {
                 return null;
@@ -1,22 +1,33 @@
 package org.schabi.newpipe.streams;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import org.schabi.newpipe.streams.Mp4DashReader.Hdlr;
 import org.schabi.newpipe.streams.Mp4DashReader.Mdia;
+import org.schabi.newpipe.streams.Mp4DashReader.Moof;
 import org.schabi.newpipe.streams.Mp4DashReader.Mp4DashChunk;
-import org.schabi.newpipe.streams.Mp4DashReader.Mp4DashSample;
 import org.schabi.newpipe.streams.Mp4DashReader.Mp4Track;
 import org.schabi.newpipe.streams.Mp4DashReader.TrackKind;
 import org.schabi.newpipe.streams.Mp4DashReader.TrunEntry;
 import org.schabi.newpipe.streams.io.SharpStream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * @author kapodamy
  */
-public class Mp4FromDashWriter {
+public class Mp4FromDashWriter implements ResumableMuxer {
     private static final int EPOCH_OFFSET = 2082844800;
     private static final short DEFAULT_TIMESCALE = 1000;
     private static final byte SAMPLES_PER_CHUNK_INIT = 2;
@@ -24,19 +35,38 @@ public class Mp4FromDashWriter {
     private static final byte SAMPLES_PER_CHUNK = 6;
     // near 3.999 GiB
     private static final long THRESHOLD_FOR_CO64 = 0xFFFEFFFFL;
-    // 2.2 MiB enough for: 1080p 60fps 00h35m00s
-    private static final int THRESHOLD_MOOV_LENGTH = (256 * 1024) + (2048 * 1024);
+    // samples read ahead of the muxer in every track, in parallel mode
+    private static final int PREFETCH_SAMPLES = 32;
 
     private final long time;
 
     private ByteBuffer auxBuffer;
     private SharpStream outStream;
 
-    private long lastWriteOffset = -1;
     private long writeOffset;
 
     private boolean moovSimulation = true;
 
+    private boolean singlePass = false;
+    private Mp4SampleTables[] sampleTables;
+    private Sample currentSample = new Sample();
+
+    private boolean parallel = false;
+    private List<TrackPrefetcher<Sample>> prefetchers;
+
+    // state of the samples writing, stored in the checkpoints
+    private long mdatOffset;
+    private int[] chunkIndex;
+    private int currentTrack;
+    private int chunksWritten;
+    private boolean samplesDone = false;
+    // last sample written of every track: offset of its fragment and index in the fragment
+    private long[] fragmentOffsets;
+    private int[] fragmentSamples;
+
+    private MuxerCheckpoint.Listener checkpointListener = null;
+    private boolean resumed = false;
+
     private boolean done = false;
     private boolean parsed = false;
 
@@ -116,6 +146,81 @@ public class Mp4FromDashWriter {
         overrideMainBrand = brand;
     }
 
+    /**
+     * Reads the sources only one time, the sample tables are collected while the samples are
+     * written, and the moov box is placed at the end of the file (after the mdat box).
+     * <p>
+     * Otherwise, the sources are read two times: the first pass only reads the fragments headers
+     * to calculate the size of the moov box, which is placed at the start of the file.
+     *
+     * @param singlePass {@code true} to read the sources only one time
+     */
+    public void setSinglePass(final boolean singlePass) {
+        this.singlePass = singlePass;
+    }
+
+    /**
+     * Reads every source in its own thread, ahead of the muxer. The muxing itself still runs in
+     * the calling thread, this only moves the parsing and the reads of the sources to other
+     * cores.
+     *
+     * @param parallel {@code true} to read the sources in parallel
+     */
+    public void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    @Override
+    public long getHeaderLength(final int source) {
+        return readers[source].getHeaderLength();
+    }
+
+    /**
+     * Sets the listener of the checkpoints, only taken in the single pass mode
+     */
+    @Override
+    public void setCheckpointListener(@Nullable final MuxerCheckpoint.Listener listener) {
+        checkpointListener = listener;
+    }
+
+    @Override
+    public void resume(@NonNull final MuxerCheckpoint checkpoint) throws IOException {
+        if (tracks == null) {
+            throw new IllegalStateException("tracks must be selected first");
+        }
+        if (!singlePass) {
+            throw new IllegalStateException("only the single pass mode can be resumed");
+        }
+
+        final DataInputStream state =
+                new DataInputStream(new ByteArrayInputStream(checkpoint.state));
+
+        samplesDone = state.readBoolean();
+        writeOffset = state.readLong();
+        mdatOffset = state.readLong();
+        currentTrack = state.readInt();
+        chunksWritten = state.readInt();
+
+        chunkIndex = new int[readers.length];
+        fragmentOffsets = new long[readers.length];
+        fragmentSamples = new int[readers.length];
+        sampleTables = new Mp4SampleTables[readers.length];
+
+        for (int i = 0; i < readers.length; i++) {
+            chunkIndex[i] = state.readInt();
+            fragmentOffsets[i] = state.readLong();
+            fragmentSamples[i] = state.readInt();
+            sampleTables[i] = new Mp4SampleTables();
+            sampleTables[i].restore(state);
+
+            if (!samplesDone && chunkIndex[i] >= 0 && fragmentOffsets[i] >= 0) {
+                seekSample(i, fragmentOffsets[i], fragmentSamples[i]);
+            }
+        }
+
+        resumed = true;
+    }
+
     public boolean isDone() {
         return done;
     }
@@ -128,6 +233,8 @@ public class Mp4FromDashWriter {
         done = true;
         parsed = true;
 
+        stopPrefetch();
+
         for (final SharpStream src : sourceTracks) {
             src.close();
         }
@@ -140,9 +247,10 @@ public class Mp4FromDashWriter {
 
         auxBuffer = null;
         outStream = null;
+        sampleTables = null;
+        currentSample = null;
     }
 
-    @SuppressWarnings("MethodLength")
     public void build(final SharpStream output) throws IOException {
         if (done) {
             throw new RuntimeException("already done");
@@ -156,351 +264,412 @@ public class Mp4FromDashWriter {
         //          not allowed for very short tracks (less than 0.5 seconds)
         //
         outStream = output;
-        long read = 8; // mdat box header size
-        long totalSampleSize = 0;
-        final int[] sampleExtra = new int[readers.length];
-        final int[] defaultMediaTime = new int[readers.length];
-        final int[] defaultSampleDuration = new int[readers.length];
-        final int[] sampleCount = new int[readers.length];
 
-        final TablesInfo[] tablesInfo = new TablesInfo[tracks.length];
-        for (int i = 0; i < tablesInfo.length; i++) {
-            tablesInfo[i] = new TablesInfo();
-        }
-
-        final int singleSampleBuffer;
+        final int firstChunkSamples;
+        final int chunkSamples;
         if (tracks.length == 1 && tracks[0].kind == TrackKind.Audio) {
             // near 1 second of audio data per chunk, avoid split the audio stream in large chunks
-            singleSampleBuffer = tracks[0].trak.mdia.mdhdTimeScale / 1000;
+            chunkSamples = tracks[0].trak.mdia.mdhdTimeScale / 1000;
+            firstChunkSamples = chunkSamples;
         } else {
-            singleSampleBuffer = -1;
+            chunkSamples = SAMPLES_PER_CHUNK;
+            firstChunkSamples = SAMPLES_PER_CHUNK_INIT;
         }
 
+        int ftypSize = 0;
+        int moovSize = 0;
+        boolean is64 = false;
 
-        for (int i = 0; i < readers.length; i++) {
-            int samplesSize = 0;
-            int sampleSizeChanges = 0;
-            int compositionOffsetLast = -1;
-
-            Mp4DashChunk chunk;
-            while ((chunk = readers[i].getNextChunk(true)) != null) {
-
-                if (defaultMediaTime[i] < 1 && chunk.moof.traf.tfhd.defaultSampleDuration > 0) {
-                    defaultMediaTime[i] = chunk.moof.traf.tfhd.defaultSampleDuration;
-                }
-
-                read += chunk.moof.traf.trun.chunkSize;
-                sampleExtra[i] += chunk.moof.traf.trun.chunkDuration; // calculate track duration
-
-                TrunEntry info;
-                while ((info = chunk.getNextSampleInfo()) != null) {
-                    if (info.isKeyframe) {
-                        tablesInfo[i].stss++;
-                    }
-
-                    if (info.sampleDuration > defaultSampleDuration[i]) {
-                        defaultSampleDuration[i] = info.sampleDuration;
-                    }
+        if (resumed) {
+            // the output already has the data written before the checkpoint
+            outSeek(writeOffset);
+        } else {
+            writeOffset = 0;
+            currentTrack = 0;
+            chunksWritten = 0;
+            chunkIndex = new int[readers.length];
+            fragmentOffsets = new long[readers.length];
+            fragmentSamples = new int[readers.length];
+            Arrays.fill(fragmentOffsets, -1);
+
+            sampleTables = new Mp4SampleTables[readers.length];
+            for (int i = 0; i < sampleTables.length; i++) {
+                sampleTables[i] = new Mp4SampleTables();
+            }
 
-                    tablesInfo[i].stsz++;
-                    if (samplesSize != info.sampleSize) {
-                        samplesSize = info.sampleSize;
-                        sampleSizeChanges++;
-                    }
+            if (!singlePass) {
+                // first pass, only read the fragments headers to collect the sample tables
+                for (int i = 0; i < readers.length; i++) {
+                    Mp4DashChunk chunk;
+                    while ((chunk = readers[i].getNextChunk(true)) != null) {
+                        sampleTables[i].addFragment(chunk.moof);
 
-                    if (info.hasCompositionTimeOffset) {
-                        if (info.sampleCompositionTimeOffset != compositionOffsetLast) {
-                            tablesInfo[i].ctts++;
-                            compositionOffsetLast = info.sampleCompositionTimeOffset;
+                        TrunEntry info;
+                        while ((info = chunk.getNextSampleInfo()) != null) {
+                            sampleTables[i].addSample(info);
                         }
                     }
 
-                    totalSampleSize += info.sampleSize;
+                    readers[i].rewind();
+                    sampleTables[i].planChunks(firstChunkSamples, chunkSamples);
                 }
             }
 
-            if (defaultMediaTime[i] < 1) {
-                defaultMediaTime[i] = defaultSampleDuration[i];
-            }
+            ftypSize = makeFtyp();
+            mdatOffset = writeOffset;
 
-            readers[i].rewind();
-
-            if (singleSampleBuffer > 0) {
-                initChunkTables(tablesInfo[i], singleSampleBuffer, singleSampleBuffer);
+            if (singlePass) {
+                // reserve space for a 64-bit mdat header, in case the mdat ends larger than 4 GiB
+                outWrite(new byte[]{0x00, 0x00, 0x00, 0x08, 0x66, 0x72, 0x65, 0x65}); // free
+                outWrite(makeMdat(0, false)); // the size is set later
             } else {
-                initChunkTables(tablesInfo[i], SAMPLES_PER_CHUNK_INIT, SAMPLES_PER_CHUNK);
-            }
+                long totalSampleSize = 0;
+                for (final Mp4SampleTables tables : sampleTables) {
+                    totalSampleSize += tables.totalSampleSize;
+                }
 
-            sampleCount[i] = tablesInfo[i].stsz;
+                moovSize = simulateMoov(false);
+                is64 = ftypSize + moovSize + 8 + totalSampleSize > THRESHOLD_FOR_CO64;
+                if (is64) {
+                    moovSize = simulateMoov(true);
+                }
 
-            if (sampleSizeChanges == 1) {
-                tablesInfo[i].stsz = 0;
-                tablesInfo[i].stszDefault = samplesSize;
-            } else {
-                tablesInfo[i].stszDefault = 0;
-            }
+                // reserve moov space in the output stream
+                int length = moovSize;
+                final byte[] buffer = new byte[Math.min(length, 64 * 1024)]; // 64 KiB
+                while (length > 0) {
+                    final int count = Math.min(length, buffer.length);
+                    outWrite(buffer, count);
+                    length -= count;
+                }
 
-            if (tablesInfo[i].stss == tablesInfo[i].stsz) {
-                tablesInfo[i].stss = -1; // for audio tracks (all samples are keyframes)
+                outWrite(makeMdat(totalSampleSize, is64));
             }
+        }
 
-            // ensure track duration
-            if (tracks[i].trak.tkhd.duration < 1) {
-                tracks[i].trak.tkhd.duration = sampleExtra[i]; // this never should happen
+        if (!samplesDone) {
+            if (parallel) {
+                startPrefetch();
             }
-        }
 
+            try {
+                writeSamples(firstChunkSamples, chunkSamples);
+            } finally {
+                stopPrefetch();
+            }
 
-        final boolean is64 = read > THRESHOLD_FOR_CO64;
+            samplesDone = true;
+            if (isCheckpointEnabled()) {
+                saveCheckpoint(); // from here, only the moov box is missing
+            }
+        }
 
-        // calculate the moov size
-        final int auxSize = makeMoov(defaultMediaTime, tablesInfo, is64);
+        final long moovOffset = writeOffset;
+        if (singlePass) {
+            is64 = moovOffset > THRESHOLD_FOR_CO64;
+            moovSize = simulateMoov(is64);
+        }
 
-        if (auxSize < THRESHOLD_MOOV_LENGTH) {
-            auxBuffer = ByteBuffer.allocate(auxSize); // cache moov in the memory
+        final TablesInfo[] tablesInfo = new TablesInfo[readers.length];
+        final int[] defaultMediaTime = new int[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            tablesInfo[i] = sampleTables[i].toTablesInfo();
+            defaultMediaTime[i] = sampleTables[i].getDefaultMediaTime();
         }
 
+        // build the moov in the memory, and fill the sample tables
         moovSimulation = false;
-        writeOffset = 0;
-
-        final int ftypSize = makeFtyp();
+        auxBuffer = ByteBuffer.allocate(moovSize);
+        makeMoov(defaultMediaTime, tablesInfo, is64);
 
-        // reserve moov space in the output stream
-        if (auxSize > 0) {
-            int length = auxSize;
-            final byte[] buffer = new byte[64 * 1024]; // 64 KiB
-            while (length > 0) {
-                final int count = Math.min(length, buffer.length);
-                outWrite(buffer, count);
-                length -= count;
-            }
+        for (int i = 0; i < readers.length; i++) {
+            sampleTables[i].write(auxBuffer, tablesInfo[i], is64);
         }
 
-        if (auxBuffer == null) {
+        if (singlePass) {
+            // moov goes at the end, after the samples
+            outWrite(auxBuffer.array());
+
+            // set the mdat size, use the free box space if a 64-bit size is required
+            final long mdatSize = moovOffset - mdatOffset - 16; // without free and mdat headers
+            if (mdatSize + 8 > 0xFFFFFFFFL) {
+                outSeek(mdatOffset);
+                outWrite(makeMdat(mdatSize, true));
+            } else {
+                outSeek(mdatOffset + 8);
+                outWrite(makeMdat(mdatSize, false));
+            }
+        } else {
+            // dump moov
             outSeek(ftypSize);
+            outWrite(auxBuffer.array());
         }
 
-        // tablesInfo contains row counts
-        // and after returning from makeMoov() will contain those table offsets
-        makeMoov(defaultMediaTime, tablesInfo, is64);
+        auxBuffer = null;
+        sampleTables = null;
+    }
+
+    /**
+     * Calculates the moov size, without writing anything
+     *
+     * @param is64 {@code true} to use 64-bit chunk offsets
+     * @return the size of the moov box
+     */
+    private int simulateMoov(final boolean is64) throws IOException {
+        final TablesInfo[] tablesInfo = new TablesInfo[readers.length];
+        final int[] defaultMediaTime = new int[readers.length];
 
-        // write tables: stts stsc sbgp
-        // reset for ctts table: sampleCount sampleExtra
         for (int i = 0; i < readers.length; i++) {
-            writeEntryArray(tablesInfo[i].stts, 2, sampleCount[i], defaultSampleDuration[i]);
-            writeEntryArray(tablesInfo[i].stsc, tablesInfo[i].stscBEntries.length,
-                    tablesInfo[i].stscBEntries);
-            tablesInfo[i].stscBEntries = null;
-            if (tablesInfo[i].ctts > 0) {
-                sampleCount[i] = 1; // the index is not base zero
-                sampleExtra[i] = -1;
-            }
-            if (tablesInfo[i].sbgp > 0) {
-                writeEntryArray(tablesInfo[i].sbgp, 1, sampleCount[i]);
-            }
-        }
+            tablesInfo[i] = sampleTables[i].toTablesInfo();
+            defaultMediaTime[i] = sampleTables[i].getDefaultMediaTime();
 
-        if (auxBuffer == null) {
-            outRestore();
+            // ensure track duration
+            if (tracks[i].trak.tkhd.duration < 1) {
+                tracks[i].trak.tkhd.duration = sampleTables[i].duration; // this never should happen
+            }
         }
 
-        outWrite(makeMdat(totalSampleSize, is64));
+        final long offset = writeOffset;
+        moovSimulation = true;
+        writeOffset = 0;
 
-        final int[] sampleIndex = new int[readers.length];
-        final int[] sizes
-                = new int[singleSampleBuffer > 0 ? singleSampleBuffer : SAMPLES_PER_CHUNK];
-        final int[] sync = new int[singleSampleBuffer > 0 ? singleSampleBuffer : SAMPLES_PER_CHUNK];
+        final int size = makeMoov(defaultMediaTime, tablesInfo, is64);
 
-        int written = readers.length;
-        while (written > 0) {
-            written = 0;
+        writeOffset = offset;
+        return size;
+    }
 
-            for (int i = 0; i < readers.length; i++) {
-                if (sampleIndex[i] < 0) {
+    /**
+     * Writes the samples of all tracks, interleaved in chunks
+     *
+     * @param firstChunkSamples amount of samples in the first chunk of every track
+     * @param chunkSamples      amount of samples in the rest of chunks
+     */
+    private void writeSamples(final int firstChunkSamples, final int chunkSamples)
+            throws IOException {
+        while (true) {
+            for (; currentTrack < readers.length; currentTrack++) {
+                final int i = currentTrack;
+                if (chunkIndex[i] < 0) {
                     continue; // track is done
                 }
 
-                final long chunkOffset = writeOffset;
-                int syncCount = 0;
-                final int limit;
-                if (singleSampleBuffer > 0) {
-                    limit = singleSampleBuffer;
-                } else {
-                    limit = sampleIndex[i] == 0 ? SAMPLES_PER_CHUNK_INIT : SAMPLES_PER_CHUNK;
+                if (isCheckpointEnabled() && checkpointListener.isCheckpointDue(writeOffset)) {
+                    saveCheckpoint();
                 }
 
+                final long chunkOffset = writeOffset;
+                final int limit = chunkIndex[i] == 0 ? firstChunkSamples : chunkSamples;
+
                 int j = 0;
                 for (; j < limit; j++) {
-                    final Mp4DashSample sample = getNextSample(i);
-
+                    final Sample sample = getNextSample(i);
                     if (sample == null) {
-                        if (tablesInfo[i].ctts > 0 && sampleExtra[i] >= 0) {
-                            writeEntryArray(tablesInfo[i].ctts, 1, sampleCount[i],
-                                    sampleExtra[i]); // flush last entries
-                            outRestore();
-                        }
-                        sampleIndex[i] = -1;
                         break;
                     }
 
-                    sampleIndex[i]++;
-
-                    if (tablesInfo[i].ctts > 0) {
-                        if (sample.info.sampleCompositionTimeOffset == sampleExtra[i]) {
-                            sampleCount[i]++;
-                        } else {
-                            if (sampleExtra[i] >= 0) {
-                                tablesInfo[i].ctts = writeEntryArray(tablesInfo[i].ctts, 2,
-                                        sampleCount[i], sampleExtra[i]);
-                                outRestore();
-                            }
-                            sampleCount[i] = 1;
-                            sampleExtra[i] = sample.info.sampleCompositionTimeOffset;
-                        }
+                    if (singlePass) {
+                        sampleTables[i].addSample(sample.info);
                     }
-
-                    if (tablesInfo[i].stss > 0 && sample.info.isKeyframe) {
-                        sync[syncCount++] = sampleIndex[i];
-                    }
-
-                    if (tablesInfo[i].stsz > 0) {
-                        sizes[j] = sample.data.length;
-                    }
-
-                    outWrite(sample.data, sample.data.length);
+                    outWrite(sample.data, sample.info.sampleSize);
                 }
 
                 if (j > 0) {
-                    written++;
+                    chunksWritten++;
 
-                    if (tablesInfo[i].stsz > 0) {
-                        tablesInfo[i].stsz = writeEntryArray(tablesInfo[i].stsz, j, sizes);
-                    }
-
-                    if (syncCount > 0) {
-                        tablesInfo[i].stss = writeEntryArray(tablesInfo[i].stss, syncCount, sync);
-                    }
-
-                    if (tablesInfo[i].stco > 0) {
-                        if (is64) {
-                            tablesInfo[i].stco = writeEntry64(tablesInfo[i].stco, chunkOffset);
-                        } else {
-                            tablesInfo[i].stco = writeEntryArray(tablesInfo[i].stco, 1,
-                                    (int) chunkOffset);
-                        }
+                    if (singlePass) {
+                        sampleTables[i].addChunk(chunkOffset, j);
+                    } else {
+                        sampleTables[i].setChunkOffset(chunkIndex[i], chunkOffset);
                     }
+                    chunkIndex[i]++;
+                }
 
-                    outRestore();
+                if (j < limit) {
+                    chunkIndex[i] = -1;
                 }
             }
-        }
-
-        if (auxBuffer != null) {
-            // dump moov
-            outSeek(ftypSize);
-            outStream.write(auxBuffer.array(), 0, auxBuffer.capacity());
-            auxBuffer = null;
-        }
-    }
 
-    private Mp4DashSample getNextSample(final int track) throws IOException {
-        if (readersChunks[track] == null) {
-            readersChunks[track] = readers[track].getNextChunk(false);
-            if (readersChunks[track] == null) {
-                return null; // EOF reached
+            if (chunksWritten < 1) {
+                break;
             }
-        }
 
-        final Mp4DashSample sample = readersChunks[track].getNextSample();
-        if (sample == null) {
-            readersChunks[track] = null;
-            return getNextSample(track);
-        } else {
-            return sample;
+            chunksWritten = 0;
+            currentTrack = 0;
         }
     }
 
+    private boolean isCheckpointEnabled() {
+        return singlePass && checkpointListener != null;
+    }
 
-    private int writeEntry64(final int offset, final long value) throws IOException {
-        outBackup();
+    /**
+     * Takes a checkpoint, must be called between chunks
+     */
+    private void saveCheckpoint() throws IOException {
+        final long[] sourceOffsets = new long[readers.length];
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream state = new DataOutputStream(buffer);
 
-        auxSeek(offset);
-        auxWrite(ByteBuffer.allocate(8).putLong(value).array());
+        state.writeBoolean(samplesDone);
+        state.writeLong(writeOffset);
+        state.writeLong(mdatOffset);
+        state.writeInt(currentTrack);
+        state.writeInt(chunksWritten);
+
+        for (int i = 0; i < readers.length; i++) {
+            state.writeInt(chunkIndex[i]);
+            state.writeLong(fragmentOffsets[i]);
+            state.writeInt(fragmentSamples[i]);
+            sampleTables[i].save(state);
+
+            if (samplesDone || chunkIndex[i] < 0) {
+                sourceOffsets[i] = -1; // the track is done
+            } else if (fragmentOffsets[i] < 0) {
+                sourceOffsets[i] = readers[i].getHeaderLength(); // not started
+            } else {
+                sourceOffsets[i] = fragmentOffsets[i];
+            }
+        }
 
-        return offset + 8;
+        state.flush();
+        checkpointListener.onCheckpoint(
+                new MuxerCheckpoint(writeOffset, sourceOffsets, buffer.toByteArray()));
     }
 
-    private int writeEntryArray(final int offset, final int count, final int... values)
+    /**
+     * Moves the reader of the given track after the last sample written before the checkpoint
+     *
+     * @param track          the track index
+     * @param fragmentOffset offset of the fragment of the sample
+     * @param samples        amount of samples of the fragment already written
+     */
+    private void seekSample(final int track, final long fragmentOffset, final int samples)
             throws IOException {
-        outBackup();
+        readers[track].seekFragment(fragmentOffset);
 
-        auxSeek(offset);
+        final Mp4DashChunk chunk = readers[track].getNextChunk(false);
+        if (chunk == null || chunk.offset != fragmentOffset) {
+            throw new IOException("fragment not found at " + fragmentOffset);
+        }
 
-        final int size = count * 4;
-        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < samples; i++) {
+            final TrunEntry info = chunk.getNextSampleInfo();
+            if (info == null) {
+                throw new IOException("missing samples in the fragment at " + fragmentOffset);
+            }
+            skipFully(chunk.data, info.sampleSize);
+        }
 
-        for (int i = 0; i < count; i++) {
-            buffer.putInt(values[i]);
+        readersChunks[track] = chunk;
+    }
+
+    private static void skipFully(final InputStream stream, final int amount) throws IOException {
+        long remaining = amount;
+        while (remaining > 0) {
+            final long skipped = stream.skip(remaining);
+            if (skipped < 1) {
+                throw new EOFException("EOF reached while skipping a sample");
+            }
+            remaining -= skipped;
         }
+    }
 
-        auxWrite(buffer.array());
+    private void startPrefetch() {
+        prefetchers = new ArrayList<>(readers.length);
 
-        return offset + size;
+        for (int i = 0; i < readers.length; i++) {
+            if (chunkIndex[i] < 0) {
+                prefetchers.add(null); // the track was done before the checkpoint
+                continue;
+            }
+
+            final int track = i;
+            final TrackPrefetcher<Sample> prefetcher = new TrackPrefetcher<>(
+                    "Mp4FromDashWriter-track" + i, PREFETCH_SAMPLES, Sample::new,
+                    sample -> readSample(track, sample));
+            prefetchers.add(prefetcher);
+            prefetcher.start();
+        }
     }
 
-    private void outBackup() {
-        if (auxBuffer == null && lastWriteOffset < 0) {
-            lastWriteOffset = writeOffset;
+    private void stopPrefetch() {
+        if (prefetchers == null) {
+            return;
+        }
+
+        for (final TrackPrefetcher<Sample> prefetcher : prefetchers) {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
         }
+        prefetchers = null;
     }
 
     /**
-     * Restore to the previous position before the first call to writeEntry64()
-     * or writeEntryArray() methods.
+     * Gets the next sample of the given track, from the prefetch thread if running
+     *
+     * @param track the track index
+     * @return the sample, or {@code null} if there no more samples
      */
-    private void outRestore() throws IOException {
-        if (lastWriteOffset > 0) {
-            outSeek(lastWriteOffset);
-            lastWriteOffset = -1;
+    private Sample getNextSample(final int track) throws IOException {
+        final Sample sample;
+        if (prefetchers == null) {
+            sample = readSample(track, currentSample) ? currentSample : null;
+        } else {
+            sample = prefetchers.get(track).next();
         }
-    }
 
-    private void initChunkTables(final TablesInfo tables, final int firstCount,
-                                 final int successiveCount) {
-        // tables.stsz holds amount of samples of the track (total)
-        final int totalSamples = (tables.stsz - firstCount);
-        final float chunkAmount = totalSamples / (float) successiveCount;
-        final int remainChunkOffset = (int) Math.ceil(chunkAmount);
-        final boolean remain = remainChunkOffset != (int) chunkAmount;
-        int index = 0;
+        if (sample != null) {
+            if (sample.moof != null && singlePass) {
+                sampleTables[track].addFragment(sample.moof);
+            }
 
-        tables.stsc = 1;
-        if (firstCount != successiveCount) {
-            tables.stsc++;
-        }
-        if (remain) {
-            tables.stsc++;
+            fragmentOffsets[track] = sample.fragmentOffset;
+            fragmentSamples[track] = sample.fragmentIndex;
         }
 
-        // stsc_table_entry = [first_chunk, samples_per_chunk, sample_description_index]
-        tables.stscBEntries = new int[tables.stsc * 3];
-        tables.stco = remainChunkOffset + 1; // total entries in chunk offset box
+        return sample;
+    }
 
-        tables.stscBEntries[index++] = 1;
-        tables.stscBEntries[index++] = firstCount;
-        tables.stscBEntries[index++] = 1;
+    /**
+     * Reads the next sample of the given track
+     *
+     * @param track  the track index
+     * @param sample where the sample is stored
+     * @return {@code false} if there no more samples
+     */
+    private boolean readSample(final int track, final Sample sample) throws IOException {
+        Mp4DashChunk chunk = readersChunks[track];
+        TrunEntry info;
+
+        sample.moof = null;
+        while (chunk == null || (info = chunk.getNextSampleInfo()) == null) {
+            chunk = readers[track].getNextChunk(false);
+            readersChunks[track] = chunk;
+            if (chunk == null) {
+                return false; // EOF reached
+            }
+            sample.moof = chunk.moof;
+        }
 
-        if (firstCount != successiveCount) {
-            tables.stscBEntries[index++] = 2;
-            tables.stscBEntries[index++] = successiveCount;
-            tables.stscBEntries[index++] = 1;
+        if (sample.data.length < info.sampleSize) {
+            sample.data = new byte[Math.max(info.sampleSize, sample.data.length * 2)];
         }
 
-        if (remain) {
-            tables.stscBEntries[index++] = remainChunkOffset + 1;
-            tables.stscBEntries[index++] = totalSamples % successiveCount;
-            tables.stscBEntries[index] = 1;
+        int read = 0;
+        while (read < info.sampleSize) {
+            final int count = chunk.data.read(sample.data, read, info.sampleSize - read);
+            if (count < 0) {
+                throw new EOFException("EOF reached while reading a sample");
+            }
+            read += count;
         }
+
+        sample.info = info;
+        sample.fragmentOffset = chunk.offset;
+        sample.fragmentIndex = chunk.getSampleIndex();
+        return true;
     }
 
     private void outWrite(final byte[] buffer) throws IOException {
@@ -805,7 +974,7 @@ public class Mp4FromDashWriter {
         // And stsz can be empty if has a default sample size
         //
         if (moovSimulation) {
-            make(0x73747473, -1, 2, 1); // stts
+            make(0x73747473, -1, 2, tablesInfo.stts);
             if (tablesInfo.stss > 0) {
                 make(0x73747373, -1, 1, tablesInfo.stss);
             }
@@ -816,7 +985,7 @@ public class Mp4FromDashWriter {
             make(0x7374737A, tablesInfo.stszDefault, 1, tablesInfo.stsz);
             make(is64 ? 0x636F3634 : 0x7374636F, -1, is64 ? 2 : 1, tablesInfo.stco);
         } else {
-            tablesInfo.stts = make(0x73747473, -1, 2, 1);
+            tablesInfo.stts = make(0x73747473, -1, 2, tablesInfo.stts);
             if (tablesInfo.stss > 0) {
                 tablesInfo.stss = make(0x73747373, -1, 1, tablesInfo.stss);
             }
@@ -898,10 +1067,17 @@ public class Mp4FromDashWriter {
         return buffer.array();
     }
 
+    private static final class Sample {
+        Moof moof; // only set in the first sample of every fragment
+        TrunEntry info;
+        byte[] data = new byte[0];
+        long fragmentOffset;
+        int fragmentIndex; // amount of samples read from the fragment, including this one
+    }
+
     static class TablesInfo {
         int stts;
         int stsc;
-        int[] stscBEntries;
         int ctts;
         int stsz;
         int stszDefault;
@@ -0,0 +1,287 @@
+package org.schabi.newpipe.streams;
+
+import org.schabi.newpipe.streams.Mp4DashReader.Moof;
+import org.schabi.newpipe.streams.Mp4DashReader.TrunEntry;
+import org.schabi.newpipe.streams.Mp4FromDashWriter.TablesInfo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sample tables of a track written by {@link Mp4FromDashWriter}, stored in growable primitive
+ * arrays. The stts, ctts and stsc tables are run-length compressed as they are collected (which
+ * is also their layout in the moov box), so every table is serialized in bulk.
+ */
+final class Mp4SampleTables {
+    int sampleCount = 0;
+    long totalSampleSize = 0;
+    long duration = 0;
+    private int defaultSampleDuration = 0;
+    private int maxSampleDuration = 0;
+
+    // stsz: the size of every sample
+    private int[] sizes = new int[1024];
+
+    // stss: index (not base zero) of every sync sample
+    private int[] syncSamples = new int[64];
+    private int syncCount = 0;
+
+    // stts: pairs of [sample_count, sample_delta]
+    private final RunLengthTable stts = new RunLengthTable(16);
+
+    // ctts: pairs of [sample_count, sample_offset]
+    private final RunLengthTable ctts = new RunLengthTable(64);
+    private boolean hasCompositionOffsets = false;
+
+    // stsc: triples of [first_chunk, samples_per_chunk, sample_description_index]
+    private int[] stsc = new int[12];
+    private int stscLength = 0;
+
+    // stco/co64
+    private long[] chunkOffsets = new long[256];
+    private int chunkCount = 0;
+
+    void addFragment(final Moof moof) {
+        if (defaultSampleDuration < 1 && moof.traf.tfhd.defaultSampleDuration > 0) {
+            defaultSampleDuration = moof.traf.tfhd.defaultSampleDuration;
+        }
+        duration += moof.traf.trun.chunkDuration; // calculate track duration
+    }
+
+    void addSample(final TrunEntry info) {
+        if (sampleCount == sizes.length) {
+            sizes = Arrays.copyOf(sizes, sizes.length * 2);
+        }
+        sizes[sampleCount++] = info.sampleSize;
+        totalSampleSize += info.sampleSize;
+
+        if (info.sampleDuration > maxSampleDuration) {
+            maxSampleDuration = info.sampleDuration;
+        }
+
+        if (info.isKeyframe) {
+            if (syncCount == syncSamples.length) {
+                syncSamples = Arrays.copyOf(syncSamples, syncSamples.length * 2);
+            }
+            syncSamples[syncCount++] = sampleCount;
+        }
+
+        stts.add(info.sampleDuration);
+
+        hasCompositionOffsets |= info.hasCompositionTimeOffset;
+        ctts.add(info.sampleCompositionTimeOffset);
+    }
+
+    void addChunk(final long offset, final int samples) {
+        if (chunkCount == chunkOffsets.length) {
+            chunkOffsets = Arrays.copyOf(chunkOffsets, chunkOffsets.length * 2);
+        }
+        chunkOffsets[chunkCount++] = offset;
+
+        if (stscLength > 0 && stsc[stscLength - 2] == samples) {
+            return;
+        }
+        if (stscLength == stsc.length) {
+            stsc = Arrays.copyOf(stsc, stsc.length * 2);
+        }
+        stsc[stscLength++] = chunkCount;
+        stsc[stscLength++] = samples;
+        stsc[stscLength++] = 1;
+    }
+
+    /**
+     * Splits the collected samples in chunks, the offsets must be set later using
+     * {@link #setChunkOffset(int, long)}.
+     *
+     * @param firstCount      amount of samples in the first chunk
+     * @param successiveCount amount of samples in the rest of chunks
+     */
+    void planChunks(final int firstCount, final int successiveCount) {
+        int remaining = sampleCount;
+        int count = firstCount;
+
+        while (remaining > 0) {
+            final int samples = Math.min(remaining, count);
+            addChunk(-1, samples);
+            remaining -= samples;
+            count = successiveCount;
+        }
+    }
+
+    void setChunkOffset(final int index, final long offset) {
+        chunkOffsets[index] = offset;
+    }
+
+    int getDefaultMediaTime() {
+        return defaultSampleDuration > 0 ? defaultSampleDuration : maxSampleDuration;
+    }
+
+    /**
+     * @return the row count of every table, as expected by {@code makeMoov()}
+     */
+    TablesInfo toTablesInfo() {
+        final TablesInfo info = new TablesInfo();
+        info.stts = stts.length / 2;
+        info.stsc = stscLength / 3;
+        info.stco = chunkCount;
+        info.ctts = hasCompositionOffsets ? ctts.length / 2 : 0;
+
+        // for audio tracks (all samples are keyframes)
+        info.stss = syncCount == sampleCount ? -1 : syncCount;
+
+        boolean sameSize = true;
+        for (int i = 1; i < sampleCount && sameSize; i++) {
+            sameSize = sizes[i] == sizes[0];
+        }
+        if (sameSize && sampleCount > 0) {
+            info.stsz = 0;
+            info.stszDefault = sizes[0];
+        } else {
+            info.stsz = sampleCount;
+            info.stszDefault = 0;
+        }
+
+        return info;
+    }
+
+    /**
+     * Writes the content of every table in the space reserved in the moov box
+     *
+     * @param moov    the moov box
+     * @param offsets offset of every table in the moov box, as returned by {@code makeMoov()}
+     * @param is64    {@code true} if the chunk offsets are written in a co64 table
+     */
+    void write(final ByteBuffer moov, final TablesInfo offsets, final boolean is64) {
+        put(moov, offsets.stts, stts.data, stts.length);
+        put(moov, offsets.stsc, stsc, stscLength);
+        if (offsets.ctts > 0) {
+            put(moov, offsets.ctts, ctts.data, ctts.length);
+        }
+        if (offsets.stss > 0) {
+            put(moov, offsets.stss, syncSamples, syncCount);
+        }
+        if (offsets.stsz > 0) {
+            put(moov, offsets.stsz, sizes, sampleCount);
+        }
+
+        moov.position(offsets.stco);
+        if (is64) {
+            moov.asLongBuffer().put(chunkOffsets, 0, chunkCount);
+        } else {
+            for (int i = 0; i < chunkCount; i++) {
+                moov.putInt((int) chunkOffsets[i]);
+            }
+        }
+
+        if (offsets.sbgp > 0) {
+            moov.putInt(offsets.sbgp, sampleCount);
+        }
+    }
+
+    /**
+     * Stores the collected tables, to resume the muxing later, see {@link #restore(DataInput)}
+     *
+     * @param out where the tables are stored
+     * @throws IOException if an I/O error occurs
+     */
+    void save(final DataOutput out) throws IOException {
+        out.writeLong(totalSampleSize);
+        out.writeLong(duration);
+        out.writeInt(defaultSampleDuration);
+        out.writeInt(maxSampleDuration);
+        out.writeBoolean(hasCompositionOffsets);
+
+        writeInts(out, sizes, sampleCount);
+        writeInts(out, syncSamples, syncCount);
+        writeInts(out, stts.data, stts.length);
+        writeInts(out, ctts.data, ctts.length);
+        writeInts(out, stsc, stscLength);
+
+        out.writeInt(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            out.writeLong(chunkOffsets[i]);
+        }
+    }
+
+    /**
+     * Restores the tables stored by {@link #save(DataOutput)}
+     *
+     * @param in where the tables are read
+     * @throws IOException if an I/O error occurs
+     */
+    void restore(final DataInput in) throws IOException {
+        totalSampleSize = in.readLong();
+        duration = in.readLong();
+        defaultSampleDuration = in.readInt();
+        maxSampleDuration = in.readInt();
+        hasCompositionOffsets = in.readBoolean();
+
+        sampleCount = in.readInt();
+        sizes = readInts(in, sampleCount, sizes.length);
+        syncCount = in.readInt();
+        syncSamples = readInts(in, syncCount, syncSamples.length);
+        stts.length = in.readInt();
+        stts.data = readInts(in, stts.length, stts.data.length);
+        ctts.length = in.readInt();
+        ctts.data = readInts(in, ctts.length, ctts.data.length);
+        stscLength = in.readInt();
+        stsc = readInts(in, stscLength, stsc.length);
+
+        chunkCount = in.readInt();
+        chunkOffsets = new long[Math.max(chunkCount, chunkOffsets.length)];
+        for (int i = 0; i < chunkCount; i++) {
+            chunkOffsets[i] = in.readLong();
+        }
+    }
+
+    private static void writeInts(final DataOutput out, final int[] values, final int count)
+            throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    private static int[] readInts(final DataInput in, final int count, final int capacity)
+            throws IOException {
+        final int[] values = new int[Math.max(count, capacity)];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static void put(final ByteBuffer buffer, final int offset, final int[] values,
+                            final int count) {
+        buffer.position(offset);
+        buffer.asIntBuffer().put(values, 0, count);
+    }
+
+    /**
+     * Table of pairs [count, value], a value repeated in consecutive samples is stored once
+     */
+    private static final class RunLengthTable {
+        int[] data;
+        int length = 0;
+
+        RunLengthTable(final int capacity) {
+            data = new int[capacity * 2];
+        }
+
+        void add(final int value) {
+            if (length > 0 && data[length - 1] == value) {
+                data[length - 2]++;
+                return;
+            }
+
+            if (length == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[length++] = 1;
+            data[length++] = value;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.schabi.newpipe.streams;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * State of a {@link ResumableMuxer} at a point where the muxing can be resumed. To resume, the
+ * output must keep the data written before the checkpoint, and every source must be readable
+ * again from the given offset.
+ */
+public final class MuxerCheckpoint {
+    /**
+     * Amount of bytes written in the output, the resumed muxer continues writing at this offset
+     */
+    public final long outputLength;
+
+    /**
+     * Offset in every source where the resumed muxer reads again, or {@code -1} if the source is
+     * not read anymore. The data before the offset is not needed, except the first bytes read
+     * while parsing, see {@link ResumableMuxer#getHeaderLength(int)}.
+     */
+    public final long[] sourceOffsets;
+
+    /**
+     * Internal state of the muxer
+     */
+    public final byte[] state;
+
+    public MuxerCheckpoint(final long outputLength, @NonNull final long[] sourceOffsets,
+                           @NonNull final byte[] state) {
+        this.outputLength = outputLength;
+        this.sourceOffsets = sourceOffsets;
+        this.state = state;
+    }
+
+    public interface Listener {
+        /**
+         * Called by the muxer between samples, the returned value is used to take a checkpoint
+         *
+         * @param outputLength amount of bytes written in the output
+         * @return {@code true} if a checkpoint should be taken now
+         */
+        boolean isCheckpointDue(long outputLength);
+
+        /**
+         * Stores a checkpoint. The output written so far must be flushed before storing it, the
+         * muxer continues writing once this method returns. A last checkpoint is always taken
+         * after all the samples are written, with all the source offsets set to {@code -1}.
+         *
+         * @param checkpoint the checkpoint
+         * @throws IOException if the checkpoint can not be stored
+         */
+        void onCheckpoint(@NonNull MuxerCheckpoint checkpoint) throws IOException;
+    }
+}
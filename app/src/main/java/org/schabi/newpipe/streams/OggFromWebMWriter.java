@@ -9,7 +9,11 @@ import org.schabi.newpipe.streams.WebMReader.SimpleBlock;
 import org.schabi.newpipe.streams.WebMReader.WebMTrack;
 import org.schabi.newpipe.streams.io.SharpStream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -17,7 +21,7 @@ import java.nio.ByteOrder;
 /**
  * @author kapodamy
  */
-public class OggFromWebMWriter implements Closeable {
+public class OggFromWebMWriter implements Closeable, ResumableMuxer {
     private static final byte FLAG_UNSET = 0x00;
     //private static final byte FLAG_CONTINUED = 0x01;
     private static final byte FLAG_FIRST = 0x02;
@@ -35,7 +39,7 @@ public class OggFromWebMWriter implements Closeable {
     private final SharpStream output;
 
     private int sequenceCount = 0;
-    private final int streamId;
+    private int streamId;
     private byte packetFlag = FLAG_FIRST;
 
     private WebMReader webm = null;
@@ -47,6 +51,16 @@ public class OggFromWebMWriter implements Closeable {
     private long webmBlockLastTimecode = 0;
     private long webmBlockNearDuration = 0;
 
+    // blocks read from the current cluster, used to locate the next block in the checkpoints
+    private int webmClusterBlocks = 0;
+
+    private float resolution;
+    private long written = 0;
+    private boolean pagesDone = false;
+
+    private MuxerCheckpoint.Listener checkpointListener = null;
+    private boolean resumed = false;
+
     private short segmentTableSize = 0;
     private final byte[] segmentTable = new byte[255];
     private long segmentTableNextTimestamp = TIME_SCALE_NS;
@@ -128,6 +142,61 @@ public class OggFromWebMWriter implements Closeable {
         }
     }
 
+    @Override
+    public long getHeaderLength(final int source) {
+        return webm.getHeaderLength();
+    }
+
+    @Override
+    public void setCheckpointListener(@Nullable final MuxerCheckpoint.Listener listener) {
+        checkpointListener = listener;
+    }
+
+    @Override
+    public void resume(@NonNull final MuxerCheckpoint checkpoint) throws IOException {
+        if (webmTrack == null) {
+            throw new IllegalStateException("The track must be selected first");
+        }
+
+        final DataInputStream state =
+                new DataInputStream(new ByteArrayInputStream(checkpoint.state));
+
+        pagesDone = state.readBoolean();
+        written = state.readLong();
+        resolution = state.readFloat();
+        streamId = state.readInt();
+        sequenceCount = state.readInt();
+        packetFlag = state.readByte();
+        segmentTableNextTimestamp = state.readLong();
+        webmBlockLastTimecode = state.readLong();
+        webmBlockNearDuration = state.readLong();
+
+        final boolean started = state.readBoolean();
+        final long segmentOffset = state.readLong();
+        final long clusterOffset = state.readLong();
+        final int clusterBlocks = state.readInt();
+
+        if (!pagesDone && started) {
+            // read again the block pending to write
+            webmSegment = webm.seekSegment(segmentOffset);
+            webmCluster = webmSegment.seekCluster(clusterOffset);
+
+            for (int i = 1; i < clusterBlocks; i++) {
+                if (webmCluster.getNextSimpleBlock() == null) {
+                    throw new IOException("missing blocks in the cluster at " + clusterOffset);
+                }
+            }
+
+            webmBlock = webmCluster.getNextSimpleBlock();
+            if (webmBlock == null) {
+                throw new IOException("missing blocks in the cluster at " + clusterOffset);
+            }
+            webmClusterBlocks = clusterBlocks;
+        }
+
+        resumed = true;
+    }
+
     @Override
     public void close() throws IOException {
         done = true;
@@ -145,52 +214,35 @@ public class OggFromWebMWriter implements Closeable {
     }
 
     public void build() throws IOException {
-        final float resolution;
         SimpleBlock bloq;
         final ByteBuffer header = ByteBuffer.allocate(27 + (255 * 255));
         final ByteBuffer page = ByteBuffer.allocate(64 * 1024);
 
         header.order(ByteOrder.LITTLE_ENDIAN);
 
-        /* step 1: get the amount of frames per seconds */
-        switch (webmTrack.kind) {
-            case Audio:
-                resolution = getSampleFrequencyFromTrack(webmTrack.bMetadata);
-                if (resolution == 0f) {
-                    throw new RuntimeException("cannot get the audio sample rate");
-                }
-                break;
-            case Video:
-                // WARNING: untested
-                if (webmTrack.defaultDuration == 0) {
-                    throw new RuntimeException("missing default frame time");
-                }
-                resolution = 1000f / ((float) webmTrack.defaultDuration
-                        / webmSegment.info.timecodeScale);
-                break;
-            default:
-                throw new RuntimeException("not implemented");
+        if (resumed) {
+            // the output already has the pages written before the checkpoint
+            if (output.canSeek()) {
+                output.seek(written);
+            } else {
+                output.rewind();
+                output.skip(written);
+            }
+        } else {
+            writeHeaders(header);
         }
 
-        /* step 2: create packet with code init data */
-        if (webmTrack.codecPrivate != null) {
-            addPacketSegment(webmTrack.codecPrivate.length);
-            makePacketheader(0x00, header, webmTrack.codecPrivate);
-            write(header);
-            output.write(webmTrack.codecPrivate);
-        }
-
-        /* step 3: create packet with metadata */
-        final byte[] buffer = makeMetadata();
-        if (buffer != null) {
-            addPacketSegment(buffer.length);
-            makePacketheader(0x00, header, buffer);
-            write(header);
-            output.write(buffer);
+        if (pagesDone) {
+            return;
         }
 
         /* step 4: calculate amount of packets */
         while (webmSegment != null) {
+            if (page.position() == 0 && segmentTableSize == 0 && checkpointListener != null
+                    && checkpointListener.isCheckpointDue(written)) {
+                saveCheckpoint();
+            }
+
             bloq = getNextBlock();
 
             if (bloq != null && addPacketSegment(bloq)) {
@@ -234,6 +286,96 @@ public class OggFromWebMWriter implements Closeable {
 
             webmBlock = bloq;
         }
+
+        pagesDone = true;
+        if (checkpointListener != null) {
+            saveCheckpoint();
+        }
+    }
+
+    private void writeHeaders(final ByteBuffer header) throws IOException {
+        /* step 1: get the amount of frames per seconds */
+        switch (webmTrack.kind) {
+            case Audio:
+                resolution = getSampleFrequencyFromTrack(webmTrack.bMetadata);
+                if (resolution == 0f) {
+                    throw new RuntimeException("cannot get the audio sample rate");
+                }
+                break;
+            case Video:
+                // WARNING: untested
+                if (webmTrack.defaultDuration == 0) {
+                    throw new RuntimeException("missing default frame time");
+                }
+                resolution = 1000f / ((float) webmTrack.defaultDuration
+                        / webmSegment.info.timecodeScale);
+                break;
+            default:
+                throw new RuntimeException("not implemented");
+        }
+
+        /* step 2: create packet with code init data */
+        if (webmTrack.codecPrivate != null) {
+            addPacketSegment(webmTrack.codecPrivate.length);
+            makePacketheader(0x00, header, webmTrack.codecPrivate);
+            write(header);
+            write(webmTrack.codecPrivate);
+        }
+
+        /* step 3: create packet with metadata */
+        final byte[] buffer = makeMetadata();
+        if (buffer != null) {
+            addPacketSegment(buffer.length);
+            makePacketheader(0x00, header, buffer);
+            write(header);
+            write(buffer);
+        }
+    }
+
+    /**
+     * Takes a checkpoint, must be called between pages
+     */
+    private void saveCheckpoint() throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream state = new DataOutputStream(buffer);
+        final boolean started = webmBlock != null;
+
+        state.writeBoolean(pagesDone);
+        state.writeLong(written);
+        state.writeFloat(resolution);
+        state.writeInt(streamId);
+        state.writeInt(sequenceCount);
+        state.writeByte(packetFlag);
+        state.writeLong(segmentTableNextTimestamp);
+        state.writeLong(webmBlockLastTimecode);
+        state.writeLong(webmBlockNearDuration);
+
+        // position of the block pending to write
+        final long sourceOffset;
+        state.writeBoolean(started);
+        if (started) {
+            state.writeLong(webmSegment.getOffset());
+            state.writeLong(webmCluster.getOffset());
+            state.writeInt(webmClusterBlocks);
+
+            if (pagesDone) {
+                sourceOffset = -1;
+            } else if (webmSegment.getOffset() < webm.getHeaderLength()) {
+                // the start of the first segment is read again while parsing
+                sourceOffset = webmCluster.getOffset();
+            } else {
+                sourceOffset = webmSegment.getOffset();
+            }
+        } else {
+            state.writeLong(-1);
+            state.writeLong(-1);
+            state.writeInt(0);
+            sourceOffset = pagesDone ? -1 : webm.getHeaderLength();
+        }
+
+        state.flush();
+        checkpointListener.onCheckpoint(new MuxerCheckpoint(written,
+                new long[]{sourceOffset}, buffer.toByteArray()));
     }
 
     private int makePacketheader(final long granPos, @NonNull final ByteBuffer buffer,
@@ -292,9 +434,15 @@ public class OggFromWebMWriter implements Closeable {
 
     private void write(final ByteBuffer buffer) throws IOException {
         output.write(buffer.array(), 0, buffer.position());
+        written += buffer.position();
         buffer.position(0);
     }
 
+    private void write(final byte[] buffer) throws IOException {
+        output.write(buffer);
+        written += buffer.length;
+    }
+
     @Nullable
     private SimpleBlock getNextBlock() throws IOException {
         SimpleBlock res;
@@ -318,6 +466,7 @@ public class OggFromWebMWriter implements Closeable {
                 webmSegment = null;
                 return getNextBlock();
             }
+            webmClusterBlocks = 0;
         }
 
         res = webmCluster.getNextSimpleBlock();
@@ -326,6 +475,7 @@ public class OggFromWebMWriter implements Closeable {
             return getNextBlock();
         }
 
+        webmClusterBlocks++;
         webmBlockNearDuration = res.absoluteTimeCodeNs - webmBlockLastTimecode;
         webmBlockLastTimecode = res.absoluteTimeCodeNs;
 
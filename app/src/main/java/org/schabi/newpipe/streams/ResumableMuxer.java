@@ -0,0 +1,37 @@
+package org.schabi.newpipe.streams;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * A muxer that takes checkpoints while builds the output. A new instance of the muxer, with the
+ * sources parsed and the tracks selected again, can continue the muxing from any of them.
+ */
+public interface ResumableMuxer {
+    /**
+     * Gets the amount of bytes at the start of the source read while parsing. These bytes are
+     * read again when the muxing is resumed, no matter the offset stored in the checkpoint.
+     *
+     * @param source the source index
+     * @return the length in bytes
+     */
+    long getHeaderLength(int source);
+
+    /**
+     * @param listener receives the checkpoints while the output is built, or {@code null} to not
+     *                 take checkpoints
+     */
+    void setCheckpointListener(@Nullable MuxerCheckpoint.Listener listener);
+
+    /**
+     * Restores the state stored in a checkpoint, the next build continues from it. Must be called
+     * after the tracks are selected, and the output given to the build must contain the data
+     * written before the checkpoint.
+     *
+     * @param checkpoint the checkpoint to resume from
+     * @throws IOException if the sources can not be read from the checkpoint
+     */
+    void resume(@NonNull MuxerCheckpoint checkpoint) throws IOException;
+}
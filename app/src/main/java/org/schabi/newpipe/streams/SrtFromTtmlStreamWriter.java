@@ -0,0 +1,212 @@
+package org.schabi.newpipe.streams;
+
+import org.schabi.newpipe.streams.io.SharpInputStream;
+import org.schabi.newpipe.streams.io.SharpStream;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Converts TTML subtitles to SRT like {@link SrtFromTtmlWriter}, but reading the TTML with a pull
+ * parser instead of loading the whole document. Each frame is written as soon as its paragraph
+ * ends, so the memory used does not depend on the length of the subtitles.
+ */
+public class SrtFromTtmlStreamWriter {
+    private static final String NEW_LINE = "\r\n";
+    private static final String FEATURE_RELAXED =
+            "http://xmlpull.org/v1/doc/features.html#relaxed";
+
+    /**
+     * HTML entities used by some subtitles. They are not defined in XML, but Jsoup accepts them.
+     */
+    private static final String[][] HTML_ENTITIES = {
+            {"nbsp", "\u00A0"},
+            {"ensp", "\u2002"},
+            {"emsp", "\u2003"},
+            {"thinsp", "\u2009"},
+            {"zwnj", "\u200C"},
+            {"zwj", "\u200D"},
+            {"lrm", "\u200E"},
+            {"rlm", "\u200F"},
+            {"ndash", "\u2013"},
+            {"mdash", "\u2014"},
+            {"lsquo", "\u2018"},
+            {"rsquo", "\u2019"},
+            {"ldquo", "\u201C"},
+            {"rdquo", "\u201D"},
+            {"bull", "\u2022"},
+            {"hellip", "\u2026"},
+            {"laquo", "\u00AB"},
+            {"raquo", "\u00BB"},
+            {"iexcl", "\u00A1"},
+            {"iquest", "\u00BF"},
+            {"middot", "\u00B7"},
+            {"copy", "\u00A9"},
+            {"reg", "\u00AE"},
+            {"trade", "\u2122"},
+            {"deg", "\u00B0"},
+            {"euro", "\u20AC"},
+            {"pound", "\u00A3"},
+            {"yen", "\u00A5"},
+            {"cent", "\u00A2"},
+            {"sect", "\u00A7"},
+            {"para", "\u00B6"},
+            {"times", "\u00D7"},
+            {"divide", "\u00F7"},
+            {"frac12", "\u00BD"},
+            {"frac14", "\u00BC"},
+            {"frac34", "\u00BE"},
+            {"sup2", "\u00B2"},
+            {"sup3", "\u00B3"},
+            {"micro", "\u00B5"},
+            {"shy", "\u00AD"},
+            {"loz", "\u25CA"},
+            {"hearts", "\u2665"},
+            {"larr", "\u2190"},
+            {"rarr", "\u2192"},
+            {"uarr", "\u2191"},
+            {"darr", "\u2193"}
+    };
+
+    private final SharpStream out;
+    private final boolean ignoreEmptyFrames;
+    private final Charset charset = StandardCharsets.UTF_8;
+
+    private int frameIndex = 0;
+
+    public SrtFromTtmlStreamWriter(final SharpStream out, final boolean ignoreEmptyFrames) {
+        this.out = out;
+        this.ignoreEmptyFrames = ignoreEmptyFrames;
+    }
+
+    private static String getTimestamp(final XmlPullParser parser, final String attr) {
+        final String value = parser.getAttributeValue(null, attr);
+        if (value == null) {
+            return "";
+        }
+        return value.replace('.', ','); // SRT subtitles uses comma as decimal separator
+    }
+
+    /**
+     * Appends a text node of a paragraph, collapsing the whitespace runs like the text of the
+     * nodes returned by Jsoup.
+     */
+    private static void appendText(final StringBuilder text, final String value) {
+        boolean lastWasWhitespace = false;
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160) {
+                if (!lastWasWhitespace) {
+                    text.append(' ');
+                    lastWasWhitespace = true;
+                }
+            } else {
+                text.append(c);
+                lastWasWhitespace = false;
+            }
+        }
+    }
+
+    /**
+     * Checks if the element just started matches {@code body > div > p}
+     */
+    private static boolean isFrame(final ArrayList<String> path) {
+        final int depth = path.size();
+        return depth >= 3
+                && path.get(depth - 1).equalsIgnoreCase("p")
+                && path.get(depth - 2).equalsIgnoreCase("div")
+                && path.get(depth - 3).equalsIgnoreCase("body");
+    }
+
+    private void writeFrame(final String begin, final String end, final StringBuilder text)
+            throws IOException {
+        writeString(String.valueOf(frameIndex++));
+        writeString(NEW_LINE);
+        writeString(begin);
+        writeString(" --> ");
+        writeString(end);
+        writeString(NEW_LINE);
+        writeString(text.toString());
+        writeString(NEW_LINE);
+        writeString(NEW_LINE);
+    }
+
+    private void writeString(final String text) throws IOException {
+        out.write(text.getBytes(charset));
+    }
+
+    public void build(final SharpStream ttml) throws IOException {
+        /*
+         * Same support as SrtFromTtmlWriter: only the text and line breaks directly inside the
+         * paragraphs are written, the styling and the nested elements are ignored
+         */
+        final XmlPullParser parser;
+        try {
+            parser = XmlPullParserFactory.newInstance().newPullParser();
+            try {
+                // like Jsoup, keep going on malformed markup and unknown entities
+                parser.setFeature(FEATURE_RELAXED, true);
+            } catch (final XmlPullParserException e) {
+                // not supported by the parser, at least the common entities are defined below
+            }
+
+            parser.setInput(new SharpInputStream(ttml), "UTF-8");
+            for (final String[] entity : HTML_ENTITIES) {
+                parser.defineEntityReplacementText(entity[0], entity[1]);
+            }
+        } catch (final XmlPullParserException e) {
+            throw new IOException("Cannot create the TTML parser", e);
+        }
+
+        // names of the open elements, only grows with the nesting of the document
+        final ArrayList<String> path = new ArrayList<>();
+        final StringBuilder text = new StringBuilder(128);
+
+        String begin = null;
+        String end = null;
+        int frameDepth = -1;
+
+        try {
+            for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT;
+                 event = parser.next()) {
+                switch (event) {
+                    case XmlPullParser.START_TAG:
+                        path.add(parser.getName());
+
+                        if (frameDepth < 0 && isFrame(path)) {
+                            frameDepth = path.size();
+                            begin = getTimestamp(parser, "begin");
+                            end = getTimestamp(parser, "end");
+                            text.setLength(0);
+                        } else if (frameDepth == path.size() - 1
+                                && parser.getName().equalsIgnoreCase("br")) {
+                            text.append(NEW_LINE);
+                        }
+                        break;
+                    case XmlPullParser.TEXT:
+                        if (frameDepth == path.size()) {
+                            appendText(text, parser.getText());
+                        }
+                        break;
+                    case XmlPullParser.END_TAG:
+                        if (frameDepth == path.size()) {
+                            frameDepth = -1;
+                            if (!ignoreEmptyFrames || text.length() > 0) {
+                                writeFrame(begin, end, text);
+                            }
+                        }
+                        path.remove(path.size() - 1);
+                        break;
+                }
+            }
+        } catch (final XmlPullParserException e) {
+            throw new IOException("Invalid TTML at line " + parser.getLineNumber(), e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.schabi.newpipe.streams;
+
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Reads the samples of a track in its own thread, ahead of the muxer. The samples are stored in
+ * a bounded queue of reusable items, so the parsing (and the I/O) of every source runs in
+ * parallel with the other sources and with the writing of the output, while the memory usage is
+ * limited to {@code capacity} samples per track.
+ * <p>
+ * Only one sample is handed to the consumer at a time, the previous sample is recycled when
+ * {@link #next()} is called again.
+ *
+ * @param <T> the sample type
+ */
+final class TrackPrefetcher<T> implements Closeable {
+    interface Reader<T> {
+        /**
+         * Reads the next sample of the track, called from the prefetch thread
+         *
+         * @param item where the sample is stored, the items are reused
+         * @return {@code false} if there are no more samples
+         * @throws IOException if an I/O error occurs
+         */
+        boolean read(T item) throws IOException;
+    }
+
+    private final ArrayBlockingQueue<T> free;
+    private final ArrayBlockingQueue<T> ready;
+    private final T endMark;
+    private final Reader<T> reader;
+    private final Thread worker;
+
+    private volatile Throwable error = null;
+    private T current = null;
+
+    /**
+     * @param name     name of the prefetch thread
+     * @param capacity maximum amount of samples read ahead
+     * @param factory  creates the reusable items
+     * @param reader   reads the samples of the track
+     */
+    TrackPrefetcher(final String name, final int capacity, final Supplier<T> factory,
+                    final Reader<T> reader) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+        this.ready = new ArrayBlockingQueue<>(capacity + 1); // plus the end mark
+        this.endMark = factory.get();
+        this.reader = reader;
+
+        for (int i = 0; i < capacity; i++) {
+            free.add(factory.get());
+        }
+
+        worker = new Thread(this::prefetch, name);
+        worker.setDaemon(true);
+    }
+
+    void start() {
+        worker.start();
+    }
+
+    /**
+     * Gets the next sample of the track, waiting until is read
+     *
+     * @return the sample, or {@code null} if there are no more samples
+     * @throws IOException if the sample can not be read
+     */
+    @Nullable
+    T next() throws IOException {
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+
+        final T item;
+        try {
+            item = ready.take();
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException("interrupted while waiting for a sample");
+        }
+
+        if (item == endMark) {
+            ready.add(endMark); // keep the mark for the next calls
+
+            final Throwable cause = error;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            return null;
+        }
+
+        current = item;
+        return item;
+    }
+
+    /**
+     * Stops the prefetch thread, must be called before closing the source
+     */
+    @Override
+    public void close() {
+        worker.interrupt();
+
+        try {
+            worker.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void prefetch() {
+        try {
+            while (!Thread.interrupted()) {
+                final T item = free.take();
+                if (!reader.read(item)) {
+                    break;
+                }
+                ready.put(item);
+            }
+        } catch (final InterruptedException e) {
+            return; // closed by the consumer
+        } catch (final Throwable e) {
+            error = e;
+        }
+
+        ready.add(endMark);
+    }
+}
@@ -55,6 +55,7 @@ public class WebMReader {
     private int selectedTrack;
     private boolean done;
     private boolean firstSegment;
+    private long headerLength;
 
     public WebMReader(final SharpStream source) {
         this.stream = new DataReader(source);
@@ -76,6 +77,14 @@ public class WebMReader {
         selectedTrack = -1;
         done = false;
         firstSegment = true;
+        headerLength = stream.position();
+    }
+
+    /**
+     * @return amount of bytes read by {@link #parse()}, including the header of the first cluster
+     */
+    public long getHeaderLength() {
+        return headerLength;
     }
 
     public WebMTrack[] getAvailableTracks() {
@@ -109,6 +118,34 @@ public class WebMReader {
         return segment;
     }
 
+    /**
+     * Moves the reader to the segment at the given offset. Used to resume a previous read, the
+     * offset must be the current segment or any segment after the current position.
+     *
+     * @param offset offset of the segment, see {@link Segment#getOffset()}
+     * @return the segment
+     * @throws IOException if an I/O error occurs, or there is no segment in the offset
+     */
+    public Segment seekSegment(final long offset) throws IOException {
+        firstSegment = false;
+
+        if (offset == segment.ref.offset) {
+            return segment;
+        }
+
+        seekTo(offset);
+        segment = readSegment(readElement(ID_SEGMENT), 0, false);
+
+        return segment;
+    }
+
+    private void seekTo(final long offset) throws IOException {
+        final long skip = offset - stream.position();
+        if (skip < 0 || stream.skipBytes(skip) != skip) {
+            throw new EOFException("cannot seek to " + offset);
+        }
+    }
+
     private long readNumber(final Element parent) throws IOException {
         int length = (int) parent.contentSize;
         long value = 0;
@@ -433,6 +470,30 @@ public class WebMReader {
         private final Element ref;
         boolean firstClusterInSegment;
 
+        long getOffset() {
+            return ref.offset;
+        }
+
+        /**
+         * Moves the reader to the cluster at the given offset. Used to resume a previous read, the
+         * offset must be the first cluster of the segment or any cluster after the current
+         * position.
+         *
+         * @param offset offset of the cluster, see {@link Cluster#getOffset()}
+         * @return the cluster
+         * @throws IOException if an I/O error occurs, or there is no cluster in the offset
+         */
+        public Cluster seekCluster(final long offset) throws IOException {
+            firstClusterInSegment = false;
+
+            if (segment.currentCluster == null || offset != segment.currentCluster.offset) {
+                seekTo(offset);
+                segment.currentCluster = readElement(ID_CLUSTER);
+            }
+
+            return readCluster(segment.currentCluster);
+        }
+
         public Cluster getNextCluster() throws IOException {
             if (done) {
                 return null;
@@ -484,6 +545,10 @@ public class WebMReader {
             this.ref = ref;
         }
 
+        long getOffset() {
+            return ref.offset;
+        }
+
         boolean insideClusterBounds() {
             return stream.position() >= (ref.offset + ref.size);
         }
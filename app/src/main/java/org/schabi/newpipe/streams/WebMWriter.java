@@ -1,6 +1,7 @@
 package org.schabi.newpipe.streams;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.schabi.newpipe.streams.WebMReader.Cluster;
 import org.schabi.newpipe.streams.WebMReader.Segment;
@@ -8,17 +9,22 @@ import org.schabi.newpipe.streams.WebMReader.SimpleBlock;
 import org.schabi.newpipe.streams.WebMReader.WebMTrack;
 import org.schabi.newpipe.streams.io.SharpStream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author kapodamy
  */
-public class WebMWriter implements Closeable {
+public class WebMWriter implements Closeable, ResumableMuxer {
     private static final int BUFFER_SIZE = 8 * 1024;
     private static final int DEFAULT_TIMECODE_SCALE = 1000000;
     private static final int INTERV = 100; // 100ms on 1000000us timecode scale
@@ -26,6 +32,8 @@ public class WebMWriter implements Closeable {
     private static final byte CLUSTER_HEADER_SIZE = 8;
     private static final int CUE_RESERVE_SIZE = 65535;
     private static final byte MINIMUM_EBML_VOID_SIZE = 4;
+    // blocks read ahead of the muxer in every track, in parallel mode
+    private static final int PREFETCH_BLOCKS = 32;
 
     private WebMReader.WebMTrack[] infoTracks;
     private SharpStream[] sourceTracks;
@@ -45,6 +53,43 @@ public class WebMWriter implements Closeable {
     private byte[] outBuffer;
     private ByteBuffer outByteBuffer;
 
+    private boolean parallel = false;
+    private List<TrackPrefetcher<Block>> prefetchers;
+
+    // blocks read from the current cluster of every track, counted by the producer
+    private int[] readersBlockIndex;
+
+    // state of the build, stored in the checkpoints
+    private long offsetSegmentSizeSet;
+    private long offsetInfoDurationSet;
+    private long offsetClusterSet;
+    private long offsetCuesSet;
+    private long segmentOffset;
+    private long cueOffset;
+    private int firstClusterOffset;
+    private int[] defaultSampleDuration;
+    private long[] duration;
+    private int cuesForTrackId;
+    private long nextCueTime;
+    private ArrayList<KeyFrame> keyFrames;
+    private long currentClusterOffset;
+    private long baseTimecode;
+    private long limitTimecode;
+    private int limitTimecodeByTrackId;
+    private int newClusterByTrackId;
+    private int currentTrack;
+    private int blockWritten;
+    private boolean blocksDone = false;
+
+    // position of the last block written of every track: segment, cluster and index in the cluster
+    private boolean[] tracksDone;
+    private long[] blockSegments;
+    private long[] blockClusters;
+    private int[] blockIndexes;
+
+    private MuxerCheckpoint.Listener checkpointListener = null;
+    private boolean resumed = false;
+
     public WebMWriter(final SharpStream... source) {
         sourceTracks = source;
         readers = new WebMReader[sourceTracks.length];
@@ -88,25 +133,117 @@ public class WebMWriter implements Closeable {
         try {
             readersSegment = new Segment[readers.length];
             readersCluster = new Cluster[readers.length];
+            readersBlockIndex = new int[readers.length];
+            tracksDone = new boolean[readers.length];
+            blockSegments = new long[readers.length];
+            blockClusters = new long[readers.length];
+            blockIndexes = new int[readers.length];
 
             for (int i = 0; i < readers.length; i++) {
                 infoTracks[i] = readers[i].selectTrack(trackIndex[i]);
                 readersSegment[i] = readers[i].getNextSegment();
+                blockSegments[i] = -1;
+                blockClusters[i] = -1;
             }
         } finally {
             parsed = true;
         }
     }
 
+    /**
+     * Reads every source in its own thread, ahead of the muxer. The muxing itself still runs in
+     * the calling thread, this only moves the parsing and the reads of the sources to other
+     * cores.
+     *
+     * @param parallel {@code true} to read the sources in parallel
+     */
+    public void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public boolean isDone() {
         return done;
     }
 
+    @Override
+    public long getHeaderLength(final int source) {
+        return readers[source].getHeaderLength();
+    }
+
+    @Override
+    public void setCheckpointListener(@Nullable final MuxerCheckpoint.Listener listener) {
+        checkpointListener = listener;
+    }
+
+    @Override
+    public void resume(@NonNull final MuxerCheckpoint checkpoint) throws IOException {
+        if (readersSegment == null) {
+            throw new IllegalStateException("The tracks must be selected first");
+        }
+
+        final DataInputStream state =
+                new DataInputStream(new ByteArrayInputStream(checkpoint.state));
+
+        blocksDone = state.readBoolean();
+        written = state.readLong();
+        offsetSegmentSizeSet = state.readLong();
+        offsetInfoDurationSet = state.readLong();
+        offsetClusterSet = state.readLong();
+        offsetCuesSet = state.readLong();
+        segmentOffset = state.readLong();
+        cueOffset = state.readLong();
+        firstClusterOffset = state.readInt();
+        cuesForTrackId = state.readInt();
+        nextCueTime = state.readLong();
+        currentClusterOffset = state.readLong();
+        baseTimecode = state.readLong();
+        limitTimecode = state.readLong();
+        limitTimecodeByTrackId = state.readInt();
+        newClusterByTrackId = state.readInt();
+        currentTrack = state.readInt();
+        blockWritten = state.readInt();
+
+        final int keyFramesCount = state.readInt();
+        keyFrames = new ArrayList<>(Math.max(keyFramesCount, 32));
+        for (int i = 0; i < keyFramesCount; i++) {
+            keyFrames.add(new KeyFrame(state.readLong(), state.readInt(), state.readLong()));
+        }
+
+        final int clustersCount = state.readInt();
+        clustersOffsetsSizes.clear();
+        for (int i = 0; i < clustersCount; i++) {
+            final ClusterInfo cluster = new ClusterInfo();
+            cluster.offset = state.readLong();
+            cluster.size = state.readInt();
+            clustersOffsetsSizes.add(cluster);
+        }
+
+        defaultSampleDuration = new int[readers.length];
+        duration = new long[readers.length];
+
+        for (int i = 0; i < readers.length; i++) {
+            defaultSampleDuration[i] = state.readInt();
+            duration[i] = state.readLong();
+            tracksDone[i] = state.readBoolean();
+            blockSegments[i] = state.readLong();
+            blockClusters[i] = state.readLong();
+            blockIndexes[i] = state.readInt();
+
+            if (!blocksDone) {
+                seekBlock(i);
+            }
+        }
+
+        resumed = true;
+    }
+
     @Override
     public void close() {
         done = true;
         parsed = true;
 
+        stopPrefetch();
+
         for (final SharpStream src : sourceTracks) {
             src.close();
         }
@@ -121,18 +258,45 @@ public class WebMWriter implements Closeable {
         clustersOffsetsSizes = null;
     }
 
-    @SuppressWarnings("MethodLength")
     public void build(final SharpStream out) throws IOException, RuntimeException {
         if (!out.canRewind()) {
             throw new IOException("The output stream must be allow seek");
         }
 
+        if (resumed) {
+            // the output already has the data written before the checkpoint
+            seekTo(out, written);
+        } else {
+            writeHeader(out);
+        }
+
+        if (!blocksDone) {
+            if (parallel) {
+                startPrefetch();
+            }
+
+            try {
+                writeBlocks(out);
+            } finally {
+                stopPrefetch();
+            }
+
+            blocksDone = true;
+            if (checkpointListener != null) {
+                saveCheckpoint(); // from here, only the cues and the element sizes are missing
+            }
+        }
+
+        writeFooter(out);
+    }
+
+    private void writeHeader(final SharpStream out) throws IOException {
         makeEBML(out);
 
-        final long offsetSegmentSizeSet = written + 5;
-        final long offsetInfoDurationSet = written + 94;
-        final long offsetClusterSet = written + 58;
-        final long offsetCuesSet = written + 75;
+        offsetSegmentSizeSet = written + 5;
+        offsetInfoDurationSet = written + 94;
+        offsetClusterSet = written + 58;
+        offsetCuesSet = written + 75;
 
         final ArrayList<byte[]> listBuffer = new ArrayList<>(4);
 
@@ -142,7 +306,7 @@ public class WebMWriter implements Closeable {
                 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00// segment content size
         });
 
-        final long segmentOffset = written + listBuffer.get(0).length;
+        segmentOffset = written + listBuffer.get(0).length;
 
         /* seek head */
         listBuffer.add(new byte[]{
@@ -178,11 +342,11 @@ public class WebMWriter implements Closeable {
         dump(listBuffer, out);
 
         // reserve space for Cues element
-        final long cueOffset = written;
+        cueOffset = written;
         makeEbmlVoid(out, CUE_RESERVE_SIZE, true);
 
-        final int[] defaultSampleDuration = new int[infoTracks.length];
-        final long[] duration = new long[infoTracks.length];
+        defaultSampleDuration = new int[infoTracks.length];
+        duration = new long[infoTracks.length];
 
         for (int i = 0; i < infoTracks.length; i++) {
             if (infoTracks[i].defaultDuration < 0) {
@@ -195,35 +359,41 @@ public class WebMWriter implements Closeable {
         }
 
         // Select a track for the cue
-        final int cuesForTrackId = selectTrackForCue();
-        long nextCueTime = infoTracks[cuesForTrackId].trackType == 1 ? -1 : 0;
-        final ArrayList<KeyFrame> keyFrames = new ArrayList<>(32);
+        cuesForTrackId = selectTrackForCue();
+        nextCueTime = infoTracks[cuesForTrackId].trackType == 1 ? -1 : 0;
+        keyFrames = new ArrayList<>(32);
 
-        int firstClusterOffset = (int) written;
-        long currentClusterOffset = makeCluster(out, 0, 0, true);
+        firstClusterOffset = (int) written;
+        currentClusterOffset = makeCluster(out, 0, 0, true);
 
-        long baseTimecode = 0;
-        long limitTimecode = -1;
-        int limitTimecodeByTrackId = cuesForTrackId;
+        baseTimecode = 0;
+        limitTimecode = -1;
+        limitTimecodeByTrackId = cuesForTrackId;
 
-        int blockWritten = Integer.MAX_VALUE;
+        newClusterByTrackId = -1;
+        currentTrack = 0;
+        blockWritten = 0;
+    }
 
-        int newClusterByTrackId = -1;
+    private void writeBlocks(final SharpStream out) throws IOException {
+        while (true) {
+            while (currentTrack < readers.length) {
+                final int i = currentTrack;
 
-        while (blockWritten > 0) {
-            blockWritten = 0;
-            int i = 0;
-            while (i < readers.length) {
-                final Block bloq = getNextBlockFrom(i);
+                if (checkpointListener != null && checkpointListener.isCheckpointDue(written)) {
+                    saveCheckpoint();
+                }
+
+                final Block bloq = nextBlock(i);
                 if (bloq == null) {
-                    i++;
+                    currentTrack++;
                     continue;
                 }
 
                 if (bloq.data == null) {
                     blockWritten = 1; // fake block
                     newClusterByTrackId = i;
-                    i++;
+                    currentTrack++;
                     continue;
                 }
 
@@ -266,11 +436,20 @@ public class WebMWriter implements Closeable {
                     if (limitTimecodeByTrackId != i) {
                         limitTimecode += INTERV - (bloq.absoluteTimecode - limitTimecode);
                     }
-                    i++;
+                    currentTrack++;
                 }
             }
+
+            if (blockWritten < 1) {
+                break;
+            }
+
+            blockWritten = 0;
+            currentTrack = 0;
         }
+    }
 
+    private void writeFooter(final SharpStream out) throws IOException {
         makeCluster(out, -1, currentClusterOffset, false);
 
         final long segmentSize = written - offsetSegmentSizeSet - 7;
@@ -295,8 +474,7 @@ public class WebMWriter implements Closeable {
         dump(outBuffer, DataReader.FLOAT_SIZE, out);
 
         /* first Cluster offset */
-        firstClusterOffset -= segmentOffset;
-        writeInt(out, offsetClusterSet, firstClusterOffset);
+        writeInt(out, offsetClusterSet, (int) (firstClusterOffset - segmentOffset));
 
         seekTo(out, cueOffset);
 
@@ -329,6 +507,198 @@ public class WebMWriter implements Closeable {
         }
     }
 
+    /**
+     * Takes a checkpoint, must be called between blocks
+     */
+    private void saveCheckpoint() throws IOException {
+        final long[] sourceOffsets = new long[readers.length];
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream state = new DataOutputStream(buffer);
+
+        state.writeBoolean(blocksDone);
+        state.writeLong(written);
+        state.writeLong(offsetSegmentSizeSet);
+        state.writeLong(offsetInfoDurationSet);
+        state.writeLong(offsetClusterSet);
+        state.writeLong(offsetCuesSet);
+        state.writeLong(segmentOffset);
+        state.writeLong(cueOffset);
+        state.writeInt(firstClusterOffset);
+        state.writeInt(cuesForTrackId);
+        state.writeLong(nextCueTime);
+        state.writeLong(currentClusterOffset);
+        state.writeLong(baseTimecode);
+        state.writeLong(limitTimecode);
+        state.writeInt(limitTimecodeByTrackId);
+        state.writeInt(newClusterByTrackId);
+        state.writeInt(currentTrack);
+        state.writeInt(blockWritten);
+
+        state.writeInt(keyFrames.size());
+        for (final KeyFrame keyFrame : keyFrames) {
+            state.writeLong(keyFrame.clusterPosition);
+            state.writeInt(keyFrame.relativePosition);
+            state.writeLong(keyFrame.duration);
+        }
+
+        state.writeInt(clustersOffsetsSizes.size());
+        for (final ClusterInfo cluster : clustersOffsetsSizes) {
+            state.writeLong(cluster.offset);
+            state.writeInt(cluster.size);
+        }
+
+        for (int i = 0; i < readers.length; i++) {
+            state.writeInt(defaultSampleDuration[i]);
+            state.writeLong(duration[i]);
+            state.writeBoolean(tracksDone[i]);
+            state.writeLong(blockSegments[i]);
+            state.writeLong(blockClusters[i]);
+            state.writeInt(blockIndexes[i]);
+
+            if (blocksDone || tracksDone[i]) {
+                sourceOffsets[i] = -1;
+            } else if (blockClusters[i] < 0) {
+                sourceOffsets[i] = readers[i].getHeaderLength(); // not started
+            } else if (blockSegments[i] < readers[i].getHeaderLength()) {
+                // the start of the first segment is read again while parsing
+                sourceOffsets[i] = blockClusters[i];
+            } else {
+                sourceOffsets[i] = blockSegments[i];
+            }
+        }
+
+        state.flush();
+        checkpointListener.onCheckpoint(
+                new MuxerCheckpoint(written, sourceOffsets, buffer.toByteArray()));
+    }
+
+    /**
+     * Moves the reader of the given track after the last block written before the checkpoint
+     *
+     * @param internalTrackId the track index
+     */
+    private void seekBlock(final int internalTrackId) throws IOException {
+        final long clusterOffset = blockClusters[internalTrackId];
+        if (tracksDone[internalTrackId] || clusterOffset < 0) {
+            return;
+        }
+
+        readersSegment[internalTrackId] =
+                readers[internalTrackId].seekSegment(blockSegments[internalTrackId]);
+        final Cluster cluster = readersSegment[internalTrackId].seekCluster(clusterOffset);
+
+        if (blockIndexes[internalTrackId] < 0) {
+            return; // the end of the cluster was reached, continue with the next one
+        }
+
+        for (int i = 0; i < blockIndexes[internalTrackId]; i++) {
+            if (cluster.getNextSimpleBlock() == null) {
+                throw new IOException("missing blocks in the cluster at " + clusterOffset);
+            }
+        }
+
+        readersCluster[internalTrackId] = cluster;
+        readersBlockIndex[internalTrackId] = blockIndexes[internalTrackId];
+    }
+
+    private void startPrefetch() {
+        prefetchers = new ArrayList<>(readers.length);
+
+        for (int i = 0; i < readers.length; i++) {
+            if (tracksDone[i]) {
+                prefetchers.add(null);
+                continue;
+            }
+
+            final int internalTrackId = i;
+            final TrackPrefetcher<Block> prefetcher = new TrackPrefetcher<>(
+                    "WebMWriter-track" + i, PREFETCH_BLOCKS, Block::new,
+                    item -> prefetchBlock(internalTrackId, item));
+            prefetchers.add(prefetcher);
+            prefetcher.start();
+        }
+    }
+
+    private void stopPrefetch() {
+        if (prefetchers == null) {
+            return;
+        }
+
+        for (final TrackPrefetcher<Block> prefetcher : prefetchers) {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
+        }
+        prefetchers = null;
+    }
+
+    private Block nextBlock(final int internalTrackId) throws IOException {
+        if (tracksDone[internalTrackId]) {
+            return null;
+        }
+
+        final Block bloq;
+        if (prefetchers == null) {
+            bloq = getNextBlockFrom(internalTrackId);
+        } else {
+            bloq = prefetchers.get(internalTrackId).next();
+        }
+
+        if (bloq == null) {
+            tracksDone[internalTrackId] = true;
+        } else {
+            blockSegments[internalTrackId] = bloq.segmentOffset;
+            blockClusters[internalTrackId] = bloq.clusterOffset;
+            blockIndexes[internalTrackId] = bloq.clusterIndex;
+        }
+
+        return bloq;
+    }
+
+    /**
+     * Reads the next block of the given track, and copies its data in memory
+     *
+     * @param internalTrackId the track index
+     * @param item            where the block is stored
+     * @return {@code false} if there no more blocks
+     */
+    private boolean prefetchBlock(final int internalTrackId, final Block item)
+            throws IOException {
+        final Block bloq = getNextBlockFrom(internalTrackId);
+        if (bloq == null) {
+            return false;
+        }
+
+        item.trackNumber = bloq.trackNumber;
+        item.flags = bloq.flags;
+        item.dataSize = bloq.dataSize;
+        item.absoluteTimecode = bloq.absoluteTimecode;
+        item.segmentOffset = bloq.segmentOffset;
+        item.clusterOffset = bloq.clusterOffset;
+        item.clusterIndex = bloq.clusterIndex;
+
+        if (bloq.data == null) {
+            item.data = null; // end of the cluster
+            return true;
+        }
+
+        if (item.buffer == null || item.buffer.length < bloq.dataSize) {
+            item.buffer = new byte[bloq.dataSize];
+        }
+
+        int read = 0;
+        while (read < bloq.dataSize) {
+            final int count = bloq.data.read(item.buffer, read, bloq.dataSize - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+
+        item.data = new ByteArrayInputStream(item.buffer, 0, read);
+        return true;
+    }
+
     private Block getNextBlockFrom(final int internalTrackId) throws IOException {
         if (readersSegment[internalTrackId] == null) {
             readersSegment[internalTrackId] = readers[internalTrackId].getNextSegment();
@@ -343,15 +713,21 @@ public class WebMWriter implements Closeable {
                 readersSegment[internalTrackId] = null;
                 return getNextBlockFrom(internalTrackId);
             }
+            readersBlockIndex[internalTrackId] = 0;
         }
 
+        final Block bloq = new Block();
+        bloq.segmentOffset = readersSegment[internalTrackId].getOffset();
+        bloq.clusterOffset = readersCluster[internalTrackId].getOffset();
+
         final SimpleBlock res = readersCluster[internalTrackId].getNextSimpleBlock();
         if (res == null) {
             readersCluster[internalTrackId] = null;
-            return new Block(); // fake block to indicate the end of the cluster
+            bloq.clusterIndex = -1;
+            return bloq; // fake block to indicate the end of the cluster
         }
 
-        final Block bloq = new Block();
+        bloq.clusterIndex = ++readersBlockIndex[internalTrackId];
         bloq.data = res.data;
         bloq.dataSize = res.dataSize;
         bloq.trackNumber = internalTrackId;
@@ -730,6 +1106,12 @@ public class WebMWriter implements Closeable {
             duration = timecode;
         }
 
+        KeyFrame(final long clusterPosition, final int relativePosition, final long duration) {
+            this.clusterPosition = clusterPosition;
+            this.relativePosition = relativePosition;
+            this.duration = duration;
+        }
+
         final long clusterPosition;
         final int relativePosition;
         final long duration;
@@ -737,10 +1119,14 @@ public class WebMWriter implements Closeable {
 
     static class Block {
         InputStream data;
+        byte[] buffer; // used by the prefetch
         int trackNumber;
         byte flags;
         int dataSize;
         long absoluteTimecode;
+        long segmentOffset;
+        long clusterOffset;
+        int clusterIndex; // blocks read from the cluster, or -1 at the end of the cluster
 
         boolean isKeyframe() {
             return (flags & 0x80) == 0x80;
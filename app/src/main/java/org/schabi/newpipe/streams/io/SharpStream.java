@@ -1,8 +1,12 @@
 package org.schabi.newpipe.streams.io;
 
+import androidx.annotation.Nullable;
+
 import java.io.Closeable;
 import java.io.Flushable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Based on C#'s Stream class. SharpStream is a wrapper around the 2 different APIs for SAF
@@ -67,4 +71,38 @@ public abstract class SharpStream implements Closeable, Flushable {
     public long length() throws IOException {
         throw new UnsupportedOperationException("Unsupported operation");
     }
+
+    /**
+     * Indicates if regions of this stream can be mapped into memory with {@link #map(long, int)}.
+     * Only if the stream is backed by a plain file and is positioned at its start.
+     *
+     * @return {@code true} if supported, otherwise, {@code false}
+     */
+    public boolean canMap() {
+        return false;
+    }
+
+    /**
+     * Maps a region of this stream into memory, for random access without seeks. The stream
+     * position is not modified.
+     *
+     * @param position start of the region, relative to the start of the stream
+     * @param size     size of the region
+     * @return a read-only buffer
+     * @throws IOException if the mapping fails
+     */
+    public ByteBuffer map(final long position, final int size) throws IOException {
+        throw new UnsupportedOperationException("Unsupported operation");
+    }
+
+    /**
+     * Gets the channel of the file backing this stream, it shares the position of the stream. Used
+     * to move data between files without copying it through the Java heap.
+     *
+     * @return the channel, or {@code null} if the stream is not backed by a file
+     */
+    @Nullable
+    public FileChannel getChannel() {
+        return null;
+    }
 }
@@ -21,11 +21,13 @@ package org.schabi.newpipe.util;
 
 import static org.schabi.newpipe.extractor.utils.Utils.isNullOrEmpty;
 
+import android.annotation.SuppressLint;
 import android.content.Context;
 import android.util.Log;
 import android.view.View;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.text.HtmlCompat;
 import androidx.preference.PreferenceManager;
@@ -54,15 +56,29 @@ import org.schabi.newpipe.extractor.suggestion.SuggestionExtractor;
 import org.schabi.newpipe.util.external_communication.TextLinkifier;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
+import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
 
 public final class ExtractorHelper {
     private static final String TAG = ExtractorHelper.class.getSimpleName();
     private static final InfoCache CACHE = InfoCache.getInstance();
+    /**
+     * Network loads in progress, shared by all the concurrent requests of the same info.
+     */
+    private static final Map<String, Single<? extends Info>> LOADS_IN_FLIGHT = new HashMap<>();
+    /**
+     * Stale infos returned from the cache, mapped to the load refreshing them. The keys are weak,
+     * so the refreshed info is kept until nobody shows the stale one.
+     */
+    private static final Map<Info, Single<? extends Info>> STALE_INFOS = new WeakHashMap<>();
 
     private ExtractorHelper() {
         //no instance
@@ -113,19 +129,66 @@ public final class ExtractorHelper {
 
     public static Single<StreamInfo> getStreamInfo(final int serviceId, final String url,
                                                    final boolean forceLoad) {
+        return getStreamInfo(serviceId, url, forceLoad, false);
+    }
+
+    /**
+     * @param serviceId  the service to load from
+     * @param url        the URL to load
+     * @param forceLoad  whether to force loading from the network instead of from the cache
+     * @param allowStale whether an expired info in the cache can be returned while it is loaded
+     *                   again, see {@link #isStale(Info)}. The stream urls of a stale info may not
+     *                   work, so only use it to show the details
+     * @return a {@link Single} that loads the item
+     */
+    public static Single<StreamInfo> getStreamInfo(final int serviceId, final String url,
+                                                   final boolean forceLoad,
+                                                   final boolean allowStale) {
         checkServiceId(serviceId);
-        return checkCache(forceLoad, serviceId, url, InfoItem.InfoType.STREAM,
+        return checkCache(forceLoad, allowStale, serviceId, url, InfoItem.InfoType.STREAM,
                 Single.fromCallable(() -> StreamInfo.getInfo(NewPipe.getService(serviceId), url)));
     }
 
     public static Single<ChannelInfo> getChannelInfo(final int serviceId, final String url,
                                                      final boolean forceLoad) {
+        return getChannelInfo(serviceId, url, forceLoad, false);
+    }
+
+    /**
+     * @param serviceId  the service to load from
+     * @param url        the URL to load
+     * @param forceLoad  whether to force loading from the network instead of from the cache
+     * @param allowStale whether an expired info in the cache can be returned while it is loaded
+     *                   again, see {@link #isStale(Info)}
+     * @return a {@link Single} that loads the item
+     */
+    public static Single<ChannelInfo> getChannelInfo(final int serviceId, final String url,
+                                                     final boolean forceLoad,
+                                                     final boolean allowStale) {
         checkServiceId(serviceId);
-        return checkCache(forceLoad, serviceId, url, InfoItem.InfoType.CHANNEL,
+        return checkCache(forceLoad, allowStale, serviceId, url, InfoItem.InfoType.CHANNEL,
                 Single.fromCallable(() ->
                         ChannelInfo.getInfo(NewPipe.getService(serviceId), url)));
     }
 
+    /**
+     * Loads a channel for the feed, always from the network. The feed loads every subscription at
+     * once and stores their streams in the database, so the info is only cached in memory.
+     *
+     * @param serviceId the service to load from
+     * @param url       the URL to load
+     * @return a {@link Single} that loads the item
+     */
+    public static Single<ChannelInfo> getChannelInfoForFeed(final int serviceId,
+                                                            final String url) {
+        checkServiceId(serviceId);
+        final InfoItem.InfoType infoType = InfoItem.InfoType.CHANNEL;
+        return shareLoad(serviceId + url + infoType,
+                Single.fromCallable(() -> ChannelInfo.getInfo(NewPipe.getService(serviceId), url))
+                        .doOnSuccess(info ->
+                                CACHE.putInfo(serviceId, url, info, infoType, false)));
+    }
+
     public static Single<InfoItemsPage<StreamInfoItem>> getMoreChannelItems(final int serviceId,
                                                                             final String url,
                                                                             final Page nextPage) {
@@ -147,13 +210,13 @@ public final class ExtractorHelper {
             return FeedInfo.getInfo(feedExtractor);
         });
 
-        return maybeFeedInfo.switchIfEmpty(getChannelInfo(serviceId, url, true));
+        return maybeFeedInfo.switchIfEmpty(getChannelInfoForFeed(serviceId, url));
     }
 
     public static Single<CommentsInfo> getCommentsInfo(final int serviceId, final String url,
                                                        final boolean forceLoad) {
         checkServiceId(serviceId);
-        return checkCache(forceLoad, serviceId, url, InfoItem.InfoType.COMMENT,
+        return checkCache(forceLoad, false, serviceId, url, InfoItem.InfoType.COMMENT,
                 Single.fromCallable(() ->
                         CommentsInfo.getInfo(NewPipe.getService(serviceId), url)));
     }
@@ -170,8 +233,23 @@ public final class ExtractorHelper {
     public static Single<PlaylistInfo> getPlaylistInfo(final int serviceId,
                                                        final String url,
                                                        final boolean forceLoad) {
+        return getPlaylistInfo(serviceId, url, forceLoad, false);
+    }
+
+    /**
+     * @param serviceId  the service to load from
+     * @param url        the URL to load
+     * @param forceLoad  whether to force loading from the network instead of from the cache
+     * @param allowStale whether an expired info in the cache can be returned while it is loaded
+     *                   again, see {@link #isStale(Info)}
+     * @return a {@link Single} that loads the item
+     */
+    public static Single<PlaylistInfo> getPlaylistInfo(final int serviceId,
+                                                       final String url,
+                                                       final boolean forceLoad,
+                                                       final boolean allowStale) {
         checkServiceId(serviceId);
-        return checkCache(forceLoad, serviceId, url, InfoItem.InfoType.PLAYLIST,
+        return checkCache(forceLoad, allowStale, serviceId, url, InfoItem.InfoType.PLAYLIST,
                 Single.fromCallable(() ->
                         PlaylistInfo.getInfo(NewPipe.getService(serviceId), url)));
     }
@@ -186,7 +264,7 @@ public final class ExtractorHelper {
 
     public static Single<KioskInfo> getKioskInfo(final int serviceId, final String url,
                                                  final boolean forceLoad) {
-        return checkCache(forceLoad, serviceId, url, InfoItem.InfoType.PLAYLIST,
+        return checkCache(forceLoad, false, serviceId, url, InfoItem.InfoType.PLAYLIST,
                 Single.fromCallable(() -> KioskInfo.getInfo(NewPipe.getService(serviceId), url)));
     }
 
@@ -208,6 +286,8 @@ public final class ExtractorHelper {
      *
      * @param <I>             the item type's class that extends {@link Info}
      * @param forceLoad       whether to force loading from the network instead of from the cache
+     * @param allowStale      whether to return an expired item from the cache, while it is loaded
+     *                        again in the background
      * @param serviceId       the service to load from
      * @param url             the URL to load
      * @param infoType        the {@link InfoItem.InfoType} of the item
@@ -215,20 +295,30 @@ public final class ExtractorHelper {
      * @return a {@link Single} that loads the item
      */
     private static <I extends Info> Single<I> checkCache(final boolean forceLoad,
+                                                         final boolean allowStale,
                                                          final int serviceId, final String url,
                                                          final InfoItem.InfoType infoType,
                                                          final Single<I> loadFromNetwork) {
         checkServiceId(serviceId);
-        final Single<I> actualLoadFromNetwork = loadFromNetwork
-                .doOnSuccess(info -> CACHE.putInfo(serviceId, url, info, infoType));
+        final Single<I> actualLoadFromNetwork = shareLoad(serviceId + url + infoType,
+                loadFromNetwork.doOnSuccess(info -> CACHE.putInfo(serviceId, url, info, infoType)));
 
         final Single<I> load;
         if (forceLoad) {
             CACHE.removeInfo(serviceId, url, infoType);
             load = actualLoadFromNetwork;
         } else {
-            load = Maybe.concat(ExtractorHelper.loadFromCache(serviceId, url, infoType),
-                    actualLoadFromNetwork.toMaybe())
+            Maybe<I> loadFromMemory = ExtractorHelper.loadFromCache(serviceId, url, infoType);
+            if (allowStale) {
+                loadFromMemory = loadFromMemory.switchIfEmpty(ExtractorHelper.loadStaleFromCache(
+                        serviceId, url, infoType, actualLoadFromNetwork));
+            }
+            // the disk is only read if the info is not in memory, and never on the main thread
+            final Maybe<I> loadFromCache = loadFromMemory.switchIfEmpty(Completable
+                    .fromAction(() -> CACHE.restoreFromDisk(serviceId, url, infoType))
+                    .subscribeOn(Schedulers.io())
+                    .andThen(loadFromMemory));
+            load = Maybe.concat(loadFromCache, actualLoadFromNetwork.toMaybe())
                     .firstElement() // Take the first valid
                     .toSingle();
         }
@@ -236,6 +326,41 @@ public final class ExtractorHelper {
         return load;
     }
 
+    /**
+     * Joins the load of the same info already in progress, if any, instead of starting another
+     * one. The load is shared until it finishes, so it is done and cached only once even if the
+     * info is requested from several places at the same time (e.g. the video details and the
+     * player).
+     *
+     * @param <I>  the item type's class that extends {@link Info}
+     * @param key  identifies the info
+     * @param load the {@link Single} to load the item from the network
+     * @return a {@link Single} that loads the item or waits for the load in progress
+     */
+    private static <I extends Info> Single<I> shareLoad(final String key, final Single<I> load) {
+        return Single.defer(() -> {
+            synchronized (LOADS_IN_FLIGHT) {
+                //noinspection unchecked
+                Single<I> shared = (Single<I>) LOADS_IN_FLIGHT.get(key);
+                if (shared == null) {
+                    // the load continues if the subscribers are disposed, its result is cached.
+                    // Another load of the key can only start once this one is removed
+                    shared = load
+                            .doFinally(() -> {
+                                synchronized (LOADS_IN_FLIGHT) {
+                                    LOADS_IN_FLIGHT.remove(key);
+                                }
+                            })
+                            .cache();
+                    LOADS_IN_FLIGHT.put(key, shared);
+                } else if (MainActivity.DEBUG) {
+                    Log.d(TAG, "shareLoad() joined the load in progress of " + key);
+                }
+                return shared;
+            }
+        });
+    }
+
     /**
      * Default implementation uses the {@link InfoCache} to get cached results.
      *
@@ -264,9 +389,87 @@ public final class ExtractorHelper {
         });
     }
 
+    /**
+     * Gets an expired item from the {@link InfoCache} and starts loading it again in the
+     * background. The load is shared with the other requests of the item, and its result is put
+     * in the cache and returned by {@link #getRefreshedInfo(Info)}.
+     *
+     * @param <I>       the item type's class that extends {@link Info}
+     * @param serviceId the service to load from
+     * @param url       the URL to load
+     * @param infoType  the {@link InfoItem.InfoType} of the item
+     * @param refresh   the {@link Single} to load the item from the network
+     * @return a {@link Maybe} with the stale item, empty if it is not cached
+     */
+    @SuppressLint("CheckResult")
+    private static <I extends Info> Maybe<I> loadStaleFromCache(final int serviceId,
+                                                                final String url,
+                                                                final InfoItem.InfoType infoType,
+                                                                final Single<I> refresh) {
+        return Maybe.defer(() -> {
+            //noinspection unchecked
+            final I info = (I) CACHE.getStaleFromKey(serviceId, url, infoType);
+            if (MainActivity.DEBUG) {
+                Log.d(TAG, "loadStaleFromCache() called, info > " + info);
+            }
+
+            if (info == null) {
+                return Maybe.empty();
+            }
+
+            // keep the result for getRefreshedInfo(), the errors are reported from there
+            final Single<I> refreshed = refresh.subscribeOn(Schedulers.io()).cache();
+            synchronized (STALE_INFOS) {
+                STALE_INFOS.put(info, refreshed);
+            }
+            refreshed.subscribe(result -> { }, throwable -> { });
+
+            return Maybe.just(info);
+        });
+    }
+
+    /**
+     * @param info an info returned by this class
+     * @return whether the info was expired when returned from the cache, and is being loaded
+     * again. See {@link #getRefreshedInfo(Info)}
+     */
+    public static boolean isStale(@NonNull final Info info) {
+        synchronized (STALE_INFOS) {
+            return STALE_INFOS.containsKey(info);
+        }
+    }
+
+    /**
+     * Waits for the new version of a stale info, see {@link #isStale(Info)}. The new version is
+     * also put in the cache.
+     *
+     * @param <I>       the item type's class that extends {@link Info}
+     * @param staleInfo an info returned by this class
+     * @return a {@link Maybe} with the new version of the info, it fails if the info could not be
+     * loaded again and is empty if the info is not stale
+     */
+    public static <I extends Info> Maybe<I> getRefreshedInfo(@NonNull final I staleInfo) {
+        final Single<? extends Info> refreshed;
+        synchronized (STALE_INFOS) {
+            refreshed = STALE_INFOS.get(staleInfo);
+        }
+
+        //noinspection unchecked
+        return refreshed == null ? Maybe.empty() : ((Single<I>) refreshed).toMaybe();
+    }
+
+    /**
+     * Only looks in memory, so it can be called on the main thread. An info stored on disk is
+     * not cached until it is loaded.
+     *
+     * @param serviceId the service of the info
+     * @param url       the url of the info
+     * @param infoType  the type of the info
+     * @return whether a not expired info is cached in memory
+     */
     public static boolean isCached(final int serviceId, final String url,
                                    final InfoItem.InfoType infoType) {
-        return null != loadFromCache(serviceId, url, infoType).blockingGet();
+        return null != CACHE.getFromKey(serviceId, url, infoType);
     }
 
     /**
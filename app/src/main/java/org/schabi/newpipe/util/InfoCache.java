@@ -19,30 +19,112 @@
 
 package org.schabi.newpipe.util;
 
+import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.collection.LruCache;
 
 import org.schabi.newpipe.MainActivity;
 import org.schabi.newpipe.extractor.Info;
 import org.schabi.newpipe.extractor.InfoItem;
+import org.schabi.newpipe.extractor.ListInfo;
+import org.schabi.newpipe.extractor.channel.ChannelInfo;
+import org.schabi.newpipe.extractor.playlist.PlaylistInfo;
+import org.schabi.newpipe.extractor.stream.Description;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Cache of the {@link Info}s loaded by {@link ExtractorHelper}, in two tiers.
+ * <ul>
+ * <li>In memory, bounded by the weight of the infos, estimated from their contents.</li>
+ * <li>On disk, only for {@link StreamInfo}, {@link ChannelInfo} and {@link PlaylistInfo}, so
+ * they survive the death of the process. Each one is stored compressed in its own file.</li>
+ * </ul>
+ * Both tiers use the expiration of {@link ServiceHelper#getCacheExpirationMillis(int)}, counted
+ * from when the info was loaded. Expired infos are kept for {@link #MAX_STALE_MILLIS} more, to be
+ * shown while they are loaded again, see {@link #getStaleFromKey(int, String, InfoItem.InfoType)}.
+ * <p>
+ * The getters only look in memory, so they can be called on the main thread. An info stored on
+ * disk is moved to memory by {@link #restoreFromDisk(int, String, InfoItem.InfoType)}.
+ */
 public final class InfoCache {
-    private final String TAG = getClass().getSimpleName();
+    private static final String TAG = "InfoCache";
     private static final boolean DEBUG = MainActivity.DEBUG;
 
     private static final InfoCache INSTANCE = new InfoCache();
-    private static final int MAX_ITEMS_ON_CACHE = 60;
     /**
-     * Trim the cache to this size.
+     * Maximum weight of the infos in memory, in bytes of their serialized form.
+     */
+    private static final int MAX_WEIGHT_ON_CACHE = 8 * 1024 * 1024;
+    /**
+     * Trim the cache to this weight.
+     */
+    private static final int TRIM_CACHE_TO = MAX_WEIGHT_ON_CACHE / 2;
+    /**
+     * Estimated weight of the fields of an info.
+     */
+    private static final int INFO_WEIGHT = 4 * 1024;
+    /**
+     * Estimated weight of an item of a list, or of a stream of a {@link StreamInfo}.
+     */
+    private static final int ITEM_WEIGHT = 1024;
+    /**
+     * Time an expired info is kept. The urls of the streams expire after a few hours, a stale
+     * {@link StreamInfo} must still work until it is replaced.
      */
-    private static final int TRIM_CACHE_TO = 30;
+    private static final long MAX_STALE_MILLIS = TimeUnit.HOURS.toMillis(3);
 
-    private static final LruCache<String, CacheData> LRU_CACHE = new LruCache<>(MAX_ITEMS_ON_CACHE);
+    private static final String CACHE_DIR_NAME = "info_cache";
+    private static final String FILE_EXTENSION = ".info";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+    private static final int FILE_VERSION = 1;
+    /**
+     * Maximum length of the files stored on disk, trimmed when the app starts and when the
+     * memory cache is trimmed.
+     */
+    private static final long MAX_DISK_LENGTH = 16 * 1024 * 1024;
+
+    private static final LruCache<String, CacheData> LRU_CACHE =
+            new LruCache<String, CacheData>(MAX_WEIGHT_ON_CACHE) {
+                @Override
+                protected int sizeOf(@NonNull final String key, @NonNull final CacheData value) {
+                    return value.weight;
+                }
+            };
+
+    /**
+     * Guards the files of the disk cache.
+     */
+    private static final Object DISK_LOCK = new Object();
+    @Nullable
+    private static File cacheDir;
+    /**
+     * Files stored before this timestamp were cleared, but maybe not deleted yet.
+     */
+    private static volatile long clearTimestamp;
 
     private InfoCache() {
         // no instance
@@ -52,34 +134,107 @@ public final class InfoCache {
         return INSTANCE;
     }
 
+    /**
+     * Enables the disk cache, usually you want to call this in the Application class.
+     *
+     * @param context used to get the cache dir
+     */
+    public static void init(@NonNull final Context context) {
+        synchronized (DISK_LOCK) {
+            cacheDir = new File(context.getCacheDir(), CACHE_DIR_NAME);
+        }
+        Schedulers.io().scheduleDirect(InfoCache::trimDiskCache);
+    }
+
     @NonNull
     private static String keyOf(final int serviceId, @NonNull final String url,
                                 @NonNull final InfoItem.InfoType infoType) {
         return serviceId + url + infoType.toString();
     }
 
-    private static void removeStaleCache() {
+    private static boolean isPersistent(@NonNull final Info info) {
+        return info instanceof StreamInfo || info instanceof ChannelInfo
+                || info instanceof PlaylistInfo;
+    }
+
+    /**
+     * Estimates the serialized size of the info, without serializing it.
+     */
+    private static int estimateWeight(@NonNull final Info info) {
+        int weight = INFO_WEIGHT;
+
+        if (info instanceof ListInfo) {
+            weight += ((ListInfo<?>) info).getRelatedItems().size() * ITEM_WEIGHT;
+        } else if (info instanceof StreamInfo) {
+            final StreamInfo streamInfo = (StreamInfo) info;
+            weight += (streamInfo.getVideoStreams().size() + streamInfo.getAudioStreams().size()
+                    + streamInfo.getVideoOnlyStreams().size()
+                    + streamInfo.getRelatedItems().size()) * ITEM_WEIGHT;
+
+            final Description description = streamInfo.getDescription();
+            if (description != null && description.getContent() != null) {
+                weight += description.getContent().length() * 2;
+            }
+        }
+
+        return weight;
+    }
+
+    private static void removeOutdatedCache() {
         for (final Map.Entry<String, CacheData> entry : InfoCache.LRU_CACHE.snapshot().entrySet()) {
             final CacheData data = entry.getValue();
-            if (data != null && data.isExpired()) {
+            if (data != null && data.isOutdated()) {
                 InfoCache.LRU_CACHE.remove(entry.getKey());
             }
         }
     }
 
+    /**
+     * @return the data in memory, even if expired, or {@code null} if there is none or is outdated
+     */
     @Nullable
-    private static Info getInfo(@NonNull final String key) {
-        final CacheData data = InfoCache.LRU_CACHE.get(key);
-        if (data == null) {
-            return null;
+    private static CacheData getData(@NonNull final String key) {
+        synchronized (LRU_CACHE) {
+            final CacheData data = InfoCache.LRU_CACHE.get(key);
+            if (data != null && data.isOutdated()) {
+                InfoCache.LRU_CACHE.remove(key);
+                return null; // the file is outdated too
+            }
+            return data;
         }
+    }
 
-        if (data.isExpired()) {
-            InfoCache.LRU_CACHE.remove(key);
-            return null;
+    /**
+     * Moves the info stored on disk to memory, if it is not in memory already. The process could
+     * have been restarted since the info was loaded. Reads a file, so never call it on the main
+     * thread.
+     *
+     * @param serviceId the service of the info
+     * @param url       the url of the info
+     * @param infoType  the type of the info
+     */
+    @WorkerThread
+    public void restoreFromDisk(final int serviceId, @NonNull final String url,
+                                @NonNull final InfoItem.InfoType infoType) {
+        final String key = keyOf(serviceId, url, infoType);
+        if (getData(key) != null) {
+            return;
         }
 
-        return data.info;
+        final CacheData data = readFromDisk(key);
+        if (data == null) {
+            return;
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "restoreFromDisk() restored: key = [" + key + "]");
+        }
+        synchronized (LRU_CACHE) {
+            // keep the info put while the file was read
+            if (LRU_CACHE.get(key) == null) {
+                LRU_CACHE.put(key, data);
+            }
+        }
     }
 
     @Nullable
@@ -89,21 +244,66 @@ public final class InfoCache {
             Log.d(TAG, "getFromKey() called with: "
                     + "serviceId = [" + serviceId + "], url = [" + url + "]");
         }
-        synchronized (LRU_CACHE) {
-            return getInfo(keyOf(serviceId, url, infoType));
+        final CacheData data = getData(keyOf(serviceId, url, infoType));
+        return data == null || data.isExpired() ? null : data.info;
+    }
+
+    /**
+     * Gets the cached info even if it has expired, to show it while it is loaded again.
+     *
+     * @param serviceId the service of the info
+     * @param url       the url of the info
+     * @param infoType  the type of the info
+     * @return the info, or {@code null} if there is none or it expired more than
+     * {@link #MAX_STALE_MILLIS} ago
+     */
+    @Nullable
+    public Info getStaleFromKey(final int serviceId, @NonNull final String url,
+                                @NonNull final InfoItem.InfoType infoType) {
+        if (DEBUG) {
+            Log.d(TAG, "getStaleFromKey() called with: "
+                    + "serviceId = [" + serviceId + "], url = [" + url + "]");
         }
+        final CacheData data = getData(keyOf(serviceId, url, infoType));
+        return data == null ? null : data.info;
     }
 
     public void putInfo(final int serviceId, @NonNull final String url, @NonNull final Info info,
                         @NonNull final InfoItem.InfoType infoType) {
+        putInfo(serviceId, url, info, infoType, true);
+    }
+
+    /**
+     * @param serviceId the service of the info
+     * @param url       the url of the info
+     * @param info      the info to cache
+     * @param infoType  the type of the info
+     * @param persist   whether to store the info on disk too, if its type is stored there
+     */
+    public void putInfo(final int serviceId, @NonNull final String url, @NonNull final Info info,
+                        @NonNull final InfoItem.InfoType infoType, final boolean persist) {
         if (DEBUG) {
             Log.d(TAG, "putInfo() called with: info = [" + info + "]");
         }
 
         final long expirationMillis = ServiceHelper.getCacheExpirationMillis(info.getServiceId());
+        final long expireTimestamp = System.currentTimeMillis() + expirationMillis;
+        final String key = keyOf(serviceId, url, infoType);
+
         synchronized (LRU_CACHE) {
-            final CacheData data = new CacheData(info, expirationMillis);
-            LRU_CACHE.put(keyOf(serviceId, url, infoType), data);
+            final CacheData data = new CacheData(info, expireTimestamp, estimateWeight(info));
+            LRU_CACHE.put(key, data);
+        }
+
+        if (persist && isPersistent(info)) {
+            final long storeTimestamp = System.currentTimeMillis();
+            // serializing a large info takes a while, it is done with the write
+            Schedulers.io().scheduleDirect(() -> {
+                final byte[] serialized = serialize(info);
+                if (serialized != null) {
+                    writeToDisk(key, serialized, storeTimestamp, expireTimestamp);
+                }
+            });
         }
     }
 
@@ -113,9 +313,11 @@ public final class InfoCache {
             Log.d(TAG, "removeInfo() called with: "
                     + "serviceId = [" + serviceId + "], url = [" + url + "]");
         }
+        final String key = keyOf(serviceId, url, infoType);
         synchronized (LRU_CACHE) {
-            LRU_CACHE.remove(keyOf(serviceId, url, infoType));
+            LRU_CACHE.remove(key);
         }
+        Schedulers.io().scheduleDirect(() -> deleteFromDisk(key));
     }
 
     public void clearCache() {
@@ -125,6 +327,10 @@ public final class InfoCache {
         synchronized (LRU_CACHE) {
             LRU_CACHE.evictAll();
         }
+
+        // this can be called on the main thread, the files are ignored until deleted
+        clearTimestamp = System.currentTimeMillis();
+        Schedulers.io().scheduleDirect(InfoCache::clearDiskCache);
     }
 
     public void trimCache() {
@@ -132,28 +338,256 @@ public final class InfoCache {
             Log.d(TAG, "trimCache() called");
         }
         synchronized (LRU_CACHE) {
-            removeStaleCache();
+            removeOutdatedCache();
             LRU_CACHE.trimToSize(TRIM_CACHE_TO);
         }
+        Schedulers.io().scheduleDirect(InfoCache::trimDiskCache);
     }
 
+    /**
+     * @return the weight of the infos in memory
+     */
     public long getSize() {
         synchronized (LRU_CACHE) {
             return LRU_CACHE.size();
         }
     }
 
+    /*//////////////////////////////////////////////////////////////////////////
+    // Disk cache
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /*
+     * File layout:
+     *   int     FILE_VERSION
+     *   long    timestamp when the info was stored
+     *   long    expiration timestamp
+     *   UTF     key
+     *   int     length of the serialized info
+     *   ...     serialized info, compressed with GZIP
+     */
+
+    @Nullable
+    private static byte[] serialize(@NonNull final Info info) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+            stream.writeObject(info);
+        } catch (final IOException e) {
+            Log.e(TAG, "Failed to serialize " + info.getClass().getSimpleName(), e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Must be called while holding {@link #DISK_LOCK}.
+     */
+    @Nullable
+    private static File getFile(@NonNull final String key) {
+        if (cacheDir == null) {
+            return null;
+        }
+        return new File(cacheDir, Integer.toHexString(key.hashCode()) + FILE_EXTENSION);
+    }
+
+    private static void writeToDisk(@NonNull final String key, @NonNull final byte[] serialized,
+                                    final long storeTimestamp, final long expireTimestamp) {
+        synchronized (DISK_LOCK) {
+            final File file = getFile(key);
+            if (file == null || storeTimestamp <= clearTimestamp) {
+                return;
+            }
+            if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+                Log.e(TAG, "Failed to create the cache dir " + cacheDir);
+                return;
+            }
+
+            // write a new file and replace the previous one, so a half written file is never read
+            final File tempFile = new File(file.getPath() + TEMP_FILE_EXTENSION);
+            try (DataOutputStream stream = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                stream.writeInt(FILE_VERSION);
+                stream.writeLong(storeTimestamp);
+                stream.writeLong(expireTimestamp);
+                stream.writeUTF(key);
+                stream.writeInt(serialized.length);
+
+                final GZIPOutputStream compressed = new GZIPOutputStream(stream);
+                compressed.write(serialized);
+                compressed.finish();
+            } catch (final IOException e) {
+                Log.e(TAG, "Failed to write the cache file of " + key, e);
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+                return;
+            }
+
+            if (!tempFile.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void deleteFromDisk(@NonNull final String key) {
+        synchronized (DISK_LOCK) {
+            final File file = getFile(key);
+            if (file != null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    @Nullable
+    private static CacheData readFromDisk(@NonNull final String key) {
+        byte[] serialized = null;
+        long expireTimestamp = 0;
+
+        synchronized (DISK_LOCK) {
+            final File file = getFile(key);
+            if (file == null || !file.isFile()) {
+                return null;
+            }
+
+            try (DataInputStream stream = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                if (stream.readInt() == FILE_VERSION) {
+                    final long storeTimestamp = stream.readLong();
+                    expireTimestamp = stream.readLong();
+
+                    if (!stream.readUTF().equals(key)) {
+                        return null; // another key with the same hash, keep its file
+                    }
+
+                    if (storeTimestamp > clearTimestamp
+                            && System.currentTimeMillis() <= expireTimestamp + MAX_STALE_MILLIS) {
+                        serialized = new byte[stream.readInt()];
+                        new DataInputStream(new GZIPInputStream(stream)).readFully(serialized);
+                    }
+                }
+            } catch (final IOException e) {
+                Log.e(TAG, "Failed to read the cache file of " + key, e);
+                serialized = null;
+            }
+
+            if (serialized == null) {
+                // outdated, cleared or unreadable
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return null;
+            }
+        }
+
+        try (ObjectInputStream stream =
+                     new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return new CacheData((Info) stream.readObject(), expireTimestamp, serialized.length);
+        } catch (final IOException | ClassNotFoundException | ClassCastException e) {
+            // probably stored by an older version with different classes
+            if (DEBUG) {
+                Log.d(TAG, "Failed to restore " + key, e);
+            }
+            deleteFromDisk(key);
+            return null;
+        }
+    }
+
+    /**
+     * @return the expiration timestamp stored in the file, or {@code -1} if the file is invalid
+     * or was cleared
+     */
+    private static long readExpireTimestamp(@NonNull final File file) {
+        try (DataInputStream stream = new DataInputStream(new FileInputStream(file))) {
+            if (stream.readInt() != FILE_VERSION || stream.readLong() <= clearTimestamp) {
+                return -1;
+            }
+            return stream.readLong();
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+
+    private static void trimDiskCache() {
+        synchronized (DISK_LOCK) {
+            if (cacheDir == null) {
+                return;
+            }
+            final File[] files = cacheDir.listFiles();
+            if (files == null) {
+                return;
+            }
+
+            // remove the outdated files first, then the oldest ones until the limit is reached
+            final long outdated = System.currentTimeMillis() - MAX_STALE_MILLIS;
+            long length = 0;
+            int count = 0;
+            for (final File file : files) {
+                if (!file.getName().endsWith(FILE_EXTENSION)
+                        || readExpireTimestamp(file) < outdated) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                } else {
+                    files[count++] = file;
+                    length += file.length();
+                }
+            }
+
+            if (length <= MAX_DISK_LENGTH) {
+                return;
+            }
+
+            final File[] stored = Arrays.copyOf(files, count);
+            Arrays.sort(stored, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+            for (int i = 0; i < count && length > MAX_DISK_LENGTH; i++) {
+                final File file = stored[i];
+                length -= file.length();
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    private static void clearDiskCache() {
+        synchronized (DISK_LOCK) {
+            if (cacheDir == null) {
+                return;
+            }
+            final File[] files = cacheDir.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (final File file : files) {
+                // the files stored after the clear are valid
+                if (readExpireTimestamp(file) == -1) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        }
+    }
+
     private static final class CacheData {
         private final long expireTimestamp;
         private final Info info;
+        private final int weight;
 
-        private CacheData(@NonNull final Info info, final long timeoutMillis) {
-            this.expireTimestamp = System.currentTimeMillis() + timeoutMillis;
+        private CacheData(@NonNull final Info info, final long expireTimestamp,
+                          final int weight) {
+            this.expireTimestamp = expireTimestamp;
             this.info = info;
+            this.weight = weight;
         }
 
         private boolean isExpired() {
             return System.currentTimeMillis() > expireTimestamp;
         }
+
+        /**
+         * @return if it expired more than {@link #MAX_STALE_MILLIS} ago
+         */
+        private boolean isOutdated() {
+            return System.currentTimeMillis() > expireTimestamp + MAX_STALE_MILLIS;
+        }
     }
 }
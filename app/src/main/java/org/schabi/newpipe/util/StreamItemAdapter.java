@@ -1,6 +1,7 @@
 package org.schabi.newpipe.util;
 
 import android.content.Context;
+import android.util.Pair;
 import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -10,6 +11,8 @@ import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.TextView;
 
+import androidx.collection.LruCache;
+
 import org.schabi.newpipe.DownloaderImpl;
 import org.schabi.newpipe.R;
 import org.schabi.newpipe.extractor.MediaFormat;
@@ -22,10 +25,11 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
-import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 import us.shandian.giga.util.Utility;
 
@@ -211,6 +215,21 @@ public class StreamItemAdapter<T extends Stream, U extends Stream> extends BaseA
     public static class StreamSizeWrapper<T extends Stream> implements Serializable {
         private static final StreamSizeWrapper<Stream> EMPTY = new StreamSizeWrapper<>(
                 Collections.emptyList(), null);
+
+        /**
+         * The maximum number of HEAD requests done at the same time to fetch stream sizes.
+         */
+        private static final int MAX_CONCURRENT_SIZE_FETCHES = 6;
+        /**
+         * The sizes arrive one at a time, the views are refreshed at most once in this interval.
+         */
+        private static final long SIZE_REFRESH_INTERVAL_MILLIS = 250;
+        private static final int MAX_SIZES_ON_CACHE = 128;
+        private static final long SIZE_CACHE_EXPIRATION_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+        private static final LruCache<String, SizeCacheData> SIZE_CACHE
+                = new LruCache<>(MAX_SIZES_ON_CACHE);
+
         private final List<T> streamsList;
         private final long[] streamSizes;
         private final String unknownSize;
@@ -228,32 +247,46 @@ public class StreamItemAdapter<T extends Stream, U extends Stream> extends BaseA
 
         /**
          * Helper method to fetch the sizes of all the streams in a wrapper.
+         * <p>
+         * At most {@link #MAX_CONCURRENT_SIZE_FETCHES} sizes are requested at once on the io
+         * scheduler, and the wrapper is updated on the main thread as soon as each one of them is
+         * known. Sizes are cached for {@link #SIZE_CACHE_EXPIRATION_MILLIS}, so reopening the
+         * download dialog for the same streams does not hit the network again.
          *
          * @param <X> the stream type's class extending {@link Stream}
          * @param streamsWrapper the wrapper
-         * @return a {@link Single} that returns a boolean indicating if any elements were changed
+         * @return an {@link Observable} that emits {@code true} when the sizes of streams in the
+         * wrapper have been changed, at most once every {@link #SIZE_REFRESH_INTERVAL_MILLIS}.
+         * A failed request leaves the size unknown, so that it is requested again next time, and
+         * its error is delivered once all the other sizes have been fetched.
          */
-        public static <X extends Stream> Single<Boolean> fetchSizeForWrapper(
+        public static <X extends Stream> Observable<Boolean> fetchSizeForWrapper(
                 final StreamSizeWrapper<X> streamsWrapper) {
-            final Callable<Boolean> fetchAndSet = () -> {
-                boolean hasChanged = false;
-                for (final X stream : streamsWrapper.getStreamsList()) {
-                    if (streamsWrapper.getSizeInBytes(stream) > -2) {
-                        continue;
-                    }
-
-                    final long contentLength = DownloaderImpl.getInstance().getContentLength(
-                            stream.getUrl());
-                    streamsWrapper.setSize(stream, contentLength);
-                    hasChanged = true;
-                }
-                return hasChanged;
-            };
-
-            return Single.fromCallable(fetchAndSet)
-                    .subscribeOn(Schedulers.io())
+            return Observable.range(0, streamsWrapper.getStreamsList().size())
+                    .filter(index -> streamsWrapper.getSizeInBytes(index) <= -2)
+                    .flatMap(index -> fetchContentLength(
+                            streamsWrapper.getStreamsList().get(index).getUrl())
+                            .map(contentLength -> new Pair<>(index, contentLength))
+                            .toObservable(), true, MAX_CONCURRENT_SIZE_FETCHES)
                     .observeOn(AndroidSchedulers.mainThread())
-                    .onErrorReturnItem(true);
+                    .map(indexAndLength -> {
+                        streamsWrapper.setSize(indexAndLength.first, indexAndLength.second);
+                        return true;
+                    })
+                    .throttleLatest(SIZE_REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS,
+                            AndroidSchedulers.mainThread(), true);
+        }
+
+        private static Maybe<Long> fetchContentLength(final String url) {
+            final SizeCacheData cached = SIZE_CACHE.get(url);
+            if (cached != null && !cached.isExpired()) {
+                return Maybe.just(cached.sizeInBytes);
+            }
+
+            return Maybe.fromCallable(() -> DownloaderImpl.getInstance().getContentLength(url))
+                    .doOnSuccess(contentLength -> SIZE_CACHE.put(url,
+                            new SizeCacheData(contentLength, SIZE_CACHE_EXPIRATION_MILLIS)))
+                    .subscribeOn(Schedulers.io());
         }
 
         public static <X extends Stream> StreamSizeWrapper<X> empty() {
@@ -295,5 +328,19 @@ public class StreamItemAdapter<T extends Stream, U extends Stream> extends BaseA
         public void setSize(final T stream, final long sizeInBytes) {
             streamSizes[streamsList.indexOf(stream)] = sizeInBytes;
         }
+
+        private static final class SizeCacheData {
+            private final long expireTimestamp;
+            private final long sizeInBytes;
+
+            private SizeCacheData(final long sizeInBytes, final long timeoutMillis) {
+                this.expireTimestamp = System.currentTimeMillis() + timeoutMillis;
+                this.sizeInBytes = sizeInBytes;
+            }
+
+            private boolean isExpired() {
+                return System.currentTimeMillis() > expireTimestamp;
+            }
+        }
     }
 }
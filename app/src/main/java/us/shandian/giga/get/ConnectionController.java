@@ -0,0 +1,166 @@
+package us.shandian.giga.get;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import static org.schabi.newpipe.BuildConfig.DEBUG;
+
+/**
+ * Adjusts the amount of connections used by a {@link DownloadMission} while downloading.
+ * <p>
+ * The mission starts with a few connections, and one more is added while the aggregated
+ * throughput keeps growing. If the last added connection does not improve the throughput, or
+ * the throughput stalls, a connection is dropped. The amount of connections chosen by the user
+ * is used as upper limit.
+ * <p>
+ * Also picks the block size of the missions, based on the resource length and the latency of
+ * the server.
+ */
+class ConnectionController {
+    private static final String TAG = "ConnectionController";
+
+    static final int MIN_BLOCK_SIZE = 128 * 1024;// 128 KiB
+    static final int MAX_BLOCK_SIZE = 8 * 1024 * 1024;// 8 MiB
+
+    /**
+     * Desired amount of blocks per resource, enough to split the work between connections
+     */
+    private static final int TARGET_BLOCK_COUNT = 64;
+
+    /**
+     * Bytes that should be downloaded per millisecond of latency in every request, this keeps the
+     * request overhead low on high latency servers (assumes a link of ~4 MB/s)
+     */
+    private static final int BYTES_PER_LATENCY_MILLIS = 4 * 1024;
+
+    private static final int INITIAL_CONNECTIONS = 2;
+
+    private static final long EVALUATION_INTERVAL = 3000;// 3 seconds
+
+    /**
+     * Minimum throughput gain required to keep a new connection (10%)
+     */
+    private static final float SCALING_GAIN = 1.10f;
+
+    /**
+     * Throughput ratio, compared against the previous measure, considered as a stall
+     */
+    private static final float STALL_RATIO = 0.5f;
+
+    /**
+     * Evaluations to skip before trying again to add a connection
+     */
+    private static final int COOLDOWN_EVALUATIONS = 4;
+
+    private final DownloadMission mMission;
+    private final int mMaxConnections;
+
+    private volatile int mTarget;
+
+    private long mLastTime;
+    private long mLastDone;
+    private float mLastRate = -1;
+    private boolean mProbing;
+    private int mCooldown;
+
+    ConnectionController(@NonNull DownloadMission mission) {
+        mMission = mission;
+        mMaxConnections = Math.max(1, mission.threadCount);
+        mTarget = Math.min(INITIAL_CONNECTIONS, mMaxConnections);
+        mLastTime = System.currentTimeMillis();
+        mLastDone = mission.done;
+    }
+
+    /**
+     * Picks the block size for a resource
+     *
+     * @param length        the resource length
+     * @param latencyMillis the latency of the server, or {@code -1} if unknown
+     * @return the block size, multiple of {@link DownloadMission#BUFFER_SIZE}
+     */
+    static int pickBlockSize(long length, long latencyMillis) {
+        long size = length / TARGET_BLOCK_COUNT;
+
+        if (latencyMillis > 0) {
+            size = Math.max(size, latencyMillis * BYTES_PER_LATENCY_MILLIS);
+        }
+
+        size = Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+
+        // round up to the buffer size
+        size = ((size + DownloadMission.BUFFER_SIZE - 1) / DownloadMission.BUFFER_SIZE) * DownloadMission.BUFFER_SIZE;
+
+        return (int) size;
+    }
+
+    /**
+     * @return the desired amount of connections
+     */
+    int getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * Measures the aggregated throughput and updates the desired amount of connections, if the
+     * evaluation interval has elapsed. Called by the download workers between blocks.
+     */
+    void evaluate() {
+        boolean add;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long elapsed = now - mLastTime;
+            if (elapsed < EVALUATION_INTERVAL) return;
+
+            long done = mMission.getDone();
+            float rate = Math.max(0, done - mLastDone) / (float) elapsed;
+            int previous = mTarget;
+
+            mLastTime = now;
+            mLastDone = done;
+
+            if (mLastRate < 0) {
+                // first measure
+                mLastRate = rate;
+                mProbing = mTarget < mMaxConnections;
+                if (mProbing) mTarget++;
+            } else if (mProbing) {
+                if (rate >= mLastRate * SCALING_GAIN && mTarget < mMaxConnections) {
+                    // still scaling, try with another connection
+                    mTarget++;
+                } else if (rate < mLastRate * SCALING_GAIN) {
+                    // the last connection did not help
+                    mTarget--;
+                    mProbing = false;
+                    mCooldown = COOLDOWN_EVALUATIONS;
+                } else {
+                    mProbing = false;
+                }
+                mLastRate = rate;
+            } else if (rate < mLastRate * STALL_RATIO && mTarget > 1) {
+                mTarget--;
+                mCooldown = COOLDOWN_EVALUATIONS;
+                mLastRate = rate;
+            } else {
+                mLastRate = (mLastRate + rate) / 2f;
+
+                if (mCooldown > 0) {
+                    mCooldown--;
+                } else if (mTarget < mMaxConnections) {
+                    mTarget++;
+                    mProbing = true;
+                }
+            }
+
+            add = mTarget > previous;
+
+            if (DEBUG && mTarget != previous) {
+                Log.d(TAG, String.format("%s connections %s -> %s (%.1f KiB/s)",
+                        mMission.storage.getName(), previous, mTarget, rate * 1000f / 1024f));
+            }
+        }
+
+        if (add) mMission.addWorker();
+    }
+}
@@ -17,7 +17,7 @@ import us.shandian.giga.util.Utility;
 import static org.schabi.newpipe.BuildConfig.DEBUG;
 import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
 
-public class DownloadInitializer extends Thread {
+public class DownloadInitializer extends MissionWorker {
     private final static String TAG = "DownloadInitializer";
     final static int mId = 0;
     private final static int RESERVE_SPACE_DEFAULT = 5 * 1024 * 1024;// 5 MiB
@@ -40,7 +40,7 @@ public class DownloadInitializer extends Thread {
     }
 
     @Override
-    public void run() {
+    protected void work() {
         if (mMission.current > 0) mMission.resetState(false, true, DownloadMission.ERROR_NOTHING);
 
         int retryCount = 0;
@@ -54,10 +54,13 @@ public class DownloadInitializer extends Thread {
                     long lowestSize = Long.MAX_VALUE;
 
                     for (int i = 0; i < mMission.urls.length && mMission.running; i++) {
+                        long requestStart = System.currentTimeMillis();
                         mConn = mMission.openConnection(mMission.urls[i], true, -1, -1);
                         mMission.establishConnection(mId, mConn);
                         dispose();
 
+                        if (i == 0) mMission.latency = System.currentTimeMillis() - requestStart;
+
                         if (Thread.interrupted()) return;
                         long length = Utility.getContentLength(mConn);
 
@@ -84,10 +87,14 @@ public class DownloadInitializer extends Thread {
                     }
                 } else {
                     // ask for the current resource length
+                    long requestStart = System.currentTimeMillis();
                     mConn = mMission.openConnection(true, -1, -1);
                     mMission.establishConnection(mId, mConn);
                     dispose();
 
+                    // prefer the latency measured by the download workers of the previous resource
+                    if (mMission.latency < 0) mMission.latency = System.currentTimeMillis() - requestStart;
+
                     if (!mMission.running || Thread.interrupted()) return;
 
                     httpCode = mConn.getResponseCode();
@@ -120,10 +127,16 @@ public class DownloadInitializer extends Thread {
                         if (mConn.getResponseCode() == 206) {
 
                             if (mMission.threadCount > 1) {
-                                int count = (int) (mMission.length / DownloadMission.BLOCK_SIZE);
-                                if ((count * DownloadMission.BLOCK_SIZE) < mMission.length) count++;
+                                int blockSize = ConnectionController.pickBlockSize(mMission.length, mMission.latency);
+                                int count = (int) (mMission.length / blockSize);
+                                if (((long) count * blockSize) < mMission.length) count++;
 
+                                mMission.blockSize = blockSize;
                                 mMission.blocks = new int[count];
+
+                                if (DEBUG) {
+                                    Log.d(TAG, "blockSize=" + blockSize + " blocks=" + count + " latency=" + mMission.latency + "ms");
+                                }
                             } else {
                                 // if one thread is required don't calculate blocks, is useless
                                 mMission.blocks = new int[0];
@@ -173,7 +186,7 @@ public class DownloadInitializer extends Thread {
             } catch (InterruptedIOException | ClosedByInterruptException e) {
                 return;
             } catch (Exception e) {
-                if (!mMission.running || super.isInterrupted()) return;
+                if (!mMission.running || isInterrupted()) return;
 
                 if (e instanceof DownloadMission.HttpError && ((DownloadMission.HttpError) e).statusCode == ERROR_HTTP_FORBIDDEN) {
                     // for youtube streams. The url has expired
@@ -22,6 +22,8 @@ import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Objects;
 
 import javax.net.ssl.SSLException;
@@ -33,12 +35,37 @@ import us.shandian.giga.util.Utility;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
 
-public class DownloadMission extends Mission {
+public class DownloadMission extends Mission implements Cloneable {
     private static final long serialVersionUID = 6L;// last bump: 07 october 2019
 
     static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Size of the buffer used by every download worker to coalesce the reads before writing them
+     */
+    static final int WRITE_BUFFER_SIZE = 4 * BUFFER_SIZE;// 256 KiB
+
+    /**
+     * Block size used by missions created before the block size was chosen per mission
+     */
     static final int BLOCK_SIZE = 512 * 1024;
 
+    /**
+     * Amount of entries used by every range in {@link #splits}
+     */
+    static final int SPLIT_ENTRY_SIZE = 3;
+
+    /**
+     * Minimum remaining length of an in-flight block (or range) to be split by an idle worker
+     */
+    private static final int MIN_STEAL_SIZE = 2 * (WRITE_BUFFER_SIZE + 2 * BUFFER_SIZE);
+
+    /**
+     * Bytes left to the owner of a block being split, it can have buffered (or just read) data
+     * not accounted yet
+     */
+    private static final int STEAL_MARGIN = WRITE_BUFFER_SIZE + 2 * BUFFER_SIZE;
+
     private static final String TAG = "DownloadMission";
 
     public static final int ERROR_NOTHING = -1;
@@ -114,19 +141,35 @@ public class DownloadMission extends Mission {
     public long nearLength;
 
     /**
-     * Download blocks, the size is multiple of {@link DownloadMission#BLOCK_SIZE}.
+     * Download blocks, the size is multiple of {@link DownloadMission#getBlockSize()}.
      * Every entry (block) in this array holds an offset, used to resume the download.
      * An block offset can be -1 if the block was downloaded successfully.
      */
     int[] blocks;
 
+    /**
+     * Ranges split from in-flight blocks by idle workers, see {@link #stealBlock()}. Every range
+     * uses {@link #SPLIT_ENTRY_SIZE} entries: the block position, the range start (relative to the
+     * block) and the range offset used to resume the download (-1 if downloaded successfully).
+     * A range ends where the next range of the same block starts, or at the end of the block.
+     * The first range of every block is stored in {@link #blocks}. {@code null} if no block was split.
+     */
+    int[] splits;
+
+    /**
+     * Size of every download block of the current resource, picked by {@link ConnectionController}
+     * when the resource is initialized. Zero in missions created by older versions.
+     */
+    int blockSize;
+
     /**
      * Download/File resume offset in fallback mode (if applicable) {@link DownloadRunnableFallback}
      */
     volatile long fallbackResumeOffset;
 
     /**
-     * Maximum of download threads running, chosen by the user
+     * Maximum of download threads running, chosen by the user. The amount of threads actually
+     * running is adjusted by the {@link ConnectionController}
      */
     public int threadCount = 3;
 
@@ -136,6 +179,14 @@ public class DownloadMission extends Mission {
     public MissionRecoveryInfo[] recoveryInfo;
 
     private transient int finishCount;
+    private transient int activeWorkers;
+    private transient boolean recoveryClaimed;
+    private transient ConnectionController controller;
+
+    /**
+     * Latency of the server measured in the last requests, in milliseconds, or {@code -1} if unknown
+     */
+    transient volatile long latency = -1;
     public transient volatile boolean running;
     public boolean enqueued;
 
@@ -144,15 +195,33 @@ public class DownloadMission extends Mission {
 
     public transient Handler mHandler;
     private transient boolean[] blockAcquired;
+    private transient boolean[] splitAcquired;
+    /**
+     * Counters of the running download workers, the array is replaced while holding the
+     * {@link #LOCK}, so {@link #getDone()} can read it without locking
+     */
+    private transient volatile ProgressStripe[] progressStripes;
+    private transient ArrayList<Block> inFlight;
 
     private transient long writingToFileNext;
     private transient volatile boolean writingToFile;
+    private transient MissionCheckpoint checkpoint;
+    private transient PostprocessingPipeline pipeline;
 
     final Object LOCK = new Lock();
 
+    /**
+     * The workers of the current resource. The array is replaced, never modified after being
+     * published, so it can be iterated without holding the {@link #LOCK}
+     */
     @NonNull
-    public transient Thread[] threads = new Thread[0];
-    public transient Thread init = null;
+    public transient volatile MissionWorker[] threads = new MissionWorker[0];
+    public transient MissionWorker init = null;
+
+    /**
+     * Runs the work of this mission, shared by all missions of the same download manager
+     */
+    public transient DownloadScheduler scheduler;
 
     public DownloadMission(String[] urls, StoredFileHelper storage, char kind, Postprocessing psInstance) {
         if (Objects.requireNonNull(urls).length < 1)
@@ -180,12 +249,16 @@ public class DownloadMission extends Mission {
         synchronized (LOCK) {
             for (int i = 0; i < blockAcquired.length; i++) {
                 if (!blockAcquired[i] && blocks[i] >= 0) {
-                    Block block = new Block();
-                    block.position = i;
-                    block.done = blocks[i];
-
                     blockAcquired[i] = true;
-                    return block;
+                    return newBlock(i, 0, blocks[i], -1);
+                }
+            }
+
+            for (int i = 0; i < splitAcquired.length; i++) {
+                int entry = i * SPLIT_ENTRY_SIZE;
+                if (!splitAcquired[i] && splits[entry + 2] >= 0) {
+                    splitAcquired[i] = true;
+                    return newBlock(splits[entry], splits[entry + 1], splits[entry + 2], i);
                 }
             }
         }
@@ -194,18 +267,139 @@ public class DownloadMission extends Mission {
     }
 
     /**
-     * Release an block
+     * Splits the in-flight block (or range) which is going to take more time to finish, the
+     * calling worker takes the second half of the remaining bytes. Used when there are no more
+     * blocks to acquire, so the tail of the download is not limited by the slowest connection.
      *
-     * @param position the index of the block
-     * @param done     amount of bytes downloaded
+     * @return the range taken from the block or {@code null} if no block is worth splitting
      */
-    void releaseBlock(int position, int done) {
+    @Nullable
+    Block stealBlock() {
         synchronized (LOCK) {
-            blockAcquired[position] = false;
-            blocks[position] = done;
+            if (inFlight == null) return null;
+
+            long now = System.currentTimeMillis();
+            Block victim = null;
+            long victimTime = -1;
+
+            for (Block block : inFlight) {
+                int remaining = block.end - block.start - block.done;
+                if (remaining < MIN_STEAL_SIZE) continue;
+
+                long elapsed = now - block.acquireTime;
+                long received = block.done - block.acquireDone;
+
+                // a block without progress is considered the slowest one
+                long time = received > 0 && elapsed > 0 ? remaining * elapsed / received : Long.MAX_VALUE;
+
+                if (time > victimTime) {
+                    victim = block;
+                    victimTime = time;
+                }
+            }
+
+            if (victim == null) return null;
+
+            int ownerPosition = victim.start + victim.done + STEAL_MARGIN;
+            int start = ownerPosition + (victim.end - ownerPosition) / 2;
+
+            // the owner stops at the start of the new range
+            victim.end = start;
+
+            int index = splitAcquired.length;
+            splits = splits == null ? new int[SPLIT_ENTRY_SIZE] : Arrays.copyOf(splits, splits.length + SPLIT_ENTRY_SIZE);
+            splits[index * SPLIT_ENTRY_SIZE] = victim.position;
+            splits[index * SPLIT_ENTRY_SIZE + 1] = start;
+            splits[index * SPLIT_ENTRY_SIZE + 2] = 0;
+
+            splitAcquired = Arrays.copyOf(splitAcquired, index + 1);
+            splitAcquired[index] = true;
+
+            if (DEBUG) {
+                Log.d(TAG, "block " + victim.position + " split at " + start + ", owner eta " + victimTime + "ms");
+            }
+
+            return newBlock(victim.position, start, 0, index);
+        }
+    }
+
+    /**
+     * Release an block (or range)
+     *
+     * @param block    the block
+     * @param finished {@code true} if the block was downloaded successfully
+     */
+    void releaseBlock(Block block, boolean finished) {
+        synchronized (LOCK) {
+            int done = finished ? -1 : block.done;
+
+            if (inFlight != null) inFlight.remove(block);
+
+            if (block.split < 0) {
+                blockAcquired[block.position] = false;
+                blocks[block.position] = done;
+                if (checkpoint != null) checkpoint.invalidateBlock(block.position);
+            } else {
+                splitAcquired[block.split] = false;
+                splits[block.split * SPLIT_ENTRY_SIZE + 2] = done;
+                if (checkpoint != null) checkpoint.invalidateSplit(block.split);
+            }
         }
     }
 
+    /**
+     * Creates an in-flight block. Must be called while holding the {@link #LOCK}.
+     */
+    private Block newBlock(int position, int start, int done, int split) {
+        Block block = new Block();
+        block.position = position;
+        block.start = start;
+        block.end = getRangeEnd(position, start);
+        block.done = done;
+        block.split = split;
+        block.acquireTime = System.currentTimeMillis();
+        block.acquireDone = done;
+
+        inFlight.add(block);
+        return block;
+    }
+
+    /**
+     * Computes where a range of a block ends, the start of the next range or the end of the block
+     *
+     * @param position the block index
+     * @param start    start of the range, relative to the block
+     * @return end (exclusive) of the range, relative to the block
+     */
+    private int getRangeEnd(int position, int start) {
+        int blockSize = getBlockSize();
+        int end = (int) Math.min(blockSize, length - (long) position * blockSize);
+
+        if (splits == null) return end;
+
+        for (int i = 0; i < splits.length; i += SPLIT_ENTRY_SIZE) {
+            if (splits[i] == position && splits[i + 1] > start && splits[i + 1] < end) {
+                end = splits[i + 1];
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Checks if there are blocks (or ranges) pending to download and not acquired by any worker.
+     * Must be called while holding the {@link #LOCK}.
+     */
+    private boolean hasFreeBlocks() {
+        for (int i = 0; i < blockAcquired.length; i++) {
+            if (!blockAcquired[i] && blocks[i] >= 0) return true;
+        }
+        for (int i = 0; i < splitAcquired.length; i++) {
+            if (!splitAcquired[i] && splits[i * SPLIT_ENTRY_SIZE + 2] >= 0) return true;
+        }
+        return false;
+    }
+
     /**
      * Opens a connection
      *
@@ -278,20 +472,23 @@ public class DownloadMission extends Mission {
         mHandler.obtainMessage(what, this).sendToTarget();
     }
 
-    synchronized void notifyProgress(long deltaLen) {
-        if (unknownLength) {
-            length += deltaLen;// Update length before proceeding
-        }
+    void notifyProgress(long deltaLen) {
+        synchronized (LOCK) {
+            if (unknownLength) {
+                length += deltaLen;// Update length before proceeding
+            }
 
-        done += deltaLen;
+            done += deltaLen;
 
-        if (metadata == null) return;
+            if (metadata == null) return;
+            if (writingToFile || (done <= writingToFileNext && deltaLen >= 0)) return;
 
-        if (!writingToFile && (done > writingToFileNext || deltaLen < 0)) {
             writingToFile = true;
-            writingToFileNext = done + BLOCK_SIZE;
-            writeThisToFileAsync();
+            writingToFileNext = done + getBlockSize();
         }
+
+        // store the progress in the calling thread, only one thread at time reaches this point
+        writeCheckpoint(false);
     }
 
     synchronized void notifyError(Exception err) {
@@ -380,9 +577,29 @@ public class DownloadMission extends Mission {
             }
         }
 
+        // the download is done, the progress is not written until the post-processing starts
+        closeCheckpoint();
+
         if (psAlgorithm != null && psState == 0) {
-            threads = new Thread[]{
-                    runAsync(1, this::doPostprocessing)
+            PostprocessingPipeline pipeline = this.pipeline;
+
+            if (pipeline != null && pipeline.isAlive()) {
+                errCode = ERROR_NOTHING;
+                errObject = null;
+
+                // store the state before the pipeline starts writing the final file
+                done = 0;
+                length = Math.max(storage.length() - offsets[0], nearLength);
+                notifyPostProcessing(1);
+
+                if (pipeline.handover()) {
+                    threads = new MissionWorker[]{pipeline.worker};
+                    return;
+                }
+            }
+
+            threads = new MissionWorker[]{
+                    runPostprocessingAsync(MissionWorker.of(this::doPostprocessing))
             };
             return;
         }
@@ -418,11 +635,10 @@ public class DownloadMission extends Mission {
             return;
         }
 
-        synchronized (LOCK) {
-            // don't return without fully write the current state
-            psState = state;
-            writeThisToFile();
-        }
+        psState = state;
+
+        // don't return without fully write the current state
+        writeThisToFile();
     }
 
 
@@ -462,25 +678,286 @@ public class DownloadMission extends Mission {
 
         init = null;
         finishCount = 0;
+        recoveryClaimed = false;
         blockAcquired = new boolean[blocks.length];
+        splitAcquired = new boolean[splits == null ? 0 : splits.length / SPLIT_ENTRY_SIZE];
+        inFlight = new ArrayList<>();
 
         if (blocks.length < 1) {
-            threads = new Thread[]{runAsync(1, new DownloadRunnableFallback(this))};
+            threads = new MissionWorker[]{runAsync(1, new DownloadRunnableFallback(this))};
         } else {
             int remainingBlocks = 0;
             for (int block : blocks) if (block >= 0) remainingBlocks++;
+            if (splits != null) {
+                for (int i = 2; i < splits.length; i += SPLIT_ENTRY_SIZE) if (splits[i] >= 0) remainingBlocks++;
+            }
 
             if (remainingBlocks < 1) {
                 notifyFinished();
                 return;
             }
 
-            threads = new Thread[Math.min(threadCount, remainingBlocks)];
+            controller = new ConnectionController(this);
+            MissionWorker[] workers = new MissionWorker[Math.min(controller.getTarget(), remainingBlocks)];
+            for (int i = 0; i < workers.length; i++) workers[i] = new DownloadRunnable(this, i);
+
+            synchronized (LOCK) {
+                activeWorkers = workers.length;
+                threads = workers;
+            }
+
+            for (int i = 0; i < workers.length; i++) runAsync(i + 1, workers[i]);
+
+            if (current == urls.length - 1) startPipeline();
+        }
+    }
+
+    /**
+     * Starts the post-processing while the last resource is downloaded, if the algorithm muxes
+     * several resources, see {@link PostprocessingPipeline}
+     */
+    private void startPipeline() {
+        if (psAlgorithm == null || psState != 0 || !psAlgorithm.worksOnSameFile || urls.length < 2) return;
+
+        // a cancelled pipeline can be still stopping, never run the algorithm twice at same time
+        if (pipeline != null && pipeline.isAlive()) return;
+
+        // the output of a stopped pipeline overwrote the first resources, continue from its
+        // checkpoint once the download is done
+        if (psAlgorithm.isResumable()) return;
+
+        PostprocessingPipeline pipeline = new PostprocessingPipeline(this);
+        pipeline.worker = MissionWorker.of(() -> runPostprocessing(pipeline));
+
+        this.pipeline = pipeline;
+
+        // the pipeline waits for the download most of the time, keep it out of the CPU pool
+        if (DEBUG) pipeline.worker.name = getWorkerName(1);
+        scheduler.runPipeline(pipeline.worker);
+    }
+
+    /**
+     * Computes the length of the downloaded data of the current resource, counted from its start
+     * and without gaps. Used by {@link PostprocessingPipeline} to read the resource while is
+     * downloaded.
+     *
+     * @return the amount of bytes
+     */
+    long getDownloadedLength() {
+        synchronized (LOCK) {
+            if (blocks == null || blocks.length < 1 || inFlight == null) return 0;
+
+            int blockSize = getBlockSize();
+            for (int i = 0; i < blocks.length; i++) {
+                int blockLength = (int) Math.min(blockSize, length - (long) i * blockSize);
+                int prefix = getDownloadedPrefix(i, blockLength);
+
+                if (prefix < blockLength) return (long) i * blockSize + prefix;
+            }
+
+            return length;
+        }
+    }
+
+    /**
+     * Computes the downloaded data, without gaps, at the start of a block. The ranges split from
+     * the block are checked in order. Must be called while holding the {@link #LOCK}.
+     */
+    private int getDownloadedPrefix(int position, int blockLength) {
+        int start = 0;
+        int split = -1;
+
+        while (start < blockLength) {
+            int done = split < 0 ? blocks[position] : splits[split * SPLIT_ENTRY_SIZE + 2];
+            int end = getRangeEnd(position, start);
+
+            // the in-flight progress is not stored until the range is released
+            for (Block block : inFlight) {
+                if (block.position == position && block.split == split) {
+                    done = block.done;
+                    break;
+                }
+            }
+
+            if (done >= 0 && start + done < end) return start + done;
+
+            // the range is complete, find the next one
+            start = end;
+            split = -1;
+            if (splits == null) break;
 
-            for (int i = 0; i < threads.length; i++) {
-                threads[i] = runAsync(i + 1, new DownloadRunnable(this, i));
+            for (int i = 0; i < splits.length; i += SPLIT_ENTRY_SIZE) {
+                if (splits[i] == position && splits[i + 1] == start) {
+                    split = i / SPLIT_ENTRY_SIZE;
+                    break;
+                }
             }
+
+            if (split < 0) break;
         }
+
+        return start;
+    }
+
+    /**
+     * Adds a download worker, if there are blocks not acquired by the running workers.
+     * Called by the {@link ConnectionController} to increase the amount of connections.
+     */
+    void addWorker() {
+        if (!running || errCode != ERROR_NOTHING || blockAcquired == null) return;
+
+        MissionWorker worker;
+        int id;
+
+        synchronized (LOCK) {
+            // if all workers exited, the current resource is done (or the mission is stopping)
+            if (activeWorkers < 1 || activeWorkers >= controller.getTarget()) return;
+
+            if (!hasFreeBlocks()) return;
+
+            activeWorkers++;
+
+            id = threads.length;
+            worker = new DownloadRunnable(this, id);
+            threads = Arrays.copyOf(threads, id + 1);
+            threads[id] = worker;
+        }
+
+        // pause() may have read the workers before the append and will not interrupt this one,
+        // if paused after this check, pause() sees the worker and cancels it before it runs
+        if (!running) {
+            worker.interrupt();
+            synchronized (LOCK) {
+                activeWorkers--;
+            }
+            return;
+        }
+
+        runAsync(id + 1, worker);
+    }
+
+    /**
+     * Checks if the calling download worker should exit, because there are more workers than
+     * the desired by the {@link ConnectionController}. Called by the workers between blocks.
+     *
+     * @return {@code true} if the worker must exit, otherwise, {@code false}
+     */
+    boolean shouldRetire() {
+        if (controller == null) return false;
+
+        synchronized (LOCK) {
+            // never retire the last worker, otherwise, the remaining blocks will not be downloaded
+            if (activeWorkers <= Math.max(1, controller.getTarget())) return false;
+            activeWorkers--;
+            return true;
+        }
+    }
+
+    /**
+     * Notifies that a download worker is not going to acquire more blocks
+     */
+    void onWorkerExited() {
+        synchronized (LOCK) {
+            activeWorkers--;
+        }
+    }
+
+    /**
+     * Measures the throughput after a block is done, see {@link ConnectionController#evaluate()}
+     */
+    void onBlockDone() {
+        ConnectionController controller = this.controller;
+        if (controller != null) controller.evaluate();
+
+        // store the progress between blocks, never from the read loop
+        if (metadata == null || writingToFile) return;
+        writingToFile = true;
+        writeCheckpoint(false);
+    }
+
+    /**
+     * Creates the progress counter of a download worker
+     *
+     * @return a counter owned by the calling worker
+     */
+    ProgressStripe newProgressStripe() {
+        ProgressStripe stripe = new ProgressStripe();
+
+        synchronized (LOCK) {
+            ProgressStripe[] stripes = progressStripes == null ? new ProgressStripe[0] : progressStripes;
+            stripes = Arrays.copyOf(stripes, stripes.length + 1);
+            stripes[stripes.length - 1] = stripe;
+            progressStripes = stripes;
+        }
+
+        return stripe;
+    }
+
+    /**
+     * Adds the progress of a download worker to {@link #done}, called when the worker exits
+     *
+     * @param stripe the counter of the worker
+     */
+    void releaseProgressStripe(ProgressStripe stripe) {
+        synchronized (LOCK) {
+            ProgressStripe[] stripes = progressStripes;
+            if (stripes == null) return;// the state was reset
+
+            for (int i = 0; i < stripes.length; i++) {
+                if (stripes[i] != stripe) continue;
+
+                ProgressStripe[] remaining = new ProgressStripe[stripes.length - 1];
+                System.arraycopy(stripes, 0, remaining, 0, i);
+                System.arraycopy(stripes, i + 1, remaining, i, remaining.length - i);
+
+                done += stripe.fold();
+                progressStripes = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds the progress of the running download workers to {@link #done}.
+     * Must be called while holding the {@link #LOCK}.
+     */
+    void foldProgress() {
+        if (progressStripes == null) return;
+        for (ProgressStripe stripe : progressStripes) done += stripe.fold();
+    }
+
+    /**
+     * Does not block, is called by the UI. While the workers are running, the value can be
+     * slightly off, if the progress of a worker is added to {@link #done} during the call.
+     *
+     * @return the amount of bytes downloaded, including the progress of the running workers
+     */
+    public long getDone() {
+        long value = done;
+        ProgressStripe[] stripes = progressStripes;
+        if (stripes != null) for (ProgressStripe stripe : stripes) value += stripe.pending();
+        return value;
+    }
+
+    /**
+     * Reserves the recovery procedure for the calling worker, used when the urls have expired
+     *
+     * @return {@code true} if the caller must run the recovery, {@code false} if another worker
+     * already did it
+     */
+    boolean claimRecovery() {
+        synchronized (LOCK) {
+            if (recoveryClaimed) return false;
+            recoveryClaimed = true;
+            return true;
+        }
+    }
+
+    /**
+     * @return the block size of the current resource
+     */
+    int getBlockSize() {
+        return blockSize > 0 ? blockSize : BLOCK_SIZE;
     }
 
     /**
@@ -503,8 +980,9 @@ public class DownloadMission extends Mission {
             // NOTE: if start() method is running ¡will no have effect!
             init.interrupt();
             synchronized (LOCK) {
-                resetState(false, true, ERROR_NOTHING);
+                resetState(false, false, ERROR_NOTHING);
             }
+            writeThisToFile();
             return;
         }
 
@@ -520,6 +998,7 @@ public class DownloadMission extends Mission {
         running = false;
         joinForThreads(-1);
         writeThisToFile();
+        closeCheckpoint();
     }
 
     /**
@@ -527,6 +1006,7 @@ public class DownloadMission extends Mission {
      */
     @Override
     public boolean delete() {
+        if (pipeline != null) pipeline.cancel();
         if (psAlgorithm != null) psAlgorithm.cleanupTemporalDir();
 
         notify(DownloadManagerService.MESSAGE_DELETED);
@@ -549,10 +1029,16 @@ public class DownloadMission extends Mission {
         errCode = errorCode;
         errObject = null;
         unknownLength = false;
-        threads = new Thread[0];
+        threads = new MissionWorker[0];
         fallbackResumeOffset = 0;
         blocks = null;
+        splits = null;
+        blockSize = 0;
         blockAcquired = null;
+        splitAcquired = null;
+        inFlight = null;
+        progressStripes = null;
+        controller = null;
 
         if (rollback) current = 0;
         if (persistChanges) writeThisToFile();
@@ -563,21 +1049,108 @@ public class DownloadMission extends Mission {
     }
 
     private void writeThisToFileAsync() {
-        runAsync(-2, this::writeThisToFile);
+        MissionWorker worker = MissionWorker.of(this::writeThisToFile);
+        if (DEBUG) worker.name = getWorkerName(-2);
+        scheduler.runMetadata(worker);
     }
 
     /**
-     * Write this {@link DownloadMission} to the meta file asynchronously
-     * if no thread is already running.
+     * Write this {@link DownloadMission} to the meta file and flushes the progress checkpoint
      */
     void writeThisToFile() {
+        MissionCheckpoint checkpoint;
         synchronized (LOCK) {
-            if (metadata == null) return;
-            Utility.writeToFile(metadata, this);
+            checkpoint = getCheckpoint();
+        }
+
+        if (checkpoint == null) return;
+
+        // the writes are ordered by the checkpoint, the serialization is done without the LOCK
+        synchronized (checkpoint) {
+            DownloadMission snapshot;
+            File metadata;
+
+            synchronized (LOCK) {
+                if (this.metadata == null) return;// deleted meanwhile
+                foldProgress();
+                snapshot = snapshot();
+                metadata = this.metadata;
+            }
+
+            Utility.writeToFile(metadata, snapshot);
+        }
+
+        writeCheckpoint(true);
+    }
+
+    /**
+     * Copies this mission to be serialized, including the arrays modified by the download workers.
+     * Must be called while holding the {@link #LOCK}.
+     *
+     * @return a copy of this mission
+     */
+    private DownloadMission snapshot() {
+        DownloadMission snapshot;
+        try {
+            snapshot = (DownloadMission) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+
+        snapshot.urls = urls.clone();
+        snapshot.offsets = offsets.clone();
+        if (blocks != null) snapshot.blocks = blocks.clone();
+        if (splits != null) snapshot.splits = splits.clone();
+
+        return snapshot;
+    }
+
+    /**
+     * Stores the download progress in the checkpoint file, see {@link MissionCheckpoint}.
+     * Must not be called while holding the {@link #LOCK}.
+     *
+     * @param sync {@code true} to flush the checkpoint to the storage device right now
+     */
+    private void writeCheckpoint(boolean sync) {
+        MissionCheckpoint checkpoint;
+        synchronized (LOCK) {
+            checkpoint = getCheckpoint();
+        }
+
+        try {
+            if (checkpoint != null) checkpoint.write(this, sync);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write the checkpoint of " + storage.getName(), e);
+        } finally {
             writingToFile = false;
         }
     }
 
+    /**
+     * Must be called while holding the {@link #LOCK}
+     *
+     * @return the checkpoint of this mission, or {@code null} if the mission is not stored
+     */
+    @Nullable
+    private MissionCheckpoint getCheckpoint() {
+        if (metadata == null) return null;
+        if (checkpoint == null) checkpoint = new MissionCheckpoint(metadata);
+        return checkpoint;
+    }
+
+    /**
+     * Releases the checkpoint file while the mission is not downloading, is opened again by the
+     * next write. Must not be called while holding the {@link #LOCK}.
+     */
+    private void closeCheckpoint() {
+        MissionCheckpoint checkpoint;
+        synchronized (LOCK) {
+            checkpoint = this.checkpoint;
+        }
+
+        if (checkpoint != null) checkpoint.close();
+    }
+
     /**
      * Indicates if the download if fully finished
      *
@@ -595,8 +1168,10 @@ public class DownloadMission extends Mission {
     public boolean isPsFailed() {
         switch (errCode) {
             case ERROR_POSTPROCESSING:
-            case ERROR_POSTPROCESSING_STOPPED:
                 return psAlgorithm.worksOnSameFile;
+            case ERROR_POSTPROCESSING_STOPPED:
+                // a checkpoint allows to continue the stopped algorithm
+                return psAlgorithm.worksOnSameFile && !psAlgorithm.isResumable();
         }
 
         return false;
@@ -689,9 +1264,21 @@ public class DownloadMission extends Mission {
     private void doPostprocessing() {
         errCode = ERROR_NOTHING;
         errObject = null;
-        Thread thread = Thread.currentThread();
+
+        // a cancelled pipeline can be still stopping
+        if (pipeline != null) pipeline.join();
 
         notifyPostProcessing(1);
+        runPostprocessing(null);
+    }
+
+    /**
+     * Runs the post-processing algorithm
+     *
+     * @param pipeline the pipeline, if the algorithm runs while downloading, otherwise, {@code null}
+     */
+    private void runPostprocessing(@Nullable PostprocessingPipeline pipeline) {
+        Thread thread = Thread.currentThread();
 
         if (DEBUG) {
             thread.setName("[" + TAG + "]  ps = " + psAlgorithm + "  filename = " + storage.getName());
@@ -700,22 +1287,31 @@ public class DownloadMission extends Mission {
         Exception exception = null;
 
         try {
-            psAlgorithm.run(this);
+            psAlgorithm.run(this, pipeline);
         } catch (Exception err) {
-            Log.e(TAG, "Post-processing failed. " + psAlgorithm.toString(), err);
+            exception = err;
+        }
+
+        if (pipeline != null && !pipeline.onFinished()) {
+            // the download was stopped, the post-processing runs again once the download is done
+            if (DEBUG) Log.d(TAG, "pipelined post-processing stopped on " + storage.getName(), exception);
+            return;
+        }
+
+        if (exception != null) {
+            Log.e(TAG, "Post-processing failed. " + psAlgorithm.toString(), exception);
 
-            if (err instanceof InterruptedIOException || err instanceof ClosedByInterruptException || thread.isInterrupted()) {
+            if (exception instanceof InterruptedIOException || exception instanceof ClosedByInterruptException || thread.isInterrupted()) {
                 notifyError(DownloadMission.ERROR_POSTPROCESSING_STOPPED, null);
+                notifyPostProcessing(0);
                 return;
             }
 
             if (errCode == ERROR_NOTHING) errCode = ERROR_POSTPROCESSING;
-
-            exception = err;
-        } finally {
-            notifyPostProcessing(errCode == ERROR_NOTHING ? 2 : 0);
         }
 
+        notifyPostProcessing(errCode == ERROR_NOTHING ? 2 : 0);
+
         if (errCode != ERROR_NOTHING) {
             if (exception == null) exception = errObject;
             notifyError(ERROR_POSTPROCESSING, exception);
@@ -741,50 +1337,59 @@ public class DownloadMission extends Mission {
 
         joinForThreads(0);
 
-        threads = new Thread[]{
+        threads = new MissionWorker[]{
                 runAsync(DownloadMissionRecover.mID, new DownloadMissionRecover(this, errorCode))
         };
     }
 
     private boolean deleteThisFromFile() {
+        MissionCheckpoint checkpoint;
+        File metadata;
+
         synchronized (LOCK) {
-            boolean res = metadata.delete();
-            metadata = null;
-            return res;
+            checkpoint = getCheckpoint();
+            metadata = this.metadata;
+            this.checkpoint = null;
+            this.metadata = null;
         }
+
+        if (metadata == null) return false;
+
+        checkpoint.delete();
+        return metadata.delete();
     }
 
     /**
-     * run a new thread
+     * Queues work which requires a network connection, see {@link DownloadScheduler}
      *
-     * @param id  id of new thread (used for debugging only)
-     * @param who the Runnable whose {@code run} method is invoked.
+     * @param id  id of the work (used for debugging only)
+     * @param who the worker whose {@code work} method is invoked when a connection is available
+     * @return the passed worker
      */
-    private Thread runAsync(int id, Runnable who) {
-        return runAsync(id, new Thread(who));
+    private MissionWorker runAsync(int id, MissionWorker who) {
+        if (DEBUG) who.name = getWorkerName(id);
+        return scheduler.runNetwork(this, who);
     }
 
     /**
-     * run a new thread
+     * Queues the post-processing work, see {@link DownloadScheduler}
      *
-     * @param id  id of new thread (used for debugging only)
-     * @param who the Thread whose {@code run} method is invoked when this thread is started
-     * @return the passed thread
-     */
-    private Thread runAsync(int id, Thread who) {
-        // known thread ids:
-        //   -2:     state saving by  notifyProgress()  method
-        //   -1:     wait for saving the state by  pause()  method
-        //    0:     initializer
-        //  >=1:     any download thread
-
-        if (DEBUG) {
-            who.setName(String.format("%s[%s] %s", TAG, id, storage.getName()));
-        }
+     * @param who the worker whose {@code work} method is invoked
+     * @return the passed worker
+     */
+    private MissionWorker runPostprocessingAsync(MissionWorker who) {
+        if (DEBUG) who.name = getWorkerName(1);
+        return scheduler.runPostprocessing(who);
+    }
 
-        who.start();
+    private String getWorkerName(int id) {
+        // known worker ids:
+        //   -3:     recovery
+        //   -2:     state saving by  setEnqueued()  method
+        //    0:     initializer
+        //  >=1:     any download thread or the post-processing
 
-        return who;
+        return String.format("%s[%s] %s", TAG, id, storage.getName());
     }
 
     /**
@@ -793,9 +1398,10 @@ public class DownloadMission extends Mission {
      * @param millis the time to wait in milliseconds
      */
     private void joinForThreads(int millis) {
-        final Thread currentThread = Thread.currentThread();
+        PostprocessingPipeline pipeline = this.pipeline;
+        if (pipeline != null) pipeline.cancel();
 
-        if (init != null && init != currentThread && init.isAlive()) {
+        if (init != null && !init.isCurrentThread() && init.isAlive()) {
             init.interrupt();
 
             if (millis > 0) {
@@ -813,16 +1419,16 @@ public class DownloadMission extends Mission {
         //      the user is spamming start/pause buttons
         //      start() method called quickly after pause()
 
-        for (Thread thread : threads) {
-            if (!thread.isAlive() || thread == Thread.currentThread()) continue;
+        for (MissionWorker thread : threads) {
+            if (!thread.isAlive() || thread.isCurrentThread()) continue;
             thread.interrupt();
         }
 
         try {
-            for (Thread thread : threads) {
-                if (!thread.isAlive()) continue;
+            for (MissionWorker thread : threads) {
+                if (!thread.isAlive() || thread.isCurrentThread()) continue;
                 if (DEBUG) {
-                    Log.w(TAG, "thread alive: " + thread.getName());
+                    Log.w(TAG, "thread alive: " + thread);
                 }
                 if (millis > 0) thread.join(millis);
             }
@@ -847,7 +1453,30 @@ public class DownloadMission extends Mission {
 
     public static class Block {
         public int position;
-        public int done;
+
+        /**
+         * Start of the range to download, relative to the block
+         */
+        public int start;
+
+        /**
+         * End (exclusive) of the range to download, relative to the block. Can be reduced by a
+         * worker splitting this block, see {@link DownloadMission#stealBlock()}
+         */
+        public volatile int end;
+
+        /**
+         * Bytes downloaded, relative to the range start
+         */
+        public volatile int done;
+
+        /**
+         * Index of the range in {@link DownloadMission#splits}, or -1 for the first range of the block
+         */
+        int split = -1;
+
+        long acquireTime;
+        int acquireDone;
     }
 
     private static class Lock implements Serializable {
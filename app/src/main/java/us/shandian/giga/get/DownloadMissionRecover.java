@@ -20,7 +20,7 @@ import us.shandian.giga.get.DownloadMission.HttpError;
 
 import static us.shandian.giga.get.DownloadMission.ERROR_RESOURCE_GONE;
 
-public class DownloadMissionRecover extends Thread {
+public class DownloadMissionRecover extends MissionWorker {
     private static final String TAG = "DownloadMissionRecover";
     static final int mID = -3;
 
@@ -40,7 +40,7 @@ public class DownloadMissionRecover extends Thread {
     }
 
     @Override
-    public void run() {
+    protected void work() {
         if (mMission.source == null) {
             mMission.notifyError(mErrCode, null);
             return;
@@ -56,7 +56,7 @@ public class DownloadMissionRecover extends Thread {
             } catch (InterruptedIOException | ClosedByInterruptException e) {
                 return;
             } catch (Exception e) {
-                if (!mMission.running || super.isInterrupted()) return;
+                if (!mMission.running || isInterrupted()) return;
                 err = e;
             }
         }
@@ -78,7 +78,7 @@ public class DownloadMissionRecover extends Thread {
         }
 
         // maybe the following check is redundant
-        if (!mMission.running || super.isInterrupted()) return;
+        if (!mMission.running || isInterrupted()) return;
 
         if (!mNotInitialized) {
             // set the current download url to null in case if the recovery
@@ -114,7 +114,7 @@ public class DownloadMissionRecover extends Thread {
 
         mMission.writeThisToFile();
 
-        if (!mMission.running || super.isInterrupted()) return;
+        if (!mMission.running || isInterrupted()) return;
 
         mMission.running = false;
         mMission.start();
@@ -229,7 +229,7 @@ public class DownloadMissionRecover extends Thread {
 
         mMission.writeThisToFile();
 
-        if (!mMission.running || super.isInterrupted()) return;
+        if (!mMission.running || isInterrupted()) return;
 
         mMission.running = false;
         mMission.start();
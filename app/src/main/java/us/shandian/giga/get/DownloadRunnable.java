@@ -7,11 +7,13 @@ import org.schabi.newpipe.streams.io.SharpStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.Objects;
 
 import us.shandian.giga.get.DownloadMission.Block;
 import us.shandian.giga.get.DownloadMission.HttpError;
+import us.shandian.giga.io.FileStream;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
 import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
@@ -21,7 +23,7 @@ import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
  * Runnable to download blocks of a file until the file is completely downloaded,
  * an error occurs or the process is stopped.
  */
-public class DownloadRunnable extends Thread {
+public class DownloadRunnable extends MissionWorker {
     private static final String TAG = "DownloadRunnable";
 
     private final DownloadMission mMission;
@@ -29,18 +31,51 @@ public class DownloadRunnable extends Thread {
 
     private HttpURLConnection mConn;
 
+    /**
+     * Throughput of this connection in bytes per second, averaged over the last blocks
+     */
+    private volatile long mSpeed = -1;
+
     DownloadRunnable(DownloadMission mission, int id) {
         mMission = Objects.requireNonNull(mission);
         mId = id;
     }
 
-    private void releaseBlock(Block block, long remain) {
-        // set the block offset to -1 if it is completed
-        mMission.releaseBlock(block.position, remain < 0 ? -1 : block.done);
+    /**
+     * @return the throughput of this connection in bytes per second, or {@code -1} if unknown
+     */
+    long getSpeed() {
+        return mSpeed;
+    }
+
+    private void updateMeasures(long bytes, long requestStart, long responseTime, long end) {
+        long latency = responseTime - requestStart;
+        long previousLatency = mMission.latency;
+        mMission.latency = previousLatency < 0 ? latency : (previousLatency + latency) / 2;
+
+        long elapsed = end - responseTime;
+        if (bytes < 1 || elapsed < 1) return;
+
+        long speed = bytes * 1000 / elapsed;
+        mSpeed = mSpeed < 0 ? speed : (mSpeed + speed) / 2;
+    }
+
+    /**
+     * Writes the buffered data after the downloaded part of the block, and accounts it
+     */
+    private void commit(FileStream stream, ByteBuffer buffer, long fileOffset, Block block, ProgressStripe progress) throws IOException {
+        buffer.flip();
+        int amount = buffer.remaining();
+
+        stream.write(buffer, fileOffset + block.done);
+        buffer.clear();
+
+        block.done += amount;
+        progress.add(amount);
     }
 
     @Override
-    public void run() {
+    protected void work() {
         boolean retry = false;
         Block block = null;
         int retryCount = 0;
@@ -53,9 +88,28 @@ public class DownloadRunnable extends Thread {
             return;
         }
 
+        // for files in the java.io storage, the data is written using positional writes through
+        // the file channel, coalescing small network reads in a direct buffer reused by all blocks
+        FileStream fileStream = f instanceof FileStream ? (FileStream) f : null;
+        ByteBuffer writeBuffer = fileStream == null ? null : ByteBuffer.allocateDirect(DownloadMission.WRITE_BUFFER_SIZE);
+        byte[] buf = new byte[DownloadMission.BUFFER_SIZE];
+
+        ProgressStripe progress = mMission.newProgressStripe();
+        int blockSize = mMission.getBlockSize();
+        boolean retired = false;
+
         while (mMission.running && mMission.errCode == DownloadMission.ERROR_NOTHING) {
             if (!retry) {
+                if (mMission.shouldRetire()) {
+                    if (DEBUG) Log.d(TAG, mId + ":too many connections, exiting");
+                    retired = true;
+                    break;
+                }
+
                 block = mMission.acquireBlock();
+
+                // nothing left to acquire, help the slowest connection
+                if (block == null) block = mMission.stealBlock();
             }
 
             if (block == null) {
@@ -67,27 +121,27 @@ public class DownloadRunnable extends Thread {
                 if (retry)
                     Log.d(TAG, mId + ":retry block at position=" + block.position + " from the start");
                 else
-                    Log.d(TAG, mId + ":acquired block at position=" + block.position + " done=" + block.done);
+                    Log.d(TAG, mId + ":acquired block at position=" + block.position + " range=" + block.start + "-" + block.end + " done=" + block.done);
             }
 
-            long start = (long)block.position * DownloadMission.BLOCK_SIZE;
-            long end = start + DownloadMission.BLOCK_SIZE - 1;
+            long blockStart = (long) block.position * blockSize;
+            long start = blockStart + block.start + block.done;
+            long end = blockStart + block.end - 1;
 
-            start += block.done;
-
-            if (end >= mMission.length) {
-                end = mMission.length - 1;
-            }
+            long requestStart = System.currentTimeMillis();
+            long responseTime = requestStart;
+            long received = 0;
 
             try {
                 mConn = mMission.openConnection(false, start, end);
                 mMission.establishConnection(mId, mConn);
+                responseTime = System.currentTimeMillis();
 
                 // check if the download can be resumed
                 if (mConn.getResponseCode() == 416) {
                     if (block.done > 0) {
                         // try again from the start (of the block)
-                        mMission.notifyProgress(-block.done);
+                        progress.add(-block.done);
                         block.done = 0;
                         retry = true;
                         mConn.disconnect();
@@ -108,22 +162,42 @@ public class DownloadRunnable extends Thread {
                     break;
                 }
 
-                f.seek(mMission.offsets[mMission.current] + start);
+                long fileOffset = mMission.offsets[mMission.current] + blockStart + block.start;
+
+                if (fileStream == null) f.seek(fileOffset + block.done);
 
                 try (InputStream is = mConn.getInputStream()) {
-                    byte[] buf = new byte[DownloadMission.BUFFER_SIZE];
                     int len;
 
                     // use always start <= end
                     // fixes a deadlock because in some videos, youtube is sending one byte alone
                     while (start <= end && mMission.running && (len = is.read(buf, 0, buf.length)) != -1) {
-                        f.write(buf, 0, len);
+                        // the end can be reduced by a worker taking the rest of the block
+                        end = blockStart + block.end - 1;
+                        if (start + len > end + 1) len = (int) (end + 1 - start);
+                        if (len < 1) break;
+
                         start += len;
-                        block.done += len;
-                        mMission.notifyProgress(len);
+                        received += len;
+
+                        if (writeBuffer == null) {
+                            f.write(buf, 0, len);
+                            block.done += len;
+                            progress.add(len);
+                            continue;
+                        }
+
+                        if (writeBuffer.remaining() < len) {
+                            commit(fileStream, writeBuffer, fileOffset, block, progress);
+                        }
+                        writeBuffer.put(buf, 0, len);
                     }
                 }
 
+                if (writeBuffer != null) commit(fileStream, writeBuffer, fileOffset, block, progress);
+
+                updateMeasures(received, requestStart, responseTime, System.currentTimeMillis());
+
                 if (DEBUG && mMission.running) {
                     Log.d(TAG, mId + ":position " + block.position + " stopped " + start + "/" + end);
                 }
@@ -133,8 +207,10 @@ public class DownloadRunnable extends Thread {
                 if (e instanceof HttpError && ((HttpError) e).statusCode == ERROR_HTTP_FORBIDDEN) {
                     // for youtube streams. The url has expired, recover
                     f.close();
+                    mMission.releaseProgressStripe(progress);
+                    mMission.onWorkerExited();
 
-                    if (mId == 1) {
+                    if (mMission.claimRecovery()) {
                         // only the first thread will execute the recovery procedure
                         mMission.doRecover(ERROR_HTTP_FORBIDDEN);
                     }
@@ -148,10 +224,18 @@ public class DownloadRunnable extends Thread {
 
                 retry = true;
             } finally {
-                if (!retry) releaseBlock(block, end - start);
+                // discard the data not written
+                if (writeBuffer != null) writeBuffer.clear();
+
+                // the block (or range) is completed if the end was reached
+                if (!retry) mMission.releaseBlock(block, block.start + block.done >= block.end);
             }
+
+            if (!retry) mMission.onBlockDone();
         }
 
+        mMission.releaseProgressStripe(progress);
+        if (!retired) mMission.onWorkerExited();
         f.close();
 
         if (DEBUG) {
@@ -20,7 +20,7 @@ import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
 /**
  * Single-threaded fallback mode
  */
-public class DownloadRunnableFallback extends Thread {
+public class DownloadRunnableFallback extends MissionWorker {
     private static final String TAG = "DownloadRunnableFallback";
 
     private final DownloadMission mMission;
@@ -49,7 +49,7 @@ public class DownloadRunnableFallback extends Thread {
     }
 
     @Override
-    public void run() {
+    protected void work() {
         boolean done;
         long start = mMission.fallbackResumeOffset;
 
@@ -128,7 +128,7 @@ public class DownloadRunnableFallback extends Thread {
                 Log.e(TAG, "got exception, retrying...", e);
             }
 
-            run();// try again
+            work();// try again
             return;
         }
 
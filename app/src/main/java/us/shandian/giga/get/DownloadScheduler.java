@@ -0,0 +1,177 @@
+package us.shandian.giga.get;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.schabi.newpipe.BuildConfig.DEBUG;
+
+/**
+ * Runs the work of all the missions of a {@link us.shandian.giga.service.DownloadManager} in
+ * bounded pools, instead of creating a new thread for every piece of work:
+ * <ul>
+ *     <li>network: download connections, initializers and recoveries. The amount of concurrent
+ *     connections is capped across all missions, and queued work is dispatched in round-robin
+ *     order between missions, so a mission with many threads can not starve the others</li>
+ *     <li>metadata: writes of the mission state, executed one at time</li>
+ *     <li>post-processing: CPU-bound muxing and conversions, bounded by the available cores</li>
+ *     <li>pipeline: post-processing running while the last resource downloads, see
+ *     {@link PostprocessingPipeline}. It waits for the downloaded data most of the time, so it
+ *     does not take a thread of the post-processing pool. There is one for each mission
+ *     downloading its last resource, the pool is bounded like the connections. A queued pipeline
+ *     only starts the muxing later, it never blocks a download</li>
+ * </ul>
+ */
+public class DownloadScheduler {
+    private static final String TAG = "DownloadScheduler";
+
+    /**
+     * Maximum amount of connections opened at the same time by all the missions
+     */
+    static final int MAX_CONNECTIONS = 16;
+
+    private static final long KEEP_ALIVE = 30;// seconds
+
+    private final ExecutorService mNetworkPool;
+    private final ExecutorService mMetadataPool;
+    private final ExecutorService mPostprocessingPool;
+    private final ExecutorService mPipelinePool;
+
+    /**
+     * Network work waiting for a free connection slot, grouped by mission. The map iteration
+     * order is used as round-robin order, a mission is moved to the end after being served.
+     */
+    private final LinkedHashMap<DownloadMission, ArrayDeque<MissionWorker>> mPending = new LinkedHashMap<>();
+    private int mRunningConnections = 0;
+
+    public DownloadScheduler() {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        mNetworkPool = newPool("network", MAX_CONNECTIONS);
+        mMetadataPool = newPool("metadata", 1);
+        mPostprocessingPool = newPool("postprocessing", Math.max(1, cores / 2));
+        mPipelinePool = newPool("pipeline", MAX_CONNECTIONS);
+    }
+
+    private static ExecutorService newPool(String name, int size) {
+        AtomicInteger count = new AtomicInteger(0);
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, TAG + "-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                size, size, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory
+        );
+        pool.allowCoreThreadTimeOut(true);
+
+        return pool;
+    }
+
+    /**
+     * Queues work which requires a network connection
+     *
+     * @param mission the mission owning the work
+     * @param worker  the work to run
+     * @return the given worker
+     */
+    MissionWorker runNetwork(@NonNull DownloadMission mission, @NonNull MissionWorker worker) {
+        synchronized (mPending) {
+            ArrayDeque<MissionWorker> queue = mPending.get(mission);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                mPending.put(mission, queue);
+            }
+            queue.addLast(worker);
+
+            dispatch();
+        }
+
+        return worker;
+    }
+
+    /**
+     * Queues a write of the mission state
+     *
+     * @param worker the work to run
+     * @return the given worker
+     */
+    MissionWorker runMetadata(@NonNull MissionWorker worker) {
+        mMetadataPool.execute(worker);
+        return worker;
+    }
+
+    /**
+     * Queues a post-processing
+     *
+     * @param worker the work to run
+     * @return the given worker
+     */
+    MissionWorker runPostprocessing(@NonNull MissionWorker worker) {
+        mPostprocessingPool.execute(worker);
+        return worker;
+    }
+
+    /**
+     * Queues a post-processing that runs while the last resource of its mission downloads
+     *
+     * @param worker the work to run
+     * @return the given worker
+     */
+    MissionWorker runPipeline(@NonNull MissionWorker worker) {
+        mPipelinePool.execute(worker);
+        return worker;
+    }
+
+    /**
+     * Starts queued network work while connection slots are available.
+     * Must be called while holding the {@link #mPending} lock.
+     */
+    private void dispatch() {
+        while (mRunningConnections < MAX_CONNECTIONS && !mPending.isEmpty()) {
+            Iterator<Map.Entry<DownloadMission, ArrayDeque<MissionWorker>>> iterator = mPending.entrySet().iterator();
+            Map.Entry<DownloadMission, ArrayDeque<MissionWorker>> entry = iterator.next();
+            iterator.remove();
+
+            ArrayDeque<MissionWorker> queue = entry.getValue();
+            MissionWorker worker = queue.pollFirst();
+
+            // move the mission to the end, to serve the other missions first
+            if (!queue.isEmpty()) mPending.put(entry.getKey(), queue);
+
+            if (worker == null || !worker.isAlive()) continue;// cancelled while queued
+
+            mRunningConnections++;
+            mNetworkPool.execute(() -> {
+                try {
+                    worker.run();
+                } finally {
+                    onConnectionReleased();
+                }
+            });
+        }
+
+        if (DEBUG && !mPending.isEmpty()) {
+            Log.d(TAG, "connections limit reached, " + mPending.size() + " missions waiting");
+        }
+    }
+
+    private void onConnectionReleased() {
+        synchronized (mPending) {
+            mRunningConnections--;
+            dispatch();
+        }
+    }
+}
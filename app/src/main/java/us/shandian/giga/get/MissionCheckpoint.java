@@ -0,0 +1,375 @@
+package us.shandian.giga.get;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.schabi.newpipe.BuildConfig.DEBUG;
+
+/**
+ * Fixed-layout binary file holding the progress of a {@link DownloadMission}. Is updated in place
+ * using positional writes, this avoids serializing the whole mission every time some progress is
+ * made. The mission itself is still serialized in the metadata file, but only when its state
+ * changes (paused, errors, post-processing, etc).
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ *   int     magic
+ *   int     version
+ *   int     current resource
+ *   int     flags
+ *   int     block size
+ *   long    length of the current resource
+ *   long    bytes done
+ *   long    fallback resume offset
+ *   int     amount of offsets
+ *   int     amount of blocks, or -1 if the mission is not initialized
+ *   int     amount of split ranges
+ *   long[]  offsets
+ *   int[]   blocks
+ *   int[]   split ranges (block position, start, offset)
+ * </pre>
+ */
+public class MissionCheckpoint {
+    private static final String TAG = "MissionCheckpoint";
+
+    public static final String EXTENSION = ".checkpoint";
+
+    private static final int MAGIC = 0x4E504350;// "NPCP"
+    private static final int VERSION = 1;
+
+    private static final int FLAG_UNKNOWN_LENGTH = 0x01;
+
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4;
+    private static final int BLOCK_ENTRY_SIZE = 4;
+    private static final int OFFSET_ENTRY_SIZE = 8;
+
+    /**
+     * Minimum time between two {@link FileChannel#force(boolean) fsync} calls, unless requested
+     */
+    private static final long SYNC_INTERVAL = 5000;// 5 seconds
+
+    private final File mFile;
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    private ByteBuffer mBuffer;
+    private final ByteBuffer mEntry = ByteBuffer.allocate(BLOCK_ENTRY_SIZE);
+    private boolean mDeleted;
+
+    /**
+     * Positions and values of the entries copied by the last {@link #write}, if the layout of the
+     * file did not change
+     */
+    private long[] mPatchPositions = new long[16];
+    private int[] mPatchValues = new int[16];
+    private int mPatchCount;
+
+    /**
+     * Entries modified since the last {@link #write}, guarded by the
+     * {@link DownloadMission#LOCK mission lock}
+     */
+    private final BitSet mDirtyBlocks = new BitSet();
+    private final BitSet mDirtySplits = new BitSet();
+    private int[] mLayoutBlocks;
+    private int[] mLayoutSplits;
+    private int mLayoutOffsets = -1;
+    private long mLastSync;
+
+    MissionCheckpoint(@NonNull File metadata) {
+        mFile = getFile(metadata);
+    }
+
+    @NonNull
+    public static File getFile(@NonNull File metadata) {
+        return new File(metadata.getPath() + EXTENSION);
+    }
+
+    /**
+     * Marks the block at the given position as modified, so the next {@link #write} stores it.
+     * Must be called while holding the {@link DownloadMission#LOCK mission lock}.
+     *
+     * @param position the block index
+     */
+    void invalidateBlock(int position) {
+        mDirtyBlocks.set(position);
+    }
+
+    /**
+     * Marks the split range at the given index as modified, so the next {@link #write} stores it.
+     * Must be called while holding the {@link DownloadMission#LOCK mission lock}.
+     *
+     * @param index the range index, see {@link DownloadMission#splits}
+     */
+    void invalidateSplit(int index) {
+        mDirtySplits.set(index);
+    }
+
+    /**
+     * Stores the progress of the mission. The whole file is only rewritten if its layout changed,
+     * otherwise, the header and the modified blocks are written in place. The progress is copied
+     * while holding the {@link DownloadMission#LOCK mission lock}, but is written (and flushed)
+     * without it, so the download workers are never blocked by the storage device.
+     * Must not be called while holding the mission lock.
+     *
+     * @param mission the mission to save
+     * @param sync    {@code true} to flush the changes to the storage device right now
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized void write(@NonNull DownloadMission mission, boolean sync) throws IOException {
+        if (mDeleted) return;
+
+        boolean whole;
+        synchronized (mission.LOCK) {
+            mission.foldProgress();
+            whole = copy(mission);
+        }
+
+        if (mChannel == null) {
+            mRaf = new RandomAccessFile(mFile, "rw");
+            mChannel = mRaf.getChannel();
+        }
+
+        try {
+            mBuffer.flip();
+            int size = mBuffer.limit();
+            writeFully(mBuffer, 0);
+
+            if (whole) {
+                mChannel.truncate(size);
+            } else {
+                for (int i = 0; i < mPatchCount; i++) {
+                    mEntry.clear();
+                    mEntry.putInt(mPatchValues[i]);
+                    mEntry.flip();
+                    writeFully(mEntry, mPatchPositions[i]);
+                }
+            }
+        } catch (IOException e) {
+            // the modified entries are lost, rewrite the whole file the next time
+            mLayoutOffsets = -1;
+            throw e;
+        }
+
+        long now = System.currentTimeMillis();
+        if (sync || now - mLastSync > SYNC_INTERVAL) {
+            mChannel.force(false);
+            mLastSync = now;
+        }
+    }
+
+    /**
+     * Copies the progress of the mission to the buffers, must be called while holding the
+     * {@link DownloadMission#LOCK mission lock}
+     *
+     * @param mission the mission to save
+     * @return {@code true} if the buffer holds the whole file, {@code false} if only holds the
+     * header and the modified entries were copied to the patch list
+     */
+    private boolean copy(DownloadMission mission) {
+        int[] blocks = mission.blocks;
+        int[] splits = mission.splits;
+        int blockCount = blocks == null ? -1 : blocks.length;
+
+        mPatchCount = 0;
+
+        if (blocks != mLayoutBlocks || splits != mLayoutSplits || mission.offsets.length != mLayoutOffsets) {
+            copyWhole(mission, blockCount);
+            mDirtyBlocks.clear();
+            mDirtySplits.clear();
+            return true;
+        }
+
+        writeHeader(mission, blockCount);
+
+        long blocksStart = HEADER_SIZE + (long) mLayoutOffsets * OFFSET_ENTRY_SIZE;
+        for (int i = mDirtyBlocks.nextSetBit(0); i >= 0; i = mDirtyBlocks.nextSetBit(i + 1)) {
+            if (i >= blockCount) break;
+            addPatch(blocksStart + (long) i * BLOCK_ENTRY_SIZE, blocks[i]);
+        }
+
+        long splitsStart = blocksStart + (long) Math.max(blockCount, 0) * BLOCK_ENTRY_SIZE;
+        int splitCount = getSplitCount(splits);
+        for (int i = mDirtySplits.nextSetBit(0); i >= 0; i = mDirtySplits.nextSetBit(i + 1)) {
+            if (i >= splitCount) break;
+            int entry = i * DownloadMission.SPLIT_ENTRY_SIZE + 2;
+            addPatch(splitsStart + (long) entry * BLOCK_ENTRY_SIZE, splits[entry]);
+        }
+
+        mDirtyBlocks.clear();
+        mDirtySplits.clear();
+        return false;
+    }
+
+    private void copyWhole(DownloadMission mission, int blockCount) {
+        int size = HEADER_SIZE + mission.offsets.length * OFFSET_ENTRY_SIZE
+                + Math.max(blockCount, 0) * BLOCK_ENTRY_SIZE
+                + getSplitCount(mission.splits) * DownloadMission.SPLIT_ENTRY_SIZE * BLOCK_ENTRY_SIZE;
+
+        if (mBuffer == null || mBuffer.capacity() < size) mBuffer = ByteBuffer.allocate(size);
+
+        writeHeader(mission, blockCount);
+        for (long offset : mission.offsets) mBuffer.putLong(offset);
+        for (int i = 0; i < blockCount; i++) mBuffer.putInt(mission.blocks[i]);
+        if (mission.splits != null) for (int entry : mission.splits) mBuffer.putInt(entry);
+
+        mLayoutBlocks = mission.blocks;
+        mLayoutSplits = mission.splits;
+        mLayoutOffsets = mission.offsets.length;
+
+        if (DEBUG) {
+            Log.d(TAG, "checkpoint layout changed, blocks=" + blockCount + " size=" + size);
+        }
+    }
+
+    private void addPatch(long position, int value) {
+        if (mPatchCount == mPatchValues.length) {
+            mPatchPositions = Arrays.copyOf(mPatchPositions, mPatchCount * 2);
+            mPatchValues = Arrays.copyOf(mPatchValues, mPatchCount * 2);
+        }
+
+        mPatchPositions[mPatchCount] = position;
+        mPatchValues[mPatchCount] = value;
+        mPatchCount++;
+    }
+
+    private void writeHeader(DownloadMission mission, int blockCount) {
+        mBuffer.clear();
+        mBuffer.putInt(MAGIC);
+        mBuffer.putInt(VERSION);
+        mBuffer.putInt(mission.current);
+        mBuffer.putInt(mission.unknownLength ? FLAG_UNKNOWN_LENGTH : 0);
+        mBuffer.putInt(mission.blockSize);
+        mBuffer.putLong(mission.length);
+        mBuffer.putLong(mission.done);
+        mBuffer.putLong(mission.fallbackResumeOffset);
+        mBuffer.putInt(mission.offsets.length);
+        mBuffer.putInt(blockCount);
+        mBuffer.putInt(getSplitCount(mission.splits));
+    }
+
+    private static int getSplitCount(int[] splits) {
+        return splits == null ? 0 : splits.length / DownloadMission.SPLIT_ENTRY_SIZE;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += mChannel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Closes the file, is opened again by the next {@link #write}.
+     * Must not be called while holding the {@link DownloadMission#LOCK mission lock}.
+     */
+    synchronized void close() {
+        mLayoutBlocks = null;
+        mLayoutSplits = null;
+        mLayoutOffsets = -1;// the next write rewrites the whole file
+
+        if (mRaf == null) return;
+
+        try {
+            mRaf.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+
+        mRaf = null;
+        mChannel = null;
+    }
+
+    /**
+     * Deletes the file, the next calls to {@link #write} are ignored.
+     * Must not be called while holding the {@link DownloadMission#LOCK mission lock}.
+     *
+     * @return {@code true} if the file was deleted, otherwise, {@code false}
+     */
+    synchronized boolean delete() {
+        mDeleted = true;
+        close();
+        return !mFile.exists() || mFile.delete();
+    }
+
+    /**
+     * Loads the progress stored in the checkpoint file of the given metadata file, if any.
+     * Missions saved before the checkpoint file was introduced (or whose checkpoint is unreadable)
+     * keep the progress found in their serialized form.
+     *
+     * @param mission  the deserialized mission
+     * @param metadata the metadata file of the mission
+     * @return {@code true} if the progress was restored from the checkpoint, otherwise, {@code false}
+     */
+    public static boolean restore(@NonNull DownloadMission mission, @NonNull File metadata) {
+        File file = getFile(metadata);
+        if (!file.isFile()) return false;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) return false;
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) return false;
+            }
+            buffer.flip();
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return false;
+
+            int current = buffer.getInt();
+            int flags = buffer.getInt();
+            int blockSize = buffer.getInt();
+            long length = buffer.getLong();
+            long done = buffer.getLong();
+            long fallbackResumeOffset = buffer.getLong();
+            int offsetCount = buffer.getInt();
+            int blockCount = buffer.getInt();
+            int splitCount = buffer.getInt();
+
+            if (offsetCount != mission.offsets.length || splitCount < 0) return false;
+            if (size != HEADER_SIZE + (long) offsetCount * OFFSET_ENTRY_SIZE
+                    + (long) Math.max(blockCount, 0) * BLOCK_ENTRY_SIZE
+                    + (long) splitCount * DownloadMission.SPLIT_ENTRY_SIZE * BLOCK_ENTRY_SIZE) {
+                return false;// truncated or corrupted
+            }
+
+            long[] offsets = new long[offsetCount];
+            for (int i = 0; i < offsetCount; i++) offsets[i] = buffer.getLong();
+
+            int[] blocks = null;
+            if (blockCount >= 0) {
+                blocks = new int[blockCount];
+                for (int i = 0; i < blockCount; i++) blocks[i] = buffer.getInt();
+            }
+
+            int[] splits = null;
+            if (splitCount > 0) {
+                splits = new int[splitCount * DownloadMission.SPLIT_ENTRY_SIZE];
+                for (int i = 0; i < splits.length; i++) splits[i] = buffer.getInt();
+            }
+
+            mission.current = current;
+            mission.unknownLength = (flags & FLAG_UNKNOWN_LENGTH) != 0;
+            mission.blockSize = blockSize;
+            mission.length = length;
+            mission.done = done;
+            mission.fallbackResumeOffset = fallbackResumeOffset;
+            mission.offsets = offsets;
+            mission.blocks = blocks;
+            mission.splits = splits;
+
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read the checkpoint " + file.getName(), e);
+            return false;
+        }
+    }
+}
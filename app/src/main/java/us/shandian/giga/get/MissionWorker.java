@@ -0,0 +1,121 @@
+package us.shandian.giga.get;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A unit of work of a {@link DownloadMission} (download, initialization, recovery,
+ * post-processing, etc.) executed by the {@link DownloadScheduler} in one of its pools.
+ * Mimics the bits of the {@link Thread} API used by the missions.
+ */
+public abstract class MissionWorker implements Runnable {
+    private static final int STATE_QUEUED = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_CANCELLED = 2;
+
+    private final AtomicInteger mState = new AtomicInteger(STATE_QUEUED);
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+
+    private volatile Thread mThread;
+    private volatile boolean mInterrupted;
+
+    String name;
+
+    /**
+     * Wraps the given {@link Runnable}
+     *
+     * @param runnable the code to run
+     * @return a worker which runs the given code
+     */
+    @NonNull
+    static MissionWorker of(@NonNull Runnable runnable) {
+        return new MissionWorker() {
+            @Override
+            protected void work() {
+                runnable.run();
+            }
+        };
+    }
+
+    /**
+     * The code of this worker, executed at most one time
+     */
+    protected abstract void work();
+
+    @Override
+    public final void run() {
+        if (!mState.compareAndSet(STATE_QUEUED, STATE_RUNNING)) return;// cancelled while queued
+
+        Thread thread = Thread.currentThread();
+        String previousName = thread.getName();
+        if (name != null) thread.setName(name);
+
+        mThread = thread;
+        try {
+            if (!mInterrupted) work();
+        } finally {
+            mThread = null;
+            thread.setName(previousName);
+            // do not leak the interrupted flag to the next work executed on the pooled thread
+            //noinspection ResultOfMethodCallIgnored
+            Thread.interrupted();
+            mFinished.countDown();
+        }
+    }
+
+    /**
+     * Interrupts this worker. If the worker is still queued, it is cancelled and never runs.
+     */
+    public void interrupt() {
+        mInterrupted = true;
+
+        if (mState.compareAndSet(STATE_QUEUED, STATE_CANCELLED)) {
+            mFinished.countDown();
+            return;
+        }
+
+        Thread thread = mThread;
+        if (thread != null) thread.interrupt();
+    }
+
+    public boolean isInterrupted() {
+        return mInterrupted;
+    }
+
+    /**
+     * @return {@code true} if the worker is queued or running, otherwise, {@code false}
+     */
+    public boolean isAlive() {
+        return mFinished.getCount() > 0;
+    }
+
+    /**
+     * @return {@code true} if this worker is running on the calling thread
+     */
+    boolean isCurrentThread() {
+        return mThread == Thread.currentThread();
+    }
+
+    /**
+     * Waits at most {@code millis} milliseconds for this worker to finish, {@code 0} means forever
+     *
+     * @param millis the time to wait in milliseconds
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public void join(long millis) throws InterruptedException {
+        if (millis > 0) {
+            mFinished.await(millis, TimeUnit.MILLISECONDS);
+        } else {
+            mFinished.await();
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return name == null ? super.toString() : name;
+    }
+}
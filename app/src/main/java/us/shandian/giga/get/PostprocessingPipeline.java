@@ -0,0 +1,159 @@
+package us.shandian.giga.get;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import us.shandian.giga.io.ChunkFileInputStream;
+
+/**
+ * Runs the post-processing of a {@link DownloadMission} while its last resource is downloaded,
+ * so the muxing of the already downloaded resources is done at the same time.
+ * <p>
+ * The reads of the last resource wait until the data is downloaded. If the algorithm takes
+ * checkpoints, the output overwrites the already consumed part of the first resources, like a
+ * regular post-processing, but never the resource being downloaded (the download can write it
+ * again). Otherwise, until the download is done, all the output is kept in the temporal file of
+ * the post-processing algorithm. If the download is stopped, the pipeline is cancelled, and once
+ * the download is done the post-processing continues from the last checkpoint, or runs again from
+ * the start if there is none.
+ * <p>
+ * When the download is done, the pipeline is handed over: the algorithm continues as a regular
+ * post-processing, writing the final file.
+ */
+public class PostprocessingPipeline implements ChunkFileInputStream.Availability {
+    private static final String TAG = "PostprocessingPipeline";
+
+    private static final long POLL_INTERVAL = 250;// 250 milliseconds
+
+    private final DownloadMission mMission;
+    private final long mStart;
+    private final long mEnd;
+
+    private boolean mDownloading = true;
+    private boolean mCancelled = false;
+    private boolean mFinished = false;
+
+    MissionWorker worker;
+
+    /**
+     * @param mission the mission, downloading its last resource
+     */
+    PostprocessingPipeline(@NonNull DownloadMission mission) {
+        mMission = mission;
+        mStart = mission.offsets[mission.current];
+        mEnd = mStart + mission.length;
+    }
+
+    /**
+     * @return absolute offset in the file where the last resource ends
+     */
+    public long getEnd() {
+        return mEnd;
+    }
+
+    /**
+     * @return {@code true} if the last resource is still downloading, otherwise, {@code false}
+     */
+    public synchronized boolean isDownloading() {
+        return mDownloading;
+    }
+
+    @Override
+    public long await(long position) throws IOException {
+        while (true) {
+            synchronized (this) {
+                if (mCancelled) throw new InterruptedIOException("the download was stopped");
+                if (!mDownloading) return mEnd;
+            }
+
+            // the last byte is not available until the download is done, this prevents the
+            // algorithm from finishing (and writing the final file) before the handover
+            long available = Math.min(mStart + mMission.getDownloadedLength(), mEnd - 1);
+            if (available >= position) return available;
+
+            synchronized (this) {
+                if (mCancelled || !mDownloading) continue;
+
+                try {
+                    wait(POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted while waiting for the download");
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the download is done, must be called before writing the final file
+     *
+     * @throws InterruptedIOException if the download was stopped
+     */
+    public synchronized void awaitHandover() throws InterruptedIOException {
+        while (mDownloading) {
+            if (mCancelled) throw new InterruptedIOException("the download was stopped");
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while waiting for the download");
+            }
+        }
+    }
+
+    /**
+     * Called when the download is done
+     *
+     * @return {@code true} if the pipeline continues as the post-processing of the mission,
+     * {@code false} if was stopped and the post-processing must run from the start
+     */
+    synchronized boolean handover() {
+        if (mCancelled || mFinished) return false;
+
+        mDownloading = false;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Called by the worker when the algorithm ends
+     *
+     * @return {@code true} if the result must be used, {@code false} if must be discarded
+     * because the download was not done
+     */
+    synchronized boolean onFinished() {
+        mFinished = true;
+        return !mDownloading;
+    }
+
+    /**
+     * Stops the pipeline, if the download was not done yet
+     */
+    void cancel() {
+        synchronized (this) {
+            if (!mDownloading || mCancelled) return;
+            mCancelled = true;
+            notifyAll();
+        }
+
+        worker.interrupt();
+    }
+
+    boolean isAlive() {
+        return worker.isAlive();
+    }
+
+    /**
+     * Waits for a cancelled pipeline
+     */
+    void join() {
+        try {
+            worker.join(0);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "interrupted while waiting for the pipeline", e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package us.shandian.giga.get;
+
+/**
+ * Bytes downloaded by a single download worker of a {@link DownloadMission}. Every worker owns a
+ * stripe and is the only one updating it, so the read loop does not need locks nor CAS loops. The
+ * mission adds the stripes to its progress on demand, like {@link java.util.concurrent.atomic.LongAdder}
+ * (which is not available in all supported API levels).
+ */
+class ProgressStripe {
+    private volatile long mValue;
+
+    /**
+     * Amount of {@link #mValue} already added to the mission progress, only modified while
+     * holding the {@link DownloadMission#LOCK mission lock}
+     */
+    private volatile long mFolded;
+
+    /**
+     * Adds progress, must be called only by the owner worker
+     *
+     * @param delta amount of bytes, can be negative
+     */
+    void add(long delta) {
+        // there is only one writer, the read-modify-write is safe
+        //noinspection NonAtomicOperationOnVolatileField
+        mValue += delta;
+    }
+
+    /**
+     * Must be called while holding the {@link DownloadMission#LOCK mission lock}
+     *
+     * @return the progress made since the last call
+     */
+    long fold() {
+        long value = mValue;
+        long delta = value - mFolded;
+        mFolded = value;
+        return delta;
+    }
+
+    /**
+     * Can be called without holding any lock, the value can be outdated
+     *
+     * @return the progress not added to the mission yet
+     */
+    long pending() {
+        return mValue - mFolded;
+    }
+}
@@ -3,6 +3,7 @@ package us.shandian.giga.io;
 import org.schabi.newpipe.streams.io.SharpStream;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ChunkFileInputStream extends SharpStream {
     private static final int REPORT_INTERVAL = 256 * 1024;
@@ -10,24 +11,37 @@ public class ChunkFileInputStream extends SharpStream {
     private SharpStream source;
     private final long offset;
     private final long length;
-    private long position;
+    private volatile long position;// read by the OffsetChecker while a muxer reads ahead
 
     private long progressReport;
     private final ProgressReport onProgress;
 
+    private final Availability availability;
+    private long availableEnd;
+
     public ChunkFileInputStream(SharpStream target, long start, long end, ProgressReport callback) throws IOException {
+        this(target, start, end, callback, null);
+    }
+
+    /**
+     * @param availability if not {@code null}, the chunk is still being written and the reads
+     *                     wait for the data
+     */
+    public ChunkFileInputStream(SharpStream target, long start, long end, ProgressReport callback, Availability availability) throws IOException {
         source = target;
         offset = start;
         length = end - start;
         position = 0;
         onProgress = callback;
         progressReport = REPORT_INTERVAL;
+        this.availability = availability;
+        availableEnd = availability == null ? end : start;
 
         if (length < 1) {
             source.close();
             throw new IOException("The chunk is empty or invalid");
         }
-        if (source.length() < end) {
+        if (availability == null && source.length() < end) {
             try {
                 throw new IOException(String.format("invalid file length. expected = %s  found = %s", end, source.length()));
             } finally {
@@ -53,6 +67,8 @@ public class ChunkFileInputStream extends SharpStream {
             return 0;
         }
 
+        awaitData();
+
         int res = source.read();
         if (res >= 0) {
             position++;
@@ -75,6 +91,8 @@ public class ChunkFileInputStream extends SharpStream {
             return 0;
         }
 
+        len = (int) Math.min(len, awaitData());
+
         int res = source.read(b, off, len);
         position += res;
 
@@ -86,6 +104,17 @@ public class ChunkFileInputStream extends SharpStream {
         return res;
     }
 
+    @Override
+    public boolean canMap() {
+        // the chunk can not be mapped while is being written
+        return position == 0 && availability == null && source instanceof FileStream;
+    }
+
+    @Override
+    public ByteBuffer map(long start, int size) throws IOException {
+        return source.map(offset + start, size);
+    }
+
     @Override
     public long skip(long pos) throws IOException {
         pos = Math.min(pos + position, length);
@@ -99,9 +128,27 @@ public class ChunkFileInputStream extends SharpStream {
         long oldPos = position;
         position = pos;
 
+        if (onProgress != null && position > progressReport) {
+            onProgress.report(position);
+            progressReport = position + REPORT_INTERVAL;
+        }
+
         return pos - oldPos;
     }
 
+    /**
+     * Waits until there is data to read
+     *
+     * @return the amount of bytes that can be read without waiting
+     * @throws IOException if an I/O error occurs, or the wait is interrupted
+     */
+    private long awaitData() throws IOException {
+        long current = offset + position;
+        if (availableEnd <= current) availableEnd = availability.await(current + 1);
+
+        return availableEnd - current;
+    }
+
     @Override
     public long available() {
         return length - position;
@@ -152,4 +199,16 @@ public class ChunkFileInputStream extends SharpStream {
     public void write(byte[] buffer, int offset, int count) {
     }
 
+    public interface Availability {
+
+        /**
+         * Waits until the data before the given position is written
+         *
+         * @param position absolute offset in the file
+         * @return absolute offset in the file where the written data ends, at least {@code position}
+         * @throws IOException if the wait is interrupted, or the data will not be written
+         */
+        long await(long position) throws IOException;
+    }
+
 }
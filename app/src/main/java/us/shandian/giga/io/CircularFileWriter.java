@@ -7,12 +7,23 @@ import org.schabi.newpipe.streams.io.SharpStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Objects;
 
+/**
+ * Writes the output of a post-processing over its own sources. The data that cannot be written
+ * yet in the target, because the sources are still read from there, is kept in a temporal file
+ * and moved to the target later.
+ * <p>
+ * The writes are coalesced in direct buffers, written to the file channels without intermediate
+ * copies. If both files have a channel, the temporal file is moved to the target with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ */
 public class CircularFileWriter extends SharpStream {
 
-    private final static int QUEUE_BUFFER_SIZE = 8 * 1024;// 8 KiB
-    private final static int COPY_BUFFER_SIZE = 128 * 1024; // 128 KiB
+    private final static int QUEUE_BUFFER_SIZE = 256 * 1024;// 256 KiB
+    private final static int COPY_BUFFER_SIZE = 512 * 1024;// 512 KiB
     private final static int NOTIFY_BYTES_INTERVAL = 64 * 1024;// 64 KiB
     private final static int THRESHOLD_AUX_LENGTH = 15 * 1024 * 1024;// 15 MiB
 
@@ -20,6 +31,7 @@ public class CircularFileWriter extends SharpStream {
 
     public ProgressReport onProgress;
     public WriteErrorHandle onWriteError;
+    public LayoutListener onLayoutChanged;
 
     private long reportPosition;
     private long maxLengthKnown = -1;
@@ -27,6 +39,11 @@ public class CircularFileWriter extends SharpStream {
     private BufferedFile out;
     private BufferedFile aux;
 
+    private ByteBuffer copyBuffer;
+
+    private long bytesWritten;
+    private long bytesCopied;
+
     public CircularFileWriter(SharpStream target, File temp, OffsetChecker checker) throws IOException {
         Objects.requireNonNull(checker);
 
@@ -44,6 +61,125 @@ public class CircularFileWriter extends SharpStream {
         reportPosition = NOTIFY_BYTES_INTERVAL;
     }
 
+    /**
+     * Restores the writer of a stopped post-processing, the output is split between the target
+     * and the temporal file as reported by {@link LayoutListener}. If the writer was stopped while
+     * compacting the temporal file, the compaction is done again, the new layout must be stored
+     * before writing.
+     *
+     * @param mainLength length of the output stored in the target
+     * @param auxStart   offset of the output in the temporal file
+     * @param auxLength  length of the output stored in the temporal file
+     */
+    public CircularFileWriter(SharpStream target, File temp, OffsetChecker checker, long mainLength, long auxStart, long auxLength) throws IOException {
+        this(target, temp, checker);
+
+        if (aux.target.length() < auxStart + auxLength || out.target.length() < mainLength) {
+            close();
+            throw new IOException("The stored output is incomplete");
+        }
+
+        out.length = mainLength;
+        aux.length = auxLength;
+        maxLengthKnown = mainLength + auxLength;
+
+        if (auxStart > 0) {
+            try {
+                compactAuxiliar(auxStart);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+
+    public long getMainLength() {
+        return out.length;
+    }
+
+    public long getAuxiliarLength() {
+        return aux.length;
+    }
+
+    /**
+     * @return amount of bytes given to this writer
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return amount of bytes copied again, from the temporal file to the target or inside the
+     * temporal file. Each one was already written once in the temporal file
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    private ByteBuffer getCopyBuffer() {
+        if (copyBuffer == null) {
+            // a heap buffer is required to write into a target without channel
+            if (out.channel == null)
+                copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            else
+                copyBuffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+        }
+
+        copyBuffer.clear();
+        return copyBuffer;
+    }
+
+    /**
+     * Moves data from the temporal file to the current position of the target
+     *
+     * @param position offset of the data in the temporal file
+     * @param count    amount of bytes to move
+     * @return amount of bytes moved, less than requested if the end of the temporal file is reached
+     * @throws IOException if an I/O error occurs
+     */
+    private long moveAuxiliar(long position, long count) throws IOException {
+        long moved = 0;
+
+        if (out.channel == null) {
+            ByteBuffer buffer = getCopyBuffer();
+
+            while (moved < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - moved));
+
+                if (aux.channel.read(buffer, position + moved) < 1) break;
+
+                buffer.flip();
+                moved += buffer.remaining();
+                out.writeProof(buffer);
+            }
+
+            bytesCopied += moved;
+            return moved;
+        }
+
+        long start = out.channel.position();
+
+        while (moved < count) {
+            long transferred;
+            try {
+                transferred = aux.channel.transferTo(position + moved, count - moved, out.channel);
+            } catch (IOException e) {
+                if (onWriteError == null || !onWriteError.handle(e)) throw e;
+
+                // the failed transfer can be partially done, repeat it
+                out.channel.position(start + moved);
+                continue;
+            }
+
+            if (transferred < 1) break;// end of the temporal file
+            moved += transferred;
+        }
+
+        bytesCopied += moved;
+        return moved;
+    }
+
     private void flushAuxiliar(long amount) throws IOException {
         if (aux.length < 1) {
             return;
@@ -53,24 +189,9 @@ public class CircularFileWriter extends SharpStream {
         aux.flush();
 
         boolean underflow = aux.offset < aux.length || out.offset < out.length;
-        byte[] buffer = new byte[COPY_BUFFER_SIZE];
 
-        aux.target.seek(0);
         out.target.seek(out.length);
-
-        long length = amount;
-        while (length > 0) {
-            int read = (int) Math.min(length, Integer.MAX_VALUE);
-            read = aux.target.read(buffer, 0, Math.min(read, buffer.length));
-
-            if (read < 1) {
-                amount -= length;
-                break;
-            }
-
-            out.writeProof(buffer, read);
-            length -= read;
-        }
+        amount = moveAuxiliar(0, Math.min(amount, aux.length));
 
         if (underflow) {
             if (out.offset >= out.length) {
@@ -97,31 +218,26 @@ public class CircularFileWriter extends SharpStream {
             maxLengthKnown = out.length;
         }
 
-        if (amount < aux.length) {
-            // move the excess data to the beginning of the file
-            long readOffset = amount;
-            long writeOffset = 0;
+        // the writes continue where the target was before the move
+        out.target.seek(out.offset);
 
+        if (amount < aux.length) {
+            // move the excess data to the beginning of the file, the moved data is kept until
+            // the new layout is reported
             aux.length -= amount;
-            length = aux.length;
-            while (length > 0) {
-                int read = (int) Math.min(length, Integer.MAX_VALUE);
-                read = aux.target.read(buffer, 0, Math.min(read, buffer.length));
-
-                aux.target.seek(writeOffset);
-                aux.writeProof(buffer, read);
+            if (onLayoutChanged != null) onLayoutChanged.onLayoutChanged(out.length, amount, aux.length);
 
-                writeOffset += read;
-                readOffset += read;
-                length -= read;
-
-                aux.target.seek(readOffset);
-            }
+            compactAuxiliar(amount);
+            if (onLayoutChanged != null) onLayoutChanged.onLayoutChanged(out.length, 0, aux.length);
 
             aux.target.setLength(aux.length);
+            aux.target.seek(aux.offset);
             return;
         }
 
+        // the whole output is in the target from now
+        if (onLayoutChanged != null) onLayoutChanged.onLayoutChanged(out.length, 0, 0);
+
         if (aux.length > THRESHOLD_AUX_LENGTH) {
             aux.target.setLength(THRESHOLD_AUX_LENGTH);// or setLength(0);
         }
@@ -129,6 +245,36 @@ public class CircularFileWriter extends SharpStream {
         aux.reset();
     }
 
+    /**
+     * Copies the output stored in the temporal file to its beginning. The regions can overlap,
+     * each block is read before being overwritten.
+     *
+     * @param start offset of the output in the temporal file
+     * @throws IOException if an I/O error occurs
+     */
+    private void compactAuxiliar(long start) throws IOException {
+        ByteBuffer buffer = getCopyBuffer();
+        long readOffset = start;
+        long writeOffset = 0;
+
+        while (writeOffset < aux.length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), aux.length - writeOffset));
+
+            int read = aux.channel.read(buffer, readOffset);
+            if (read < 1) throw new IOException("The temporal file is shorter than expected");
+
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                writeOffset += aux.channel.write(buffer, writeOffset);
+            }
+
+            readOffset += read;
+        }
+
+        bytesCopied += aux.length;
+    }
+
     /**
      * Flush any buffer and close the output file. Use this method if the
      * operation is successful
@@ -183,6 +329,8 @@ public class CircularFileWriter extends SharpStream {
             return;
         }
 
+        bytesWritten += len;
+
         long available;
         long offsetOut = out.getOffset();
         long offsetAux = aux.getOffset();
@@ -212,7 +360,9 @@ public class CircularFileWriter extends SharpStream {
 
             aux.write(b, off, len);
 
-            if (length >= THRESHOLD_AUX_LENGTH && length <= available) {
+            // the output ahead of the sources stays in the temporal file, a partial move is done
+            // if the moved data is not smaller than the rest, so the copy of the rest never overlaps it
+            if (length >= THRESHOLD_AUX_LENGTH && (length <= available || available >= length - available)) {
                 flushAuxiliar(available);
             }
         } else {
@@ -356,6 +506,21 @@ public class CircularFileWriter extends SharpStream {
         long check();
     }
 
+    public interface LayoutListener {
+
+        /**
+         * Called when the output stored in the temporal file is moved to the target, before the
+         * temporal file is reused. If only a part is moved, is called again once the rest is
+         * copied to the beginning of the temporal file.
+         *
+         * @param mainLength length of the output stored in the target
+         * @param auxStart   offset of the output in the temporal file, not 0 while the rest is copied
+         * @param auxLength  length of the output stored in the temporal file
+         * @throws IOException if an I/O error occurs
+         */
+        void onLayoutChanged(long mainLength, long auxStart, long auxLength) throws IOException;
+    }
+
     public interface WriteErrorHandle {
 
         /**
@@ -371,23 +536,30 @@ public class CircularFileWriter extends SharpStream {
     class BufferedFile {
 
         final SharpStream target;
+        final FileChannel channel;// or null if the target is not a file
 
         private long offset;
         long length;
 
-        private byte[] queue = new byte[QUEUE_BUFFER_SIZE];
-        private int queueSize;
+        private ByteBuffer queue;
 
         BufferedFile(File file) throws FileNotFoundException {
-            this.target = new FileStream(file);
+            this(new FileStream(file));
         }
 
         BufferedFile(SharpStream target) {
             this.target = target;
+            this.channel = target.getChannel();
+
+            // a direct buffer is written to the channel without copying it again
+            if (channel == null)
+                queue = ByteBuffer.allocate(QUEUE_BUFFER_SIZE);
+            else
+                queue = ByteBuffer.allocateDirect(QUEUE_BUFFER_SIZE);
         }
 
         long getOffset() {
-            return offset + queueSize;// absolute offset in the file
+            return offset + queue.position();// absolute offset in the file
         }
 
         void close() {
@@ -397,27 +569,31 @@ public class CircularFileWriter extends SharpStream {
 
         void write(byte[] b, int off, int len) throws IOException {
             while (len > 0) {
-                // if the queue is full, the method available() will flush the queue
-                int read = Math.min(available(), len);
+                if (!queue.hasRemaining()) flush();
 
                 // enqueue incoming buffer
-                System.arraycopy(b, off, queue, queueSize, read);
-                queueSize += read;
+                int count = Math.min(queue.remaining(), len);
+                queue.put(b, off, count);
 
-                len -= read;
-                off += read;
+                len -= count;
+                off += count;
             }
 
-            long total = offset + queueSize;
+            long total = getOffset();
             if (total > length) {
                 length = total;// save length
             }
         }
 
         void flush() throws IOException {
-            writeProof(queue, queueSize);
-            offset += queueSize;
-            queueSize = 0;
+            int count = queue.position();
+            if (count < 1) return;
+
+            queue.flip();
+            writeProof(queue);
+            queue.clear();
+
+            offset += count;
         }
 
         protected void rewind() throws IOException {
@@ -425,15 +601,6 @@ public class CircularFileWriter extends SharpStream {
             target.seek(0);
         }
 
-        int available() throws IOException {
-            if (queueSize >= queue.length) {
-                flush();
-                return queue.length;
-            }
-
-            return queue.length - queueSize;
-        }
-
         void reset() throws IOException {
             offset = 0;
             length = 0;
@@ -448,18 +615,22 @@ public class CircularFileWriter extends SharpStream {
             target.seek(absoluteOffset);
         }
 
-        void writeProof(byte[] buffer, int length) throws IOException {
-            if (onWriteError == null) {
-                target.write(buffer, 0, length);
-                return;
-            }
-
+        /**
+         * Writes the remaining bytes of the buffer at the current position of the target
+         */
+        void writeProof(ByteBuffer buffer) throws IOException {
             while (true) {
                 try {
-                    target.write(buffer, 0, length);
+                    if (channel == null) {
+                        target.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                        buffer.position(buffer.limit());
+                    } else {
+                        // a failed write leaves the position after the written bytes
+                        while (buffer.hasRemaining()) channel.write(buffer);
+                    }
                     return;
                 } catch (Exception e) {
-                    if (!onWriteError.handle(e)) {
+                    if (onWriteError == null || !onWriteError.handle(e)) {
                         throw e;// give up
                     }
                 }
@@ -479,7 +650,7 @@ public class CircularFileWriter extends SharpStream {
 
             return String.format(
                     "offset=%s  length=%s  queue=%s  absLength=%s",
-                    offset, length, queueSize, absLength
+                    offset, length, queue.position(), absLength
             );
         }
     }
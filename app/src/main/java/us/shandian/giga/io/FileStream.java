@@ -8,6 +8,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @author kapodamy
@@ -114,6 +116,40 @@ public class FileStream extends SharpStream {
         source.write(buffer, offset, count);
     }
 
+    /**
+     * Writes the remaining bytes of the buffer at the given file position. The file pointer is
+     * not modified, so no seek is required between writes on different positions.
+     *
+     * @param buffer   the data to write, preferably a direct buffer
+     * @param position the file position
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(@NonNull ByteBuffer buffer, long position) throws IOException {
+        FileChannel channel = source.getChannel();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public boolean canMap() {
+        try {
+            return source.getFilePointer() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public ByteBuffer map(long position, int size) throws IOException {
+        return source.getChannel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    @Override
+    public FileChannel getChannel() {
+        return source.getChannel();
+    }
+
     @Override
     public void setLength(long length) throws IOException {
         source.setLength(length);
@@ -133,6 +133,11 @@ public class FileStreamSAF extends SharpStream {
         out.write(buffer, offset, count);
     }
 
+    @Override
+    public FileChannel getChannel() {
+        return channel;
+    }
+
     @Override
     public void setLength(long length) throws IOException {
         channel.truncate(length);
@@ -0,0 +1,144 @@
+package us.shandian.giga.io;
+
+import androidx.annotation.NonNull;
+
+import org.schabi.newpipe.streams.io.SharpStream;
+
+import java.io.IOException;
+
+/**
+ * Source of a resumed post-processing. The first bytes of the source, read again while parsing,
+ * come from the checkpoint because the output can be already written over them. The rest of the
+ * source is read from the download file.
+ */
+public class ResumedSourceStream extends SharpStream {
+    private final byte[] header;
+    private ChunkFileInputStream source;
+    private long position;
+
+    /**
+     * @param header the first bytes of the source
+     * @param source the whole source in the download file, the bytes after the header are read
+     *               from it
+     * @throws IOException if an I/O error occurs
+     */
+    public ResumedSourceStream(@NonNull byte[] header, @NonNull ChunkFileInputStream source) throws IOException {
+        this.header = header;
+        this.source = source;
+
+        source.skip(header.length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position < header.length) return header[(int) position++] & 0xFF;
+
+        int res = source.read();
+        if (res >= 0) position++;
+
+        return res;
+    }
+
+    @Override
+    public int read(byte[] buffer) throws IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int total = 0;
+
+        if (position < header.length) {
+            total = (int) Math.min(count, header.length - position);
+            System.arraycopy(header, (int) position, buffer, offset, total);
+            position += total;
+
+            // continue with the source, the readers expect full reads
+            offset += total;
+            count -= total;
+            if (count < 1) return total;
+        }
+
+        int res = source.read(buffer, offset, count);
+        if (res < 1) return total > 0 ? total : res;
+
+        position += res;
+        return total + res;
+    }
+
+    @Override
+    public long skip(long amount) throws IOException {
+        long skipped = 0;
+
+        if (position < header.length) {
+            skipped = Math.min(amount, header.length - position);
+            position += skipped;
+            amount -= skipped;
+        }
+
+        if (amount > 0) {
+            long res = source.skip(amount);
+            position += res;
+            skipped += res;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public long available() {
+        long available = source.available();
+        if (position < header.length) available += header.length - position;
+
+        return available;
+    }
+
+    @Override
+    public void rewind() throws IOException {
+        position = 0;
+
+        // the source stays after the header
+        source.rewind();
+        source.skip(header.length);
+    }
+
+    @Override
+    public void close() {
+        if (source == null) return;
+
+        source.close();
+        source = null;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return source == null;
+    }
+
+    @Override
+    public boolean canRewind() {
+        return true;
+    }
+
+    @Override
+    public boolean canRead() {
+        return true;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return false;
+    }
+
+    @Override
+    public void write(byte value) {
+    }
+
+    @Override
+    public void write(byte[] buffer) {
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) {
+    }
+}
@@ -19,6 +19,12 @@ class Mp4FromDashMuxer extends Postprocessing {
         Mp4FromDashWriter muxer = new Mp4FromDashWriter(sources);
         muxer.parseSources();
         muxer.selectTracks(0, 0);
+
+        // read the sources only one time, this also allows muxing while the last resource
+        // is downloaded (the moov box goes at the end of the file)
+        muxer.setSinglePass(true);
+        muxer.setParallel(PARALLEL);
+        checkpoint(muxer);
         muxer.build(out);
 
         return OK_RESULT;
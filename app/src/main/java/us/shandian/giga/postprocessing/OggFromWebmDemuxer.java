@@ -37,6 +37,7 @@ class OggFromWebmDemuxer extends Postprocessing {
         OggFromWebMWriter demuxer = new OggFromWebMWriter(sources[0], out);
         demuxer.parseSource();
         demuxer.selectTrack(0);
+        checkpoint(demuxer);
         demuxer.build();
 
         return OK_RESULT;
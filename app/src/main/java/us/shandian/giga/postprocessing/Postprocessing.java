@@ -3,27 +3,50 @@ package us.shandian.giga.postprocessing;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import org.schabi.newpipe.streams.MuxerCheckpoint;
+import org.schabi.newpipe.streams.ResumableMuxer;
 import org.schabi.newpipe.streams.io.SharpStream;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
+import java.nio.channels.ClosedByInterruptException;
 
 import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.get.PostprocessingPipeline;
 import us.shandian.giga.io.ChunkFileInputStream;
 import us.shandian.giga.io.CircularFileWriter;
+import us.shandian.giga.io.CircularFileWriter.LayoutListener;
 import us.shandian.giga.io.CircularFileWriter.OffsetChecker;
 import us.shandian.giga.io.ProgressReport;
+import us.shandian.giga.io.ResumedSourceStream;
 
+import static org.schabi.newpipe.BuildConfig.DEBUG;
 import static us.shandian.giga.get.DownloadMission.ERROR_NOTHING;
 import static us.shandian.giga.get.DownloadMission.ERROR_POSTPROCESSING;
 import static us.shandian.giga.get.DownloadMission.ERROR_POSTPROCESSING_HOLD;
 
 public abstract class Postprocessing implements Serializable {
+    // keep the value computed before the pipelined mode was added, to load existing missions
+    private static final long serialVersionUID = -2913430469561955802L;
 
     static transient final byte OK_RESULT = ERROR_NOTHING;
 
+    /**
+     * Read every source in its own thread while muxing, only useful with more than one core
+     */
+    static transient final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+
+    /**
+     * Amount of output written between two checkpoints, the data of the sources needed to resume
+     * from the last checkpoint can not be overwritten, so the output goes to the temporal file
+     */
+    static transient final long CHECKPOINT_INTERVAL = 64 * 1024 * 1024;// 64 MiB
+
     public transient static final String ALGORITHM_TTML_CONVERTER = "ttml";
     public transient static final String ALGORITHM_WEBM_MUXER = "webm";
     public transient static final String ALGORITHM_MP4_FROM_DASH_MUXER = "mp4D-mp4";
@@ -80,7 +103,10 @@ public abstract class Postprocessing implements Serializable {
 
     private transient DownloadMission mission;
 
-    private transient File tempFile;
+    // not transient, the checkpoint of a stopped algorithm is stored next to this file
+    private File tempFile;
+
+    private transient CheckpointSession session;
 
     Postprocessing(boolean reserveSpace, boolean worksOnSameFile, String algorithmName) {
         this.reserveSpace = reserveSpace;
@@ -102,40 +128,114 @@ public abstract class Postprocessing implements Serializable {
                 // nothing to do
             }
         }
+        if (tempFile != null) {
+            //noinspection ResultOfMethodCallIgnored
+            PostprocessingCheckpoint.getFile(tempFile).delete();
+        }
+    }
+
+    /**
+     * Indicates if a stopped run of the algorithm left a checkpoint, the next run continues from
+     * it instead of starting over, see {@link #checkpoint(ResumableMuxer)}
+     *
+     * @return {@code true} if the algorithm can be resumed, otherwise, {@code false}
+     */
+    public boolean isResumable() {
+        return worksOnSameFile && tempFile != null && tempFile.exists()
+                && PostprocessingCheckpoint.getFile(tempFile).exists();
     }
 
 
-    public void run(DownloadMission target) throws IOException {
+    /**
+     * Runs the post-processing algorithm
+     *
+     * @param target   the mission to process
+     * @param pipeline if not {@code null}, the last resource of the mission is still downloading,
+     *                 see {@link PostprocessingPipeline}
+     * @throws IOException if an I/O error occurs.
+     */
+    public void run(DownloadMission target, @Nullable PostprocessingPipeline pipeline) throws IOException {
         this.mission = target;
 
         int result;
         long finalLength = -1;
 
-        mission.done = 0;
+        if (pipeline == null) {
+            mission.done = 0;
 
-        long length = mission.storage.length() - mission.offsets[0];
-        mission.length = Math.max(length, mission.nearLength);
+            long length = mission.storage.length() - mission.offsets[0];
+            mission.length = Math.max(length, mission.nearLength);
+        }
 
         final ProgressReport readProgress = (long position) -> {
+            if (pipeline != null && pipeline.isDownloading()) return;// the download reports the progress
+
             position -= mission.offsets[0];
             if (position > mission.done) mission.done = position;
         };
 
         if (worksOnSameFile) {
-            ChunkFileInputStream[] sources = new ChunkFileInputStream[mission.urls.length];
+            File checkpointFile = PostprocessingCheckpoint.getFile(tempFile);
+            PostprocessingCheckpoint resumeFrom = null;
+
+            // a pipeline is never started over a checkpoint, see DownloadMission.startPipeline()
+            if (pipeline == null) resumeFrom = PostprocessingCheckpoint.read(checkpointFile);
+            if (resumeFrom != null && resumeFrom.starts.length != mission.urls.length) resumeFrom = null;
+
+            ChunkFileInputStream[] chunks = new ChunkFileInputStream[mission.urls.length];
+            SharpStream[] sources = new SharpStream[mission.urls.length];
+            long[] starts = new long[sources.length];
+            long[] ends = new long[sources.length];
+            boolean stopped = false;
             try {
                 for (int i = 0, j = 1; i < sources.length; i++, j++) {
                     SharpStream source = mission.storage.getStream();
-                    long end = j < sources.length ? mission.offsets[j] : source.length();
 
-                    sources[i] = new ChunkFileInputStream(source, mission.offsets[i], end, readProgress);
+                    if (resumeFrom != null) {
+                        chunks[i] = new ChunkFileInputStream(source, resumeFrom.starts[i], resumeFrom.ends[i], readProgress);
+                    } else if (j < sources.length) {
+                        chunks[i] = new ChunkFileInputStream(source, mission.offsets[i], mission.offsets[j], readProgress);
+                    } else if (pipeline != null) {
+                        // the last resource is downloading
+                        chunks[i] = new ChunkFileInputStream(source, mission.offsets[i], pipeline.getEnd(), readProgress, pipeline);
+                    } else {
+                        chunks[i] = new ChunkFileInputStream(source, mission.offsets[i], source.length(), readProgress);
+                    }
+
+                    starts[i] = chunks[i].getFilePointer();
+                    ends[i] = starts[i] + chunks[i].available();
+
+                    if (resumeFrom != null) {
+                        // the first bytes can be already overwritten by the output
+                        sources[i] = new ResumedSourceStream(resumeFrom.headers[i], chunks[i]);
+                    } else {
+                        sources[i] = chunks[i];
+                    }
                 }
 
+                session = new CheckpointSession(checkpointFile, starts, ends, resumeFrom);
+
                 if (test(sources)) {
                     for (SharpStream source : sources) source.rewind();
 
                     OffsetChecker checker = () -> {
-                        for (ChunkFileInputStream source : sources) {
+                        boolean downloading = pipeline != null && pipeline.isDownloading();
+
+                        if (session.enabled) {
+                            // keep the data needed to resume from the last checkpoint
+                            long end = session.protectedEnd;
+
+                            // the resource being downloaded is written again if the download restarts
+                            long downloadStart = starts[starts.length - 1];
+                            if (downloading && (end < 0 || end > downloadStart)) end = downloadStart;
+
+                            return end;
+                        }
+
+                        // without checkpoints, a stopped pipeline runs the algorithm again from the start
+                        if (downloading) return 0;
+
+                        for (ChunkFileInputStream source : chunks) {
                             /*
                              * WARNING: never use rewind() in any chunk after any writing (especially on first chunks)
                              *          or the CircularFileWriter can lead to unexpected results
@@ -150,9 +250,25 @@ public abstract class Postprocessing implements Serializable {
                         return -1;
                     };
 
-                    try (CircularFileWriter out = new CircularFileWriter(
-                            mission.storage.getStream(), tempFile, checker)) {
-                        out.onProgress = (long position) -> mission.done = position;
+                    CircularFileWriter writer;
+                    if (resumeFrom == null) {
+                        writer = new CircularFileWriter(mission.storage.getStream(), tempFile, checker);
+                    } else {
+                        writer = new CircularFileWriter(mission.storage.getStream(), tempFile, checker,
+                                resumeFrom.mainLength, resumeFrom.auxStart, resumeFrom.auxLength);
+                    }
+
+                    try (CircularFileWriter out = writer) {
+                        session.out = out;
+                        out.onLayoutChanged = session;
+
+                        // the writer finished the compaction of the temporal file, see CircularFileWriter
+                        if (resumeFrom != null && resumeFrom.auxStart > 0)
+                            session.onLayoutChanged(out.getMainLength(), 0, out.getAuxiliarLength());
+
+                        out.onProgress = (long position) -> {
+                            if (pipeline == null || !pipeline.isDownloading()) mission.done = position;
+                        };
 
                         out.onWriteError = err -> {
                             mission.psState = 3;
@@ -173,23 +289,43 @@ public abstract class Postprocessing implements Serializable {
 
                         result = process(out, sources);
 
+                        // never write the final file while the last resource is downloading
+                        if (pipeline != null) pipeline.awaitHandover();
+
                         if (result == OK_RESULT)
                             finalLength = out.finalizeFile();
+
+                        if (DEBUG) {
+                            Log.d(getClass().getSimpleName(), "written " + out.getBytesWritten()
+                                    + " bytes, copied again " + out.getBytesCopied() + " bytes");
+                        }
                     }
                 } else {
                     result = OK_RESULT;
                 }
+            } catch (IOException e) {
+                stopped = e instanceof InterruptedIOException || e instanceof ClosedByInterruptException
+                        || Thread.currentThread().isInterrupted();
+                throw e;
             } finally {
-                for (SharpStream source : sources) {
+                for (SharpStream source : chunks) {
                     if (source != null && !source.isClosed()) {
                         source.close();
                     }
                 }
-                if (tempFile != null) {
+
+                if (stopped && session != null && session.last != null) {
+                    // keep the output and the checkpoint, the next run continues from it
+                    if (DEBUG) Log.d(getClass().getSimpleName(), "stopped, the next run resumes at " + session.last.muxer.outputLength);
+                } else {
+                    // keep the path, a stopped pipeline runs the algorithm again
                     //noinspection ResultOfMethodCallIgnored
                     tempFile.delete();
-                    tempFile = null;
+                    //noinspection ResultOfMethodCallIgnored
+                    checkpointFile.delete();
                 }
+
+                session = null;
             }
         } else {
             result = test() ? process(null) : OK_RESULT;
@@ -209,6 +345,24 @@ public abstract class Postprocessing implements Serializable {
         this.mission = null;
     }
 
+    /**
+     * Takes checkpoints while the given muxer builds the output, if the algorithm is stopped the
+     * next run continues from the last one. If this run continues a stopped one, the muxer is
+     * restored first. Must be called after the tracks are selected, and before the build.
+     *
+     * @param muxer the muxer
+     * @throws IOException if the muxer can not be restored
+     */
+    void checkpoint(ResumableMuxer muxer) throws IOException {
+        if (session == null) return;// not working on the same file
+
+        if (session.last != null) muxer.resume(session.last.muxer);
+
+        session.muxer = muxer;
+        session.enabled = true;
+        muxer.setCheckpointListener(session);
+    }
+
     /**
      * Test if the post-processing algorithm can be skipped
      *
@@ -238,6 +392,101 @@ public abstract class Postprocessing implements Serializable {
         return args[index];
     }
 
+    /**
+     * Stores the checkpoints of the muxer, and updates the protected part of the sources
+     */
+    private class CheckpointSession implements MuxerCheckpoint.Listener, LayoutListener {
+        final File file;
+        final long[] starts;
+        final long[] ends;
+
+        CircularFileWriter out;
+        ResumableMuxer muxer;
+
+        // the last stored checkpoint, or the checkpoint being resumed
+        PostprocessingCheckpoint last;
+
+        volatile boolean enabled = false;
+        volatile long protectedEnd = 0;// nothing can be overwritten until the first checkpoint
+
+        CheckpointSession(File file, long[] starts, long[] ends, PostprocessingCheckpoint resumeFrom) {
+            this.file = file;
+            this.starts = starts;
+            this.ends = ends;
+            this.last = resumeFrom;
+
+            if (resumeFrom != null) protectedEnd = getProtectedEnd(resumeFrom);
+        }
+
+        @Override
+        public boolean isCheckpointDue(long outputLength) {
+            return last == null || outputLength - last.muxer.outputLength >= CHECKPOINT_INTERVAL;
+        }
+
+        @Override
+        public void onCheckpoint(@NonNull MuxerCheckpoint checkpoint) throws IOException {
+            out.flush();
+
+            if (last == null) last = new PostprocessingCheckpoint(starts, ends, readHeaders());
+
+            last.muxer = checkpoint;
+            last.mainLength = out.getMainLength();
+            last.auxStart = 0;
+            last.auxLength = out.getAuxiliarLength();
+            last.write(file);
+
+            protectedEnd = getProtectedEnd(last);
+        }
+
+        @Override
+        public void onLayoutChanged(long mainLength, long auxStart, long auxLength) throws IOException {
+            if (last == null) return;
+
+            last.mainLength = mainLength;
+            last.auxStart = auxStart;
+            last.auxLength = auxLength;
+            last.write(file);
+        }
+
+        /**
+         * Reads the first bytes of every source, these are read again while parsing
+         */
+        private byte[][] readHeaders() throws IOException {
+            byte[][] headers = new byte[starts.length][];
+
+            try (SharpStream stream = mission.storage.getStream()) {
+                for (int i = 0; i < headers.length; i++) {
+                    headers[i] = new byte[(int) muxer.getHeaderLength(i)];
+                    stream.seek(starts[i]);
+
+                    int read = 0;
+                    while (read < headers[i].length) {
+                        int count = stream.read(headers[i], read, headers[i].length - read);
+                        if (count < 1) throw new EOFException("the header of the source " + i + " is truncated");
+                        read += count;
+                    }
+                }
+            }
+
+            return headers;
+        }
+
+        private long getProtectedEnd(PostprocessingCheckpoint checkpoint) {
+            long end = -1;
+
+            for (int i = 0; i < starts.length; i++) {
+                long offset = checkpoint.muxer.sourceOffsets[i];
+                if (offset < 0) continue;// the source is not read anymore
+
+                // the header is stored in the checkpoint
+                offset = starts[i] + Math.max(offset, checkpoint.headers[i].length);
+                if (end == -1 || offset < end) end = offset;
+            }
+
+            return end;
+        }
+    }
+
     @NonNull
     @Override
     public String toString() {
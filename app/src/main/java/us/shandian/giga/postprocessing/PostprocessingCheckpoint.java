@@ -0,0 +1,158 @@
+package us.shandian.giga.postprocessing;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.schabi.newpipe.streams.MuxerCheckpoint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary file holding the last checkpoint of a post-processing algorithm that works on the same
+ * file, see {@link org.schabi.newpipe.streams.ResumableMuxer}. A stopped algorithm continues from
+ * it instead of starting over. The file is small, so is written whole in a new file, which then
+ * replaces the previous one.
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ *   int     magic
+ *   int     version
+ *   long    length of the output stored in the download file
+ *   long    offset of the output in the temporal file, see {@link us.shandian.giga.io.CircularFileWriter.LayoutListener}
+ *   long    length of the output stored in the temporal file
+ *   long    length of the output, where the muxer continues writing
+ *   int     amount of sources
+ *   [amount of sources] {
+ *     long    start of the source in the download file
+ *     long    end of the source in the download file
+ *     long    offset where the source is read again, or -1 if is not read anymore
+ *     int     header length
+ *     byte[]  header, the first bytes of the source read again while parsing
+ *   }
+ *   int     length of the muxer state
+ *   byte[]  muxer state
+ * </pre>
+ */
+class PostprocessingCheckpoint {
+    private static final String TAG = "PostprocessingCheckpoint";
+
+    static final String EXTENSION = ".checkpoint";
+
+    private static final int MAGIC = 0x4E505043;// "NPPC"
+    private static final int VERSION = 1;
+
+    long mainLength;
+    long auxStart;
+    long auxLength;
+
+    final long[] starts;
+    final long[] ends;
+    final byte[][] headers;
+    MuxerCheckpoint muxer;
+
+    PostprocessingCheckpoint(long[] starts, long[] ends, byte[][] headers) {
+        this.starts = starts;
+        this.ends = ends;
+        this.headers = headers;
+    }
+
+    @NonNull
+    static File getFile(@NonNull File tempFile) {
+        return new File(tempFile.getPath() + EXTENSION);
+    }
+
+    /**
+     * Stores the checkpoint, the previous file is replaced only once the new one is synced
+     *
+     * @param file the checkpoint file
+     * @throws IOException if an I/O error occurs
+     */
+    void write(@NonNull File file) throws IOException {
+        File newFile = new File(file.getPath() + ".new");
+
+        try (FileOutputStream stream = new FileOutputStream(newFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mainLength);
+            out.writeLong(auxStart);
+            out.writeLong(auxLength);
+            out.writeLong(muxer.outputLength);
+            out.writeInt(starts.length);
+
+            for (int i = 0; i < starts.length; i++) {
+                out.writeLong(starts[i]);
+                out.writeLong(ends[i]);
+                out.writeLong(muxer.sourceOffsets[i]);
+                out.writeInt(headers[i].length);
+                out.write(headers[i]);
+            }
+
+            out.writeInt(muxer.state.length);
+            out.write(muxer.state);
+
+            out.flush();
+            stream.getFD().sync();
+        }
+
+        if (!newFile.renameTo(file)) throw new IOException("Cannot replace the checkpoint " + file.getName());
+    }
+
+    /**
+     * Loads a checkpoint
+     *
+     * @param file the checkpoint file
+     * @return the checkpoint, or {@code null} if is missing or unreadable
+     */
+    @Nullable
+    static PostprocessingCheckpoint read(@NonNull File file) {
+        if (!file.isFile()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+
+            long mainLength = in.readLong();
+            long auxStart = in.readLong();
+            long auxLength = in.readLong();
+            long outputLength = in.readLong();
+            int count = in.readInt();
+
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            long[] offsets = new long[count];
+            byte[][] headers = new byte[count][];
+
+            for (int i = 0; i < count; i++) {
+                starts[i] = in.readLong();
+                ends[i] = in.readLong();
+                offsets[i] = in.readLong();
+                headers[i] = new byte[in.readInt()];
+                in.readFully(headers[i]);
+            }
+
+            byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+
+            PostprocessingCheckpoint checkpoint = new PostprocessingCheckpoint(starts, ends, headers);
+            checkpoint.mainLength = mainLength;
+            checkpoint.auxStart = auxStart;
+            checkpoint.auxLength = auxLength;
+            checkpoint.muxer = new MuxerCheckpoint(outputLength, offsets, state);
+
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to read the checkpoint " + file.getName(), e);
+            return null;
+        }
+    }
+}
@@ -2,7 +2,7 @@ package us.shandian.giga.postprocessing;
 
 import android.util.Log;
 
-import org.schabi.newpipe.streams.SrtFromTtmlWriter;
+import org.schabi.newpipe.streams.SrtFromTtmlStreamWriter;
 import org.schabi.newpipe.streams.io.SharpStream;
 
 import java.io.IOException;
@@ -14,7 +14,7 @@ class TtmlConverter extends Postprocessing {
     private static final String TAG = "TtmlConverter";
 
     TtmlConverter() {
-        // due how XmlPullParser works, the xml is fully loaded on the ram
+        // the xml is parsed while is read, the frames are written as soon as they end
         super(false, true, ALGORITHM_TTML_CONVERTER);
     }
 
@@ -25,7 +25,7 @@ class TtmlConverter extends Postprocessing {
         boolean ignoreEmptyFrames = getArgumentAt(1, "true").equals("true");
 
         if (format == null || format.equals("ttml")) {
-            SrtFromTtmlWriter writer = new SrtFromTtmlWriter(out, ignoreEmptyFrames);
+            SrtFromTtmlStreamWriter writer = new SrtFromTtmlStreamWriter(out, ignoreEmptyFrames);
 
             try {
                 writer.build(sources[0]);
@@ -36,6 +36,8 @@ class WebMMuxer extends Postprocessing {
         }
 
         muxer.selectTracks(indexes);
+        muxer.setParallel(PARALLEL);
+        checkpoint(muxer);
         muxer.build(out);
 
         return OK_RESULT;
@@ -16,8 +16,11 @@ import java.util.Comparator;
 import java.util.List;
 
 import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.get.DownloadScheduler;
 import us.shandian.giga.get.FinishedMission;
 import us.shandian.giga.get.Mission;
+import us.shandian.giga.get.MissionCheckpoint;
+import us.shandian.giga.get.MissionWorker;
 import us.shandian.giga.get.sqlite.FinishedMissionStore;
 import org.schabi.newpipe.streams.io.StoredDirectoryHelper;
 import org.schabi.newpipe.streams.io.StoredFileHelper;
@@ -45,6 +48,7 @@ public class DownloadManager {
 
     private final Handler mHandler;
     private final File mPendingMissionsDir;
+    private final DownloadScheduler mScheduler;
 
     private NetworkState mLastNetworkStatus = NetworkState.Unavailable;
 
@@ -69,6 +73,7 @@ public class DownloadManager {
 
         mFinishedMissionStore = new FinishedMissionStore(context);
         mHandler = handler;
+        mScheduler = new DownloadScheduler();
         mMainStorageAudio = storageAudio;
         mMainStorageVideo = storageVideo;
         mMissionsFinished = loadFinishedMissions();
@@ -148,14 +153,30 @@ public class DownloadManager {
             if (!sub.isFile()) continue;
             if (sub.getName().equals(".tmp")) continue;
 
+            if (sub.getName().endsWith(MissionCheckpoint.EXTENSION)) {
+                String name = sub.getName();
+                File owner = new File(sub.getParentFile(), name.substring(0, name.length() - MissionCheckpoint.EXTENSION.length()));
+
+                // forget checkpoints whose mission was removed
+                //noinspection ResultOfMethodCallIgnored
+                if (!owner.isFile()) sub.delete();
+                continue;
+            }
+
             DownloadMission mis = Utility.readFromFile(sub);
+            if (mis != null && !MissionCheckpoint.restore(mis, sub) && DEBUG) {
+                Log.d(TAG, "no checkpoint found, using the serialized progress of " + sub.getName());
+            }
+
             if (mis == null || mis.isFinished() || mis.hasInvalidStorage()) {
                 //noinspection ResultOfMethodCallIgnored
                 sub.delete();
+                //noinspection ResultOfMethodCallIgnored
+                MissionCheckpoint.getFile(sub).delete();
                 continue;
             }
 
-            mis.threads = new Thread[0];
+            mis.threads = new MissionWorker[0];
 
             boolean exists;
             try {
@@ -168,7 +189,7 @@ public class DownloadManager {
             }
 
             if (mis.isPsRunning()) {
-                if (mis.psAlgorithm.worksOnSameFile) {
+                if (mis.psAlgorithm.worksOnSameFile && !mis.psAlgorithm.isResumable()) {
                     // Incomplete post-processing results in a corrupted download file
                     // because the selected algorithm works on the same file to save space.
                     // the file will be deleted if the storage API
@@ -187,7 +208,7 @@ public class DownloadManager {
                     mis.resetState(true, true, DownloadMission.ERROR_PROGRESS_LOST);
             }
 
-            if (mis.psAlgorithm != null) {
+            if (mis.psAlgorithm != null && !mis.psAlgorithm.isResumable()) {
                 mis.psAlgorithm.cleanupTemporalDir();
                 mis.psAlgorithm.setTemporalDir(tempDir);
             }
@@ -195,6 +216,7 @@ public class DownloadManager {
             mis.metadata = sub;
             mis.maxRetry = mPrefMaxRetry;
             mis.mHandler = mHandler;
+            mis.scheduler = mScheduler;
 
             mMissionsPending.add(mis);
         }
@@ -212,12 +234,16 @@ public class DownloadManager {
         synchronized (this) {
             mission.timestamp = System.currentTimeMillis();
             mission.mHandler = mHandler;
+            mission.scheduler = mScheduler;
             mission.maxRetry = mPrefMaxRetry;
 
             // create metadata file
             while (true) {
                 mission.metadata = new File(mPendingMissionsDir, String.valueOf(mission.timestamp));
                 if (!mission.metadata.isFile() && !mission.metadata.exists()) {
+                    // remove any leftover checkpoint, otherwise, will be restored on the next load
+                    //noinspection ResultOfMethodCallIgnored
+                    MissionCheckpoint.getFile(mission.metadata).delete();
                     try {
                         if (!mission.metadata.createNewFile())
                             throw new RuntimeException("Cant create download metadata file");
@@ -394,7 +420,7 @@ public class DownloadManager {
                 if (force) {
                     // avoid waiting for threads
                     mission.init = null;
-                    mission.threads = new Thread[0];
+                    mission.threads = new MissionWorker[0];
                 }
 
                 mission.pause();
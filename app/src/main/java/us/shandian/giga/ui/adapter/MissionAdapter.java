@@ -238,7 +238,7 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
         if (h == null || h.item == null || h.item.mission instanceof FinishedMission) return;
 
         DownloadMission mission = (DownloadMission) h.item.mission;
-        double done = mission.done;
+        double done = mission.getDone();
         long length = mission.getLength();
         long now = System.currentTimeMillis();
         boolean hasError = mission.errCode != ERROR_NOTHING;
@@ -0,0 +1,162 @@
+package org.schabi.newpipe.streams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import us.shandian.giga.io.ChunkFileInputStream;
+import us.shandian.giga.io.FileStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DataReaderTest {
+    /**
+     * Larger than two windows of the mapped reads.
+     */
+    private static final int LENGTH = 17 * 1024 * 1024 + 1234;
+    private static final int WINDOW = 8 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createFile(final byte[] data) throws IOException {
+        final File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static byte[] randomData() {
+        final byte[] data = new byte[LENGTH];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Reads primitives straddling the window boundaries, and a byte range spanning a window.
+     */
+    private static void readAll(final DataReader reader, final byte[] data) throws IOException {
+        final ByteBuffer expected = ByteBuffer.wrap(data);
+
+        assertEquals(WINDOW - 2, reader.skipBytes(WINDOW - 2));
+        assertEquals(expected.getInt(WINDOW - 2), reader.readInt());
+        assertEquals(expected.getShort(WINDOW + 2), reader.readShort());
+        assertEquals(expected.getLong(WINDOW + 4), reader.readLong());
+        assertEquals(WINDOW + 12, reader.position());
+
+        final byte[] range = new byte[WINDOW + 100];
+        assertEquals(range.length, reader.read(range));
+        assertArrayEquals(Arrays.copyOfRange(data, WINDOW + 12, WINDOW * 2 + 112), range);
+
+        final int remaining = LENGTH - (WINDOW * 2 + 112);
+        assertEquals(remaining - 1, reader.skipBytes(remaining - 1));
+        assertTrue(reader.available());
+        assertEquals(data[LENGTH - 1] & 0xFF, reader.read());
+
+        assertFalse(reader.available());
+        assertEquals(-1, reader.read());
+        assertEquals(0, reader.skipBytes(10));
+        assertEquals(LENGTH, reader.position());
+    }
+
+    @Test
+    public void readsMappedWindows() throws IOException {
+        final byte[] data = randomData();
+
+        try (FileStream stream = new FileStream(createFile(data))) {
+            final DataReader reader = new DataReader(stream);
+            readAll(reader, data);
+
+            // the first window is mapped again
+            reader.rewind();
+            assertEquals(ByteBuffer.wrap(data).getLong(0), reader.readLong());
+        }
+    }
+
+    @Test
+    public void readsMappedChunk() throws IOException {
+        final byte[] data = randomData();
+        final int offset = 1000;
+
+        try (ChunkFileInputStream stream = new ChunkFileInputStream(
+                new FileStream(createFile(data)), offset, LENGTH, null)) {
+            assertTrue(stream.canMap());
+
+            final DataReader reader = new DataReader(stream);
+            assertEquals(ByteBuffer.wrap(data).getInt(offset), reader.readInt());
+            assertEquals(LENGTH - offset - 4, reader.skipBytes(LENGTH));
+            assertFalse(reader.available());
+        }
+    }
+
+    @Test
+    public void readsBufferedWhenNotMappable() throws IOException {
+        final byte[] data = randomData();
+
+        // a chunk still being written can not be mapped
+        try (ChunkFileInputStream stream = new ChunkFileInputStream(
+                new FileStream(createFile(data)), 0, LENGTH, null, position -> LENGTH)) {
+            assertFalse(stream.canMap());
+
+            final DataReader reader = new DataReader(stream);
+            assertEquals(WINDOW, reader.skipBytes(WINDOW));
+            assertEquals(ByteBuffer.wrap(data).getInt(WINDOW), reader.readInt());
+
+            final byte[] range = new byte[100];
+            assertEquals(range.length, reader.read(range));
+            assertArrayEquals(Arrays.copyOfRange(data, WINDOW + 4, WINDOW + 104), range);
+        }
+    }
+
+    @Test
+    public void readsAfterShortReads() throws IOException {
+        final byte[] data = randomData();
+        final int step = 1000;
+
+        // a chunk being written returns a few bytes on each read, see PostprocessingPipeline
+        try (ChunkFileInputStream stream = new ChunkFileInputStream(new FileStream(
+                createFile(data)), 0, LENGTH, null, position -> position + step)) {
+            final DataReader reader = new DataReader(stream);
+            final ByteBuffer expected = ByteBuffer.wrap(data);
+
+            assertEquals(expected.getInt(0), reader.readInt());
+            assertEquals(data[4] & 0xFF, reader.read());
+
+            final byte[] range = new byte[step * 3];
+            int read = 0;
+            while (read < range.length) {
+                final int count = reader.read(range, read, range.length - read);
+                assertTrue(count > 0);
+                read += count;
+            }
+            assertArrayEquals(Arrays.copyOfRange(data, 5, 5 + range.length), range);
+
+            assertEquals(expected.getLong(5 + range.length), reader.readLong());
+        }
+    }
+
+    @Test
+    public void readsLongWithLowWordBit31Set() throws IOException {
+        final long value = 0x12345678_9ABCDEF0L;
+        final byte[] data = ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+        final File file = createFile(data);
+
+        try (FileStream stream = new FileStream(file)) {
+            assertEquals(value, new DataReader(stream).readLong());
+        }
+
+        try (ChunkFileInputStream stream = new ChunkFileInputStream(
+                new FileStream(file), 0, data.length, null, position -> data.length)) {
+            assertEquals(value, new DataReader(stream).readLong());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.schabi.newpipe.streams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import us.shandian.giga.io.FileStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SrtFromTtmlStreamWriterTest {
+    private static final String TTML_HEADER = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>"
+            + "<tt xml:lang=\"en\" xmlns=\"http://www.w3.org/ns/ttml\"><body><div>";
+    private static final String TTML_FOOTER = "</div></body></tt>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String convertStreaming(final String ttml, final boolean ignoreEmptyFrames)
+            throws IOException {
+        final File source = folder.newFile();
+        final File target = folder.newFile();
+        Files.write(source.toPath(), ttml.getBytes(StandardCharsets.UTF_8));
+
+        try (FileStream in = new FileStream(source); FileStream out = new FileStream(target)) {
+            new SrtFromTtmlStreamWriter(out, ignoreEmptyFrames).build(in);
+        }
+        return new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private String convertJsoup(final String ttml, final boolean ignoreEmptyFrames)
+            throws IOException {
+        final File source = folder.newFile();
+        final File target = folder.newFile();
+        Files.write(source.toPath(), ttml.getBytes(StandardCharsets.UTF_8));
+
+        try (FileStream in = new FileStream(source); FileStream out = new FileStream(target)) {
+            new SrtFromTtmlWriter(out, ignoreEmptyFrames).build(in);
+        }
+        return new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void convertsFrames() throws IOException {
+        final String ttml = TTML_HEADER
+                + "<p begin=\"00:00:01.000\" end=\"00:00:02.500\">Hello<br/>world</p>"
+                + "<p begin=\"00:00:03.000\" end=\"00:00:04.000\"></p>"
+                + "<p begin=\"00:00:05.000\" end=\"00:00:06.000\">  spaced \n  text  </p>"
+                + TTML_FOOTER;
+
+        final String expected = "0\r\n00:00:01,000 --> 00:00:02,500\r\nHello\r\nworld\r\n\r\n"
+                + "1\r\n00:00:05,000 --> 00:00:06,000\r\n spaced text \r\n\r\n";
+        assertEquals(expected, convertStreaming(ttml, true));
+        assertEquals(convertJsoup(ttml, true), convertStreaming(ttml, true));
+        assertEquals(convertJsoup(ttml, false), convertStreaming(ttml, false));
+    }
+
+    @Test
+    public void acceptsHtmlEntities() throws IOException {
+        final String ttml = TTML_HEADER
+                + "<p begin=\"00:00:01.000\" end=\"00:00:02.000\">Tom&nbsp;&amp;&nbsp;Jerry</p>"
+                + "<p begin=\"00:00:03.000\" end=\"00:00:04.000\">Wait&hellip; &ldquo;what&rdquo;"
+                + "</p>"
+                + TTML_FOOTER;
+
+        final String expected = "0\r\n00:00:01,000 --> 00:00:02,000\r\nTom & Jerry\r\n\r\n"
+                + "1\r\n00:00:03,000 --> 00:00:04,000\r\nWait… “what”\r\n\r\n";
+        assertEquals(expected, convertStreaming(ttml, true));
+        assertEquals(convertJsoup(ttml, true), convertStreaming(ttml, true));
+    }
+
+    @Test
+    public void toleratesUnknownEntities() throws IOException {
+        final String ttml = TTML_HEADER
+                + "<p begin=\"00:00:01.000\" end=\"00:00:02.000\">a &unknown; b</p>"
+                + TTML_FOOTER;
+
+        // the parsers either keep or drop the unknown entity, but the frame is not lost
+        final String srt = convertStreaming(ttml, true);
+        assertTrue(srt, srt.startsWith("0\r\n00:00:01,000 --> 00:00:02,000\r\na "));
+        assertTrue(srt, srt.endsWith(" b\r\n\r\n"));
+    }
+}
@@ -0,0 +1,205 @@
+package us.shandian.giga.get;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MissionCheckpointTest {
+    private static final int BLOCK_SIZE = 512 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockedStatic<Log> log;
+    private File metadata;
+
+    @Before
+    public void setUp() throws IOException {
+        log = Mockito.mockStatic(Log.class);
+        metadata = folder.newFile();
+    }
+
+    @After
+    public void tearDown() {
+        log.close();
+    }
+
+    private static DownloadMission newMission() {
+        DownloadMission mission = new DownloadMission(
+                new String[]{"https://example.com/video", "https://example.com/audio"}, null, 'v', null
+        );
+        mission.current = 1;
+        mission.blockSize = BLOCK_SIZE;
+        mission.length = 10L * BLOCK_SIZE - 100;
+        mission.done = 3L * BLOCK_SIZE + 1000;
+        mission.offsets = new long[]{0, 123456789012L};
+        mission.blocks = new int[]{-1, -1, 4096, 0, -1, 0, 0, 0, 0, 0};
+        mission.splits = new int[]{
+                2, BLOCK_SIZE / 2, 100,
+                3, BLOCK_SIZE / 4, -1
+        };
+        return mission;
+    }
+
+    private DownloadMission restore() {
+        DownloadMission mission = new DownloadMission(new String[]{"a", "b"}, null, 'v', null);
+        assertTrue(MissionCheckpoint.restore(mission, metadata));
+        return mission;
+    }
+
+    private static void assertProgressEquals(DownloadMission expected, DownloadMission actual) {
+        assertEquals(expected.current, actual.current);
+        assertEquals(expected.blockSize, actual.blockSize);
+        assertEquals(expected.length, actual.length);
+        assertEquals(expected.done, actual.done);
+        assertEquals(expected.unknownLength, actual.unknownLength);
+        assertEquals(expected.fallbackResumeOffset, actual.fallbackResumeOffset);
+        assertArrayEquals(expected.offsets, actual.offsets);
+        assertArrayEquals(expected.blocks, actual.blocks);
+        assertArrayEquals(expected.splits, actual.splits);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        DownloadMission mission = newMission();
+        mission.unknownLength = true;
+        mission.fallbackResumeOffset = 777;
+
+        MissionCheckpoint checkpoint = new MissionCheckpoint(metadata);
+        checkpoint.write(mission, true);
+        checkpoint.close();
+
+        assertProgressEquals(mission, restore());
+    }
+
+    @Test
+    public void roundTripWithoutBlocks() throws IOException {
+        DownloadMission mission = newMission();
+        mission.blocks = null;
+        mission.splits = null;
+
+        MissionCheckpoint checkpoint = new MissionCheckpoint(metadata);
+        checkpoint.write(mission, true);
+        checkpoint.close();
+
+        DownloadMission restored = restore();
+        assertNull(restored.blocks);
+        assertNull(restored.splits);
+        assertProgressEquals(mission, restored);
+    }
+
+    @Test
+    public void writesModifiedEntriesInPlace() throws IOException {
+        DownloadMission mission = newMission();
+        MissionCheckpoint checkpoint = new MissionCheckpoint(metadata);
+        checkpoint.write(mission, true);
+
+        File file = MissionCheckpoint.getFile(metadata);
+        long size = file.length();
+
+        synchronized (mission.LOCK) {
+            mission.blocks[2] = -1;
+            mission.blocks[9] = 2048;
+            checkpoint.invalidateBlock(2);
+            checkpoint.invalidateBlock(9);
+            mission.splits[2] = 8192;
+            checkpoint.invalidateSplit(0);
+            mission.done += 4096;
+        }
+        checkpoint.write(mission, true);
+        checkpoint.close();
+
+        assertEquals(size, file.length());
+        assertProgressEquals(mission, restore());
+    }
+
+    @Test
+    public void storesStolenRanges() throws IOException {
+        DownloadMission mission = newMission();
+        MissionCheckpoint checkpoint = new MissionCheckpoint(metadata);
+        checkpoint.write(mission, true);
+
+        // an idle worker splits the block 5, see DownloadMission.stealBlock()
+        synchronized (mission.LOCK) {
+            int index = mission.splits.length / DownloadMission.SPLIT_ENTRY_SIZE;
+            mission.splits = Arrays.copyOf(mission.splits, mission.splits.length + DownloadMission.SPLIT_ENTRY_SIZE);
+            mission.splits[index * DownloadMission.SPLIT_ENTRY_SIZE] = 5;
+            mission.splits[index * DownloadMission.SPLIT_ENTRY_SIZE + 1] = BLOCK_SIZE / 2;
+            mission.splits[index * DownloadMission.SPLIT_ENTRY_SIZE + 2] = 0;
+        }
+        checkpoint.write(mission, false);
+
+        // progress of the stolen range only
+        synchronized (mission.LOCK) {
+            mission.splits[2 * DownloadMission.SPLIT_ENTRY_SIZE + 2] = 65536;
+            checkpoint.invalidateSplit(2);
+        }
+        checkpoint.write(mission, true);
+        checkpoint.close();
+
+        DownloadMission restored = restore();
+        assertEquals(3 * DownloadMission.SPLIT_ENTRY_SIZE, restored.splits.length);
+        assertProgressEquals(mission, restored);
+    }
+
+    @Test
+    public void writesAgainAfterClose() throws IOException {
+        DownloadMission mission = newMission();
+        MissionCheckpoint checkpoint = new MissionCheckpoint(metadata);
+        checkpoint.write(mission, true);
+        checkpoint.close();
+
+        synchronized (mission.LOCK) {
+            mission.blocks[3] = 1024;
+            checkpoint.invalidateBlock(3);
+        }
+        checkpoint.write(mission, true);
+        checkpoint.close();
+
+        assertProgressEquals(mission, restore());
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws IOException {
+        MissionCheckpoint checkpoint = new MissionCheckpoint(metadata);
+        checkpoint.write(newMission(), true);
+        checkpoint.close();
+
+        File file = MissionCheckpoint.getFile(metadata);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 4);
+        }
+
+        DownloadMission mission = new DownloadMission(new String[]{"a", "b"}, null, 'v', null);
+        assertFalse(MissionCheckpoint.restore(mission, metadata));
+        assertNull(mission.blocks);
+    }
+
+    @Test
+    public void ignoresWritesAfterDelete() throws IOException {
+        MissionCheckpoint checkpoint = new MissionCheckpoint(metadata);
+        checkpoint.write(newMission(), true);
+
+        assertTrue(checkpoint.delete());
+        checkpoint.write(newMission(), true);
+
+        assertFalse(MissionCheckpoint.getFile(metadata).exists());
+    }
+}
@@ -0,0 +1,84 @@
+package org.schabi.newpipe.streams;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Big-endian writer used to generate the synthetic media files of the benchmarks.
+ */
+final class FixtureOutput extends ByteArrayOutputStream {
+    // pool of random bytes, used as sample data (the content is never decoded)
+    private static final byte[] PAYLOAD = new byte[1024 * 1024];
+
+    static {
+        new Random(0x4E657750).nextBytes(PAYLOAD);
+    }
+
+    FixtureOutput() {
+        super(1024);
+    }
+
+    FixtureOutput(final int capacity) {
+        super(capacity);
+    }
+
+    FixtureOutput putByte(final int value) {
+        write(value);
+        return this;
+    }
+
+    FixtureOutput putShort(final int value) {
+        write(value >>> 8);
+        write(value);
+        return this;
+    }
+
+    FixtureOutput putInt(final int value) {
+        write(value >>> 24);
+        write(value >>> 16);
+        write(value >>> 8);
+        write(value);
+        return this;
+    }
+
+    FixtureOutput putLong(final long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+        return this;
+    }
+
+    FixtureOutput put(final byte[] buffer) {
+        write(buffer, 0, buffer.length);
+        return this;
+    }
+
+    FixtureOutput putZeros(final int count) {
+        for (int i = 0; i < count; i++) {
+            write(0);
+        }
+        return this;
+    }
+
+    FixtureOutput putAscii(final String text) {
+        return put(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes random bytes, taken from a random offset of the payload pool.
+     *
+     * @param length amount of bytes
+     * @param random source of the offsets
+     * @return this writer
+     */
+    FixtureOutput putPayload(final int length, final Random random) {
+        int remaining = length;
+        while (remaining > 0) {
+            final int offset = random.nextInt(PAYLOAD.length);
+            final int count = Math.min(remaining, PAYLOAD.length - offset);
+            write(PAYLOAD, offset, count);
+            remaining -= count;
+        }
+        return this;
+    }
+}
@@ -0,0 +1,157 @@
+package org.schabi.newpipe.streams;
+
+import org.schabi.newpipe.streams.io.SharpStream;
+
+import java.util.Arrays;
+
+/**
+ * Seekable {@link SharpStream} backed by a byte array, isolates the muxers from the storage.
+ */
+final class MemoryStream extends SharpStream {
+    private final boolean writable;
+    private byte[] buffer;
+    private int length;
+    private int position;
+    private boolean closed;
+
+    /**
+     * Creates a read-only stream over the given data, the array is not copied.
+     *
+     * @param data the content of the stream
+     */
+    MemoryStream(final byte[] data) {
+        this.writable = false;
+        this.buffer = data;
+        this.length = data.length;
+    }
+
+    /**
+     * Creates an empty writable stream.
+     *
+     * @param capacity initial capacity
+     */
+    MemoryStream(final int capacity) {
+        this.writable = true;
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Empties the stream, keeping the allocated buffer.
+     */
+    void reset() {
+        length = 0;
+        position = 0;
+        closed = false;
+    }
+
+    @Override
+    public int read() {
+        return position < length ? buffer[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(final byte[] b) {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+
+        final int count = Math.min(len, length - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(final long amount) {
+        final int count = (int) Math.max(0, Math.min(amount, length - position));
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long available() {
+        return length - position;
+    }
+
+    @Override
+    public void rewind() {
+        position = 0;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean canRewind() {
+        return true;
+    }
+
+    @Override
+    public boolean canRead() {
+        return true;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return writable;
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void write(final byte value) {
+        ensureCapacity(position + 1);
+        buffer[position++] = value;
+        length = Math.max(length, position);
+    }
+
+    @Override
+    public void write(final byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int count) {
+        ensureCapacity(position + count);
+        System.arraycopy(b, off, buffer, position, count);
+        position += count;
+        length = Math.max(length, position);
+    }
+
+    @Override
+    public void seek(final long offset) {
+        position = (int) offset;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (!writable) {
+            throw new UnsupportedOperationException("read-only stream");
+        }
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.schabi.newpipe.streams;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic fragmented MPEG-4 (DASH) files with the layout served by YouTube:
+ * a ftyp box, a moov box describing one track, and a moof/mdat pair per fragment.
+ * Only the container structure is meaningful, the samples are filled with random bytes.
+ */
+final class Mp4Fixtures {
+    private static final int ATOM_FTYP = 0x66747970;
+    private static final int ATOM_MOOV = 0x6D6F6F76;
+    private static final int ATOM_MVHD = 0x6D766864;
+    private static final int ATOM_TRAK = 0x7472616B;
+    private static final int ATOM_TKHD = 0x746B6864;
+    private static final int ATOM_MDIA = 0x6D646961;
+    private static final int ATOM_MDHD = 0x6D646864;
+    private static final int ATOM_HDLR = 0x68646C72;
+    private static final int ATOM_MINF = 0x6D696E66;
+    private static final int ATOM_VMHD = 0x766D6864;
+    private static final int ATOM_SMHD = 0x736D6864;
+    private static final int ATOM_DINF = 0x64696E66;
+    private static final int ATOM_DREF = 0x64726566;
+    private static final int ATOM_URL = 0x75726C20;
+    private static final int ATOM_STBL = 0x7374626C;
+    private static final int ATOM_STSD = 0x73747364;
+    private static final int ATOM_STTS = 0x73747473;
+    private static final int ATOM_STSC = 0x73747363;
+    private static final int ATOM_STSZ = 0x7374737A;
+    private static final int ATOM_STCO = 0x7374636F;
+    private static final int ATOM_AVC1 = 0x61766331;
+    private static final int ATOM_AVCC = 0x61766343;
+    private static final int ATOM_MP4A = 0x6D703461;
+    private static final int ATOM_ESDS = 0x65736473;
+    private static final int ATOM_MVEX = 0x6D766578;
+    private static final int ATOM_TREX = 0x74726578;
+    private static final int ATOM_MOOF = 0x6D6F6F66;
+    private static final int ATOM_MFHD = 0x6D666864;
+    private static final int ATOM_TRAF = 0x74726166;
+    private static final int ATOM_TFHD = 0x74666864;
+    private static final int ATOM_TFDT = 0x74666474;
+    private static final int ATOM_TRUN = 0x7472756E;
+    private static final int ATOM_MDAT = 0x6D646174;
+
+    private static final int HANDLER_VIDE = 0x76696465;
+    private static final int HANDLER_SOUN = 0x736F756E;
+
+    // 1080p at 30 fps, a keyframe every 2 seconds
+    private static final int VIDEO_TIMESCALE = 90000;
+    private static final int VIDEO_SAMPLE_DURATION = 3000;
+    private static final int VIDEO_SAMPLES_PER_FRAGMENT = 60;
+    private static final int VIDEO_WIDTH = 1920;
+    private static final int VIDEO_HEIGHT = 1080;
+
+    // AAC-LC at 44.1 kHz, fragments of ~5 seconds
+    private static final int AUDIO_TIMESCALE = 44100;
+    private static final int AUDIO_SAMPLE_DURATION = 1024;
+    private static final int AUDIO_SAMPLES_PER_FRAGMENT = 215;
+
+    // sample flags: sync sample, and non-sync sample depending on other samples
+    private static final int FLAGS_KEYFRAME = 0x02000000;
+    private static final int FLAGS_FRAME = 0x01010000;
+
+    private static final int[] MATRIX = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+
+    private Mp4Fixtures() {
+    }
+
+    /**
+     * @param length approximate size of the file
+     * @param seed   seed of the sample sizes and data
+     * @return a DASH video file, with one H.264 track
+     */
+    static byte[] video(final int length, final long seed) {
+        final Random random = new Random(seed);
+        final FixtureOutput out = new FixtureOutput(length + 1024 * 1024);
+
+        out.put(ftyp());
+        out.put(moov(HANDLER_VIDE, VIDEO_TIMESCALE, videoSampleEntry()));
+
+        final int[] sizes = new int[VIDEO_SAMPLES_PER_FRAGMENT];
+        long decodeTime = 0;
+        int sequence = 1;
+
+        while (out.size() < length) {
+            sizes[0] = 60000 + random.nextInt(20000);
+            for (int i = 1; i < sizes.length; i++) {
+                sizes[i] = 4000 + random.nextInt(12000);
+            }
+
+            fragment(out, sequence++, decodeTime, VIDEO_SAMPLE_DURATION, sizes, true, random);
+            decodeTime += (long) VIDEO_SAMPLE_DURATION * sizes.length;
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @param length approximate size of the file
+     * @param seed   seed of the sample sizes and data
+     * @return a DASH audio file, with one AAC track
+     */
+    static byte[] audio(final int length, final long seed) {
+        final Random random = new Random(seed);
+        final FixtureOutput out = new FixtureOutput(length + 1024 * 1024);
+
+        out.put(ftyp());
+        out.put(moov(HANDLER_SOUN, AUDIO_TIMESCALE, audioSampleEntry()));
+
+        final int[] sizes = new int[AUDIO_SAMPLES_PER_FRAGMENT];
+        long decodeTime = 0;
+        int sequence = 1;
+
+        while (out.size() < length) {
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = 300 + random.nextInt(150);
+            }
+
+            fragment(out, sequence++, decodeTime, AUDIO_SAMPLE_DURATION, sizes, false, random);
+            decodeTime += (long) AUDIO_SAMPLE_DURATION * sizes.length;
+        }
+
+        return out.toByteArray();
+    }
+
+    private static void fragment(final FixtureOutput out, final int sequence,
+                                 final long decodeTime, final int duration, final int[] sizes,
+                                 final boolean video, final Random random) {
+        // video samples: duration, size, flags and composition offset (B-frames)
+        // audio samples: duration and size, all of them are sync samples
+        final int trunFlags = video ? 0x0F01 : 0x0301;
+        final int rowSize = video ? 16 : 8;
+
+        final int trunSize = 8 + 12 + sizes.length * rowSize;
+        final int trafSize = 8 + 16 + 20 + trunSize;
+        final int moofSize = 8 + 16 + trafSize;
+
+        int dataSize = 0;
+        for (final int size : sizes) {
+            dataSize += size;
+        }
+
+        out.putInt(moofSize).putInt(ATOM_MOOF);
+        out.putInt(16).putInt(ATOM_MFHD).putInt(0).putInt(sequence);
+
+        out.putInt(trafSize).putInt(ATOM_TRAF);
+        out.putInt(16).putInt(ATOM_TFHD).putInt(0x020000).putInt(1); // default-base-is-moof
+        out.putInt(20).putInt(ATOM_TFDT).putInt(0x01000000).putLong(decodeTime);
+
+        out.putInt(trunSize).putInt(ATOM_TRUN).putInt(trunFlags).putInt(sizes.length);
+        out.putInt(moofSize + 8); // data offset, points to the mdat content
+
+        for (int i = 0; i < sizes.length; i++) {
+            out.putInt(duration);
+            out.putInt(sizes[i]);
+            if (video) {
+                out.putInt(i == 0 ? FLAGS_KEYFRAME : FLAGS_FRAME);
+                out.putInt(i % 2 == 0 ? duration * 2 : 0);
+            }
+        }
+
+        out.putInt(8 + dataSize).putInt(ATOM_MDAT);
+        for (final int size : sizes) {
+            out.putPayload(size, random);
+        }
+    }
+
+    private static byte[] ftyp() {
+        return box(ATOM_FTYP, new FixtureOutput()
+                .putAscii("dash")
+                .putInt(0)
+                .putAscii("iso6")
+                .putAscii("mp41")
+        );
+    }
+
+    private static byte[] moov(final int handler, final int timescale, final byte[] sampleEntry) {
+        final boolean video = handler == HANDLER_VIDE;
+
+        final FixtureOutput mvhd = new FixtureOutput()
+                .putInt(0) // version and flags
+                .putInt(0) // creation time
+                .putInt(0) // modification time
+                .putInt(1000) // timescale
+                .putInt(0) // duration
+                .putInt(0x00010000) // rate
+                .putShort(0x0100) // volume
+                .putZeros(10);
+        putMatrix(mvhd);
+        mvhd.putZeros(24).putInt(2); // next track id
+
+        final FixtureOutput tkhd = new FixtureOutput()
+                .putInt(0x03) // enabled and in movie
+                .putInt(0) // creation time
+                .putInt(0) // modification time
+                .putInt(1) // track id
+                .putInt(0)
+                .putInt(0) // duration, unknown in DASH files
+                .putZeros(8)
+                .putShort(0) // layer
+                .putShort(0) // alternate group
+                .putShort(video ? 0 : 0x0100) // volume
+                .putShort(0);
+        putMatrix(tkhd);
+        tkhd.putInt(video ? VIDEO_WIDTH << 16 : 0).putInt(video ? VIDEO_HEIGHT << 16 : 0);
+
+        final FixtureOutput mdhd = new FixtureOutput()
+                .putInt(0) // version and flags
+                .putInt(0) // creation time
+                .putInt(0) // modification time
+                .putInt(timescale)
+                .putInt(0) // duration
+                .putShort(0x55C4) // language "und"
+                .putShort(0);
+
+        final FixtureOutput hdlr = new FixtureOutput()
+                .putInt(0) // version and flags
+                .putInt(0) // pre-defined
+                .putInt(handler)
+                .putZeros(12)
+                .putByte(0); // empty name
+
+        final byte[] mhd = video
+                ? box(ATOM_VMHD, new FixtureOutput().putInt(0x01).putZeros(8))
+                : box(ATOM_SMHD, new FixtureOutput().putInt(0).putInt(0));
+
+        final byte[] dinf = box(ATOM_DINF, new FixtureOutput().put(
+                box(ATOM_DREF, new FixtureOutput()
+                        .putInt(0)
+                        .putInt(1)
+                        .put(box(ATOM_URL, new FixtureOutput().putInt(0x01)))
+                )
+        ));
+
+        final byte[] stbl = box(ATOM_STBL, new FixtureOutput()
+                .put(box(ATOM_STSD, new FixtureOutput().putInt(0).putInt(1).put(sampleEntry)))
+                .put(box(ATOM_STTS, new FixtureOutput().putInt(0).putInt(0)))
+                .put(box(ATOM_STSC, new FixtureOutput().putInt(0).putInt(0)))
+                .put(box(ATOM_STSZ, new FixtureOutput().putInt(0).putInt(0).putInt(0)))
+                .put(box(ATOM_STCO, new FixtureOutput().putInt(0).putInt(0)))
+        );
+
+        final byte[] mdia = box(ATOM_MDIA, new FixtureOutput()
+                .put(box(ATOM_MDHD, mdhd))
+                .put(box(ATOM_HDLR, hdlr))
+                .put(box(ATOM_MINF, new FixtureOutput().put(mhd).put(dinf).put(stbl)))
+        );
+
+        final byte[] mvex = box(ATOM_MVEX, new FixtureOutput().put(
+                box(ATOM_TREX, new FixtureOutput()
+                        .putInt(0) // version and flags
+                        .putInt(1) // track id
+                        .putInt(1) // sample description index
+                        .putInt(0) // sample duration
+                        .putInt(0) // sample size
+                        .putInt(0) // sample flags
+                )
+        ));
+
+        return box(ATOM_MOOV, new FixtureOutput()
+                .put(box(ATOM_MVHD, mvhd))
+                .put(box(ATOM_TRAK, new FixtureOutput().put(box(ATOM_TKHD, tkhd)).put(mdia)))
+                .put(mvex)
+        );
+    }
+
+    private static byte[] videoSampleEntry() {
+        final byte[] sps = {0x67, 0x64, 0x00, 0x28, (byte) 0xAC, (byte) 0xD9, 0x40, 0x78, 0x02,
+                0x27, (byte) 0xE5, (byte) 0xC0, 0x44, 0x00, 0x00, 0x03, 0x00, 0x04, 0x00, 0x00,
+                0x03, 0x00, (byte) 0xF0, 0x3C, 0x60, (byte) 0xC6, 0x58};
+        final byte[] pps = {0x68, (byte) 0xEB, (byte) 0xE3, (byte) 0xCB, 0x22, (byte) 0xC0};
+
+        final FixtureOutput avcc = new FixtureOutput()
+                .putByte(1) // configuration version
+                .putByte(0x64) // profile (High)
+                .putByte(0x00) // profile compatibility
+                .putByte(0x28) // level 4.0
+                .putByte(0xFF) // 4 bytes NAL unit length
+                .putByte(0xE1) // one SPS
+                .putShort(sps.length)
+                .put(sps)
+                .putByte(1) // one PPS
+                .putShort(pps.length)
+                .put(pps);
+
+        return box(ATOM_AVC1, new FixtureOutput()
+                .putZeros(6)
+                .putShort(1) // data reference index
+                .putZeros(16)
+                .putShort(VIDEO_WIDTH)
+                .putShort(VIDEO_HEIGHT)
+                .putInt(0x00480000) // 72 dpi
+                .putInt(0x00480000)
+                .putInt(0)
+                .putShort(1) // frame count
+                .putZeros(32) // compressor name
+                .putShort(0x18) // depth
+                .putShort(0xFFFF)
+                .put(box(ATOM_AVCC, avcc))
+        );
+    }
+
+    private static byte[] audioSampleEntry() {
+        // AAC-LC, 44.1 kHz, stereo
+        final byte[] descriptor = {0x03, 0x19, 0x00, 0x01, 0x00, 0x04, 0x11, 0x40, 0x15, 0x00,
+                0x00, 0x00, 0x00, 0x01, (byte) 0xF4, 0x00, 0x00, 0x01, (byte) 0xF4, 0x00, 0x05,
+                0x02, 0x12, 0x10, 0x06, 0x01, 0x02};
+
+        return box(ATOM_MP4A, new FixtureOutput()
+                .putZeros(6)
+                .putShort(1) // data reference index
+                .putZeros(8)
+                .putShort(2) // channels
+                .putShort(16) // sample size
+                .putShort(0)
+                .putShort(0)
+                .putInt(AUDIO_TIMESCALE << 16)
+                .put(box(ATOM_ESDS, new FixtureOutput().putInt(0).put(descriptor)))
+        );
+    }
+
+    private static void putMatrix(final FixtureOutput out) {
+        for (final int value : MATRIX) {
+            out.putInt(value);
+        }
+    }
+
+    private static byte[] box(final int type, final FixtureOutput content) {
+        return new FixtureOutput(content.size() + 8)
+                .putInt(content.size() + 8)
+                .putInt(type)
+                .put(content.toByteArray())
+                .toByteArray();
+    }
+}
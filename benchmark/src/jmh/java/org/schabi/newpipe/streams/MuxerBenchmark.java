@@ -0,0 +1,236 @@
+package org.schabi.newpipe.streams;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.schabi.newpipe.streams.io.SharpStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import us.shandian.giga.io.FileStream;
+
+/**
+ * Throughput of the muxers and demuxers used by the download post-processing, over synthetic
+ * files generated at setup. Every benchmark builds a whole file per operation.
+ * <p>
+ * The {@code megabytes} counter is the size of the sources processed, reported as MB/s. Use
+ * the {@code gc} profiler for the allocation rate, and {@link PeakHeapProfiler} for the peak
+ * heap usage (which includes the fixtures held in memory).
+ * <p>
+ * With {@code storage=memory} the sources and the output are byte arrays, this measures only
+ * the muxing. With {@code storage=file} they are files accessed through {@link FileStream}, like
+ * in the download manager.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class MuxerBenchmark {
+    private static final int MIB = 1024 * 1024;
+
+    // long auto-generated subtitles are near this size
+    private static final int TTML_LENGTH = 2 * MIB;
+
+    @Param({"memory", "file"})
+    public String storage;
+
+    /**
+     * Size of the video sources, the audio sources are 1/8 of this
+     */
+    @Param({"32"})
+    public int megabytes;
+
+    private File directory;
+    private Fixture dashVideo;
+    private Fixture dashAudio;
+    private Fixture webmVideo;
+    private Fixture webmAudio;
+    private Fixture ttml;
+
+    private MemoryStream memoryOutput;
+    private File fileOutput;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final int videoLength = megabytes * MIB;
+        final int audioLength = videoLength / 8;
+
+        if ("file".equals(storage)) {
+            directory = Files.createTempDirectory("newpipe-benchmark").toFile();
+            fileOutput = new File(directory, "output");
+        } else {
+            memoryOutput = new MemoryStream(videoLength + audioLength + MIB);
+        }
+
+        dashVideo = new Fixture("video.mp4", Mp4Fixtures.video(videoLength, 1));
+        dashAudio = new Fixture("audio.m4a", Mp4Fixtures.audio(audioLength, 2));
+        webmVideo = new Fixture("video.webm", WebMFixtures.video(videoLength, 3));
+        webmAudio = new Fixture("audio.webm", WebMFixtures.audio(audioLength, 4));
+        ttml = new Fixture("subtitles.ttml", TtmlFixtures.subtitles(TTML_LENGTH, 5));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (directory == null) {
+            return;
+        }
+
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+
+    @Benchmark
+    public void mp4FromDash(final Throughput throughput) throws IOException {
+        buildMp4(true, false);
+        throughput.add(dashVideo, dashAudio);
+    }
+
+    @Benchmark
+    public void mp4FromDashTwoPass(final Throughput throughput) throws IOException {
+        buildMp4(false, false);
+        throughput.add(dashVideo, dashAudio);
+    }
+
+    @Benchmark
+    public void mp4FromDashParallel(final Throughput throughput) throws IOException {
+        buildMp4(true, true);
+        throughput.add(dashVideo, dashAudio);
+    }
+
+    @Benchmark
+    public void webM(final Throughput throughput) throws IOException {
+        buildWebM(false);
+        throughput.add(webmVideo, webmAudio);
+    }
+
+    @Benchmark
+    public void webMParallel(final Throughput throughput) throws IOException {
+        buildWebM(true);
+        throughput.add(webmVideo, webmAudio);
+    }
+
+    @Benchmark
+    public void oggFromWebM(final Throughput throughput) throws IOException {
+        final OggFromWebMWriter demuxer = new OggFromWebMWriter(webmAudio.open(), openOutput());
+        demuxer.parseSource();
+        demuxer.selectTrack(0);
+        demuxer.build();
+        demuxer.close();
+
+        throughput.add(webmAudio);
+    }
+
+    @Benchmark
+    public void srtFromTtml(final Throughput throughput) throws IOException {
+        final SharpStream output = openOutput();
+        final SharpStream source = ttml.open();
+        new SrtFromTtmlWriter(output, false).build(source);
+        source.close();
+        output.close();
+
+        throughput.add(ttml);
+    }
+
+    @Benchmark
+    public void srtFromTtmlStreaming(final Throughput throughput) throws IOException {
+        final SharpStream output = openOutput();
+        final SharpStream source = ttml.open();
+        new SrtFromTtmlStreamWriter(output, false).build(source);
+        source.close();
+        output.close();
+
+        throughput.add(ttml);
+    }
+
+    private void buildMp4(final boolean singlePass, final boolean parallel) throws IOException {
+        final SharpStream output = openOutput();
+        final Mp4FromDashWriter muxer = new Mp4FromDashWriter(dashVideo.open(), dashAudio.open());
+        muxer.parseSources();
+        muxer.selectTracks(0, 0);
+        muxer.setSinglePass(singlePass);
+        muxer.setParallel(parallel);
+        muxer.build(output);
+        muxer.close();
+        output.close();
+    }
+
+    private void buildWebM(final boolean parallel) throws IOException {
+        final SharpStream output = openOutput();
+        final WebMWriter muxer = new WebMWriter(webmVideo.open(), webmAudio.open());
+        muxer.parseSources();
+        muxer.selectTracks(0, 0);
+        muxer.setParallel(parallel);
+        muxer.build(output);
+        muxer.close();
+        output.close();
+    }
+
+    private SharpStream openOutput() throws IOException {
+        if (memoryOutput != null) {
+            memoryOutput.reset();
+            return memoryOutput;
+        }
+
+        if (fileOutput.exists() && !fileOutput.delete()) {
+            throw new IOException("cannot delete " + fileOutput);
+        }
+        return new FileStream(fileOutput);
+    }
+
+    /**
+     * Amount of megabytes read from the sources, JMH reports it as a rate (MB/s).
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+
+        void add(final Fixture... fixtures) {
+            for (final Fixture fixture : fixtures) {
+                megabytes += fixture.data.length / (double) MIB;
+            }
+        }
+    }
+
+    private final class Fixture {
+        final byte[] data;
+        final File file;
+
+        Fixture(final String name, final byte[] data) throws IOException {
+            this.data = data;
+
+            if (directory == null) {
+                this.file = null;
+            } else {
+                this.file = new File(directory, name);
+                Files.write(file.toPath(), data);
+            }
+        }
+
+        SharpStream open() throws IOException {
+            return file == null ? new MemoryStream(data) : new FileStream(file);
+        }
+    }
+}
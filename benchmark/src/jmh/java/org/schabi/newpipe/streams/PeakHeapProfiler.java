@@ -0,0 +1,55 @@
+package org.schabi.newpipe.streams;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Reports the peak heap usage of every iteration, as the sum of the peak usage of the heap
+ * memory pools. The pools do not reach their peak at the same time, so this is an upper bound.
+ * <p>
+ * Enable with {@code -prof org.schabi.newpipe.streams.PeakHeapProfiler}.
+ */
+public class PeakHeapProfiler implements InternalProfiler {
+    private static final double MIB = 1024 * 1024;
+
+    @Override
+    public String getDescription() {
+        return "Peak heap usage of every iteration";
+    }
+
+    @Override
+    public void beforeIteration(final BenchmarkParams benchmarkParams,
+                                final IterationParams iterationParams) {
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    @Override
+    public Collection<? extends Result<?>> afterIteration(final BenchmarkParams benchmarkParams,
+                                                          final IterationParams iterationParams,
+                                                          final IterationResult result) {
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return Collections.singletonList(
+                new ScalarResult("peak.heap", peak / MIB, "MiB", AggregationPolicy.MAX));
+    }
+}
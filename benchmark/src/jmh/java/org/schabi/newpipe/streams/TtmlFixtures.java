@@ -0,0 +1,75 @@
+package org.schabi.newpipe.streams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates synthetic TTML subtitles, similar to the ones served by YouTube.
+ */
+final class TtmlFixtures {
+    private static final String[] WORDS = {
+            "the", "video", "download", "and", "we", "are", "going", "to", "talk", "about",
+            "this", "really", "long", "subtitle", "line", "with", "some", "words", "in", "it",
+            "&amp;", "&quot;quoted&quot;", "café", "naïve", "über", "—"
+    };
+
+    private TtmlFixtures() {
+    }
+
+    /**
+     * @param length approximate size of the file
+     * @param seed   seed of the frames
+     * @return a TTML document, in UTF-8
+     */
+    static byte[] subtitles(final int length, final long seed) {
+        final Random random = new Random(seed);
+        final StringBuilder out = new StringBuilder(length + 1024);
+
+        out.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n")
+                .append("<tt xml:lang=\"en\" xmlns=\"http://www.w3.org/ns/ttml\"")
+                .append(" xmlns:ttp=\"http://www.w3.org/ns/ttml#parameter\"")
+                .append(" xmlns:tts=\"http://www.w3.org/ns/ttml#styling\" ttp:timeBase=\"media\">\n")
+                .append("<head><styling><style xml:id=\"s1\" tts:textAlign=\"center\"/></styling>")
+                .append("<layout><region xml:id=\"r1\" tts:origin=\"10% 80%\"/></layout></head>\n")
+                .append("<body style=\"s1\" region=\"r1\"><div>\n");
+
+        long time = 0;
+        while (out.length() < length) {
+            final long begin = time + random.nextInt(500);
+            final long end = begin + 1000 + random.nextInt(3000);
+            time = end;
+
+            out.append("<p begin=\"").append(timestamp(begin))
+                    .append("\" end=\"").append(timestamp(end)).append("\">");
+
+            // a few frames are empty, like the ones used to clear the screen
+            if (random.nextInt(20) != 0) {
+                final int lines = 1 + random.nextInt(2);
+                for (int i = 0; i < lines; i++) {
+                    if (i > 0) {
+                        out.append("<br/>");
+                    }
+                    final int words = 3 + random.nextInt(8);
+                    for (int j = 0; j < words; j++) {
+                        if (j > 0) {
+                            out.append(' ');
+                        }
+                        out.append(WORDS[random.nextInt(WORDS.length)]);
+                    }
+                }
+            }
+
+            out.append("</p>\n");
+        }
+
+        out.append("</div></body></tt>\n");
+
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String timestamp(final long millis) {
+        return String.format(Locale.ROOT, "%02d:%02d:%02d.%03d", millis / 3600000,
+                (millis / 60000) % 60, (millis / 1000) % 60, millis % 1000);
+    }
+}
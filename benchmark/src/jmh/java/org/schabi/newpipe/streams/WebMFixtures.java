@@ -0,0 +1,249 @@
+package org.schabi.newpipe.streams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates synthetic WebM files with the layout served by YouTube: the EBML header, and a
+ * segment holding the info, one track and the clusters of SimpleBlocks.
+ * Only the container structure is meaningful, the frames are filled with random bytes.
+ */
+final class WebMFixtures {
+    private static final int ID_EBML = 0x1A45DFA3;
+    private static final int ID_EBML_VERSION = 0x4286;
+    private static final int ID_EBML_READ_VERSION = 0x42F7;
+    private static final int ID_EBML_MAX_ID_LENGTH = 0x42F2;
+    private static final int ID_EBML_MAX_SIZE_LENGTH = 0x42F3;
+    private static final int ID_DOC_TYPE = 0x4282;
+    private static final int ID_DOC_TYPE_VERSION = 0x4287;
+    private static final int ID_DOC_TYPE_READ_VERSION = 0x4285;
+
+    private static final int ID_SEGMENT = 0x18538067;
+
+    private static final int ID_INFO = 0x1549A966;
+    private static final int ID_TIMECODE_SCALE = 0x2AD7B1;
+    private static final int ID_DURATION = 0x4489;
+    private static final int ID_MUXING_APP = 0x4D80;
+    private static final int ID_WRITING_APP = 0x5741;
+
+    private static final int ID_TRACKS = 0x1654AE6B;
+    private static final int ID_TRACK_ENTRY = 0xAE;
+    private static final int ID_TRACK_NUMBER = 0xD7;
+    private static final int ID_TRACK_UID = 0x73C5;
+    private static final int ID_FLAG_LACING = 0x9C;
+    private static final int ID_CODEC_ID = 0x86;
+    private static final int ID_CODEC_PRIVATE = 0x63A2;
+    private static final int ID_CODEC_DELAY = 0x56AA;
+    private static final int ID_SEEK_PRE_ROLL = 0x56BB;
+    private static final int ID_TRACK_TYPE = 0x83;
+    private static final int ID_DEFAULT_DURATION = 0x23E383;
+    private static final int ID_VIDEO = 0xE0;
+    private static final int ID_PIXEL_WIDTH = 0xB0;
+    private static final int ID_PIXEL_HEIGHT = 0xBA;
+    private static final int ID_AUDIO = 0xE1;
+    private static final int ID_SAMPLING_FREQUENCY = 0xB5;
+    private static final int ID_CHANNELS = 0x9F;
+
+    private static final int ID_CLUSTER = 0x1F43B675;
+    private static final int ID_TIMECODE = 0xE7;
+    private static final int ID_SIMPLE_BLOCK = 0xA3;
+
+    private static final long TIMECODE_SCALE = 1000000; // milliseconds
+
+    // VP9 1080p at 30 fps, a keyframe (and cluster) every 2 seconds
+    private static final int VIDEO_FPS = 30;
+    private static final int VIDEO_FRAMES_PER_CLUSTER = 60;
+    private static final long VIDEO_FRAME_DURATION = 1000000000L / VIDEO_FPS; // nanoseconds
+
+    // Opus at 48 kHz, frames of 20 milliseconds, clusters of 5 seconds
+    private static final int AUDIO_FRAMES_PER_CLUSTER = 250;
+    private static final int AUDIO_FRAME_DURATION = 20; // milliseconds
+
+    private WebMFixtures() {
+    }
+
+    /**
+     * @param length approximate size of the file
+     * @param seed   seed of the frame sizes and data
+     * @return a WebM file, with one VP9 track
+     */
+    static byte[] video(final int length, final long seed) {
+        final Random random = new Random(seed);
+        final FixtureOutput clusters = new FixtureOutput(length + 1024 * 1024);
+        long timecode = 0;
+
+        while (clusters.size() < length) {
+            final FixtureOutput cluster = new FixtureOutput(1024 * 1024);
+            element(cluster, ID_TIMECODE, uint(timecode));
+
+            for (int i = 0; i < VIDEO_FRAMES_PER_CLUSTER; i++) {
+                final int size = i == 0 ? 60000 + random.nextInt(20000)
+                        : 4000 + random.nextInt(12000);
+                simpleBlock(cluster, i * 1000 / VIDEO_FPS, i == 0, size, random);
+            }
+
+            element(clusters, ID_CLUSTER, cluster);
+            timecode += VIDEO_FRAMES_PER_CLUSTER * 1000L / VIDEO_FPS;
+        }
+
+        final FixtureOutput video = new FixtureOutput();
+        element(video, ID_PIXEL_WIDTH, uint(1920));
+        element(video, ID_PIXEL_HEIGHT, uint(1080));
+
+        final FixtureOutput track = new FixtureOutput();
+        element(track, ID_TRACK_NUMBER, uint(1));
+        element(track, ID_TRACK_UID, uint(seed & 0xFFFFFFFFL));
+        element(track, ID_FLAG_LACING, uint(0));
+        element(track, ID_CODEC_ID, ascii("V_VP9"));
+        element(track, ID_TRACK_TYPE, uint(1));
+        element(track, ID_DEFAULT_DURATION, uint(VIDEO_FRAME_DURATION));
+        element(track, ID_VIDEO, video);
+
+        return file(track, timecode, clusters);
+    }
+
+    /**
+     * @param length approximate size of the file
+     * @param seed   seed of the frame sizes and data
+     * @return a WebM file, with one Opus track
+     */
+    static byte[] audio(final int length, final long seed) {
+        final Random random = new Random(seed);
+        final FixtureOutput clusters = new FixtureOutput(length + 1024 * 1024);
+        long timecode = 0;
+
+        while (clusters.size() < length) {
+            final FixtureOutput cluster = new FixtureOutput(64 * 1024);
+            element(cluster, ID_TIMECODE, uint(timecode));
+
+            for (int i = 0; i < AUDIO_FRAMES_PER_CLUSTER; i++) {
+                simpleBlock(cluster, i * AUDIO_FRAME_DURATION, true, 140 + random.nextInt(60),
+                        random);
+            }
+
+            element(clusters, ID_CLUSTER, cluster);
+            timecode += (long) AUDIO_FRAMES_PER_CLUSTER * AUDIO_FRAME_DURATION;
+        }
+
+        // the sampling frequency must go first, OggFromWebMWriter looks for it in a hardcoded way
+        final FixtureOutput audio = new FixtureOutput();
+        element(audio, ID_SAMPLING_FREQUENCY, new FixtureOutput()
+                .putInt(Float.floatToIntBits(48000f)));
+        element(audio, ID_CHANNELS, uint(2));
+
+        final FixtureOutput opusHead = new FixtureOutput()
+                .putAscii("OpusHead")
+                .putByte(1) // version
+                .putByte(2) // channels
+                .putByte(0x38).putByte(0x01) // pre-skip (312 samples, little-endian)
+                .putByte(0x80).putByte(0xBB).putByte(0x00).putByte(0x00) // input sample rate
+                .putShort(0) // output gain
+                .putByte(0); // channel mapping family
+
+        final FixtureOutput track = new FixtureOutput();
+        element(track, ID_TRACK_NUMBER, uint(1));
+        element(track, ID_TRACK_UID, uint(seed & 0xFFFFFFFFL));
+        element(track, ID_FLAG_LACING, uint(0));
+        element(track, ID_CODEC_ID, ascii("A_OPUS"));
+        element(track, ID_CODEC_PRIVATE, opusHead);
+        element(track, ID_CODEC_DELAY, uint(6500000));
+        element(track, ID_SEEK_PRE_ROLL, uint(80000000));
+        element(track, ID_TRACK_TYPE, uint(2));
+        element(track, ID_AUDIO, audio);
+
+        return file(track, timecode, clusters);
+    }
+
+    private static byte[] file(final FixtureOutput track, final long duration,
+                               final FixtureOutput clusters) {
+        final FixtureOutput header = new FixtureOutput();
+        element(header, ID_EBML_VERSION, uint(1));
+        element(header, ID_EBML_READ_VERSION, uint(1));
+        element(header, ID_EBML_MAX_ID_LENGTH, uint(4));
+        element(header, ID_EBML_MAX_SIZE_LENGTH, uint(8));
+        element(header, ID_DOC_TYPE, ascii("webm"));
+        element(header, ID_DOC_TYPE_VERSION, uint(4));
+        element(header, ID_DOC_TYPE_READ_VERSION, uint(2));
+
+        final FixtureOutput info = new FixtureOutput();
+        element(info, ID_TIMECODE_SCALE, uint(TIMECODE_SCALE));
+        element(info, ID_MUXING_APP, ascii("NewPipe benchmark"));
+        element(info, ID_WRITING_APP, ascii("NewPipe benchmark"));
+        element(info, ID_DURATION, new FixtureOutput()
+                .putLong(Double.doubleToLongBits(duration)));
+
+        final FixtureOutput tracks = new FixtureOutput();
+        element(tracks, ID_TRACK_ENTRY, track);
+
+        final FixtureOutput segment = new FixtureOutput();
+        element(segment, ID_INFO, info);
+        element(segment, ID_TRACKS, tracks);
+
+        final FixtureOutput out = new FixtureOutput(clusters.size() + 4096);
+        element(out, ID_EBML, header);
+        putId(out, ID_SEGMENT);
+        putSize(out, segment.size() + clusters.size());
+        out.put(segment.toByteArray());
+        out.put(clusters.toByteArray());
+
+        return out.toByteArray();
+    }
+
+    private static void simpleBlock(final FixtureOutput out, final int relativeTimecode,
+                                    final boolean keyframe, final int size, final Random random) {
+        putId(out, ID_SIMPLE_BLOCK);
+        putSize(out, 4 + size);
+        out.putByte(0x81); // track number
+        out.putShort(relativeTimecode);
+        out.putByte(keyframe ? 0x80 : 0x00);
+        out.putPayload(size, random);
+    }
+
+    private static void element(final FixtureOutput out, final int id,
+                                final FixtureOutput content) {
+        putId(out, id);
+        putSize(out, content.size());
+        out.put(content.toByteArray());
+    }
+
+    private static void putId(final FixtureOutput out, final int id) {
+        if ((id & 0xFF000000) != 0) {
+            out.putInt(id);
+        } else if ((id & 0xFF0000) != 0) {
+            out.putByte(id >>> 16).putShort(id);
+        } else if ((id & 0xFF00) != 0) {
+            out.putShort(id);
+        } else {
+            out.putByte(id);
+        }
+    }
+
+    private static void putSize(final FixtureOutput out, final long size) {
+        // use the shortest encoding, all bits set is reserved for "unknown size"
+        int length = 1;
+        while (length < 8 && size >= (1L << (7 * length)) - 1) {
+            length++;
+        }
+
+        final long value = size | (1L << (7 * length));
+        for (int i = length - 1; i >= 0; i--) {
+            out.putByte((int) (value >>> (8 * i)));
+        }
+    }
+
+    private static FixtureOutput uint(final long value) {
+        final FixtureOutput out = new FixtureOutput();
+        int length = 1;
+        while (length < 8 && (value >>> (8 * length)) != 0) {
+            length++;
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            out.putByte((int) (value >>> (8 * i)));
+        }
+        return out;
+    }
+
+    private static FixtureOutput ascii(final String text) {
+        return new FixtureOutput().put(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}